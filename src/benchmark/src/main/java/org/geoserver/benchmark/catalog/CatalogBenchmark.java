@@ -0,0 +1,105 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.catalog;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.opengis.filter.Filter;
+
+/**
+ * Measures the catalog lookups that sit on the hot path of OWS requests (by name lookups) and of
+ * capabilities generation and the admin UI (filtered list and count) against synthetic catalogs of
+ * increasing size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+
+    @Param({ "10000", "100000" })
+    int layers;
+
+    Catalog catalog;
+
+    Filter workspaceFilter;
+
+    Filter enabledFilter;
+
+    /**
+     * Fixed seed, so that every run looks up the same sequence of names
+     */
+    Random random;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        catalog = SyntheticCatalog.build(layers);
+        workspaceFilter = Predicates.equal("resource.store.workspace.name",
+                SyntheticCatalog.workspaceName(3));
+        enabledFilter = Predicates.and(Predicates.equal("enabled", Boolean.TRUE),
+                Predicates.equal("advertised", Boolean.TRUE));
+        random = new Random(0);
+    }
+
+    @Benchmark
+    public LayerInfo getLayerByName() {
+        int i = random.nextInt(layers);
+        return catalog.getLayerByName(SyntheticCatalog.workspaceName(i % SyntheticCatalog.WORKSPACES)
+                + ":" + SyntheticCatalog.layerName(i));
+    }
+
+    @Benchmark
+    public ResourceInfo getResourceByName() {
+        int i = random.nextInt(layers);
+        return catalog.getResourceByName(SyntheticCatalog.workspaceName(i % SyntheticCatalog.WORKSPACES),
+                SyntheticCatalog.layerName(i), ResourceInfo.class);
+    }
+
+    @Benchmark
+    public int countLayersInWorkspace() {
+        return catalog.count(LayerInfo.class, workspaceFilter);
+    }
+
+    @Benchmark
+    public void listEnabledLayersSorted(Blackhole bh) {
+        try (CloseableIterator<LayerInfo> it = catalog.list(LayerInfo.class, enabledFilter, 0, 25,
+                Predicates.asc("name"))) {
+            while (it.hasNext()) {
+                bh.consume(it.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public void listAllLayers(Blackhole bh) {
+        try (CloseableIterator<LayerInfo> it = catalog.list(LayerInfo.class,
+                Predicates.acceptAll())) {
+            while (it.hasNext()) {
+                bh.consume(it.next().getName());
+            }
+        }
+    }
+}
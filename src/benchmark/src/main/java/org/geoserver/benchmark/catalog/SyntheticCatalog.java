@@ -0,0 +1,117 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.catalog;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.Keyword;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.ProjectionPolicy;
+import org.geoserver.catalog.PublishedType;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+
+/**
+ * Builds a synthetic, fully in memory catalog of a given size, used by the catalog benchmarks.
+ * <p>
+ * Layers are spread evenly across a fixed number of workspaces, each workspace holding a single
+ * data store. Every tenth layer is disabled and every fifth one is not advertised, so that
+ * filtered queries have something to discard.
+ * </p>
+ */
+public class SyntheticCatalog {
+
+    public static final int WORKSPACES = 20;
+
+    /**
+     * Creates a new {@link CatalogImpl} holding <code>layers</code> feature types and layers
+     */
+    public static Catalog build(int layers) {
+        return populate(new CatalogImpl(), layers);
+    }
+
+    /**
+     * Fills the given catalog with <code>layers</code> feature types and layers
+     */
+    public static Catalog populate(Catalog catalog, int layers) {
+        CatalogFactory factory = catalog.getFactory();
+
+        StyleInfo style = factory.createStyle();
+        style.setName("point");
+        style.setFilename("point.sld");
+        catalog.add(style);
+
+        WorkspaceInfo[] workspaces = new WorkspaceInfo[WORKSPACES];
+        NamespaceInfo[] namespaces = new NamespaceInfo[WORKSPACES];
+        DataStoreInfo[] stores = new DataStoreInfo[WORKSPACES];
+        for (int i = 0; i < WORKSPACES; i++) {
+            WorkspaceInfo ws = factory.createWorkspace();
+            ws.setName(workspaceName(i));
+            catalog.add(ws);
+            workspaces[i] = catalog.getWorkspaceByName(ws.getName());
+
+            NamespaceInfo ns = factory.createNamespace();
+            ns.setPrefix(ws.getName());
+            ns.setURI("http://geoserver.org/" + ws.getName());
+            catalog.add(ns);
+            namespaces[i] = catalog.getNamespaceByPrefix(ns.getPrefix());
+
+            DataStoreInfo ds = factory.createDataStore();
+            ds.setName(ws.getName() + "_store");
+            ds.setType("Properties");
+            ds.setEnabled(true);
+            ds.setWorkspace(workspaces[i]);
+            catalog.add(ds);
+            stores[i] = catalog.getDataStoreByName(workspaces[i], ds.getName());
+        }
+
+        ReferencedEnvelope bbox = new ReferencedEnvelope(-180, 180, -90, 90,
+                DefaultGeographicCRS.WGS84);
+        StyleInfo defaultStyle = catalog.getStyleByName("point");
+        for (int i = 0; i < layers; i++) {
+            int w = i % WORKSPACES;
+            FeatureTypeInfo ft = factory.createFeatureType();
+            ft.setName(layerName(i));
+            ft.setNativeName(ft.getName());
+            ft.setNamespace(namespaces[w]);
+            ft.setStore(stores[w]);
+            ft.setSRS("EPSG:4326");
+            ft.setNativeCRS(DefaultGeographicCRS.WGS84);
+            ft.setNativeBoundingBox(bbox);
+            ft.setLatLonBoundingBox(bbox);
+            ft.setProjectionPolicy(ProjectionPolicy.FORCE_DECLARED);
+            ft.setEnabled(i % 10 != 0);
+            ft.setAdvertised(i % 5 != 0);
+            ft.getKeywords().add(new Keyword("keyword" + (i % 100)));
+            catalog.add(ft);
+
+            LayerInfo layer = factory.createLayer();
+            layer.setResource(catalog.getFeatureTypeByName(namespaces[w], ft.getName()));
+            layer.setType(PublishedType.VECTOR);
+            layer.setDefaultStyle(defaultStyle);
+            catalog.add(layer);
+        }
+
+        return catalog;
+    }
+
+    public static String workspaceName(int i) {
+        return "ws" + i;
+    }
+
+    /**
+     * Returns the name of the i-th layer, which lives in the workspace at index
+     * <code>i % {@link #WORKSPACES}</code>
+     */
+    public static String layerName(int i) {
+        return "layer" + i;
+    }
+}
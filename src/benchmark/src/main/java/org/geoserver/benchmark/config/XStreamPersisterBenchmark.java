@@ -0,0 +1,88 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.benchmark.catalog.SyntheticCatalog;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.impl.ModificationProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the XML encoding throughput of the core catalog objects, comparing the reflection
+ * based converters with the precompiled marshalling plans of {@link XStreamPersister}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class XStreamPersisterBenchmark {
+
+    @Param({ "false", "true" })
+    boolean precompiled;
+
+    XStreamPersister persister;
+
+    LayerInfo layer;
+
+    FeatureTypeInfo featureType;
+
+    StyleInfo style;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Catalog catalog = SyntheticCatalog.build(100);
+        persister = new XStreamPersisterFactory().createXMLPersister();
+        persister.setCatalog(catalog);
+        persister.setPrecompiledConverters(precompiled);
+
+        String name = SyntheticCatalog.workspaceName(1) + ":" + SyntheticCatalog.layerName(1);
+        layer = ModificationProxy.unwrap(catalog.getLayerByName(name));
+        featureType = ModificationProxy.unwrap(catalog.getFeatureTypeByName(name));
+        style = ModificationProxy.unwrap(catalog.getStyleByName("point"));
+    }
+
+    @Benchmark
+    public int saveLayer() throws IOException {
+        return save(layer);
+    }
+
+    @Benchmark
+    public int saveFeatureType() throws IOException {
+        return save(featureType);
+    }
+
+    @Benchmark
+    public int saveStyle() throws IOException {
+        return save(style);
+    }
+
+    int save(Object object) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+        persister.save(object, out);
+        return out.size();
+    }
+}
@@ -0,0 +1,155 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.ows;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.ows.FlatKvpParser;
+import org.geoserver.ows.KvpParser;
+import org.geoserver.ows.kvp.BooleanKvpParser;
+import org.geoserver.ows.kvp.DoubleKvpParser;
+import org.geoserver.ows.kvp.FormatOptionsKvpParser;
+import org.geoserver.ows.kvp.IntegerKvpParser;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpParsingPlan;
+import org.geoserver.ows.util.KvpUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.wfs.kvp.BBoxKvpParser;
+import org.geoserver.wms.kvp.ColorKvpParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericApplicationContext;
+
+/**
+ * Measures the KVP normalization and parsing steps performed by the OWS Dispatcher for a typical
+ * GetMap tile request. The parsers are registered in a minimal application context so that the
+ * {@link GeoServerExtensions} lookup is part of what gets measured, like in a running server.
+ * <p>
+ * Run with <code>-prof gc</code> to get the per request allocation rate. The
+ * <code>normalizeAndParse</code> benchmark measures the parser lookup done by
+ * {@link KvpUtils#parse(Map)}, <code>normalizeAndParseWithPlan</code> the cached
+ * {@link KvpParsingPlan} used by the Dispatcher.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class KvpParsingBenchmark {
+
+    static final Map<String, String> GET_MAP = new HashMap<String, String>();
+    static {
+        GET_MAP.put("SERVICE", "WMS");
+        GET_MAP.put("VERSION", "1.1.1");
+        GET_MAP.put("REQUEST", "GetMap");
+        GET_MAP.put("LAYERS", "topp:states");
+        GET_MAP.put("STYLES", "");
+        GET_MAP.put("SRS", "EPSG:900913");
+        GET_MAP.put("BBOX", "-13149614.8,3757032.8,-12523442.7,4383204.9");
+        GET_MAP.put("WIDTH", "256");
+        GET_MAP.put("HEIGHT", "256");
+        GET_MAP.put("FORMAT", "image/png");
+        GET_MAP.put("TRANSPARENT", "true");
+        GET_MAP.put("TILED", "true");
+        GET_MAP.put("BGCOLOR", "0xFFFFFF");
+        GET_MAP.put("FORMAT_OPTIONS", "antialias:full;dpi:90");
+    }
+
+    GenericApplicationContext context;
+
+    Map<List<String>, KvpParsingPlan> plans = new ConcurrentHashMap<>();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        context = new GenericApplicationContext();
+        register("widthKvpParser", new IntegerKvpParser("width"));
+        register("heightKvpParser", new IntegerKvpParser("height"));
+        register("bufferKvpParser", new IntegerKvpParser("buffer"));
+        register("dpiKvpParser", new IntegerKvpParser("dpi"));
+        register("transparentKvpParser", new BooleanKvpParser("transparent"));
+        register("tiledKvpParser", new BooleanKvpParser("tiled"));
+        register("angleKvpParser", new DoubleKvpParser("angle"));
+        register("bgColorKvpParser", new ColorKvpParser("bgcolor"));
+        register("wmsFormatOptionsKvpParser", new FormatOptionsKvpParser());
+        register("wmsEnviromentKvpParser", new FormatOptionsKvpParser("env"));
+        FlatKvpParser styles = new FlatKvpParser("layers", String.class);
+        styles.setService("WMS");
+        styles.setRequest("GetStyles");
+        register("stylesKvpParser", styles);
+        // parsers from other services, which need to be purged on each request
+        BBoxKvpParser bbox = new BBoxKvpParser();
+        bbox.setService("WFS");
+        register("wfsBBoxKvpParser", bbox);
+        IntegerKvpParser maxFeatures = new IntegerKvpParser("maxFeatures");
+        maxFeatures.setService("WFS");
+        register("wfsMaxFeaturesKvpParser", maxFeatures);
+        context.refresh();
+
+        new GeoServerExtensions().setApplicationContext(context);
+    }
+
+    void register(String name, KvpParser parser) {
+        context.getBeanFactory().registerSingleton(name, parser);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        new GeoServerExtensions().setApplicationContext(null);
+        context.close();
+    }
+
+    @Benchmark
+    public KvpMap normalize() {
+        return KvpUtils.normalize(GET_MAP);
+    }
+
+    @Benchmark
+    public KvpMap normalizeAndParse() {
+        KvpMap kvp = KvpUtils.normalize(GET_MAP);
+        List<Throwable> errors = KvpUtils.parse(kvp);
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Unexpected parse errors " + errors);
+        }
+        return kvp;
+    }
+
+    @Benchmark
+    public KvpMap normalizeAndParseWithPlan() {
+        KvpMap kvp = KvpUtils.normalize(GET_MAP);
+        // same lookup as the Dispatcher
+        String service = KvpUtils.getSingleValue(kvp, "service");
+        String version = KvpUtils.getSingleValue(kvp, "version");
+        String request = KvpUtils.getSingleValue(kvp, "request");
+        List<String> key = Arrays.asList(service, version, request);
+        KvpParsingPlan plan = plans.get(key);
+        if (plan == null) {
+            plan = new KvpParsingPlan(GeoServerExtensions.extensions(KvpParser.class), service,
+                    version, request);
+            plans.put(key, plan);
+        }
+        List<Throwable> errors = plan.parse(kvp);
+        if (!errors.isEmpty()) {
+            throw new IllegalStateException("Unexpected parse errors " + errors);
+        }
+        return kvp;
+    }
+}
@@ -0,0 +1,95 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wfs;
+
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.wfs.json.GeoJSONBuilder;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+/**
+ * Measures GeoJSON encoding of a fixed GetFeature result, following the same sequence of
+ * {@link GeoJSONBuilder} calls used by the WFS GeoJSON output format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(1)
+public class GeoJSONBuilderBenchmark {
+
+    @Param({ "1000", "10000" })
+    int features;
+
+    @Param({ "5", "50" })
+    int vertices;
+
+    Geometry[] geometries;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        GeometryFactory gf = JTSFactoryFinder.getGeometryFactory();
+        Random random = new Random(0);
+        geometries = new Geometry[features];
+        for (int i = 0; i < features; i++) {
+            double x = random.nextDouble() * 360 - 180;
+            double y = random.nextDouble() * 180 - 90;
+            Coordinate[] coords = new Coordinate[vertices + 1];
+            for (int j = 0; j < vertices; j++) {
+                double angle = 2 * Math.PI * j / vertices;
+                coords[j] = new Coordinate(x + Math.cos(angle), y + Math.sin(angle));
+            }
+            coords[vertices] = coords[0];
+            geometries[i] = gf.createPolygon(coords);
+        }
+    }
+
+    @Benchmark
+    public int encodeFeatureCollection() {
+        StringWriter writer = new StringWriter(features * vertices * 40);
+        GeoJSONBuilder json = new GeoJSONBuilder(writer);
+        json.setNumberOfDecimals(8);
+        json.object().key("type").value("FeatureCollection");
+        json.key("totalFeatures").value(features);
+        json.key("features");
+        json.array();
+        for (int i = 0; i < geometries.length; i++) {
+            json.object();
+            json.key("type").value("Feature");
+            json.key("id").value("states." + i);
+            json.key("geometry");
+            json.writeGeom(geometries[i]);
+            json.key("geometry_name").value("the_geom");
+            json.key("properties");
+            json.object();
+            json.key("STATE_NAME").value("State " + i);
+            json.key("PERSONS").value(i * 1000d);
+            json.endObject();
+            json.endObject();
+        }
+        json.endArray();
+        json.endObject();
+        return writer.getBuffer().length();
+    }
+}
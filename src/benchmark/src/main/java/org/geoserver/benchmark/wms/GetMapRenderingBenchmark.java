@@ -0,0 +1,155 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wms;
+
+import java.awt.Color;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.wms.GetMapRequest;
+import org.geoserver.wms.MapLayerInfo;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.WMSMockData;
+import org.geoserver.wms.map.PNGMapResponse;
+import org.geoserver.wms.map.RenderedImageMap;
+import org.geoserver.wms.map.RenderedImageMapOutputFormat;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.Polygon;
+
+/**
+ * Measures a fixed 256x256 GetMap tile over a stack of in memory polygon layers, both the
+ * rendering step alone ({@link RenderedImageMapOutputFormat}) and rendering followed by PNG
+ * encoding ({@link PNGMapResponse}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class GetMapRenderingBenchmark {
+
+    @Param({ "1", "12" })
+    int layers;
+
+    @Param({ "1000" })
+    int featuresPerLayer;
+
+    WMSMockData mockData;
+
+    RenderedImageMapOutputFormat outputFormat;
+
+    PNGMapResponse pngResponse;
+
+    List<SimpleFeatureSource> sources;
+
+    List<Style> styles;
+
+    ByteArrayOutputStream output;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        mockData = new WMSMockData();
+        mockData.setUp();
+        outputFormat = new RenderedImageMapOutputFormat("image/png", mockData.getWMS());
+        pngResponse = new PNGMapResponse(mockData.getWMS());
+
+        GeometryFactory gf = JTSFactoryFinder.getGeometryFactory();
+        StyleBuilder sb = new StyleBuilder();
+        Random random = new Random(0);
+        sources = new ArrayList<SimpleFeatureSource>();
+        styles = new ArrayList<Style>();
+        for (int l = 0; l < layers; l++) {
+            MapLayerInfo layer = mockData.addFeatureTypeLayer("layer" + l, Polygon.class);
+            SimpleFeatureSource fs = (SimpleFeatureSource) layer.getFeature()
+                    .getFeatureSource(null, null);
+            SimpleFeatureType schema = fs.getSchema();
+            for (int i = 0; i < featuresPerLayer; i++) {
+                double x = random.nextDouble() * 350 - 175;
+                double y = random.nextDouble() * 170 - 85;
+                double size = random.nextDouble() * 5;
+                Polygon polygon = gf.createPolygon(new Coordinate[] { new Coordinate(x, y),
+                        new Coordinate(x + size, y), new Coordinate(x + size, y + size),
+                        new Coordinate(x, y + size), new Coordinate(x, y) });
+                mockData.addFeature(schema, new Object[] { "f" + i, polygon });
+            }
+
+            Color fill = new Color(random.nextInt(0xFFFFFF));
+            sources.add(fs);
+            styles.add(sb.createStyle(sb.createPolygonSymbolizer(fill, Color.BLACK, 1)));
+        }
+        output = new ByteArrayOutputStream(64 * 1024);
+    }
+
+    WMSMapContent buildMapContent() {
+        GetMapRequest request = mockData.createRequest();
+        request.setFormat("image/png");
+        request.setWidth(256);
+        request.setHeight(256);
+        request.setBbox(new Envelope(-90, 0, -45, 45));
+
+        WMSMapContent mapContent = new WMSMapContent(request);
+        mapContent.setMapWidth(256);
+        mapContent.setMapHeight(256);
+        mapContent.setTransparent(true);
+        mapContent.getViewport().setBounds(
+                new ReferencedEnvelope(-90, 0, -45, 45, DefaultGeographicCRS.WGS84));
+        // layers get disposed along with the map content, build new ones each time
+        for (int i = 0; i < sources.size(); i++) {
+            mapContent.addLayer(new FeatureLayer(sources.get(i), styles.get(i)));
+        }
+        return mapContent;
+    }
+
+    @Benchmark
+    public int render() throws Exception {
+        WMSMapContent mapContent = buildMapContent();
+        RenderedImageMap map = outputFormat.produceMap(mapContent);
+        try {
+            return map.getImage().getWidth();
+        } finally {
+            map.dispose();
+        }
+    }
+
+    @Benchmark
+    public int renderAndEncodePng() throws Exception {
+        WMSMapContent mapContent = buildMapContent();
+        RenderedImageMap map = outputFormat.produceMap(mapContent);
+        try {
+            output.reset();
+            pngResponse.formatImageOutputStream(map.getImage(), output, mapContent);
+            return output.size();
+        } finally {
+            map.dispose();
+        }
+    }
+}
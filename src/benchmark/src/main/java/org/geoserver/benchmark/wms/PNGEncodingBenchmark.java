@@ -0,0 +1,128 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.benchmark.wms;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.ImageUtils;
+import org.geoserver.wms.map.png.FastPNGWriter;
+import org.geoserver.wms.map.png.PNGJWriter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the PNGJ and the fast PNG encoders on a 256x256 basemap like tile (filled polygons,
+ * anti-aliased lines and a transparent background), both true color (png) and paletted (png8).
+ * The encoded tile size is reported as the "bytes" secondary metric. The filter parameter only
+ * applies to the fast encoder, PNGJ picks its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 10, time = 2)
+@Fork(1)
+public class PNGEncodingBenchmark {
+
+    @Param({ "png", "png8" })
+    String format;
+
+    @Param({ "PNGJ", "FAST" })
+    String encoder;
+
+    @Param({ "NONE", "SUB", "ADAPTIVE" })
+    String filter;
+
+    /**
+     * The deflate compression level, between 0 and 9
+     */
+    @Param({ "4" })
+    int compression;
+
+    RenderedImage tile;
+
+    WMSMapContent mapContent;
+
+    ByteArrayOutputStream output;
+
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class EncodedSize {
+
+        /**
+         * Size of the last encoded tile, the image and the settings do not change during a run
+         */
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BufferedImage image = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            Random random = new Random(0);
+            Color[] fills = { new Color(0xE0E8C8), new Color(0xAAD3DF), new Color(0xF2EFE9),
+                    new Color(0xC8FACC) };
+            for (int i = 0; i < 60; i++) {
+                graphics.setColor(fills[random.nextInt(fills.length)]);
+                graphics.fillRect(random.nextInt(256), random.nextInt(256),
+                        10 + random.nextInt(60), 10 + random.nextInt(60));
+            }
+            graphics.setStroke(new BasicStroke(2.5f));
+            for (int i = 0; i < 40; i++) {
+                graphics.setColor(i % 3 == 0 ? new Color(0xF9B29C) : Color.WHITE);
+                graphics.drawLine(random.nextInt(256), random.nextInt(256), random.nextInt(256),
+                        random.nextInt(256));
+            }
+        } finally {
+            graphics.dispose();
+        }
+
+        if ("png8".equals(format)) {
+            tile = ImageUtils.forceIndexed8Bitmask(image, null);
+        } else {
+            tile = image;
+        }
+        // no layers, PNGJ will use its default filter
+        mapContent = new WMSMapContent();
+        output = new ByteArrayOutputStream(256 * 1024);
+    }
+
+    @Benchmark
+    public int encode(EncodedSize size) throws Exception {
+        output.reset();
+        if ("FAST".equals(encoder)) {
+            new FastPNGWriter().writePNG(tile, output, compression,
+                    FastPNGWriter.Filter.valueOf(filter));
+        } else {
+            float quality = 1 - compression / 9f;
+            new PNGJWriter().writePNG(tile, output, quality, mapContent);
+        }
+        size.bytes = output.size();
+        return output.size();
+    }
+}
@@ -6,6 +6,7 @@
 package org.geoserver.flow;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -105,6 +106,20 @@ public class ControlFlowCallback extends AbstractDispatcherCallback implements A
         return runningRequests.get();
     }
 
+    /**
+     * Returns the flow controllers currently configured, as returned by the
+     * {@link FlowControllerProvider} for a request not yet known
+     */
+    public List<FlowController> getFlowControllers() {
+        try {
+            return provider == null ? Collections.<FlowController>emptyList()
+                    : provider.getFlowControllers(null);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not retrieve the flow controllers", e);
+            return Collections.emptyList();
+        }
+    }
+
     public Operation operationDispatched(Request request, Operation operation) {
         // if this request is nested, release the previous controllers and grab new ones
         // Nesting happens only with integrated GWC, sometimes the nested request is similar to the
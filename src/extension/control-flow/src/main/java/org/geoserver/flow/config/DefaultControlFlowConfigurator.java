@@ -16,19 +16,26 @@ import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.geoserver.catalog.Catalog;
 import org.geoserver.config.GeoServerPluginConfigurator;
 import org.geoserver.flow.ControlFlowConfigurator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
 import org.geoserver.flow.controller.CookieKeyGenerator;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController.PriorityClass;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.IpKeyGenerator;
 import org.geoserver.flow.controller.KeyGenerator;
 import org.geoserver.flow.controller.OWSRequestMatcher;
 import org.geoserver.flow.controller.RateFlowController;
+import org.geoserver.flow.controller.ServiceKeyGenerator;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserConcurrentFlowController;
+import org.geoserver.flow.controller.UserKeyGenerator;
+import org.geoserver.flow.controller.WorkspaceKeyGenerator;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.resource.Files;
@@ -108,6 +115,8 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator,
 
         Properties p = configFile.getProperties();
         List<FlowController> newControllers = new ArrayList<FlowController>();
+        String fairQueue = null;
+        List<PriorityClass> priorityClasses = new ArrayList<>();
         for (Object okey : p.keySet()) {
             String key = ((String) okey).trim();
             String value = (String) p.get(okey);
@@ -143,6 +152,19 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator,
             }
             if ("ows.global".equalsIgnoreCase(key)) {
                 controller = new GlobalFlowController(queueSize);
+            } else if ("ows.cost".equalsIgnoreCase(key)) {
+                controller = buildCostController(value);
+            } else if ("ows.fair".equalsIgnoreCase(key)) {
+                // built at the end, once all the priority classes are known
+                fairQueue = value;
+                continue;
+            } else if (keys.length >= 4 && "ows".equals(keys[0]) && "fair".equals(keys[1])
+                    && "priority".equals(keys[2])) {
+                PriorityClass pc = buildPriorityClass(keys, queueSize);
+                if (pc != null) {
+                    priorityClasses.add(pc);
+                    continue;
+                }
             } else if ("ows".equals(keys[0])) {
                 // todo: check, if possible, if the service, method and output format actually exist
                 if (keys.length >= 4) {
@@ -191,9 +213,88 @@ public class DefaultControlFlowConfigurator implements ControlFlowConfigurator,
             }
         }
 
+        if (fairQueue != null) {
+            FairQueueFlowController controller = buildFairQueueController(fairQueue,
+                    priorityClasses);
+            if (controller == null) {
+                LOGGER.severe("Could not parse rule 'ows.fair=" + fairQueue);
+            } else {
+                controller.getStatistics().register();
+                newControllers.add(controller);
+            }
+        } else if (!priorityClasses.isEmpty()) {
+            LOGGER.warning("Found ows.fair.priority rules, but no ows.fair rule, ignoring them");
+        }
+
         return newControllers;
     }
 
+    /**
+     * Builds a {@link FairQueueFlowController} out of a <code>count[,keyType]</code>
+     * specification, where the key type can be ip, cookie, user, workspace or service
+     */
+    FairQueueFlowController buildFairQueueController(String value,
+            List<PriorityClass> priorityClasses) {
+        String[] elements = value.split("\\s*,\\s*");
+        try {
+            int queueSize = Integer.parseInt(elements[0].trim());
+            String keyType = elements.length > 1 ? elements[1].trim().toLowerCase() : "ip";
+            KeyGenerator keyGenerator;
+            if ("ip".equals(keyType)) {
+                keyGenerator = new IpKeyGenerator();
+            } else if ("cookie".equals(keyType)) {
+                keyGenerator = new CookieKeyGenerator();
+            } else if ("user".equals(keyType)) {
+                keyGenerator = new UserKeyGenerator();
+            } else if ("workspace".equals(keyType)) {
+                keyGenerator = new WorkspaceKeyGenerator();
+            } else if ("service".equals(keyType)) {
+                keyGenerator = new ServiceKeyGenerator();
+            } else {
+                LOGGER.severe("Unknown ows.fair key type " + keyType
+                        + ", valid values are ip, cookie, user, workspace and service");
+                return null;
+            }
+            return new FairQueueFlowController(queueSize, keyGenerator, priorityClasses);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Builds a priority class out of a
+     * <code>ows.fair.priority.service[.request[.outputFormat]]=weight</code> rule
+     */
+    PriorityClass buildPriorityClass(String[] keys, int weight) {
+        String service = keys[3];
+        String request = keys.length >= 5 ? keys[4] : null;
+        String format = keys.length >= 6 ? keys[5] : null;
+        try {
+            return new PriorityClass(new OWSRequestMatcher(service, request, format), weight);
+        } catch (IllegalArgumentException e) {
+            LOGGER.severe("Invalid priority class: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Builds a {@link CostFlowController} out of a <code>maxCost[,minCost]</code> specification
+     */
+    CostFlowController buildCostController(String value) {
+        String[] costs = value.split("\\s*,\\s*");
+        try {
+            double maxCost = Double.parseDouble(costs[0].trim());
+            double minCost = costs.length > 1 ? Double.parseDouble(costs[1])
+                    : Math.min(maxCost, Math.max(1, maxCost / 10));
+            return new CostFlowController(maxCost, minCost, new OWSRequestMatcher(),
+                    (Catalog) GeoServerExtensions.bean("catalog"));
+        } catch (IllegalArgumentException e) {
+            LOGGER.severe("The ows.cost rule should be expressed as <maxCost>[,<minCost>], "
+                    + "with 0 < minCost <= maxCost. This one is invalid: " + value);
+            return null;
+        }
+    }
+
     public boolean isStale() {
         return configFile.isStale();
     }
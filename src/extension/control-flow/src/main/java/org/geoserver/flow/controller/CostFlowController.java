@@ -0,0 +1,477 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A flow controller admitting requests against a shared cost budget, rather than counting them.
+ * <p>
+ * The cost of each request is estimated from its parameters: the number of pixels for map and
+ * coverage requests (a 256x256 image being one unit), the number of layers involved, the maximum
+ * number of features requested for feature requests, and the latency observed in the past for
+ * the same layers, relative to the other ones. Only layers found in the catalog have their latency
+ * tracked, the most recently used ones up to a fixed limit. Requests are admitted as long as the sum of the
+ * costs of the running ones fits in the budget, a request more expensive than the whole budget is
+ * admitted only when nothing else is running.
+ * </p>
+ * <p>
+ * The budget is adapted automatically between a minimum and a maximum value using a gradient
+ * limiter: the latency per cost unit of the completed requests is tracked over a short and a long
+ * window, when the short term latency grows past the long term one the budget is scaled down
+ * proportionally, otherwise it grows a little at each completion, as long as the budget is
+ * actually being used. The budget starts at its maximum value.
+ * </p>
+ */
+public class CostFlowController implements FlowController {
+
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * The number of pixels making up one cost unit
+     */
+    static final double PIXELS_PER_UNIT = 256 * 256;
+
+    /**
+     * The number of features making up one cost unit
+     */
+    static final double FEATURES_PER_UNIT = 1000;
+
+    /**
+     * Cost of a feature request that does not limit the number of features returned
+     */
+    static final double UNBOUNDED_FEATURES_COST = 10;
+
+    /**
+     * Short term latency smoothing factor
+     */
+    static final double SHORT_ALPHA = 0.2;
+
+    /**
+     * Long term latency smoothing factor
+     */
+    static final double LONG_ALPHA = 0.01;
+
+    /**
+     * How much the short term latency can grow past the long term one before the budget is
+     * reduced
+     */
+    static final double TOLERANCE = 1.5;
+
+    /**
+     * Limits how much a layer can weigh on the request cost, compared to the average layer
+     */
+    static final double MIN_LAYER_WEIGHT = 0.25;
+
+    static final double MAX_LAYER_WEIGHT = 8;
+
+    /**
+     * Number of layers whose latency is tracked at most, the least recently used ones are
+     * dropped first
+     */
+    static final int MAX_TRACKED_LAYERS = 10000;
+
+    Predicate<Request> matcher;
+
+    double minCost;
+
+    double maxCost;
+
+    double budget;
+
+    double costInUse;
+
+    int runningRequests;
+
+    /**
+     * Latency per cost unit, short and long term averages, in milliseconds
+     */
+    double shortLatency = Double.NaN;
+
+    double longLatency = Double.NaN;
+
+    /**
+     * Used to resolve the layer names found in the requests, can be null
+     */
+    Catalog catalog;
+
+    /**
+     * Latency per size unit, by resolved layer name, in access order. Guarded by itself, along
+     * with {@link #layerLatenciesSum}
+     */
+    Map<String, Double> layerLatencies = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+            if (size() > MAX_TRACKED_LAYERS) {
+                layerLatenciesSum -= eldest.getValue();
+                return true;
+            }
+            return false;
+        }
+    };
+
+    /**
+     * Sum of the tracked layer latencies, to compute their average without going through them
+     */
+    double layerLatenciesSum;
+
+    ReentrantLock lock = new ReentrantLock(true);
+
+    Condition budgetReleased = lock.newCondition();
+
+    ThreadLocal<Admission> currentAdmission = new ThreadLocal<>();
+
+    /**
+     * The cost charged for an admitted request, and how it was computed
+     */
+    static final class Admission {
+        final double cost;
+
+        final double size;
+
+        final List<String> layers;
+
+        final long start;
+
+        Admission(double cost, double size, List<String> layers) {
+            this.cost = cost;
+            this.size = size;
+            this.layers = layers;
+            this.start = System.nanoTime();
+        }
+    }
+
+    /**
+     * Builds a controller matching all OWS requests
+     *
+     * @param maxCost the maximum budget, in cost units
+     * @param minCost the minimum budget the adaptation can go down to, in cost units
+     */
+    public CostFlowController(double maxCost, double minCost) {
+        this(maxCost, minCost, new OWSRequestMatcher(), null);
+    }
+
+    /**
+     * Builds a controller matching the requests accepted by the matcher
+     *
+     * @param maxCost the maximum budget, in cost units
+     * @param minCost the minimum budget the adaptation can go down to, in cost units
+     * @param matcher the requests subject to the controller
+     * @param catalog used to resolve the layers of the requests, no latency is tracked if null
+     */
+    public CostFlowController(double maxCost, double minCost, Predicate<Request> matcher,
+            Catalog catalog) {
+        if (maxCost <= 0 || minCost <= 0 || minCost > maxCost) {
+            throw new IllegalArgumentException(
+                    "Invalid cost budget, should be 0 < minCost <= maxCost, but got minCost = "
+                            + minCost + " and maxCost = " + maxCost);
+        }
+        this.maxCost = maxCost;
+        this.minCost = minCost;
+        this.budget = maxCost;
+        this.matcher = matcher;
+        this.catalog = catalog;
+    }
+
+    @Override
+    public int getPriority() {
+        return (int) Math.ceil(maxCost);
+    }
+
+    @Override
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.apply(request)) {
+            return true;
+        }
+
+        List<String> layers = resolveLayers(getLayers(request));
+        double size = estimateSize(request);
+        double cost = size * getLayersWeight(layers);
+        lock.lock();
+        try {
+            long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+            while (runningRequests > 0 && costInUse + cost > budget) {
+                if (timeout > 0) {
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    remaining = budgetReleased.awaitNanos(remaining);
+                } else {
+                    budgetReleased.await();
+                }
+            }
+            costInUse += cost;
+            runningRequests++;
+            currentAdmission.set(new Admission(cost, size, layers));
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " admitted request with cost " + cost + ", cost in use "
+                        + costInUse);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.log(Level.WARNING,
+                    "Unexpected interruption while waiting for the cost budget to free up");
+        } finally {
+            lock.unlock();
+        }
+        return true;
+    }
+
+    @Override
+    public void requestComplete(Request request) {
+        Admission admission = currentAdmission.get();
+        currentAdmission.remove();
+        if (admission == null) {
+            // not matched, or timed out
+            return;
+        }
+        double latency = (System.nanoTime() - admission.start) / 1e6;
+        lock.lock();
+        try {
+            boolean saturated = costInUse >= budget / 2;
+            costInUse -= admission.cost;
+            runningRequests--;
+            if (runningRequests == 0) {
+                // reset rounding errors
+                costInUse = 0;
+            }
+            updateBudget(latency / admission.cost, saturated);
+            budgetReleased.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        updateLayerLatencies(admission, latency);
+    }
+
+    /**
+     * Updates the latency averages and adapts the budget to them. Called with the lock held.
+     *
+     * @param unitLatency the latency per cost unit of a completed request
+     * @param saturated true if at least half of the budget was in use when the request completed
+     */
+    void updateBudget(double unitLatency, boolean saturated) {
+        if (Double.isNaN(shortLatency)) {
+            shortLatency = unitLatency;
+            longLatency = unitLatency;
+            return;
+        }
+        shortLatency = shortLatency * (1 - SHORT_ALPHA) + unitLatency * SHORT_ALPHA;
+        longLatency = longLatency * (1 - LONG_ALPHA) + unitLatency * LONG_ALPHA;
+        // if the latency stayed low for long the long term average is lagging behind, let
+        // it catch up faster so that the budget can grow again
+        if (longLatency > shortLatency * 2) {
+            longLatency *= 0.95;
+        }
+
+        // a budget that is not being used says nothing about the server capacity
+        if (!saturated) {
+            return;
+        }
+        double gradient = Math.max(0.5, Math.min(1.0, TOLERANCE * longLatency / shortLatency));
+        double newBudget = budget * gradient + Math.sqrt(budget);
+        // smooth the changes, so that a single slow request does not halve the budget
+        newBudget = budget * 0.8 + newBudget * 0.2;
+        budget = Math.max(minCost, Math.min(maxCost, newBudget));
+    }
+
+    void updateLayerLatencies(Admission admission, double latency) {
+        if (admission.layers.isEmpty()) {
+            return;
+        }
+        double unitLatency = latency / admission.size / admission.layers.size();
+        synchronized (layerLatencies) {
+            for (String layer : admission.layers) {
+                if (layer == null) {
+                    continue;
+                }
+                Double previous = layerLatencies.get(layer);
+                double updated = previous == null ? unitLatency
+                        : previous * (1 - SHORT_ALPHA) + unitLatency * SHORT_ALPHA;
+                layerLatencies.put(layer, updated);
+                layerLatenciesSum += updated - (previous == null ? 0 : previous);
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the weights of the given layers, based on how their past latency
+     * compares to the average of all layers. Layers without history, or not found in the
+     * catalog, weigh 1.
+     */
+    double getLayersWeight(List<String> layers) {
+        if (layers.isEmpty()) {
+            return 1;
+        }
+        double weight = 0;
+        synchronized (layerLatencies) {
+            double average = layerLatencies.isEmpty() ? 0
+                    : layerLatenciesSum / layerLatencies.size();
+            for (String layer : layers) {
+                Double latency = layer == null ? null : layerLatencies.get(layer);
+                if (latency == null || average <= 0) {
+                    weight += 1;
+                } else {
+                    weight += Math.max(MIN_LAYER_WEIGHT,
+                            Math.min(MAX_LAYER_WEIGHT, latency / average));
+                }
+            }
+        }
+        return weight;
+    }
+
+    /**
+     * Resolves the layer names against the catalog, returning the prefixed name of each layer or
+     * layer group, or null for the names that cannot be found, so that arbitrary client provided
+     * names are never tracked
+     */
+    List<String> resolveLayers(List<String> names) {
+        if (names.isEmpty()) {
+            return names;
+        }
+        List<String> layers = new ArrayList<>(names.size());
+        for (String name : names) {
+            layers.add(resolveLayer(name));
+        }
+        return layers;
+    }
+
+    String resolveLayer(String name) {
+        if (catalog == null) {
+            return null;
+        }
+        LayerInfo layer = catalog.getLayerByName(name);
+        if (layer != null) {
+            return layer.prefixedName();
+        }
+        LayerGroupInfo group = catalog.getLayerGroupByName(name);
+        if (group != null) {
+            return group.prefixedName();
+        }
+        // WCS 2.0 coverage ids use a double underscore as the workspace separator
+        if (name.contains("__")) {
+            layer = catalog.getLayerByName(name.replaceFirst("__", ":"));
+            if (layer != null) {
+                return layer.prefixedName();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Estimates the request size in cost units, not taking into account the number of layers
+     */
+    static double estimateSize(Request request) {
+        double width = getNumber(request, "WIDTH");
+        double height = getNumber(request, "HEIGHT");
+        if (width > 0 && height > 0) {
+            return Math.max(1, width * height / PIXELS_PER_UNIT);
+        }
+
+        if ("GetFeature".equalsIgnoreCase(request.getRequest())) {
+            double count = getNumber(request, "COUNT");
+            if (count <= 0) {
+                count = getNumber(request, "MAXFEATURES");
+            }
+            if (count > 0) {
+                return Math.max(1, count / FEATURES_PER_UNIT);
+            }
+            return UNBOUNDED_FEATURES_COST;
+        }
+
+        return 1;
+    }
+
+    /**
+     * Returns the names of the layers the request works against, as found in its parameters
+     */
+    static List<String> getLayers(Request request) {
+        for (String key : new String[] { "LAYERS", "TYPENAMES", "TYPENAME", "COVERAGE",
+                "COVERAGEID", "IDENTIFIER", "LAYER" }) {
+            String value = getParameter(request, key);
+            if (value != null && !value.trim().isEmpty()) {
+                List<String> layers = new ArrayList<>();
+                for (String layer : value.split(",")) {
+                    if (!layer.trim().isEmpty()) {
+                        layers.add(layer.trim());
+                    }
+                }
+                return layers;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    static String getParameter(Request request, String key) {
+        Map<?, ?> kvp = request.getRawKvp();
+        if (kvp == null) {
+            return null;
+        }
+        Object value = kvp.get(key);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    static double getNumber(Request request, String key) {
+        String value = getParameter(request, key);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                // the service will complain later
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the current cost budget
+     */
+    public double getBudget() {
+        lock.lock();
+        try {
+            return budget;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the sum of the costs of the requests currently running
+     */
+    public double getCostInUse() {
+        lock.lock();
+        try {
+            return costInUse;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Predicate<Request> getMatcher() {
+        return matcher;
+    }
+
+    @Override
+    public String toString() {
+        return "CostFlowController(" + matcher + "," + minCost + "-" + maxCost + ")";
+    }
+}
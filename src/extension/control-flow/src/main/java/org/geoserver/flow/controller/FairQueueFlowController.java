@@ -0,0 +1,346 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.ows.Request;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.base.Predicate;
+
+/**
+ * A flow controller limiting the number of requests running in parallel, like
+ * {@link GlobalFlowController}, but serving the requests in excess with weighted fair queuing
+ * instead of first come, first served.
+ * <p>
+ * Queued requests are grouped by priority class and, within each class, by the key returned by a
+ * {@link KeyGenerator} (e.g., the IP address or the user). Whenever a request completes the slot
+ * goes to the class that received the least service relative to its weight, and within that
+ * class to the next key in round robin order, so a single client queuing a lot of requests can
+ * only get its share of the slots and cannot starve the others. A class with weight 4 gets four
+ * times the slots of a class with weight 1, when both have requests waiting.
+ * </p>
+ * <p>
+ * Queue depth and wait times are tracked in {@link FlowQueueStatistics}.
+ * </p>
+ */
+public class FairQueueFlowController implements FlowController {
+
+    static final Logger LOGGER = Logging.getLogger(ControlFlowCallback.class);
+
+    /**
+     * A priority class, matching requests via a {@link OWSRequestMatcher}
+     */
+    public static class PriorityClass {
+        final Predicate<Request> matcher;
+
+        final int weight;
+
+        /**
+         * Keys with requests waiting, in round robin order, and their queues
+         */
+        final Deque<String> keys = new ArrayDeque<>();
+
+        final Map<String, Deque<Waiter>> queues = new HashMap<>();
+
+        /**
+         * The virtual time at which the class will be served next, grows by 1/weight each time
+         */
+        double pass;
+
+        public PriorityClass(Predicate<Request> matcher, int weight) {
+            if (weight <= 0) {
+                throw new IllegalArgumentException("Priority class weight must be positive");
+            }
+            this.matcher = matcher;
+            this.weight = weight;
+        }
+
+        boolean isEmpty() {
+            return keys.isEmpty();
+        }
+
+        void add(String key, Waiter waiter) {
+            Deque<Waiter> queue = queues.get(key);
+            if (queue == null) {
+                queue = new ArrayDeque<>();
+                queues.put(key, queue);
+                keys.addLast(key);
+            }
+            queue.addLast(waiter);
+        }
+
+        void remove(String key, Waiter waiter) {
+            Deque<Waiter> queue = queues.get(key);
+            if (queue != null && queue.remove(waiter) && queue.isEmpty()) {
+                queues.remove(key);
+                keys.remove(key);
+            }
+        }
+
+        Waiter poll() {
+            String key = keys.pollFirst();
+            Deque<Waiter> queue = queues.get(key);
+            Waiter waiter = queue.pollFirst();
+            if (queue.isEmpty()) {
+                queues.remove(key);
+            } else {
+                keys.addLast(key);
+            }
+            return waiter;
+        }
+
+        public Predicate<Request> getMatcher() {
+            return matcher;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        @Override
+        public String toString() {
+            return matcher + "=" + weight;
+        }
+    }
+
+    static final class Waiter {
+        final Condition condition;
+
+        boolean granted;
+
+        Waiter(Condition condition) {
+            this.condition = condition;
+        }
+    }
+
+    Predicate<Request> matcher;
+
+    int queueSize;
+
+    KeyGenerator keyGenerator;
+
+    /**
+     * The configured priority classes, in matching order, followed by the default one
+     */
+    List<PriorityClass> classes;
+
+    ReentrantLock lock = new ReentrantLock();
+
+    int running;
+
+    int waiting;
+
+    /**
+     * The pass of the last served class, classes becoming active start from here so that they
+     * cannot claim service for the time they were idle
+     */
+    double virtualTime;
+
+    ThreadLocal<Boolean> admitted = new ThreadLocal<>();
+
+    FlowQueueStatistics statistics;
+
+    /**
+     * Builds a controller matching all requests
+     *
+     * @param queueSize the maximum number of requests running in parallel
+     * @param keyGenerator groups queued requests that should share their class slots fairly
+     * @param classes the priority classes, the first one matching a request is used. Requests
+     *        not matching any class go in a default class with weight 1
+     */
+    public FairQueueFlowController(int queueSize, KeyGenerator keyGenerator,
+            List<PriorityClass> classes) {
+        this(queueSize, keyGenerator, classes, new OWSRequestMatcher());
+    }
+
+    public FairQueueFlowController(int queueSize, KeyGenerator keyGenerator,
+            List<PriorityClass> classes, Predicate<Request> matcher) {
+        this.queueSize = queueSize;
+        this.keyGenerator = keyGenerator;
+        this.matcher = matcher;
+        this.classes = new ArrayList<>(classes);
+        this.classes.add(new PriorityClass(new OWSRequestMatcher(), 1));
+        this.statistics = new FlowQueueStatistics("ows.fair", this);
+    }
+
+    @Override
+    public int getPriority() {
+        return queueSize;
+    }
+
+    @Override
+    public boolean requestIncoming(Request request, long timeout) {
+        if (!matcher.apply(request)) {
+            return true;
+        }
+        PriorityClass priorityClass = getPriorityClass(request);
+        String key = keyGenerator.getUserKey(request);
+        long start = System.currentTimeMillis();
+
+        lock.lock();
+        try {
+            statistics.queueDepth.record(waiting);
+            if (running < queueSize && waiting == 0) {
+                running++;
+                admitted.set(Boolean.TRUE);
+                statistics.waitTime.record(0);
+                return true;
+            }
+
+            Waiter waiter = new Waiter(lock.newCondition());
+            if (priorityClass.isEmpty()) {
+                priorityClass.pass = Math.max(priorityClass.pass, virtualTime);
+            }
+            priorityClass.add(key, waiter);
+            waiting++;
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine(this + " queued request for " + key + " in class " + priorityClass
+                        + ", queue size " + waiting);
+            }
+            try {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+                while (!waiter.granted) {
+                    if (timeout > 0) {
+                        if (remaining <= 0) {
+                            priorityClass.remove(key, waiter);
+                            waiting--;
+                            statistics.timedOut.incrementAndGet();
+                            return false;
+                        }
+                        remaining = waiter.condition.awaitNanos(remaining);
+                    } else {
+                        waiter.condition.await();
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.log(Level.WARNING,
+                        "Unexpected interruption while blocking on the request queue");
+                if (!waiter.granted) {
+                    priorityClass.remove(key, waiter);
+                    waiting--;
+                    return true;
+                }
+            }
+            // the slot has been handed over by the request that completed
+            admitted.set(Boolean.TRUE);
+            statistics.waitTime.record(System.currentTimeMillis() - start);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void requestComplete(Request request) {
+        if (admitted.get() == null) {
+            return;
+        }
+        admitted.remove();
+
+        lock.lock();
+        try {
+            Waiter next = pollNext();
+            if (next != null) {
+                // hand over the slot
+                waiting--;
+                next.granted = true;
+                next.condition.signal();
+            } else {
+                running--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    PriorityClass getPriorityClass(Request request) {
+        for (PriorityClass pc : classes) {
+            if (pc.matcher.apply(request)) {
+                return pc;
+            }
+        }
+        // cannot happen, the default class matches everything
+        return classes.get(classes.size() - 1);
+    }
+
+    /**
+     * Picks the next request to run, among the classes with requests waiting, the one with the
+     * lowest pass (ties broken by weight). Called with the lock held.
+     */
+    Waiter pollNext() {
+        PriorityClass selected = null;
+        for (PriorityClass pc : classes) {
+            if (!pc.isEmpty() && (selected == null || pc.pass < selected.pass
+                    || (pc.pass == selected.pass && pc.weight > selected.weight))) {
+                selected = pc;
+            }
+        }
+        if (selected == null) {
+            return null;
+        }
+        virtualTime = selected.pass;
+        selected.pass += 1d / selected.weight;
+        return selected.poll();
+    }
+
+    /**
+     * Returns the number of requests currently running
+     */
+    public int getRunningRequests() {
+        lock.lock();
+        try {
+            return running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of requests currently waiting in queue
+     */
+    public int getRequestsInQueue() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public KeyGenerator getKeyGenerator() {
+        return keyGenerator;
+    }
+
+    /**
+     * Returns the priority classes, the last one being the default class
+     */
+    public List<PriorityClass> getPriorityClasses() {
+        return Collections.unmodifiableList(classes);
+    }
+
+    public FlowQueueStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public String toString() {
+        return "FairQueueFlowController(" + queueSize + "," + classes + ")";
+    }
+}
@@ -0,0 +1,133 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geotools.util.logging.Logging;
+
+/**
+ * Queue depth and wait time statistics of a {@link FairQueueFlowController}
+ */
+public class FlowQueueStatistics implements FlowQueueStatisticsMBean {
+
+    static final Logger LOGGER = Logging.getLogger(FlowQueueStatistics.class);
+
+    final String name;
+
+    final FairQueueFlowController controller;
+
+    final Histogram waitTime = new Histogram(0, 1, 5, 10, 50, 100, 500, 1000, 5000, 10000,
+            30000, 60000);
+
+    final Histogram queueDepth = new Histogram(0, 1, 2, 5, 10, 20, 50, 100, 200, 500, 1000);
+
+    final AtomicLong timedOut = new AtomicLong();
+
+    FlowQueueStatistics(String name, FairQueueFlowController controller) {
+        this.name = name;
+        this.controller = controller;
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server, replacing the ones of a previous
+     * controller with the same name (e.g., before a configuration reload)
+     */
+    public void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName(
+                    "org.geoserver:type=ControlFlowQueue,name=" + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(this, objectName);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not register the control flow queue statistics", e);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getMaxRunning() {
+        return controller.getPriority();
+    }
+
+    @Override
+    public int getRunning() {
+        return controller.getRunningRequests();
+    }
+
+    @Override
+    public int getQueued() {
+        return controller.getRequestsInQueue();
+    }
+
+    @Override
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    @Override
+    public long[] getWaitTimeBuckets() {
+        return waitTime.getBounds();
+    }
+
+    @Override
+    public long[] getWaitTimeCounts() {
+        return waitTime.getCounts();
+    }
+
+    @Override
+    public double getAverageWaitTime() {
+        return waitTime.getAverage();
+    }
+
+    @Override
+    public long getMaxWaitTime() {
+        return waitTime.getMax();
+    }
+
+    @Override
+    public long[] getQueueDepthBuckets() {
+        return queueDepth.getBounds();
+    }
+
+    @Override
+    public long[] getQueueDepthCounts() {
+        return queueDepth.getCounts();
+    }
+
+    @Override
+    public long getMaxQueueDepth() {
+        return queueDepth.getMax();
+    }
+
+    /**
+     * Returns the statistics as a map, for encoding purposes
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("name", name);
+        map.put("maxRunning", getMaxRunning());
+        map.put("running", getRunning());
+        map.put("queued", getQueued());
+        map.put("timedOut", getTimedOut());
+        map.put("waitTime", waitTime.toMap());
+        map.put("queueDepth", queueDepth.toMap());
+        return map;
+    }
+}
@@ -0,0 +1,69 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+/**
+ * JMX management interface for the queue statistics of a {@link FairQueueFlowController}
+ */
+public interface FlowQueueStatisticsMBean {
+
+    /**
+     * The maximum number of requests running in parallel
+     */
+    int getMaxRunning();
+
+    /**
+     * Number of requests currently running
+     */
+    int getRunning();
+
+    /**
+     * Number of requests currently waiting in queue
+     */
+    int getQueued();
+
+    /**
+     * Number of requests that gave up waiting in queue because of the timeout
+     */
+    long getTimedOut();
+
+    /**
+     * Upper bounds of the wait time histogram buckets, in milliseconds
+     */
+    long[] getWaitTimeBuckets();
+
+    /**
+     * Counts of the wait time histogram buckets, the last one counting the waits longer than the
+     * last bound
+     */
+    long[] getWaitTimeCounts();
+
+    /**
+     * Average time spent in queue, in milliseconds
+     */
+    double getAverageWaitTime();
+
+    /**
+     * Longest time spent in queue, in milliseconds
+     */
+    long getMaxWaitTime();
+
+    /**
+     * Upper bounds of the queue depth histogram buckets. The queue depth is sampled every time
+     * a request comes in.
+     */
+    long[] getQueueDepthBuckets();
+
+    /**
+     * Counts of the queue depth histogram buckets, the last one counting the depths greater than
+     * the last bound
+     */
+    long[] getQueueDepthCounts();
+
+    /**
+     * Largest queue depth observed
+     */
+    long getMaxQueueDepth();
+}
@@ -0,0 +1,105 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A thread safe histogram with fixed buckets, each bucket counting the values lower or equal to
+ * its upper bound and greater than the previous one. Values greater than the last bound are
+ * counted in an extra overflow bucket.
+ */
+public class Histogram {
+
+    final long[] bounds;
+
+    final AtomicLongArray counts;
+
+    final AtomicLong total = new AtomicLong();
+
+    final AtomicLong sum = new AtomicLong();
+
+    final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param bounds the bucket upper bounds, in increasing order
+     */
+    public Histogram(long... bounds) {
+        for (int i = 1; i < bounds.length; i++) {
+            if (bounds[i] <= bounds[i - 1]) {
+                throw new IllegalArgumentException("Bucket bounds must be increasing");
+            }
+        }
+        this.bounds = bounds.clone();
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < bounds.length && value > bounds[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+        sum.addAndGet(value);
+        long currentMax;
+        while (value > (currentMax = max.get()) && !max.compareAndSet(currentMax, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Returns the bucket upper bounds (the overflow bucket is not included)
+     */
+    public long[] getBounds() {
+        return bounds.clone();
+    }
+
+    /**
+     * Returns the bucket counts, the last one being the overflow bucket
+     */
+    public long[] getCounts() {
+        long[] result = new long[counts.length()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getAverage() {
+        long count = total.get();
+        return count == 0 ? 0 : (double) sum.get() / count;
+    }
+
+    /**
+     * Returns the histogram as a map from bucket label ("le_" followed by the upper bound, or
+     * "overflow") to count, along with the total, average and maximum values
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        Map<String, Long> buckets = new LinkedHashMap<>();
+        long[] values = getCounts();
+        for (int i = 0; i < bounds.length; i++) {
+            buckets.put("le_" + bounds[i], values[i]);
+        }
+        buckets.put("overflow", values[bounds.length]);
+        map.put("buckets", buckets);
+        map.put("count", getTotal());
+        map.put("average", getAverage());
+        map.put("max", getMax());
+        return map;
+    }
+}
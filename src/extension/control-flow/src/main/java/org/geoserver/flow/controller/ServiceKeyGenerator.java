@@ -0,0 +1,20 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+
+/**
+ * Returns the requested service as the key
+ */
+public class ServiceKeyGenerator implements KeyGenerator {
+
+    @Override
+    public String getUserKey(Request request) {
+        String service = request.getService();
+        return service == null ? "" : service.toUpperCase();
+    }
+
+}
@@ -0,0 +1,31 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.ows.Request;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Returns the name of the authenticated user as the user key, falling back on the IP address
+ * for anonymous requests
+ */
+public class UserKeyGenerator implements KeyGenerator {
+
+    @Override
+    public String getUserKey(Request request) {
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null && !(auth instanceof AnonymousAuthenticationToken)
+                && auth.getName() != null) {
+            return auth.getName();
+        }
+        if (request.getHttpRequest() == null) {
+            return "";
+        }
+        return IpFlowController.getRemoteAddr(request.getHttpRequest());
+    }
+
+}
@@ -0,0 +1,23 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+
+/**
+ * Returns the workspace of virtual service requests as the key, or an empty string for global
+ * service requests
+ */
+public class WorkspaceKeyGenerator implements KeyGenerator {
+
+    @Override
+    public String getUserKey(Request request) {
+        WorkspaceInfo ws = LocalWorkspace.get();
+        return ws == null ? "" : ws.getName();
+    }
+
+}
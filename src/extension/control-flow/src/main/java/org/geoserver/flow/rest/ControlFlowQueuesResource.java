@@ -0,0 +1,43 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.rest;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.flow.ControlFlowCallback;
+import org.geoserver.flow.FlowController;
+import org.geoserver.flow.controller.FairQueueFlowController;
+import org.geoserver.rest.MapResource;
+
+/**
+ * Returns the number of running and blocked requests, along with the queue depth and wait time
+ * statistics of the fair queuing flow controllers
+ */
+public class ControlFlowQueuesResource extends MapResource {
+
+    ControlFlowCallback callback;
+
+    public ControlFlowQueuesResource(ControlFlowCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        List<Object> queues = new ArrayList<>();
+        for (FlowController controller : callback.getFlowControllers()) {
+            if (controller instanceof FairQueueFlowController) {
+                queues.add(((FairQueueFlowController) controller).getStatistics().toMap());
+            }
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("running", callback.getRunningRequests());
+        map.put("blocked", callback.getBlockedRequests());
+        map.put("queues", queues);
+        return map;
+    }
+}
@@ -12,18 +12,24 @@ import static org.junit.Assert.assertTrue;
 import java.io.File;
 import java.io.IOException;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.geoserver.flow.ControllerPriorityComparator;
 import org.geoserver.flow.FlowController;
 import org.geoserver.flow.controller.BasicOWSController;
+import org.geoserver.flow.controller.CostFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController;
+import org.geoserver.flow.controller.FairQueueFlowController.PriorityClass;
 import org.geoserver.flow.controller.GlobalFlowController;
 import org.geoserver.flow.controller.IpFlowController;
 import org.geoserver.flow.controller.IpRequestMatcher;
 import org.geoserver.flow.controller.RateFlowController;
 import org.geoserver.flow.controller.SingleIpFlowController;
 import org.geoserver.flow.controller.UserConcurrentFlowController;
+import org.geoserver.flow.controller.UserKeyGenerator;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.resource.Files;
 import org.geoserver.platform.resource.Resource;
@@ -128,6 +134,58 @@ public class DefaultControlFlowConfigurationTest {
         assertEquals(savedProps.getProperties(), p);
     }
 
+    @Test
+    public void testCostParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.cost", "200,20");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        assertTrue(controllers.get(0) instanceof CostFlowController);
+        CostFlowController cfc = (CostFlowController) controllers.get(0);
+        assertEquals(200, cfc.getPriority());
+        assertEquals(200, cfc.getBudget(), 0d);
+
+        // the minimum budget is optional, but must be lower than the maximum one
+        p.put("ows.cost", "200");
+        assertEquals(1, configurator.buildFlowControllers().size());
+        p.put("ows.cost", "20,200");
+        assertEquals(0, configurator.buildFlowControllers().size());
+    }
+
+    @Test
+    public void testFairQueueParsing() throws Exception {
+        Properties p = new Properties();
+        p.put("ows.fair", "16,user");
+        p.put("ows.fair.priority.gwc", "4");
+        p.put("ows.fair.priority.wms.getmap", "2");
+
+        DefaultControlFlowConfigurator configurator = new DefaultControlFlowConfigurator(
+                new FixedWatcher(p));
+        List<FlowController> controllers = configurator.buildFlowControllers();
+        assertEquals(1, controllers.size());
+        assertTrue(controllers.get(0) instanceof FairQueueFlowController);
+        FairQueueFlowController fqc = (FairQueueFlowController) controllers.get(0);
+        assertEquals(16, fqc.getPriority());
+        assertTrue(fqc.getKeyGenerator() instanceof UserKeyGenerator);
+        // two configured classes plus the default one
+        List<PriorityClass> classes = fqc.getPriorityClasses();
+        assertEquals(3, classes.size());
+        Map<String, Integer> weights = new HashMap<>();
+        for (PriorityClass pc : classes) {
+            weights.put(pc.getMatcher().toString(), pc.getWeight());
+        }
+        assertEquals(Integer.valueOf(4), weights.get("gwc"));
+        assertEquals(Integer.valueOf(2), weights.get("wms.getmap"));
+        assertEquals(Integer.valueOf(1), weights.get("Any OGC request"));
+
+        // unknown key type
+        p.put("ows.fair", "16,foo");
+        assertEquals(0, configurator.buildFlowControllers().size());
+    }
+
     static class FixedWatcher extends PropertyFileWatcher {
         boolean stale = true;
 
@@ -0,0 +1,225 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.flow.controller.CostFlowController.Admission;
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.util.KvpMap;
+import org.junit.Test;
+
+public class CostFlowControllerTest extends AbstractFlowControllerTest {
+
+    Request buildGetMap(int width, int height, String layers) {
+        Request request = new Request();
+        request.setService("WMS");
+        request.setRequest("GetMap");
+        KvpMap kvp = new KvpMap();
+        kvp.put("WIDTH", String.valueOf(width));
+        kvp.put("HEIGHT", String.valueOf(height));
+        kvp.put("LAYERS", layers);
+        request.setRawKvp(kvp);
+        return request;
+    }
+
+    @Test
+    public void testEstimateCost() {
+        Request getMap = buildGetMap(512, 512, "topp:states,topp:roads");
+        assertEquals(4, CostFlowController.estimateSize(getMap), 0d);
+        assertEquals(Arrays.asList("topp:states", "topp:roads"),
+                CostFlowController.getLayers(getMap));
+
+        Request getFeature = new Request();
+        getFeature.setService("WFS");
+        getFeature.setRequest("GetFeature");
+        KvpMap kvp = new KvpMap();
+        kvp.put("TYPENAME", "topp:states");
+        getFeature.setRawKvp(kvp);
+        assertEquals(CostFlowController.UNBOUNDED_FEATURES_COST,
+                CostFlowController.estimateSize(getFeature), 0d);
+        kvp.put("MAXFEATURES", "5000");
+        assertEquals(5, CostFlowController.estimateSize(getFeature), 0d);
+
+        // anything else costs one unit
+        assertEquals(1, CostFlowController.estimateSize(new Request()), 0d);
+    }
+
+    void complete(CostFlowController controller, String layer, double latency) {
+        controller.updateLayerLatencies(new Admission(1, 1, Arrays.asList(layer)), latency);
+    }
+
+    @Test
+    public void testLayerWeight() {
+        CostFlowController controller = new CostFlowController(100, 10);
+        complete(controller, "fast", 10);
+        complete(controller, "slow", 30);
+        // the average is 20, the slow layer weighs 3 times the fast one
+        assertEquals(0.5, controller.getLayersWeight(Arrays.asList("fast")), 1e-6);
+        assertEquals(1.5, controller.getLayersWeight(Arrays.asList("slow")), 1e-6);
+        // unknown and unresolved layers weigh one
+        assertEquals(2.5, controller.getLayersWeight(Arrays.asList("slow", "unknown")), 1e-6);
+        assertEquals(2.5, controller.getLayersWeight(Arrays.asList("slow", null)), 1e-6);
+
+        // the average follows the updates
+        complete(controller, "slow", 80);
+        assertEquals(20, controller.layerLatenciesSum, 1e-6);
+    }
+
+    @Test
+    public void testTrackedLayersBounded() {
+        CostFlowController controller = new CostFlowController(100, 10);
+        for (int i = 0; i < CostFlowController.MAX_TRACKED_LAYERS; i++) {
+            complete(controller, "layer" + i, 1);
+        }
+        // the first layer is used again, the second one is the least recently used
+        controller.getLayersWeight(Arrays.asList("layer0"));
+        complete(controller, "extra", 1);
+        assertEquals(CostFlowController.MAX_TRACKED_LAYERS, controller.layerLatencies.size());
+        assertTrue(controller.layerLatencies.containsKey("layer0"));
+        assertFalse(controller.layerLatencies.containsKey("layer1"));
+        assertEquals(CostFlowController.MAX_TRACKED_LAYERS, controller.layerLatenciesSum, 1e-6);
+    }
+
+    @Test
+    public void testResolveLayers() {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName("topp");
+        catalog.add(ws);
+        NamespaceInfo ns = factory.createNamespace();
+        ns.setPrefix("topp");
+        ns.setURI("http://topp");
+        catalog.add(ns);
+        DataStoreInfo ds = factory.createDataStore();
+        ds.setName("store");
+        ds.setWorkspace(ws);
+        catalog.add(ds);
+        FeatureTypeInfo ft = factory.createFeatureType();
+        ft.setName("states");
+        ft.setNativeName("states");
+        ft.setNamespace(ns);
+        ft.setStore(ds);
+        catalog.add(ft);
+        LayerInfo layer = factory.createLayer();
+        layer.setResource(ft);
+        catalog.add(layer);
+
+        CostFlowController controller = new CostFlowController(100, 10,
+                new OWSRequestMatcher(), catalog);
+        assertEquals(Arrays.asList("topp:states", "topp:states", null),
+                controller.resolveLayers(Arrays.asList("topp:states", "topp__states", "foo")));
+        // without a catalog nothing is resolved
+        assertNull(new CostFlowController(100, 10).resolveLayer("topp:states"));
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        // a budget fitting a single 512x512 two layers map
+        CostFlowController controller = new CostFlowController(8, 1);
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(
+                buildGetMap(512, 512, "a,b"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(
+                buildGetMap(256, 256, "a"), 0, Long.MAX_VALUE, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitBlocked(t2, MAX_WAIT);
+
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(ThreadState.STARTED, t2.state);
+            assertEquals(8, controller.getCostInUse(), 1e-6);
+
+            // completing the first request frees the budget for the second
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t1.state);
+            waitState(ThreadState.PROCESSING, t2, MAX_WAIT);
+
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(0, controller.getCostInUse(), 0d);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testExpensiveRequestRunsAlone() throws Exception {
+        CostFlowController controller = new CostFlowController(8, 1);
+
+        // way above the budget, but nothing else is running
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(
+                buildGetMap(2048, 2048, "a"), 0, Long.MAX_VALUE, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(
+                buildGetMap(256, 256, "a"), 100, 0, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            assertEquals(ThreadState.PROCESSING, t1.state);
+
+            // anything else times out while it runs
+            t2.start();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t1.state);
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testAdaptiveBudget() {
+        CostFlowController controller = new CostFlowController(100, 10);
+
+        // stable latency keeps the budget at its maximum
+        for (int i = 0; i < 100; i++) {
+            controller.updateBudget(10, true);
+        }
+        assertEquals(100, controller.getBudget(), 1e-6);
+
+        // latency growing under load shrinks it
+        for (int i = 0; i < 20; i++) {
+            controller.updateBudget(40, true);
+        }
+        double reduced = controller.getBudget();
+        assertTrue(reduced < 100);
+        assertTrue(reduced >= 10);
+
+        // latency growing while the budget is mostly unused does not
+        for (int i = 0; i < 20; i++) {
+            controller.updateBudget(80, false);
+        }
+        assertEquals(reduced, controller.getBudget(), 1e-6);
+
+        // back to the original latency, the budget grows again
+        for (int i = 0; i < 500; i++) {
+            controller.updateBudget(10, true);
+        }
+        assertTrue(controller.getBudget() > reduced);
+    }
+}
@@ -0,0 +1,178 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.flow.controller;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.geoserver.flow.controller.FairQueueFlowController.PriorityClass;
+import org.geoserver.flow.controller.FlowControllerTestingThread.ThreadState;
+import org.geoserver.ows.Request;
+import org.junit.Test;
+
+public class FairQueueFlowControllerTest extends AbstractFlowControllerTest {
+
+    Request buildRequest(String ip, String service) {
+        Request request = buildIpRequest(ip, "");
+        request.setService(service);
+        return request;
+    }
+
+    FlowControllerTestingThread startBlocked(Request request, FairQueueFlowController controller) {
+        FlowControllerTestingThread t = new FlowControllerTestingThread(request, 0,
+                Long.MAX_VALUE, controller);
+        t.start();
+        waitBlocked(t, MAX_WAIT);
+        return t;
+    }
+
+    @Test
+    public void testRoundRobinAcrossKeys() throws Exception {
+        FairQueueFlowController controller = new FairQueueFlowController(1,
+                new IpKeyGenerator(), Collections.<PriorityClass>emptyList());
+
+        // the first client grabs the only slot, and queues two more requests before the
+        // second client shows up
+        FlowControllerTestingThread t1 = startBlocked(buildRequest("192.168.1.1", "WMS"),
+                controller);
+        FlowControllerTestingThread t2 = startBlocked(buildRequest("192.168.1.1", "WMS"),
+                controller);
+        FlowControllerTestingThread t3 = startBlocked(buildRequest("192.168.1.1", "WMS"),
+                controller);
+        FlowControllerTestingThread t4 = startBlocked(buildRequest("192.168.1.2", "WMS"),
+                controller);
+        try {
+            assertEquals(ThreadState.PROCESSING, t1.state);
+            assertEquals(3, controller.getRequestsInQueue());
+
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, t2, MAX_WAIT);
+
+            // with FIFO t3 would run next, fair queuing lets the second client in instead
+            t2.interrupt();
+            waitTerminated(t2, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, t4, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t3.state);
+
+            t4.interrupt();
+            waitTerminated(t4, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, t3, MAX_WAIT);
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+
+            assertEquals(0, controller.getRunningRequests());
+            assertEquals(0, controller.getRequestsInQueue());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+            waitAndKill(t4, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testPriorityClasses() throws Exception {
+        PriorityClass tiles = new PriorityClass(new OWSRequestMatcher("GWC"), 4);
+        FairQueueFlowController controller = new FairQueueFlowController(1,
+                new IpKeyGenerator(), Arrays.asList(tiles));
+
+        FlowControllerTestingThread t1 = startBlocked(buildRequest("192.168.1.1", "WMS"),
+                controller);
+        FlowControllerTestingThread t2 = startBlocked(buildRequest("192.168.1.1", "WPS"),
+                controller);
+        FlowControllerTestingThread t3 = startBlocked(buildRequest("192.168.1.2", "GWC"),
+                controller);
+        try {
+            // the tile request goes first, even if it came in last
+            t1.interrupt();
+            waitTerminated(t1, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, t3, MAX_WAIT);
+            assertEquals(ThreadState.STARTED, t2.state);
+
+            t3.interrupt();
+            waitTerminated(t3, MAX_WAIT);
+            waitState(ThreadState.PROCESSING, t2, MAX_WAIT);
+            t2.interrupt();
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+            waitAndKill(t3, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testWeightedShare() throws Exception {
+        PriorityClass tiles = new PriorityClass(new OWSRequestMatcher("GWC"), 2);
+        FairQueueFlowController controller = new FairQueueFlowController(1,
+                new IpKeyGenerator(), Arrays.asList(tiles));
+        PriorityClass defaultClass = controller.getPriorityClasses().get(1);
+
+        // queue directly in the classes, and check the service order
+        for (int i = 0; i < 6; i++) {
+            tiles.add("a", new FairQueueFlowController.Waiter(null));
+            defaultClass.add("a", new FairQueueFlowController.Waiter(null));
+        }
+        StringBuilder order = new StringBuilder();
+        for (int i = 0; i < 6; i++) {
+            int tilesQueued = tiles.queues.get("a").size();
+            controller.pollNext();
+            order.append(tiles.queues.containsKey("a")
+                    && tiles.queues.get("a").size() == tilesQueued ? "D" : "T");
+        }
+        // tiles get twice the slots
+        assertEquals("TDTTDT", order.toString());
+    }
+
+    @Test
+    public void testTimeoutStatistics() throws Exception {
+        FairQueueFlowController controller = new FairQueueFlowController(1,
+                new IpKeyGenerator(), Collections.<PriorityClass>emptyList());
+
+        FlowControllerTestingThread t1 = new FlowControllerTestingThread(
+                buildRequest("192.168.1.1", "WMS"), 0, 500, controller);
+        FlowControllerTestingThread t2 = new FlowControllerTestingThread(
+                buildRequest("192.168.1.2", "WMS"), 100, 0, controller);
+        try {
+            t1.start();
+            waitBlocked(t1, MAX_WAIT);
+            t2.start();
+            waitTerminated(t2, MAX_WAIT);
+            assertEquals(ThreadState.TIMED_OUT, t2.state);
+            waitTerminated(t1, MAX_WAIT);
+            assertEquals(ThreadState.COMPLETE, t1.state);
+
+            FlowQueueStatistics stats = controller.getStatistics();
+            assertEquals(1, stats.getTimedOut());
+            assertEquals(0, stats.getQueued());
+            assertEquals(0, stats.getRunning());
+            // t1 found an empty queue, t2 found it empty as well (t1 was running, not queued)
+            assertEquals(2, stats.queueDepth.getTotal());
+            assertEquals(0, stats.getMaxQueueDepth());
+            // only t1 got to run
+            assertEquals(1, stats.waitTime.getTotal());
+        } finally {
+            waitAndKill(t1, MAX_WAIT);
+            waitAndKill(t2, MAX_WAIT);
+        }
+    }
+
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram(0, 10, 100);
+        histogram.record(0);
+        histogram.record(5);
+        histogram.record(10);
+        histogram.record(50);
+        histogram.record(1000);
+        assertArrayEquals(new long[] { 1, 2, 1, 1 }, histogram.getCounts());
+        assertEquals(5, histogram.getTotal());
+        assertEquals(1000, histogram.getMax());
+        assertEquals(213, histogram.getAverage(), 0d);
+    }
+}
@@ -10,22 +10,38 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.ows.util.OwsUtils;
+import org.geotools.util.logging.Logging;
 
+/**
+ * Keeps the running requests, and a bounded history of the most recent completed ones, in memory.
+ * <p>
+ * The history is kept in a lock free {@link RequestRingBuffer}, sized by the
+ * <code>memory.history</code> configuration property ({@value #DEFAULT_HISTORY_SIZE} by
+ * default). Completed requests are also accounted in {@link RequestStatistics}, which cover all
+ * the requests, not just the ones still in the history.
+ * </p>
+ */
 public class MemoryMonitorDAO implements MonitorDAO {
 
+    static final Logger LOGGER = Logging.getLogger(MemoryMonitorDAO.class);
+
     public static final String NAME = "memory";
 
-    Queue<RequestData> live = new ConcurrentLinkedQueue<RequestData>();
-    Queue<RequestData> history = new ConcurrentLinkedQueue<RequestData>();
+    public static final int DEFAULT_HISTORY_SIZE = 100;
+
+    Map<Long, RequestData> live = new ConcurrentSkipListMap<Long, RequestData>();
+    RequestRingBuffer history = new RequestRingBuffer(DEFAULT_HISTORY_SIZE);
+    RequestStatistics statistics = new RequestStatistics();
     
     AtomicLong REQUEST_ID_GEN = new AtomicLong(1);
 
@@ -36,6 +52,15 @@ public class MemoryMonitorDAO implements MonitorDAO {
 
     @Override
     public void init(MonitorConfig config) {
+        try {
+            Integer size = config.getProperty(NAME, "history", Integer.class);
+            if (size != null && size > 0 && size != history.getCapacity()) {
+                history = new RequestRingBuffer(size);
+            }
+        } catch (IllegalArgumentException e) {
+            LOGGER.log(Level.WARNING, "Invalid memory.history value, using "
+                    + history.getCapacity() + " instead", e);
+        }
     }
 
     public RequestData init(RequestData data) {
@@ -44,41 +69,55 @@ public class MemoryMonitorDAO implements MonitorDAO {
     }
 
     public void add(RequestData data) {
-        live.add(data);
+        live.put(data.getId(), data);
     }
 
     public void update(RequestData data) {
     }
 
     public void save(RequestData data) {
-        live.remove(data);
+        live.remove(data.getId());
         history.add(data);
-        
-        if (history.size() > 100) {
-            history.poll();
-        }
+        statistics.record(data);
+    }
+    
+    /**
+     * Returns the statistics of all the requests completed since startup, or the last clear
+     */
+    public RequestStatistics getStatistics() {
+        return statistics;
     }
     
     public RequestData getRequest(long id) {
-        for (RequestData r : getRequests()) {
-            if (r.getId() == id) {
-                return r;
-            }
-        }
-        return null;
+        RequestData data = live.get(id);
+        return data != null ? data : history.get(id);
     }
     
     public List<RequestData> getRequests() {
-        List<RequestData> requests = new LinkedList();
-        requests.addAll(live);
-        requests.addAll(history);
+        final List<RequestData> requests = new ArrayList<RequestData>(live.size() + history.size());
+        requests.addAll(live.values());
+        history.visit(r -> requests.add(r));
         return requests;
     }
-        
-    public List<RequestData> getRequests(Query q) {
-        List<RequestData> requests = getRequests();
-       
-        List<Predicate> predicates = new ArrayList();
+
+    /**
+     * Visits the live and then the history requests, in order, until the visitor returns false
+     */
+    void visit(RequestRingBuffer.Visitor visitor) {
+        for (RequestData r : live.values()) {
+            if (!visitor.visit(r)) {
+                return;
+            }
+        }
+        history.visit(visitor);
+    }
+
+    /**
+     * Visits the requests matching the query filter and time range, applying the query offset and
+     * count, without sorting them
+     */
+    void visit(Query q, final RequestRingBuffer.Visitor visitor) {
+        final List<Predicate> predicates = new ArrayList<Predicate>();
         if (q.getFilter() != null) {
             Filter f = q.getFilter();
             predicates.add(new PropertyCompare(f.getLeft(), f.getType(), f.getRight()));
@@ -86,28 +125,34 @@ public class MemoryMonitorDAO implements MonitorDAO {
         if (q.getFromDate() != null || q.getToDate() != null) {
             predicates.add(new DateRange(q.getFromDate(), q.getToDate()));
         }
+        final long offset = q.getOffset() != null ? q.getOffset() : 0;
+        final long count = q.getCount() != null ? q.getCount() : Long.MAX_VALUE;
         
-        int i = 1, count = 0;
-        
-O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
-            RequestData r = it.next();
-            for (Predicate p : predicates) {
-                if (!p.matches(r)) {
-                    it.remove();
-                    continue O;
+        visit(new RequestRingBuffer.Visitor() {
+            long matched = 0;
+            long visited = 0;
+            
+            public boolean visit(RequestData r) {
+                for (Predicate p : predicates) {
+                    if (!p.matches(r)) {
+                        return true;
+                    }
+                }
+                if (matched++ < offset) {
+                    return true;
+                }
+                if (visited >= count) {
+                    return false;
                 }
+                visited++;
+                return visitor.visit(r);
             }
+        });
+    }
         
-            if (q.getOffset() != null && q.getOffset() >= i++) {
-                it.remove();
-                continue;
-            }
-            if (q.getCount() != null && q.getCount() <= count) {
-                it.remove();
-                continue;       
-            }
-            count++;
-        }
+    public List<RequestData> getRequests(Query q) {
+        final List<RequestData> requests = new ArrayList<RequestData>();
+        visit(q, r -> requests.add(r));
         
         if (q.getSortBy() != null) {
             Collections.sort(requests, new Sorter(q.getSortBy(), q.getSortOrder()));
@@ -125,7 +170,12 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     }
     
     public long getCount(Query query) {
-        return getRequests(query).size();
+        final long[] count = new long[1];
+        visit(query, r -> {
+            count[0]++;
+            return true;
+        });
+        return count[0];
     }
     
     public Iterator<RequestData> getIterator(Query query) {
@@ -161,13 +211,14 @@ O:      for (Iterator<RequestData> it = requests.iterator(); it.hasNext();) {
     };
     
     public void clear() {
+        history.clear();
+        statistics.reset();
     }
     
     public void dispose() {
         live.clear();
-        live = null;
         history.clear();
-        history = null;
+        statistics.reset();
     }
     
     static interface Predicate {
@@ -25,6 +25,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.geoserver.filters.GeoServerFilter;
+import org.geoserver.filters.RequestCompletion;
 import org.geoserver.monitor.RequestData.Status;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geotools.util.logging.Logging;
@@ -147,14 +148,39 @@ public class MonitorFilter implements GeoServerFilter {
             error = t;
         }
         
-        data = monitor.current();
-        
+        final RequestData current = monitor.current();
+        final MonitorServletRequest monitorRequest = (MonitorServletRequest) request;
+        final MonitorServletResponse monitorResponse = (MonitorServletResponse) response;
+        final Throwable failure = error;
+        boolean deferred = RequestCompletion.afterCompletion(request, () -> {
+            // when run asynchronously, completion happens in another thread
+            Monitor.REQUEST.set(current);
+            complete(current, monitorRequest, monitorResponse, failure, req, resp);
+        });
+        if (deferred) {
+            // the request is still running in another thread, which got its own copy of the
+            // thread local, don't leak it to the next request handled by this one
+            Monitor.REQUEST.remove();
+        }
         
-        data.setBody(getBody((MonitorServletRequest) request));
-        data.setBodyContentLength(((MonitorServletRequest)request).getBytesRead());
+        if (error != null) {
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException)error;
+            }
+            else {
+                throw new RuntimeException(error);
+            }
+        }
+    }
+
+    void complete(RequestData data, MonitorServletRequest request,
+            MonitorServletResponse response, Throwable error, HttpServletRequest req,
+            HttpServletResponse resp) {
+        data.setBody(getBody(request));
+        data.setBodyContentLength(request.getBytesRead());
         data.setResponseContentType(response.getContentType());
-        data.setResponseLength(((MonitorServletResponse)response).getContentLength());
-        data.setResponseStatus(((MonitorServletResponse)response).getStatus());
+        data.setResponseLength(response.getContentLength());
+        data.setResponseStatus(response.getStatus());
         
         if (error != null) {
             data.setStatus(Status.FAILED);
@@ -175,15 +201,6 @@ public class MonitorFilter implements GeoServerFilter {
         
         //post processing
         postProcessExecutor.execute(new PostProcessTask(monitor, data, req, resp));
-        
-        if (error != null) {
-            if (error instanceof RuntimeException) {
-                throw (RuntimeException)error;
-            }
-            else {
-                throw new RuntimeException(error);
-            }
-        }
     }
 
     public void destroy() {
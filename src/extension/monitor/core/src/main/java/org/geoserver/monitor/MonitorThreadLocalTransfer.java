@@ -0,0 +1,41 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.Map;
+
+import org.geoserver.threadlocals.ThreadLocalTransfer;
+
+/**
+ * Transfers the request being monitored to the threads working on it, e.g., the ones running
+ * the OWS requests asynchronously, so that the {@link RequestData} gets filled by the callbacks
+ * running there
+ */
+public class MonitorThreadLocalTransfer implements ThreadLocalTransfer {
+
+    static final String KEY = Monitor.class.getName() + "#REQUEST";
+
+    @Override
+    public void collect(Map<String, Object> storage) {
+        RequestData data = Monitor.REQUEST.get();
+        if (data != null) {
+            storage.put(KEY, data);
+        }
+    }
+
+    @Override
+    public void apply(Map<String, Object> storage) {
+        RequestData data = (RequestData) storage.get(KEY);
+        if (data != null) {
+            Monitor.REQUEST.set(data);
+        }
+    }
+
+    @Override
+    public void cleanup() {
+        Monitor.REQUEST.remove();
+    }
+
+}
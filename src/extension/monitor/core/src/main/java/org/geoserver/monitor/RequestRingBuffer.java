@@ -0,0 +1,126 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock free buffer of the most recent requests. Adding a request overwrites the oldest
+ * one once the buffer is full.
+ * <p>
+ * Readers visit a consistent, oldest to newest, view of the requests added before the visit
+ * started; requests overwritten by concurrent writers during the visit are skipped.
+ * </p>
+ */
+public class RequestRingBuffer {
+
+    /**
+     * A slot entry, remembering the sequence number it was written with
+     */
+    static final class Entry {
+        final long sequence;
+
+        final RequestData data;
+
+        Entry(long sequence, RequestData data) {
+            this.sequence = sequence;
+            this.data = data;
+        }
+    }
+
+    final AtomicReferenceArray<Entry> slots;
+
+    final int capacity;
+
+    final AtomicLong next = new AtomicLong();
+
+    /** The first sequence number still visible, moved forward on clear */
+    volatile long start;
+
+    public RequestRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<Entry>(capacity);
+    }
+
+    /**
+     * Adds a request, overwriting the oldest one if the buffer is full
+     */
+    public void add(RequestData data) {
+        long sequence = next.getAndIncrement();
+        slots.set((int) (sequence % capacity), new Entry(sequence, data));
+    }
+
+    /**
+     * Visits the requests, from the oldest to the newest, until the visitor returns false
+     */
+    public void visit(Visitor visitor) {
+        long end = next.get();
+        for (long sequence = first(end); sequence < end; sequence++) {
+            Entry entry = slots.get((int) (sequence % capacity));
+            // skip slots still being written, or already overwritten
+            if (entry != null && entry.sequence == sequence) {
+                if (!visitor.visit(entry.data)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the request with the given id, or null if not found. The newest requests are
+     * checked first
+     */
+    public RequestData get(long id) {
+        long end = next.get();
+        for (long sequence = end - 1; sequence >= first(end); sequence--) {
+            Entry entry = slots.get((int) (sequence % capacity));
+            if (entry != null && entry.sequence == sequence && entry.data.getId() == id) {
+                return entry.data;
+            }
+        }
+        return null;
+    }
+
+    private long first(long end) {
+        return Math.max(start, end - capacity);
+    }
+
+    /**
+     * Returns the number of requests in the buffer
+     */
+    public int size() {
+        long end = next.get();
+        return (int) (end - first(end));
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Removes all the requests
+     */
+    public void clear() {
+        start = next.get();
+        for (int i = 0; i < capacity; i++) {
+            slots.set(i, null);
+        }
+    }
+
+    /**
+     * Receives the requests during a {@link RequestRingBuffer#visit(Visitor)}
+     */
+    public static interface Visitor {
+
+        /**
+         * Returns true to keep on visiting, false to stop
+         */
+        boolean visit(RequestData data);
+    }
+}
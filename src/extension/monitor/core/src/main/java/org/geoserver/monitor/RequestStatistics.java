@@ -0,0 +1,271 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.geoserver.monitor.RequestData.Status;
+
+/**
+ * Request statistics aggregated as the requests complete, so that they can be read at constant
+ * cost regardless of the request rate: overall and per operation latency histograms, per layer
+ * and per operation counters, and per minute counters for the last hour.
+ * <p>
+ * The number of distinct layers and operations tracked is bounded, the ones in excess are
+ * accounted under {@value #OTHER}.
+ * </p>
+ */
+public class RequestStatistics {
+
+    static final String OTHER = "other";
+
+    static final int MINUTES = 60;
+
+    static final int DEFAULT_MAX_KEYS = 1000;
+
+    /**
+     * Counters for a group of requests
+     */
+    public static class Counters {
+        final LongAdder count = new LongAdder();
+
+        final LongAdder errors = new LongAdder();
+
+        final LongAdder totalTime = new LongAdder();
+
+        void record(long time, boolean error) {
+            count.increment();
+            totalTime.add(time);
+            if (error) {
+                errors.increment();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getTotalTime() {
+            return totalTime.sum();
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            long count = getCount();
+            map.put("count", count);
+            map.put("errors", getErrors());
+            map.put("averageTime", count == 0 ? 0 : (double) getTotalTime() / count);
+            return map;
+        }
+    }
+
+    /**
+     * Counters for a given minute
+     */
+    static class Minute extends Counters {
+        volatile long minute = -1;
+    }
+
+    /**
+     * Counters and latency histogram for an operation
+     */
+    public static class OperationCounters extends Counters {
+        final LatencyHistogram latency = new LatencyHistogram();
+
+        @Override
+        void record(long time, boolean error) {
+            super.record(time, error);
+            latency.record(time);
+        }
+
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        @Override
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = super.toMap();
+            map.put("latency", latency.toMap());
+            return map;
+        }
+    }
+
+    final LatencyHistogram latency = new LatencyHistogram();
+
+    final LongAdder errors = new LongAdder();
+
+    final Map<String, Counters> layers = new ConcurrentHashMap<String, Counters>();
+
+    final Map<String, OperationCounters> operations = new ConcurrentHashMap<String, OperationCounters>();
+
+    final Minute[] minutes = new Minute[MINUTES];
+
+    final int maxKeys;
+
+    public RequestStatistics() {
+        this(DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param maxKeys the maximum number of distinct layers and operations tracked
+     */
+    public RequestStatistics(int maxKeys) {
+        this.maxKeys = maxKeys;
+        for (int i = 0; i < MINUTES; i++) {
+            minutes[i] = new Minute();
+        }
+    }
+
+    /**
+     * Accounts for a completed request
+     */
+    public void record(RequestData data) {
+        long time = data.getTotalTime();
+        boolean error = data.getStatus() == Status.FAILED;
+        latency.record(time);
+        if (error) {
+            errors.increment();
+        }
+
+        if (data.getService() != null) {
+            String operation = data.getOperation() == null ? data.getService()
+                    : data.getService() + "." + data.getOperation();
+            counters(operations, operation, OperationCounters::new).record(time, error);
+        }
+        List<String> resources = data.getResources();
+        if (resources != null) {
+            for (String layer : resources) {
+                if (layer != null) {
+                    counters(layers, layer, Counters::new).record(time, error);
+                }
+            }
+        }
+
+        long end = data.getEndTime() != null ? data.getEndTime().getTime()
+                : System.currentTimeMillis();
+        minute(end / 60000).record(time, error);
+    }
+
+    <T extends Counters> T counters(Map<String, T> map, String key,
+            Supplier<T> factory) {
+        T counters = map.get(key);
+        if (counters == null) {
+            if (map.size() >= maxKeys) {
+                key = OTHER;
+            }
+            counters = map.computeIfAbsent(key, k -> factory.get());
+        }
+        return counters;
+    }
+
+    Minute minute(long minute) {
+        Minute slot = minutes[(int) (minute % MINUTES)];
+        if (slot.minute != minute) {
+            synchronized (slot) {
+                // a request completing more than an hour late is accounted in the
+                // more recent minute sharing its slot, rather than resetting it
+                if (slot.minute < minute) {
+                    slot.count.reset();
+                    slot.errors.reset();
+                    slot.totalTime.reset();
+                    slot.minute = minute;
+                }
+            }
+        }
+        return slot;
+    }
+
+    /**
+     * The latency of all the requests
+     */
+    public LatencyHistogram getLatency() {
+        return latency;
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * The counters by layer name
+     */
+    public Map<String, Counters> getLayers() {
+        return new TreeMap<String, Counters>(layers);
+    }
+
+    /**
+     * The counters by operation, in <code>service.operation</code> form
+     */
+    public Map<String, OperationCounters> getOperations() {
+        return new TreeMap<String, OperationCounters>(operations);
+    }
+
+    /**
+     * The per minute counters for the last hour, from the oldest to the most recent minute.
+     * Each map contains the minute start time, in milliseconds since the epoch, along with the
+     * counters
+     */
+    public List<Map<String, Object>> getMinutes() {
+        long current = System.currentTimeMillis() / 60000;
+        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+        for (long minute = current - MINUTES + 1; minute <= current; minute++) {
+            Minute slot = minutes[(int) (minute % MINUTES)];
+            if (slot.minute == minute) {
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+                map.put("time", minute * 60000);
+                map.putAll(slot.toMap());
+                result.add(map);
+            }
+        }
+        return result;
+    }
+
+    public void reset() {
+        latency.reset();
+        errors.reset();
+        layers.clear();
+        operations.clear();
+        for (Minute slot : minutes) {
+            synchronized (slot) {
+                slot.count.reset();
+                slot.errors.reset();
+                slot.totalTime.reset();
+                slot.minute = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns all the statistics as a map, for encoding purposes
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("errors", getErrors());
+        map.put("latency", latency.toMap());
+        Map<String, Object> ops = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, OperationCounters> entry : getOperations().entrySet()) {
+            ops.put(entry.getKey(), entry.getValue().toMap());
+        }
+        map.put("operations", ops);
+        Map<String, Object> lyrs = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Counters> entry : getLayers().entrySet()) {
+            lyrs.put(entry.getKey(), entry.getValue().toMap());
+        }
+        map.put("layers", lyrs);
+        map.put("minutes", getMinutes());
+        return map;
+    }
+}
@@ -0,0 +1,37 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.rest;
+
+import java.util.Map;
+
+import org.geoserver.monitor.MemoryMonitorDAO;
+import org.geoserver.monitor.Monitor;
+import org.geoserver.monitor.MonitorDAO;
+import org.geoserver.rest.MapResource;
+import org.geoserver.rest.RestletException;
+import org.restlet.data.Status;
+
+/**
+ * Returns the aggregated request statistics kept by the memory storage, see
+ * {@link org.geoserver.monitor.RequestStatistics}
+ */
+public class RequestStatisticsResource extends MapResource {
+
+    Monitor monitor;
+
+    public RequestStatisticsResource(Monitor monitor) {
+        this.monitor = monitor;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        MonitorDAO dao = monitor.getDAO();
+        if (!(dao instanceof MemoryMonitorDAO)) {
+            throw new RestletException("Request statistics are available only with the "
+                    + MemoryMonitorDAO.NAME + " storage", Status.CLIENT_ERROR_NOT_FOUND);
+        }
+        return ((MemoryMonitorDAO) dao).getStatistics().toMap();
+    }
+}
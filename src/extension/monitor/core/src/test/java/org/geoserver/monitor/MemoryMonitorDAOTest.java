@@ -5,7 +5,20 @@
  */
 package org.geoserver.monitor;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.monitor.Query.Comparison;
+import org.geoserver.monitor.RequestData.Status;
 import org.junit.BeforeClass;
+import org.junit.Test;
 
 public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
 
@@ -14,4 +27,105 @@ public class MemoryMonitorDAOTest extends MonitorDAOTestSupport {
         dao = new MemoryMonitorDAO();
         setUpData();
     }
+
+    RequestData request(MemoryMonitorDAO dao, String service, String operation, long time,
+            Status status, String... layers) {
+        RequestData data = dao.init(new RequestData());
+        data.setService(service);
+        data.setOperation(operation);
+        data.setTotalTime(time);
+        data.setStatus(status);
+        data.setEndTime(new Date());
+        data.setResources(Arrays.asList(layers));
+        return data;
+    }
+
+    @Test
+    public void testHistoryBounded() throws Exception {
+        MemoryMonitorDAO dao = new MemoryMonitorDAO();
+        dao.history = new RequestRingBuffer(10);
+
+        RequestData running = request(dao, "WMS", "GetMap", 0, Status.RUNNING);
+        dao.add(running);
+        for (int i = 0; i < 25; i++) {
+            dao.save(request(dao, "WMS", "GetMap", i, Status.FINISHED));
+        }
+
+        // the running request, and the last 10 completed ones, in order
+        List<RequestData> requests = dao.getRequests();
+        assertEquals(11, requests.size());
+        assertEquals(running.getId(), requests.get(0).getId());
+        for (int i = 1; i < requests.size(); i++) {
+            assertEquals(running.getId() + 15 + i, requests.get(i).getId());
+        }
+        assertNotNull(dao.getRequest(running.getId()));
+        assertNull(dao.getRequest(running.getId() + 1));
+        assertEquals(running.getId() + 25, dao.getRequest(running.getId() + 25).getId());
+
+        assertEquals(10, dao.getCount(new Query().filter("status", Status.FINISHED,
+                Comparison.EQ)));
+        assertEquals(2, dao.getCount(new Query().filter("status", Status.FINISHED,
+                Comparison.EQ).page(8l, 5l)));
+
+        // completing the running request moves it to the history
+        dao.save(running);
+        requests = dao.getRequests();
+        assertEquals(10, requests.size());
+        assertEquals(running.getId(), requests.get(9).getId());
+
+        dao.clear();
+        assertTrue(dao.getRequests().isEmpty());
+        assertNull(dao.getRequest(running.getId()));
+    }
+
+    @Test
+    public void testStatistics() throws Exception {
+        MemoryMonitorDAO dao = new MemoryMonitorDAO();
+        for (int i = 1; i <= 100; i++) {
+            dao.save(request(dao, "WMS", "GetMap", i * 10, Status.FINISHED, "topp:states"));
+        }
+        dao.save(request(dao, "WFS", "GetFeature", 5000, Status.FAILED, "topp:states",
+                "sf:roads"));
+
+        RequestStatistics stats = dao.getStatistics();
+        assertEquals(101, stats.getLatency().getCount());
+        assertEquals(5000, stats.getLatency().getMax());
+        assertEquals(1, stats.getErrors());
+        // relative precision within a few percent
+        long p50 = stats.getLatency().getPercentile(50);
+        assertTrue(String.valueOf(p50), p50 >= 500 && p50 <= 530);
+        long p99 = stats.getLatency().getPercentile(99);
+        assertTrue(String.valueOf(p99), p99 >= 990 && p99 <= 1050);
+
+        Map<String, RequestStatistics.OperationCounters> operations = stats.getOperations();
+        assertEquals(100, operations.get("WMS.GetMap").getCount());
+        assertEquals(1, operations.get("WFS.GetFeature").getErrors());
+        assertEquals(101, stats.getLayers().get("topp:states").getCount());
+        assertEquals(1, stats.getLayers().get("sf:roads").getCount());
+
+        // all requests completed in the last minute or so
+        long total = 0;
+        for (Map<String, Object> minute : stats.getMinutes()) {
+            total += (Long) minute.get("count");
+        }
+        assertEquals(101, total);
+
+        dao.clear();
+        assertEquals(0, stats.getLatency().getCount());
+        assertTrue(stats.getOperations().isEmpty());
+    }
+
+    @Test
+    public void testStatisticsBoundedKeys() throws Exception {
+        RequestStatistics stats = new RequestStatistics(2);
+        MemoryMonitorDAO dao = new MemoryMonitorDAO();
+        for (String layer : new String[] { "a", "b", "c", "d", "a" }) {
+            stats.record(request(dao, "WMS", "GetMap", 10, Status.FINISHED, layer));
+        }
+        Map<String, RequestStatistics.Counters> layers = stats.getLayers();
+        assertEquals(3, layers.size());
+        assertEquals(2, layers.get("a").getCount());
+        assertEquals(1, layers.get("b").getCount());
+        assertEquals(2, layers.get(RequestStatistics.OTHER).getCount());
+    }
 }
@@ -11,7 +11,11 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
@@ -234,6 +238,56 @@ public class MonitorFilterTest {
         SecurityContextHolder.getContext().setAuthentication(null);
     }
     
+    @Test
+    public void testAsync() throws Exception {
+        final MonitorThreadLocalTransfer transfer = new MonitorThreadLocalTransfer();
+        final Map<String, Object> storage = new HashMap<>();
+        final AtomicReference<Thread> worker = new AtomicReference<>();
+        // detaches the request and completes it in another thread, like the dispatcher does
+        // when running requests asynchronously
+        chain = new MockFilterChain(new HttpServlet() {
+            @Override
+            public void service(final ServletRequest req, final ServletResponse res)
+                    throws ServletException, IOException {
+                final AsyncContext context = req.startAsync(req, res);
+                transfer.collect(storage);
+                Thread thread = new Thread(() -> {
+                    transfer.apply(storage);
+                    try {
+                        Thread.sleep(100);
+                        RequestData data = filter.monitor.current();
+                        data.setService("WMS");
+                        data.setOperation("GetMap");
+                        filter.monitor.update();
+                        res.getOutputStream().write("hello".getBytes());
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        context.complete();
+                        transfer.cleanup();
+                    }
+                });
+                worker.set(thread);
+                thread.start();
+            }
+        });
+
+        MockHttpServletRequest req = request("GET", "/foo/bar", "12.34.56.78", null, null);
+        req.setAsyncSupported(true);
+        filter.doFilter(req, response(), chain);
+        // the container thread is released, without leaving the request behind
+        assertNull(filter.monitor.current());
+
+        worker.get().join(10000);
+        RequestData data = dao.getLast();
+        assertNotNull(data);
+        assertEquals("WMS", data.getService());
+        assertEquals("GetMap", data.getOperation());
+        assertEquals(RequestData.Status.FINISHED, data.getStatus());
+        assertEquals(5, data.getResponseLength());
+        assertTrue(data.getTotalTime() >= 100);
+    }
+
     MockHttpServletRequest request(String method, String path, String remoteAddr, String body, String referer) throws UnsupportedEncodingException {
         MockHttpServletRequest req = new MockHttpServletRequest();
         req.setMethod(method);
@@ -0,0 +1,331 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.geoserver.monitor.hib.HibernateMonitorDAO2.Task;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Writes the monitoring records from a single background thread, grouping the records queued
+ * while the previous batch was being written into a single transaction (and JDBC batch, when
+ * <code>hibernate.jdbc.batch_size</code> is set and the id generation strategy allows it).
+ * <p>
+ * The queue is bounded, when it's full the {@link OverflowPolicy} decides what happens to the
+ * new records. Records of a given request are written in the order they were queued. On
+ * shutdown the records still queued are written before returning.
+ * </p>
+ * <p>
+ * The queue depth, written, dropped and failed records are exposed via JMX as
+ * <code>org.geoserver:type=MonitorWriter</code>.
+ * </p>
+ */
+public class BatchingMonitorWriter implements BatchingMonitorWriterMBean {
+
+    static final Logger LOGGER = Logging.getLogger(BatchingMonitorWriter.class);
+
+    /**
+     * What to do with new records when the queue is full
+     */
+    public static enum OverflowPolicy {
+        /**
+         * Block the request thread until there is room in the queue, up to one second, then drop
+         * the record
+         */
+        BLOCK,
+        /**
+         * Drop the record
+         */
+        DROP,
+        /**
+         * Once the queue is half full keep only one record out of the sample rate, drop all
+         * records once it's full
+         */
+        SAMPLE
+    }
+
+    static final long BLOCK_TIMEOUT = 1000;
+
+    static final long SHUTDOWN_TIMEOUT = 30000;
+
+    final HibernateMonitorDAO2 dao;
+
+    final BlockingQueue<Task> queue;
+
+    final int capacity;
+
+    final int batchSize;
+
+    final OverflowPolicy policy;
+
+    final int sampleRate;
+
+    final Thread thread;
+
+    volatile boolean running = true;
+
+    /** Records accepted and not yet written (or failed) */
+    final AtomicLong pending = new AtomicLong();
+
+    final AtomicLong sampleCounter = new AtomicLong();
+
+    final LongAdder written = new LongAdder();
+
+    final LongAdder dropped = new LongAdder();
+
+    final LongAdder failed = new LongAdder();
+
+    final LongAdder batches = new LongAdder();
+
+    public BatchingMonitorWriter(HibernateMonitorDAO2 dao, int capacity, int batchSize,
+            OverflowPolicy policy, int sampleRate) {
+        this.dao = dao;
+        this.capacity = Math.max(1, capacity);
+        this.queue = new ArrayBlockingQueue<Task>(this.capacity);
+        this.batchSize = Math.max(1, batchSize);
+        this.policy = policy;
+        this.sampleRate = Math.max(1, sampleRate);
+
+        thread = new Thread(this::writeLoop, "gs-monitor-writer");
+        thread.setDaemon(true);
+        thread.start();
+        register();
+    }
+
+    /**
+     * Queues a record for writing, subject to the overflow policy
+     *
+     * @return true if the record was queued (or written directly after shutdown), false if
+     *         dropped
+     */
+    public boolean write(Task task) {
+        if (!running) {
+            // shutting down, the writer thread might be gone already
+            task.run();
+            return true;
+        }
+
+        boolean accepted;
+        pending.incrementAndGet();
+        try {
+            switch (policy) {
+            case BLOCK:
+                accepted = queue.offer(task, BLOCK_TIMEOUT, TimeUnit.MILLISECONDS);
+                break;
+            case SAMPLE:
+                accepted = (queue.size() < capacity / 2
+                        || sampleCounter.incrementAndGet() % sampleRate == 0) && queue.offer(task);
+                break;
+            default:
+                accepted = queue.offer(task);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            accepted = false;
+        }
+
+        if (!accepted) {
+            dropped.increment();
+            completed(1);
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Monitoring queue full, dropped record " + task.desc);
+            }
+        }
+        return accepted;
+    }
+
+    void writeLoop() {
+        List<Task> batch = new ArrayList<Task>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Task first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                process(batch);
+            } catch (InterruptedException e) {
+                // check the running flag and go on
+            } catch (Throwable t) {
+                LOGGER.log(Level.SEVERE, "Unexpected error writing monitoring records", t);
+            } finally {
+                if (!batch.isEmpty()) {
+                    completed(batch.size());
+                    batch.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a batch in a single transaction, if that fails, writes each record in its own
+     * transaction so that a bad record does not take down the others
+     */
+    void process(List<Task> batch) {
+        try {
+            write(batch);
+            batches.increment();
+            written.add(batch.size());
+            return;
+        } catch (RuntimeException e) {
+            if (batch.size() == 1) {
+                failed.increment();
+                LOGGER.log(Level.WARNING, "Failed to write monitoring record", e);
+                return;
+            }
+            LOGGER.log(Level.WARNING, "Failed to write a batch of " + batch.size()
+                    + " monitoring records, writing them one by one", e);
+        }
+
+        for (Task task : batch) {
+            try {
+                write(Collections.singletonList(task));
+                batches.increment();
+                written.increment();
+            } catch (RuntimeException e) {
+                failed.increment();
+                LOGGER.log(Level.WARNING, "Failed to write monitoring record " + task.desc, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the records in a single transaction
+     */
+    protected void write(List<Task> batch) {
+        dao.write(batch);
+    }
+
+    void completed(int count) {
+        if (pending.addAndGet(-count) == 0) {
+            synchronized (pending) {
+                pending.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until all the records queued so far have been written, or the timeout expires
+     *
+     * @return true if all the records have been written
+     */
+    public boolean flush(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (pending) {
+            long remaining;
+            while (pending.get() > 0 && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                pending.wait(remaining);
+            }
+        }
+        return pending.get() == 0;
+    }
+
+    /**
+     * Stops accepting records, and waits for the queued ones to be written
+     */
+    public void shutdown() {
+        running = false;
+        try {
+            thread.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            LOGGER.warning("Timed out waiting for the monitoring records to be written, "
+                    + queue.size() + " records lost");
+        } else {
+            // records queued while the writer thread was exiting
+            List<Task> batch = new ArrayList<Task>();
+            queue.drainTo(batch);
+            if (!batch.isEmpty()) {
+                process(batch);
+                completed(batch.size());
+            }
+        }
+        unregister();
+    }
+
+    ObjectName getObjectName() throws Exception {
+        return new ObjectName("org.geoserver:type=MonitorWriter");
+    }
+
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not register the monitoring writer statistics", e);
+        }
+    }
+
+    void unregister() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = getObjectName();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not unregister the monitoring writer statistics", e);
+        }
+    }
+
+    @Override
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return capacity;
+    }
+
+    @Override
+    public long getWrittenRecords() {
+        return written.sum();
+    }
+
+    @Override
+    public long getDroppedRecords() {
+        return dropped.sum();
+    }
+
+    @Override
+    public long getFailedRecords() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public void reset() {
+        written.reset();
+        dropped.reset();
+        failed.reset();
+        batches.reset();
+    }
+}
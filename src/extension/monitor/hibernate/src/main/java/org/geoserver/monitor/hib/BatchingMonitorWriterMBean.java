@@ -0,0 +1,46 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+/**
+ * JMX view of the {@link BatchingMonitorWriter} metrics
+ */
+public interface BatchingMonitorWriterMBean {
+
+    /**
+     * Number of records waiting to be written
+     */
+    int getQueueSize();
+
+    /**
+     * Maximum number of records that can wait to be written
+     */
+    int getQueueCapacity();
+
+    /**
+     * Number of records written to the database
+     */
+    long getWrittenRecords();
+
+    /**
+     * Number of records dropped because the queue was full, or not sampled
+     */
+    long getDroppedRecords();
+
+    /**
+     * Number of records that could not be written due to database errors
+     */
+    long getFailedRecords();
+
+    /**
+     * Number of batches (transactions) written
+     */
+    long getBatches();
+
+    /**
+     * Resets the counters
+     */
+    void reset();
+}
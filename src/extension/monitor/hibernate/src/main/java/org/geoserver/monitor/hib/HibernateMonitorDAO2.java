@@ -10,6 +10,8 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import org.geoserver.monitor.CompositeFilter;
 import org.geoserver.monitor.Filter;
@@ -23,7 +25,9 @@ import org.geoserver.monitor.Query.Comparison;
 import org.geoserver.monitor.Query.SortOrder;
 import org.geoserver.monitor.RequestData;
 import org.geoserver.monitor.RequestDataVisitor;
+import org.geoserver.monitor.hib.BatchingMonitorWriter.OverflowPolicy;
 import org.geoserver.ows.util.OwsUtils;
+import org.geotools.util.logging.Logging;
 import org.hibernate.HibernateException;
 import org.hibernate.Session;
 import org.hibernate.SessionFactory;
@@ -36,15 +40,34 @@ import com.google.common.base.FinalizableReference;
 
 public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 
+    static final Logger LOGGER = Logging.getLogger(HibernateMonitorDAO2.class);
+
     public static enum Sync {
-        SYNC, ASYNC, ASYNC_UPDATE;
+        SYNC, ASYNC, ASYNC_UPDATE,
+        /**
+         * Records are queued and written in batches by a single background thread, see
+         * {@link BatchingMonitorWriter}
+         */
+        BATCH;
     }
 
+    static final int DEFAULT_BATCH_SIZE = 100;
+
+    static final int DEFAULT_BATCH_QUEUE = 10000;
+
+    static final int DEFAULT_BATCH_SAMPLE_RATE = 10;
+
     HibernateTemplate hib;
     PipeliningTaskQueue<Thread> tasks;
+    BatchingMonitorWriter writer;
 
     Mode mode = Mode.HISTORY;
     Sync sync = Sync.ASYNC;
+
+    int batchSize = DEFAULT_BATCH_SIZE;
+    int batchQueue = DEFAULT_BATCH_QUEUE;
+    OverflowPolicy batchPolicy = OverflowPolicy.BLOCK;
+    int batchSampleRate = DEFAULT_BATCH_SAMPLE_RATE;
     
     public HibernateMonitorDAO2() {
         setMode(Mode.HISTORY);
@@ -58,27 +81,77 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
     @Override
     public void init(MonitorConfig config) {
         setMode(config.getMode());
+        Properties props = config.getProperties();
+        batchSize = getInt(props, "hibernate.batch.size", DEFAULT_BATCH_SIZE);
+        batchQueue = getInt(props, "hibernate.batch.queue", DEFAULT_BATCH_QUEUE);
+        batchSampleRate = getInt(props, "hibernate.batch.sampleRate", DEFAULT_BATCH_SAMPLE_RATE);
+        try {
+            batchPolicy = OverflowPolicy.valueOf(props.getProperty("hibernate.batch.policy",
+                    "block").toUpperCase());
+        } catch (IllegalArgumentException e) {
+            LOGGER.warning("Invalid hibernate.batch.policy value, valid values are "
+                    + "block, drop and sample, using block instead");
+            batchPolicy = OverflowPolicy.BLOCK;
+        }
         setSync(getSync(config));
     }
 
+    int getInt(Properties props, String key, int defaultValue) {
+        String value = props.getProperty(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid " + key + " value, using " + defaultValue + " instead");
+            }
+        }
+        return defaultValue;
+    }
+
     public Sync getSync(MonitorConfig config) {
         return Sync.valueOf(config.getProperties().getProperty("hibernate.sync", "async").toUpperCase());
     }
 
     public void setSync(Sync sync) {
         this.sync = sync;
-        if (sync != Sync.SYNC) {
+        if (sync == Sync.BATCH) {
+            if (tasks != null) {
+                tasks.shutdown();
+                tasks = null;
+            }
+            // the writer is created lazily, on first write
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
+        }
+        else if (sync != Sync.SYNC) {
+            if (writer != null) {
+                writer.shutdown();
+                writer = null;
+            }
             if (tasks == null) {
                 tasks = new PipeliningTaskQueue<Thread>();
                 tasks.start();
             }
         }
         else {
-            if (tasks != null) {
+            if (tasks != null || writer != null) {
                 dispose();
             }
         }
     }
+
+    /**
+     * Returns the batching writer, or null if the sync mode is not {@link Sync#BATCH}
+     */
+    public synchronized BatchingMonitorWriter getWriter() {
+        if (writer == null && sync == Sync.BATCH) {
+            writer = new BatchingMonitorWriter(this, batchQueue, batchSize, batchPolicy,
+                    batchSampleRate);
+        }
+        return writer;
+    }
     public void setMode(Mode mode) {
         this.mode = mode;
     }
@@ -141,6 +214,13 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
             tasks.shutdown();
             tasks = null;
         }
+        synchronized (this) {
+            if (writer != null) {
+                // flushes the queued records
+                writer.shutdown();
+                writer = null;
+            }
+        }
     }
 
     public List<RequestData> getOwsRequests() {
@@ -577,7 +657,11 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
 //    }
     
     protected void run(Task task) {
-        if (tasks != null) {
+        BatchingMonitorWriter writer = sync == Sync.BATCH ? getWriter() : null;
+        if (writer != null) {
+            writer.write(task);
+        }
+        else if (tasks != null) {
             tasks.execute(Thread.currentThread(), new Async(task), task.desc);
         }
         else {
@@ -601,14 +685,67 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
         
     }
     
+    /**
+     * Writes the tasks in a single transaction, on a dedicated session. On failure the ids
+     * assigned by the inserts are reset, so that the tasks can be written again
+     */
+    void write(List<Task> batch) {
+        Session session = hib.getSessionFactory().openSession();
+        Transaction tx = null;
+        try {
+            tx = session.beginTransaction();
+            for (Task task : batch) {
+                synchronized (task.data) {
+                    task.write(session);
+                }
+            }
+            tx.commit();
+        } catch (RuntimeException e) {
+            if (tx != null) {
+                try {
+                    tx.rollback();
+                } catch (RuntimeException re) {
+                    LOGGER.log(Level.FINE, "Failed to roll back the monitoring transaction", re);
+                }
+            }
+            for (Task task : batch) {
+                task.rollback();
+            }
+            throw e;
+        } finally {
+            session.close();
+        }
+    }
+    
     static abstract class Task implements Runnable {
         
         RequestData data;
         String desc;
+        boolean assignedId;
         
         Task(RequestData data) {
             this.data = data;
         }
+
+        /**
+         * Writes the request data in the given session, without handling the transaction
+         */
+        abstract void write(Session session);
+
+        void insert(Session session) {
+            data.setId((Long)session.save(data));
+            assignedId = true;
+        }
+
+        /**
+         * Resets the id assigned by {@link #insert(Session)}, after a rollback
+         */
+        void rollback() {
+            if (assignedId) {
+                data.setId(-1);
+                assignedId = false;
+            }
+        }
     }
     
     class Save extends Task {
@@ -617,6 +754,7 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
         Save(RequestData data) {
             super(data);
             this.data = data;
+            this.desc = "Save " + data.internalid;
         }
         
         public void run() {
@@ -628,6 +766,15 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
             }
             
         }
+
+        void write(Session session) {
+            if (data.getId() == -1) {
+                insert(session);
+            }
+            else {
+                session.update(data);
+            }
+        }
         
     }
     class Insert extends Task {
@@ -642,7 +789,7 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
                 public Object doInHibernate(Session session) throws HibernateException,
                         SQLException {
                     Transaction tx = session.beginTransaction();
-                    data.setId((Long)session.save(data));
+                    write(session);
                     //mergeLayers(data, session);
                     session.save(data);
                     tx.commit();
@@ -650,6 +797,10 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
                 }
             });
         }
+
+        void write(Session session) {
+            insert(session);
+        }
     }
     
     class Update extends Task {
@@ -666,7 +817,7 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
                     try {
                         Transaction tx = session.beginTransaction();
                         //mergeLayers(data, session);
-                        session.update(data);
+                        write(session);
                         tx.commit();
                     }
                     catch(HibernateException e) {
@@ -677,11 +828,17 @@ public class HibernateMonitorDAO2 implements MonitorDAO , DisposableBean {
                 }
             });
         }
+
+        void write(Session session) {
+            session.update(data);
+        }
         
     }
 
 	@Override
 	public void destroy() throws Exception {
+		// write out the queued records before closing the session factory
+		dispose();
 		getSessionFactory().close();
 	}
 }
@@ -0,0 +1,173 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.monitor.hib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.geoserver.monitor.RequestData;
+import org.geoserver.monitor.hib.BatchingMonitorWriter.OverflowPolicy;
+import org.geoserver.monitor.hib.HibernateMonitorDAO2.Task;
+import org.hibernate.Session;
+import org.junit.After;
+import org.junit.Test;
+
+public class BatchingMonitorWriterTest {
+
+    static class TestTask extends Task {
+
+        TestTask(long id) {
+            super(new RequestData());
+            data.setId(id);
+            desc = "Test " + id;
+        }
+
+        @Override
+        public void run() {
+        }
+
+        @Override
+        void write(Session session) {
+        }
+    }
+
+    /**
+     * Collects the batches, failing the ones containing a negative id, and blocking until
+     * released
+     */
+    static class TestWriter extends BatchingMonitorWriter {
+
+        List<List<Long>> batches = Collections.synchronizedList(new ArrayList<List<Long>>());
+
+        CountDownLatch release = new CountDownLatch(0);
+
+        TestWriter(int capacity, int batchSize, OverflowPolicy policy) {
+            super(null, capacity, batchSize, policy, 2);
+        }
+
+        @Override
+        protected void write(List<Task> batch) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            List<Long> ids = new ArrayList<Long>();
+            for (Task task : batch) {
+                if (task.data.getId() < 0) {
+                    throw new RuntimeException("Bad record");
+                }
+                ids.add(task.data.getId());
+            }
+            batches.add(ids);
+        }
+    }
+
+    TestWriter writer;
+
+    @After
+    public void shutdown() {
+        if (writer != null) {
+            writer.release.countDown();
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void testBatching() throws Exception {
+        writer = new TestWriter(100, 5, OverflowPolicy.BLOCK);
+        // hold the writer on the first record, the others pile up in the queue
+        writer.release = new CountDownLatch(1);
+        for (long i = 1; i <= 12; i++) {
+            assertTrue(writer.write(new TestTask(i)));
+        }
+        writer.release.countDown();
+        assertTrue(writer.flush(10000));
+
+        // all written, in order, in batches no larger than 5
+        List<Long> all = new ArrayList<Long>();
+        for (List<Long> batch : writer.batches) {
+            assertTrue(batch.size() <= 5);
+            all.addAll(batch);
+        }
+        assertEquals(12, all.size());
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i + 1, (long) all.get(i));
+        }
+        assertTrue(writer.batches.size() < 12);
+        assertEquals(12, writer.getWrittenRecords());
+        assertEquals(0, writer.getDroppedRecords());
+        assertEquals(0, writer.getQueueSize());
+    }
+
+    @Test
+    public void testFailedRecordIsolated() throws Exception {
+        writer = new TestWriter(100, 10, OverflowPolicy.BLOCK);
+        writer.release = new CountDownLatch(1);
+        writer.write(new TestTask(1));
+        writer.write(new TestTask(2));
+        writer.write(new TestTask(-3));
+        writer.write(new TestTask(4));
+        writer.release.countDown();
+        assertTrue(writer.flush(10000));
+
+        assertEquals(3, writer.getWrittenRecords());
+        assertEquals(1, writer.getFailedRecords());
+    }
+
+    @Test
+    public void testDropPolicy() throws Exception {
+        writer = new TestWriter(2, 10, OverflowPolicy.DROP);
+        writer.release = new CountDownLatch(1);
+        int accepted = 0;
+        for (long i = 1; i <= 10; i++) {
+            if (writer.write(new TestTask(i))) {
+                accepted++;
+            }
+        }
+        // the writer thread might have taken some records off the queue before blocking
+        assertTrue(String.valueOf(accepted), accepted >= 2 && accepted <= 4);
+        assertEquals(10 - accepted, writer.getDroppedRecords());
+        writer.release.countDown();
+        assertTrue(writer.flush(10000));
+        assertEquals(accepted, writer.getWrittenRecords());
+    }
+
+    @Test
+    public void testSamplePolicy() throws Exception {
+        writer = new TestWriter(100, 10, OverflowPolicy.SAMPLE);
+        writer.release = new CountDownLatch(1);
+        int accepted = 0;
+        for (long i = 1; i <= 100; i++) {
+            if (writer.write(new TestTask(i))) {
+                accepted++;
+            }
+        }
+        // the first half is accepted, then one record out of two
+        assertTrue(String.valueOf(accepted), accepted > 60 && accepted < 90);
+        assertEquals(100 - accepted, writer.getDroppedRecords());
+    }
+
+    @Test
+    public void testFlushOnShutdown() throws Exception {
+        writer = new TestWriter(100, 3, OverflowPolicy.BLOCK);
+        writer.release = new CountDownLatch(1);
+        for (long i = 1; i <= 10; i++) {
+            writer.write(new TestTask(i));
+        }
+        writer.release.countDown();
+        writer.shutdown();
+        assertEquals(10, writer.getWrittenRecords());
+        assertEquals(0, writer.getQueueSize());
+        assertFalse(writer.thread.isAlive());
+        writer = null;
+    }
+}
@@ -45,6 +45,7 @@ import org.geoserver.catalog.WorkspaceInfo;
 import org.geoserver.gwc.GWC;
 import org.geoserver.gwc.config.GWCConfig;
 import org.geoserver.gwc.dispatch.GwcServiceDispatcherCallback;
+import org.geoserver.metrics.MetricsRegistry;
 import org.geoserver.ows.LocalWorkspace;
 import org.geoserver.ows.Dispatcher;
 import org.geoserver.ows.URLMangler;
@@ -583,6 +584,7 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         tile.setMetaTileCacheOnly(!gridSubset.shouldCacheAtZoom(zLevel));
 
         if (tryCache && tryCacheFetch(tile)) {
+            recordCacheResult(true);
             return finalizeTile(tile);
         }
 
@@ -595,7 +597,11 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
             if (tryCache && tryCacheFetch(tile)) {
                 LOGGER.finest("--> " + Thread.currentThread().getName() + " returns cache hit for "
                         + Arrays.toString(metaTile.getMetaGridPos()));
+                recordCacheResult(true);
             } else {
+                if (tryCache) {
+                    recordCacheResult(false);
+                }
                 LOGGER.finer("--> " + Thread.currentThread().getName()
                         + " submitting getMap request for meta grid location "
                         + Arrays.toString(metaTile.getMetaGridPos()) + " on " + metaTile);
@@ -623,6 +629,13 @@ public class GeoServerTileLayer extends TileLayer implements ProxyLayer {
         return finalizeTile(tile);
     }
     
+    private void recordCacheResult(boolean hit) {
+        MetricsRegistry metrics = MetricsRegistry.get();
+        if (metrics != null) {
+            metrics.recordTile(getName(), hit);
+        }
+    }
+
     private String buildLockKey(ConveyorTile tile, GeoServerMetaTile metaTile) {
         StringBuilder metaKey = new StringBuilder();
         
@@ -0,0 +1,137 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Hit, miss, eviction and load time statistics for one of the {@link ResourcePool} caches.
+ * <p>
+ * The statistics survive the cache they are tracking, e.g., when the feature type cache is
+ * re-created after a change of its size, counting continues on the same object.
+ * </p>
+ */
+public class ResourceCacheStatistics implements ResourceCacheStatisticsMBean {
+
+    final String name;
+
+    final LongAdder hits = new LongAdder();
+
+    final LongAdder misses = new LongAdder();
+
+    final LongAdder evictions = new LongAdder();
+
+    final LongAdder loadTime = new LongAdder();
+
+    volatile LongSupplier size = () -> 0;
+
+    volatile long maximumWeight;
+
+    volatile long expireAfterAccess;
+
+    public ResourceCacheStatistics(String name) {
+        this.name = name;
+    }
+
+    void recordHit() {
+        hits.increment();
+    }
+
+    void recordLoad(long nanos) {
+        misses.increment();
+        loadTime.add(nanos);
+    }
+
+    void recordEviction() {
+        evictions.increment();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getSize() {
+        return size.getAsLong();
+    }
+
+    @Override
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    @Override
+    public long getExpireAfterAccess() {
+        return expireAfterAccess;
+    }
+
+    @Override
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0 ? 1d : (double) hits / total;
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getTotalLoadTime() {
+        return TimeUnit.NANOSECONDS.toMillis(loadTime.sum());
+    }
+
+    @Override
+    public double getAverageLoadTime() {
+        long misses = getMissCount();
+        return misses == 0 ? 0d : loadTime.sum() / 1e6 / misses;
+    }
+
+    @Override
+    public void reset() {
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+        loadTime.reset();
+    }
+
+    /**
+     * Returns the statistics as a map, suitable for encoding in REST responses
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("size", getSize());
+        map.put("maximumWeight", getMaximumWeight());
+        map.put("expireAfterAccess", getExpireAfterAccess());
+        map.put("hits", getHitCount());
+        map.put("misses", getMissCount());
+        map.put("hitRatio", getHitRatio());
+        map.put("evictions", getEvictionCount());
+        map.put("totalLoadTime", getTotalLoadTime());
+        map.put("averageLoadTime", getAverageLoadTime());
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return "ResourceCacheStatistics[" + name + ": " + toMap() + "]";
+    }
+}
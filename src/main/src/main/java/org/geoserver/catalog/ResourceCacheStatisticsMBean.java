@@ -0,0 +1,68 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog;
+
+/**
+ * JMX management interface for the statistics of one of the {@link ResourcePool} caches.
+ */
+public interface ResourceCacheStatisticsMBean {
+
+    /**
+     * The cache name, e.g. "dataStore", "featureType", "coverageReader"
+     */
+    String getName();
+
+    /**
+     * Number of entries currently in the cache
+     */
+    long getSize();
+
+    /**
+     * The maximum weight of the cache, or 0 if the cache is not bounded
+     */
+    long getMaximumWeight();
+
+    /**
+     * The time, in seconds, after which an entry not accessed is expired, or 0 if entries do not
+     * expire
+     */
+    long getExpireAfterAccess();
+
+    /**
+     * Number of lookups that found a cached entry
+     */
+    long getHitCount();
+
+    /**
+     * Number of lookups that had to load a new entry
+     */
+    long getMissCount();
+
+    /**
+     * Ratio between hits and total lookups, or 1 if no lookup was performed yet
+     */
+    double getHitRatio();
+
+    /**
+     * Number of entries removed from the cache because of size constraints or expiry (explicit
+     * removals are not counted)
+     */
+    long getEvictionCount();
+
+    /**
+     * Total time spent loading new entries, in milliseconds
+     */
+    long getTotalLoadTime();
+
+    /**
+     * Average time spent loading a new entry, in milliseconds
+     */
+    double getAverageLoadTime();
+
+    /**
+     * Resets all counters
+     */
+    void reset();
+}
@@ -34,8 +34,13 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Map.Entry;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -104,7 +109,6 @@ import org.geotools.gml2.GML;
 import org.geotools.measure.Measure;
 import org.geotools.referencing.CRS;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Utilities;
 import org.geotools.util.logging.Logging;
 import org.geotools.xml.DocumentFactory;
@@ -132,6 +136,14 @@ import org.vfny.geoserver.global.GeoServerFeatureLocking;
 import org.vfny.geoserver.util.DataStoreUtils;
 import org.xml.sax.EntityResolver;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 /**
  * Provides access to resources such as datastores, coverage readers, and 
  * feature types.
@@ -148,6 +160,11 @@ import org.xml.sax.EntityResolver;
  * <li>{@link #hintCoverageReaderCache} </li>
  * <li>{@link #styleCache} </li>
  * </p>
+ * <p>
+ * The default caches can be bounded in weight and expire entries after a period of inactivity,
+ * their hit, miss, eviction and load time statistics are available via
+ * {@link #getCacheStatistics()}.
+ * </p>
  * 
  * @author Justin Deoliveira, Boundless
  */
@@ -192,6 +209,19 @@ public class ResourcePool {
      * Default number of hard references
      */
     static int FEATURETYPE_CACHE_SIZE_DEFAULT = 100;
+
+    /**
+     * Prefix of the properties configuring the caches, see {@link CatalogResourceCache}
+     */
+    static final String CACHE_PROPERTY_PREFIX = "org.geoserver.catalog.cache.";
+
+    /**
+     * Disposes of evicted cache entries, shared among all pools and running in a single daemon
+     * thread, so that slow disposals do not pile up threads
+     */
+    static final ExecutorService DISPOSAL_EXECUTOR = Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setDaemon(true)
+                    .setNameFormat("GeoServer ResourcePool disposer %d").build());
     
     private static final String IMAGE_PYRAMID = "ImagePyramid";
     private static final String IMAGE_MOSAIC = "ImageMosaic";
@@ -205,6 +235,7 @@ public class ResourcePool {
     Map<String, GridCoverageReader>  coverageReaderCache;
     Map<CoverageHintReaderKey, GridCoverageReader> hintCoverageReaderCache;
     Map<StyleInfo,Style> styleCache;
+    final Map<String, ResourceCacheStatistics> cacheStatistics = new ConcurrentHashMap<>();
     List<Listener> listeners;
     ThreadPoolExecutor coverageExecutor;
     CatalogRepository repository;
@@ -278,7 +309,7 @@ public class ResourcePool {
     }
 
     protected Map<String,CoordinateReferenceSystem> createCrsCache() {
-        return new HashMap<String, CoordinateReferenceSystem>();
+        return new NonDisposingCache<String, CoordinateReferenceSystem>("crs");
     }
 
     /**
@@ -384,7 +415,7 @@ public class ResourcePool {
     }
 
     protected Map<StyleInfo, Style> createStyleCache() {
-        return new HashMap<StyleInfo, Style>();
+        return new NonDisposingCache<StyleInfo, Style>("style");
     }
 
     /**
@@ -404,6 +435,44 @@ public class ResourcePool {
         return new WMSCache();
     }
 
+    /**
+     * Returns the statistics of the caches, keyed by cache name. 
+     * <p>
+     * Only caches extending {@link CatalogResourceCache} are tracked.
+     * </p>
+     */
+    public Map<String, ResourceCacheStatistics> getCacheStatistics() {
+        return Collections.unmodifiableMap(cacheStatistics);
+    }
+
+    ResourceCacheStatistics getCacheStatistics(String name) {
+        return cacheStatistics.computeIfAbsent(name, ResourceCacheStatistics::new);
+    }
+
+    static long getCacheProperty(String cacheName, String property, long defaultValue) {
+        String name = CACHE_PROPERTY_PREFIX + cacheName + "." + property;
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value + ", using "
+                        + defaultValue + " instead");
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Records a cache miss and the time it took to load the missing entry, started at the
+     * given {@link System#nanoTime()}
+     */
+    void recordLoad(Map<?, ?> cache, long start) {
+        if (cache instanceof CatalogResourceCache) {
+            ((CatalogResourceCache<?, ?>) cache).statistics.recordLoad(System.nanoTime() - start);
+        }
+    }
+
     /**
      * Sets the size of the feature type cache.
      * <p>
@@ -497,8 +566,10 @@ public class ResourcePool {
                 crs = crsCache.get( srsName );
                 if ( crs == null ) {
                     try {
+                        long start = System.nanoTime();
                         crs = CRS.decode( srsName );
                         crsCache.put( srsName, crs );
+                        recordLoad(crsCache, start);
                     }
                     catch( Exception e) {
                         throw (IOException) new IOException().initCause(e);
@@ -562,6 +633,7 @@ public class ResourcePool {
                 synchronized (dataStoreCache) {
                     dataStore = dataStoreCache.get( id );
                     if ( dataStore == null ) {
+                        long start = System.nanoTime();
                         //create data store
                         Map<String, Serializable> connectionParameters = expandedStore.getConnectionParameters();
                         
@@ -658,6 +730,7 @@ public class ResourcePool {
                         if(id != null) {
                             dataStoreCache.put( id, dataStore );
                         }
+                        recordLoad(dataStoreCache, start);
                     }
                 } 
             }
@@ -769,6 +842,7 @@ public class ResourcePool {
                 atts = featureTypeAttributeCache.get(info.getId());
                 if (atts == null) {
                     //load from feature type
+                    long start = System.nanoTime();
                     atts = loadAttributes(info);
                     
                     //check for a schema override
@@ -784,6 +858,7 @@ public class ResourcePool {
                     if(info.getId() != null) {
                         featureTypeAttributeCache.put(info.getId(), atts);
                     }
+                    recordLoad(featureTypeAttributeCache, start);
                 }
             }
         }
@@ -946,6 +1021,7 @@ public class ResourcePool {
             synchronized ( featureTypeCache ) {
                 ft = featureTypeCache.get( key );
                 if ( ft == null ) {
+                    long start = System.nanoTime();
 
                     //grab the underlying feature type
                     DataAccess<? extends FeatureType, ? extends Feature> dataAccess = getDataStore(info.getStore());
@@ -958,6 +1034,7 @@ public class ResourcePool {
                     ft = buildFeatureType(info, handleProjectionPolicy, ft);
 
                     featureTypeCache.put( key, ft );
+                    recordLoad(featureTypeCache, start);
                 }
             }
         }
@@ -1481,6 +1558,7 @@ public class ResourcePool {
                     }
                 }
                 if (reader == null) {
+                    long start = System.nanoTime();
                     /////////////////////////////////////////////////////////
                     //
                     // Getting coverage reader using the format and the real path.
@@ -1501,6 +1579,8 @@ public class ResourcePool {
                             coverageReaderCache.put((String) key, reader);
                         }
                     }
+                    recordLoad(hints != null ? hintCoverageReaderCache : coverageReaderCache,
+                            start);
                 }
             }
         }
@@ -1748,6 +1828,7 @@ public class ResourcePool {
                 synchronized (wmsCache) {
                     wms = wmsCache.get(id);
                     if (wms == null) {
+                        long start = System.nanoTime();
                         HTTPClient client = getHTTPClient(expandedStore);
                         String capabilitiesURL = expandedStore.getCapabilitiesURL();
                         URL serverURL = new URL(capabilitiesURL);
@@ -1761,6 +1842,7 @@ public class ResourcePool {
                         wms = new WebMapServer(serverURL, client, hints);
 
                         wmsCache.put(id, wms);
+                        recordLoad(wmsCache, start);
                     }
                 }
             }
@@ -1868,6 +1950,7 @@ public class ResourcePool {
             synchronized (styleCache) {
                 style = styleCache.get( info );
                 if ( style == null ) {
+                    long start = System.nanoTime();
                     style = dataDir().parsedStyle(info);
 
                     if (style == null) {
@@ -1878,6 +1961,7 @@ public class ResourcePool {
                     // remove this when wms works off style info
                     style.setName( info.getName() );
                     styleCache.put( info, style );
+                    recordLoad(styleCache, start);
                     
                     final Resource styleResource = dataDir().style(info);
                     styleResource.addListener( new ResourceListener() {
@@ -2024,58 +2108,228 @@ public class ResourcePool {
     
     /**
      * Base class for all the resource caches, ensures type safety and provides
-     * an easier way to handle with resource disposal 
+     * an easier way to handle with resource disposal.
+     * <p>
+     * The cache is bounded by weight (by default each entry weighs one, see
+     * {@link #weigh(Object, Object)}) and can optionally expire entries that have not been
+     * accessed for a while. Both can be configured with the
+     * <code>org.geoserver.catalog.cache.&lt;name&gt;.maxWeight</code> and
+     * <code>org.geoserver.catalog.cache.&lt;name&gt;.expireAfterAccess</code> (seconds) properties,
+     * a value of zero disables the bound. Entries removed explicitly, or by {@link #clear()}, are
+     * disposed immediately in the calling thread, evicted ones are disposed in a background
+     * thread instead, so that eviction never blocks a request.
+     * </p>
+     * <p>
+     * Caches built with a soft overflow treat the bound as the number of entries kept strongly
+     * reachable, like the former <code>SoftValueHashMap</code> based caches: evicted entries are
+     * moved to a softly reachable overflow instead of being disposed, and are promoted back when
+     * accessed, so that the bound only lets the garbage collector reclaim them under memory
+     * pressure.
+     * </p>
+     * <p>
+     * Null keys are not cached, looking them up returns null.
+     * </p>
      * @author Andrea Aime
      *
      * @param <K>
      * @param <V>
      */
-    abstract class CatalogResourceCache<K, V> extends SoftValueHashMap<K, V> {
+    abstract class CatalogResourceCache<K, V> extends ForwardingMap<K, V> {
+
+        final ResourceCacheStatistics statistics;
+
+        final ConcurrentMap<K, V> delegate;
+
+        /**
+         * The softly reachable entries evicted from the delegate, or null if evicted entries are
+         * disposed
+         */
+        final ConcurrentMap<K, V> overflow;
+
+        /**
+         * Builds an unbounded cache
+         */
+        public CatalogResourceCache(String name) {
+            this(name, 0);
+        }
 
-        public CatalogResourceCache() {
-            this(100);
+        /**
+         * Builds a cache with the given default maximum weight, zero meaning unbounded
+         */
+        public CatalogResourceCache(String name, long maximumWeight) {
+            this(name, maximumWeight, false);
         }
 
-        public CatalogResourceCache(int hardReferences) {
-            super(hardReferences);
-            super.cleaner = new ValueCleaner() {
+        /**
+         * Builds a cache with the given default maximum weight, zero meaning unbounded, moving
+         * the evicted entries to a soft overflow instead of disposing them if softOverflow is true
+         */
+        public CatalogResourceCache(String name, long maximumWeight, boolean softOverflow) {
+            this.statistics = getCacheStatistics(name);
+            long maxWeight = getCacheProperty(name, "maxWeight", maximumWeight);
+            long expireAfterAccess = getCacheProperty(name, "expireAfterAccess", 0);
+
+            RemovalListener<K, V> listener = this::onRemoval;
+            // writes are already serialized by the pool, a single segment makes the weight
+            // bound and the LRU order exact instead of per segment
+            CacheBuilder<K, V> builder = CacheBuilder.newBuilder().concurrencyLevel(1)
+                    .removalListener(listener);
+            if (maxWeight > 0) {
+                Weigher<K, V> weigher = this::weigh;
+                builder = builder.maximumWeight(maxWeight).weigher(weigher);
+            }
+            if (expireAfterAccess > 0) {
+                builder = builder.expireAfterAccess(expireAfterAccess, TimeUnit.SECONDS);
+            }
+            this.delegate = builder.<K, V> build().asMap();
+            if (softOverflow) {
+                this.overflow = CacheBuilder.newBuilder().softValues().<K, V> build().asMap();
+            } else {
+                this.overflow = null;
+            }
+
+            statistics.maximumWeight = maxWeight;
+            statistics.expireAfterAccess = expireAfterAccess;
+            statistics.size = () -> delegate.size() + (overflow != null ? overflow.size() : 0);
+        }
 
-                @Override
-                public void clean(Object key, Object object) {
-                    dispose((K) key, (V) object);
+        @Override
+        protected Map<K, V> delegate() {
+            return delegate;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V get(Object key) {
+            if (key == null) {
+                return null;
+            }
+            V value = delegate.get(key);
+            if (value == null && overflow != null) {
+                value = overflow.remove(key);
+                if (value != null) {
+                    // still around, make it strongly reachable again
+                    delegate.putIfAbsent((K) key, value);
                 }
-            };
+            }
+            if (value != null) {
+                statistics.recordHit();
+            }
+            return value;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return key != null && (delegate.containsKey(key)
+                    || (overflow != null && overflow.containsKey(key)));
+        }
+
+        @Override
+        public V put(K key, V value) {
+            if (key == null) {
+                return null;
+            }
+            if (overflow != null) {
+                overflow.remove(key);
+            }
+            return delegate.put(key, value);
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public V remove(Object key) {
-            V object = super.remove(key);
-            if (object != null) {
-                dispose((K) key, object);
+            if (key == null) {
+                return null;
+            }
+            V removed = delegate.remove(key);
+            if (overflow != null) {
+                V softRemoved = overflow.remove(key);
+                if (softRemoved != null) {
+                    safeDispose((K) key, softRemoved);
+                    if (removed == null) {
+                        removed = softRemoved;
+                    }
+                }
             }
-            return object;
+            return removed;
         }
 
         @Override
         public void clear() {
-            for (Entry entry : entrySet()) {
-                try {
-                    dispose((K) entry.getKey(), (V) entry.getValue());
+            delegate.clear();
+            if (overflow != null) {
+                for (Map.Entry<K, V> entry : overflow.entrySet()) {
+                    if (overflow.remove(entry.getKey(), entry.getValue())) {
+                        safeDispose(entry.getKey(), entry.getValue());
+                    }
                 }
-                catch(Exception e) {
-                    LOGGER.log(Level.WARNING, "Error dispoing entry: " + entry, e);
+            }
+        }
+
+        /**
+         * Returns the statistics for this cache
+         */
+        public ResourceCacheStatistics getStatistics() {
+            return statistics;
+        }
+
+        /**
+         * Returns the weight of an entry, used to bound the cache size. Defaults to one.
+         */
+        protected int weigh(K key, V value) {
+            return 1;
+        }
+
+        void onRemoval(RemovalNotification<K, V> notification) {
+            final K key = notification.getKey();
+            final V value = notification.getValue();
+            RemovalCause cause = notification.getCause();
+            if (value == null || cause == RemovalCause.REPLACED) {
+                return;
+            }
+            if (cause.wasEvicted()) {
+                statistics.recordEviction();
+                if (overflow != null && cause != RemovalCause.EXPIRED) {
+                    overflow.put(key, value);
+                    return;
                 }
+                DISPOSAL_EXECUTOR.execute(() -> safeDispose(key, value));
+            } else {
+                safeDispose(key, value);
+            }
+        }
+
+        void safeDispose(K key, V value) {
+            try {
+                dispose(key, value);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Error disposing entry: " + key + "=" + value, e);
             }
-            super.clear();
         }
 
         protected abstract void dispose(K key, V object);
     }
     
+    /**
+     * A cache holding objects that do not need disposal (CRS, styles) 
+     */
+    class NonDisposingCache<K, V> extends CatalogResourceCache<K, V> {
+
+        public NonDisposingCache(String name) {
+            super(name);
+        }
+
+        @Override
+        protected void dispose(K key, V object) {
+            // nothing to do
+        }
+    }
+    
     class FeatureTypeCache extends CatalogResourceCache<String, FeatureType> {
         
         public FeatureTypeCache(int maxSize) {
-            super(maxSize);
+            // the size is the number of strongly reachable entries, the others stay soft
+            super("featureType", maxSize, true);
         }
         
         protected void dispose(String key, FeatureType featureType) {
@@ -2100,6 +2354,11 @@ public class ResourcePool {
      */
     @SuppressWarnings("rawtypes")
     class DataStoreCache extends CatalogResourceCache<String, DataAccess> {
+
+        public DataStoreCache() {
+            super("dataStore");
+        }
+
         /**
          * Ensure data access entry is removed from catalog, and
          * ensure DataAccess dispose is called to return system resources.
@@ -2133,6 +2392,10 @@ public class ResourcePool {
     }
     
     class CoverageReaderCache extends CatalogResourceCache<String, GridCoverageReader> {
+
+        public CoverageReaderCache() {
+            super("coverageReader");
+        }
         
         protected void dispose(String id, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(id);
@@ -2153,6 +2416,10 @@ public class ResourcePool {
     }
     
     class CoverageHintReaderCache extends CatalogResourceCache<CoverageHintReaderKey, GridCoverageReader> {
+
+        public CoverageHintReaderCache() {
+            super("hintCoverageReader");
+        }
         
         protected void dispose(CoverageHintReaderKey key, GridCoverageReader reader) {
         	CoverageStoreInfo info = catalog.getCoverageStore(key.id);
@@ -2223,7 +2490,7 @@ public class ResourcePool {
     class FeatureTypeAttributeCache extends CatalogResourceCache<String, List<AttributeTypeInfo>> {
 
         FeatureTypeAttributeCache(int size) {
-            super(size);
+            super("featureTypeAttribute", size, true);
         }
 
         @Override
@@ -2234,6 +2501,10 @@ public class ResourcePool {
 
     class WMSCache extends CatalogResourceCache<String, WebMapServer> {
 
+        public WMSCache() {
+            super("wms");
+        }
+
         @Override
         protected void dispose(String key, WebMapServer server) {
             HTTPClient client = server.getHTTPClient();
@@ -5,7 +5,13 @@
  */
 package org.geoserver.catalog;
 
+import java.lang.management.ManagementFactory;
 import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.geoserver.config.ConfigurationListenerAdapter;
 import org.geoserver.config.GeoServer;
@@ -13,15 +19,20 @@ import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.GeoServerInitializer;
 import org.geoserver.config.GeoServerReinitializer;
 import org.geoserver.util.EntityResolverProvider;
+import org.geotools.util.logging.Logging;
 
 /**
- * Initializes parameters of the {@link ResourcePool} class from configuration.
+ * Initializes parameters of the {@link ResourcePool} class from configuration, and registers
+ * its cache statistics as JMX MBeans named
+ * <code>org.geoserver:type=ResourcePoolCache,name=&lt;cache name&gt;</code>.
  * 
  * @author Justin Deoliveira, OpenGeo
  *
  */
 public class ResourcePoolInitializer implements GeoServerReinitializer {
 
+    static final Logger LOGGER = Logging.getLogger(ResourcePoolInitializer.class);
+
     GeoServer gs;
     EntityResolverProvider resolverProvider;
     
@@ -52,6 +63,26 @@ public class ResourcePoolInitializer implements GeoServerReinitializer {
         });
         
         gs.getCatalog().getResourcePool().setEntityResolverProvider(resolverProvider);
+        
+        registerCacheStatistics(gs.getCatalog().getResourcePool());
+    }
+
+    void registerCacheStatistics(ResourcePool pool) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            for (ResourceCacheStatistics statistics : pool.getCacheStatistics().values()) {
+                ObjectName name = new ObjectName(
+                        "org.geoserver:type=ResourcePoolCache,name=" + statistics.getName());
+                // on reinitialization, or with multiple GeoServer instances in the same VM,
+                // the last pool wins
+                if (server.isRegistered(name)) {
+                    server.unregisterMBean(name);
+                }
+                server.registerMBean(statistics, name);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Could not register the resource pool cache statistics", e);
+        }
     }
     
 }
@@ -0,0 +1,159 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geotools.util.Converters;
+import org.geotools.util.logging.Logging;
+
+/**
+ * An in memory secondary index over a {@link CatalogInfoLookup}, mapping the values of a (possibly
+ * nested or multi-valued) property to the objects having that value, as seen by a
+ * {@link CatalogPropertyAccessor}.
+ * <p>
+ * The index records the keys each object was indexed under, so that it can be updated even after
+ * the object has been modified in place (which is what happens when a {@link ModificationProxy}
+ * is committed). Writes are expected to be serialized by the owning lookup, reads are lock free.
+ * </p>
+ *
+ * @param <T>
+ */
+class CatalogInfoIndex<T extends CatalogInfo> {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogInfoIndex.class);
+
+    static final CatalogPropertyAccessor ACCESSOR = new CatalogPropertyAccessor();
+
+    final String property;
+
+    final Class<?> keyType;
+
+    final ConcurrentHashMap<Object, Map<String, T>> buckets = new ConcurrentHashMap<>();
+
+    final ConcurrentHashMap<String, Set<Object>> indexedKeys = new ConcurrentHashMap<>();
+
+    /**
+     * @param property the property path, as used in filters (e.g. "store.workspace.name")
+     * @param keyType the type property values and filter literals are converted to before being
+     *        used as keys, usually {@link String} or {@link Boolean}
+     */
+    CatalogInfoIndex(String property, Class<?> keyType) {
+        this.property = property;
+        this.keyType = keyType;
+    }
+
+    /**
+     * Converts a property value or a filter literal into an index key, returns null if
+     * the value cannot be converted
+     */
+    Object toKey(Object value) {
+        if (value == null) {
+            return null;
+        }
+        return Converters.convert(value, keyType);
+    }
+
+    Set<Object> extractKeys(T value) {
+        Object property;
+        try {
+            property = ACCESSOR.getProperty(value, this.property);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Could not extract " + this.property + " from " + value, e);
+            return Collections.emptySet();
+        }
+        if (property instanceof Collection) {
+            Set<Object> keys = new LinkedHashSet<>();
+            for (Object o : (Collection<?>) property) {
+                Object key = toKey(o);
+                if (key != null) {
+                    keys.add(key);
+                }
+            }
+            return keys;
+        }
+        Object key = toKey(property);
+        return key == null ? Collections.emptySet() : Collections.singleton(key);
+    }
+
+    void add(T value) {
+        Set<Object> keys = extractKeys(value);
+        for (Object key : keys) {
+            buckets.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(value.getId(), value);
+        }
+        indexedKeys.put(value.getId(), keys);
+    }
+
+    void remove(T value) {
+        Set<Object> keys = indexedKeys.remove(value.getId());
+        if (keys != null) {
+            for (Object key : keys) {
+                removeFromBucket(key, value.getId());
+            }
+        }
+    }
+
+    /**
+     * Re-computes the keys of an object that has been modified, adding it to the new buckets
+     * before removing it from the old ones
+     */
+    void update(T value) {
+        Set<Object> oldKeys = indexedKeys.get(value.getId());
+        Set<Object> newKeys = extractKeys(value);
+        if (oldKeys != null && oldKeys.equals(newKeys)) {
+            return;
+        }
+        for (Object key : newKeys) {
+            buckets.computeIfAbsent(key, k -> new ConcurrentHashMap<>()).put(value.getId(), value);
+        }
+        indexedKeys.put(value.getId(), newKeys);
+        if (oldKeys != null) {
+            for (Object key : oldKeys) {
+                if (!newKeys.contains(key)) {
+                    removeFromBucket(key, value.getId());
+                }
+            }
+        }
+    }
+
+    private void removeFromBucket(Object key, String id) {
+        Map<String, T> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(id);
+            if (bucket.isEmpty()) {
+                buckets.remove(key, bucket);
+            }
+        }
+    }
+
+    /**
+     * Returns the objects indexed under the given filter literal, or null if the literal
+     * cannot be converted to a key
+     */
+    Collection<T> get(Object literal) {
+        Object key = toKey(literal);
+        if (key == null) {
+            return null;
+        }
+        Map<String, T> bucket = buckets.get(key);
+        if (bucket == null) {
+            return Collections.emptyList();
+        }
+        return bucket.values();
+    }
+
+    void clear() {
+        buckets.clear();
+        indexedKeys.clear();
+    }
+}
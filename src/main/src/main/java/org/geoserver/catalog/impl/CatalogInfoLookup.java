@@ -7,6 +7,9 @@ package org.geoserver.catalog.impl;
 import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -16,6 +19,14 @@ import java.util.function.Predicate;
 
 import org.geoserver.catalog.CatalogInfo;
 import org.opengis.feature.type.Name;
+import org.opengis.filter.And;
+import org.opengis.filter.Filter;
+import org.opengis.filter.MultiValuedFilter.MatchAction;
+import org.opengis.filter.Or;
+import org.opengis.filter.PropertyIsEqualTo;
+import org.opengis.filter.expression.Expression;
+import org.opengis.filter.expression.Literal;
+import org.opengis.filter.expression.PropertyName;
 
 /**
  * A support index for {@link DefaultCatalogFacade}, can perform fast lookups of {@link CatalogInfo} objects
@@ -23,6 +34,19 @@ import org.opengis.feature.type.Name;
  * 
  * The lookups by predicate have been tested and optimized for performance, in particular
  * the current for loops turned out to be significantly faster than building and returning streams
+ * <p>
+ * Readers never lock, they go straight to the concurrent maps. Writers are serialized among
+ * themselves, and publish changes so that a concurrent reader never misses an object that is
+ * being modified: on add the id is published before the name, on removal the name is retracted
+ * before the id, and on rename the new name is published before the old one is retracted.
+ * </p>
+ * <p>
+ * Secondary indexes on arbitrary properties can be registered with
+ * {@link #addIndex(String, Class)}, {@link #list(Class, Filter)} and {@link #count(Class, Filter)}
+ * will use them to answer equality filters (and their logical combinations) without scanning
+ * all the objects. Since objects are modified in place, indexes need to be told about changes
+ * via {@link #reindex(CatalogInfo)} once a modification proxy has been committed.
+ * </p>
  * 
  * @param <T>
  */
@@ -32,6 +56,16 @@ class CatalogInfoLookup<T extends CatalogInfo> {
     Function<T, Name> nameMapper;
     static final Predicate TRUE = x -> true;
     
+    /**
+     * Serializes writers, readers never use it
+     */
+    final Object writeLock = new Object();
+    
+    /**
+     * Secondary indexes, keyed by property name
+     */
+    final Map<String, CatalogInfoIndex<T>> indexes = new ConcurrentHashMap<>();
+    
     public CatalogInfoLookup(Function<T, Name> nameMapper) {
         super();
         this.nameMapper = nameMapper;
@@ -64,11 +98,17 @@ class CatalogInfoLookup<T extends CatalogInfo> {
             ModificationProxy h = (ModificationProxy) Proxy.getInvocationHandler(value);
             value = (T) h.getProxyObject();
         }
-        Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
         Name name = nameMapper.apply(value);
-        nameMap.put(name, value);
-        Map<String, T> idMap = getMapForValue(idMultiMap, value);
-        return idMap.put(value.getId(), value);
+        synchronized (writeLock) {
+            Map<String, T> idMap = getMapForValue(idMultiMap, value);
+            T previous = idMap.put(value.getId(), value);
+            Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
+            nameMap.put(name, value);
+            for (CatalogInfoIndex<T> index : indexes.values()) {
+                index.add(value);
+            }
+            return previous;
+        }
     }
     
     public Collection<T> values() {
@@ -82,10 +122,15 @@ class CatalogInfoLookup<T extends CatalogInfo> {
     
     public T remove(T value) {
         Name name = nameMapper.apply(value);
-        Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
-        nameMap.remove(name);
-        Map<String, T> idMap = getMapForValue(idMultiMap, value);
-        return idMap.remove(value.getId());
+        synchronized (writeLock) {
+            Map<Name, T> nameMap = getMapForValue(nameMultiMap, value);
+            nameMap.remove(name);
+            for (CatalogInfoIndex<T> index : indexes.values()) {
+                index.remove(value);
+            }
+            Map<String, T> idMap = getMapForValue(idMultiMap, value);
+            return idMap.remove(value.getId());
+        }
     }
     
     /**
@@ -98,16 +143,96 @@ class CatalogInfoLookup<T extends CatalogInfo> {
         Name oldName = nameMapper.apply(actualValue);
         Name newName = nameMapper.apply(proxiedValue);
         if(!oldName.equals(newName)) {
-            Map<Name, T> nameMap = getMapForValue(nameMultiMap, actualValue);
-            nameMap.remove(oldName);
-            nameMap.put(newName, actualValue);
+            synchronized (writeLock) {
+                Map<Name, T> nameMap = getMapForValue(nameMultiMap, actualValue);
+                rename(nameMap, oldName, newName, actualValue);
+            }
         }
     }
+    
+    /**
+     * Moves the value from the old to the new name, publishing the new name first so that
+     * readers can always find the value under one of the two names. Callers must hold
+     * the {@link #writeLock}
+     */
+    void rename(Map<Name, T> nameMap, Name oldName, Name newName, T value) {
+        nameMap.put(newName, value);
+        nameMap.remove(oldName, value);
+    }
 
     
     public void clear() {
-        idMultiMap.clear();
-        nameMultiMap.clear();
+        synchronized (writeLock) {
+            idMultiMap.clear();
+            nameMultiMap.clear();
+            for (CatalogInfoIndex<T> index : indexes.values()) {
+                index.clear();
+            }
+        }
+    }
+    
+    /**
+     * Registers a secondary index on the given property, indexing the objects already in the
+     * lookup. If an index on the same property is already present the call has no effect.
+     * 
+     * @param property the property path, as used in filters, e.g. "store.workspace.name"
+     * @param keyType the type property values and filter literals get converted to for comparison
+     */
+    public void addIndex(String property, Class<?> keyType) {
+        synchronized (writeLock) {
+            if (indexes.containsKey(property)) {
+                return;
+            }
+            CatalogInfoIndex<T> index = new CatalogInfoIndex<>(property, keyType);
+            for (T value : values()) {
+                index.add(value);
+            }
+            indexes.put(property, index);
+        }
+    }
+    
+    /**
+     * Removes the secondary index on the given property, if any
+     */
+    public void removeIndex(String property) {
+        synchronized (writeLock) {
+            indexes.remove(property);
+        }
+    }
+    
+    /**
+     * Updates the secondary indexes after the value has been modified. To be called after the
+     * modification proxy has been committed
+     */
+    public void reindex(T value) {
+        if (value == null || indexes.isEmpty()) {
+            return;
+        }
+        T actual = ModificationProxy.unwrap(value);
+        synchronized (writeLock) {
+            for (CatalogInfoIndex<T> index : indexes.values()) {
+                index.update(actual);
+            }
+        }
+    }
+    
+    /**
+     * Updates the secondary indexes of all the objects that have been indexed under the given key
+     * for the given property, used when a modification to an object impacts the indexed properties
+     * of the objects referring to it (e.g., a workspace rename). Falls back on updating all the
+     * objects if there is no index on the property.
+     */
+    public void reindex(String property, Object key) {
+        if (indexes.isEmpty()) {
+            return;
+        }
+        CatalogInfoIndex<T> index = indexes.get(property);
+        Collection<T> values = index == null ? values() : index.get(key);
+        if (values != null) {
+            for (T value : new ArrayList<>(values)) {
+                reindex(value);
+            }
+        }
     }
 
     /**
@@ -210,4 +335,151 @@ class CatalogInfoLookup<T extends CatalogInfo> {
 
         return null;
     }
-}
\ No newline at end of file
+
+    /**
+     * Looks up objects by class and filter, using the secondary indexes when the filter
+     * allows it, or scanning all the objects otherwise. In both cases the results are returned in
+     * the same order.
+     */
+    <U extends CatalogInfo> List<U> list(Class<U> clazz, Filter filter) {
+        Collection<T> candidates = candidates(filter);
+        if (candidates == null) {
+            Predicate<U> predicate = toPredicate(filter);
+            return list(clazz, predicate);
+        }
+
+        List<U> result = new ArrayList<>();
+        for (T candidate : candidates) {
+            if (clazz.isInstance(candidate) && filter.evaluate(candidate)) {
+                result.add((U) candidate);
+            }
+        }
+        // return the same order as a full scan would
+        if (result.size() > 1) {
+            List<Class<T>> classes = new ArrayList<>(nameMultiMap.keySet());
+            Comparator<U> byClass = Comparator.comparingInt(u -> classes.indexOf(u.getClass()));
+            Comparator<U> byName = (u1, u2) -> ((Comparable<Name>) nameMapper.apply((T) u1))
+                    .compareTo(nameMapper.apply((T) u2));
+            Collections.sort(result, byClass.thenComparing(byName));
+        }
+        return result;
+    }
+
+    /**
+     * Counts the objects of the given class matching the filter, without building a list
+     * of them. Simple equality filters are answered directly by the secondary indexes
+     */
+    <U extends CatalogInfo> int count(Class<U> clazz, Filter filter) {
+        int count = 0;
+        if (filter == null || filter == Filter.INCLUDE) {
+            for (Class<T> key : idMultiMap.keySet()) {
+                if (clazz.isAssignableFrom(key)) {
+                    Map<String, T> valueMap = idMultiMap.get(key);
+                    if (valueMap != null) {
+                        count += valueMap.size();
+                    }
+                }
+            }
+            return count;
+        }
+
+        Collection<T> candidates = candidates(filter);
+        if (candidates == null) {
+            Predicate<T> predicate = toPredicate(filter);
+            for (Class<T> key : nameMultiMap.keySet()) {
+                if (clazz.isAssignableFrom(key)) {
+                    Map<Name, T> valueMap = nameMultiMap.get(key);
+                    if (valueMap != null) {
+                        for (T v : valueMap.values()) {
+                            if (predicate.test(v)) {
+                                count++;
+                            }
+                        }
+                    }
+                }
+            }
+        } else {
+            // a single equality filter is fully answered by the index
+            boolean exact = filter instanceof PropertyIsEqualTo;
+            for (T candidate : candidates) {
+                if (clazz.isInstance(candidate) && (exact || filter.evaluate(candidate))) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the objects possibly matching the filter according to the secondary indexes, or null
+     * if the filter cannot be planned against them. The filter still needs to be evaluated on the
+     * returned objects, unless it is a single equality filter.
+     */
+    Collection<T> candidates(Filter filter) {
+        if (filter == null || indexes.isEmpty()) {
+            return null;
+        } else if (filter == Filter.EXCLUDE) {
+            return Collections.emptyList();
+        } else if (filter instanceof PropertyIsEqualTo) {
+            return candidates((PropertyIsEqualTo) filter);
+        } else if (filter instanceof And) {
+            // use the most selective of the indexed operands
+            Collection<T> best = null;
+            for (Filter child : ((And) filter).getChildren()) {
+                Collection<T> candidates = candidates(child);
+                if (candidates != null && (best == null || candidates.size() < best.size())) {
+                    best = candidates;
+                }
+            }
+            return best;
+        } else if (filter instanceof Or) {
+            // all operands need to be indexed to avoid a full scan
+            Map<String, T> union = new LinkedHashMap<>();
+            for (Filter child : ((Or) filter).getChildren()) {
+                Collection<T> candidates = candidates(child);
+                if (candidates == null) {
+                    return null;
+                }
+                for (T candidate : candidates) {
+                    union.put(candidate.getId(), candidate);
+                }
+            }
+            return union.values();
+        }
+        return null;
+    }
+
+    private Collection<T> candidates(PropertyIsEqualTo equal) {
+        if (equal.getMatchAction() != MatchAction.ANY) {
+            return null;
+        }
+        Expression e1 = equal.getExpression1();
+        Expression e2 = equal.getExpression2();
+        PropertyName property;
+        Literal literal;
+        if (e1 instanceof PropertyName && e2 instanceof Literal) {
+            property = (PropertyName) e1;
+            literal = (Literal) e2;
+        } else if (e2 instanceof PropertyName && e1 instanceof Literal) {
+            property = (PropertyName) e2;
+            literal = (Literal) e1;
+        } else {
+            return null;
+        }
+
+        CatalogInfoIndex<T> index = indexes.get(property.getPropertyName());
+        if (index == null || literal.getValue() == null
+                || (!equal.isMatchingCase() && String.class.equals(index.keyType))) {
+            return null;
+        }
+        return index.get(literal.getValue());
+    }
+
+    private <X> Predicate<X> toPredicate(Filter filter) {
+        if (filter != null && filter != Filter.INCLUDE) {
+            return o -> filter.evaluate(o);
+        } else {
+            return TRUE;
+        }
+    }
+}
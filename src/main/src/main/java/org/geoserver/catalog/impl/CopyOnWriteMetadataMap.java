@@ -0,0 +1,158 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.catalog.impl;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.geoserver.catalog.MetadataMap;
+
+/**
+ * The {@link MetadataMap} handed out by {@link ModificationProxy} in place of a deep copy of the
+ * metadata of the proxied object.
+ * <p>
+ * The map reads through the live metadata as long as callers only look up immutable values,
+ * which is what most request handling code does. The deep copy, along with the copy of the
+ * original state used for modification events, is only made the first time the map is modified,
+ * or a value that could be modified in place (or a view over the map contents) is handed out.
+ * From that point on the map behaves exactly like the copy the proxy used to make upfront.
+ * </p>
+ */
+class CopyOnWriteMetadataMap extends MetadataMap {
+
+    private static final long serialVersionUID = 8497306278215307856L;
+
+    final MetadataMap live;
+
+    final ModificationProxy owner;
+
+    final String property;
+
+    boolean copied;
+
+    CopyOnWriteMetadataMap(MetadataMap live, ModificationProxy owner, String property) {
+        super(live.getMap());
+        this.id = live.getId();
+        this.live = live;
+        this.owner = owner;
+        this.property = property;
+    }
+
+    /**
+     * Returns true if the live metadata has been copied, that is, if the map might have been
+     * modified
+     */
+    boolean isCopied() {
+        return copied;
+    }
+
+    void copy() {
+        if (copied) {
+            return;
+        }
+        try {
+            owner.oldCollectionValues().put(property,
+                    ModificationProxyCloner.cloneMap(live, false));
+            this.map = ((MetadataMap) ModificationProxyCloner.cloneMap(live, true)).getMap();
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to copy the " + property + " map", e);
+        }
+        copied = true;
+    }
+
+    static boolean isImmutable(Object value) {
+        return value == null || value instanceof String || value instanceof Boolean
+                || value instanceof Integer || value instanceof Long || value instanceof Double
+                || value instanceof Float || value instanceof Short || value instanceof Byte
+                || value instanceof Character || value instanceof BigInteger
+                || value instanceof BigDecimal || value instanceof Enum;
+    }
+
+    @Override
+    public Serializable get(Object key) {
+        Serializable value = map.get(key);
+        if (copied || isImmutable(value)) {
+            return value;
+        }
+        copy();
+        return map.get(key);
+    }
+
+    @Override
+    public Serializable put(String key, Serializable value) {
+        copy();
+        return super.put(key, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ? extends Serializable> t) {
+        copy();
+        super.putAll(t);
+    }
+
+    @Override
+    public Serializable remove(Object key) {
+        copy();
+        return super.remove(key);
+    }
+
+    @Override
+    public void clear() {
+        copy();
+        super.clear();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        copy();
+        return super.keySet();
+    }
+
+    @Override
+    public Collection<Serializable> values() {
+        copy();
+        return super.values();
+    }
+
+    @Override
+    public Set<Map.Entry<String, Serializable>> entrySet() {
+        copy();
+        return super.entrySet();
+    }
+
+    @Override
+    public Map<String, Serializable> getMap() {
+        copy();
+        return super.getMap();
+    }
+
+    @Override
+    public void setMap(Map<String, Serializable> map) {
+        copy();
+        super.setMap(map);
+    }
+
+    @Override
+    public void setId(String id) {
+        copy();
+        super.setId(id);
+    }
+
+    /**
+     * Serializes as a plain {@link MetadataMap}, the live map and the owning proxy are not part
+     * of the state
+     */
+    private Object writeReplace() throws ObjectStreamException {
+        MetadataMap replacement = new MetadataMap(new HashMap<String, Serializable>(map));
+        replacement.setId(id);
+        return replacement;
+    }
+}
@@ -49,6 +49,11 @@ import com.google.common.collect.Ordering;
 
 /**
  * Default catalog facade implementation in which all objects are stored in memory.
+ * <p>
+ * Reads are lock free, the objects are kept in {@link CatalogInfoLookup} indexes backed by
+ * concurrent maps, which serialize writers internally and publish each change atomically
+ * with respect to id and name lookups.
+ * </p>
  * 
  * @author Justin Deoliveira, OpenGeo
  *
@@ -99,11 +104,13 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
             Name oldName = RESOURCE_NAME_MAPPER.apply(actualValue);
             Name newName = RESOURCE_NAME_MAPPER.apply(proxiedValue);
             if(!oldName.equals(newName)) {
-                Map<Name, LayerInfo> nameMap = getMapForValue(nameMultiMap, LayerInfoImpl.class);
-                LayerInfo value = nameMap.remove(oldName);
-                // handle case of feature type without a corresponding layer
-                if(value != null) {
-                    nameMap.put(newName, value);
+                synchronized (writeLock) {
+                    Map<Name, LayerInfo> nameMap = getMapForValue(nameMultiMap, LayerInfoImpl.class);
+                    LayerInfo value = nameMap.get(oldName);
+                    // handle case of feature type without a corresponding layer
+                    if(value != null) {
+                        rename(nameMap, oldName, newName, value);
+                    }
                 }
             }
         }
@@ -172,6 +179,67 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public DefaultCatalogFacade(Catalog catalog) {
         setCatalog(catalog);
+        addDefaultIndexes();
+    }
+    
+    /**
+     * Sets up the secondary indexes used to answer the most common {@link #list} and
+     * {@link #count} queries without scanning the whole catalog
+     */
+    protected void addDefaultIndexes() {
+        stores.addIndex("workspace.id", String.class);
+        stores.addIndex("workspace.name", String.class);
+        
+        resources.addIndex("store.id", String.class);
+        resources.addIndex("namespace.id", String.class);
+        resources.addIndex("namespace.prefix", String.class);
+        resources.addIndex("store.workspace.name", String.class);
+        resources.addIndex("enabled", Boolean.class);
+        resources.addIndex("advertised", Boolean.class);
+        resources.addIndex("keywords.value", String.class);
+        
+        layers.addIndex("resource.store.id", String.class);
+        layers.addIndex("resource.namespace.prefix", String.class);
+        layers.addIndex("resource.store.workspace.name", String.class);
+        layers.addIndex("enabled", Boolean.class);
+        layers.addIndex("advertised", Boolean.class);
+        layers.addIndex("resource.keywords.value", String.class);
+        layers.addIndex("defaultStyle.id", String.class);
+        
+        layerGroups.addIndex("workspace.id", String.class);
+        layerGroups.addIndex("workspace.name", String.class);
+        
+        styles.addIndex("workspace.id", String.class);
+        styles.addIndex("workspace.name", String.class);
+    }
+    
+    /**
+     * Registers an additional secondary index on the given property of the specified type of
+     * catalog objects, which will then be used to answer equality filters against that property
+     * in {@link #list} and {@link #count}.
+     * 
+     * @param type the type of catalog object, one of the main catalog interfaces
+     * @param property the property path, as used in filters, e.g. "resource.store.type"
+     * @param keyType the type property values and filter literals get converted to for comparison
+     */
+    public void addIndex(Class<? extends CatalogInfo> type, String property, Class<?> keyType) {
+        if (NamespaceInfo.class.isAssignableFrom(type)) {
+            namespaces.addIndex(property, keyType);
+        } else if (WorkspaceInfo.class.isAssignableFrom(type)) {
+            workspaces.addIndex(property, keyType);
+        } else if (StoreInfo.class.isAssignableFrom(type)) {
+            stores.addIndex(property, keyType);
+        } else if (ResourceInfo.class.isAssignableFrom(type)) {
+            resources.addIndex(property, keyType);
+        } else if (LayerInfo.class.isAssignableFrom(type)) {
+            layers.addIndex(property, keyType);
+        } else if (LayerGroupInfo.class.isAssignableFrom(type)) {
+            layerGroups.addIndex(property, keyType);
+        } else if (StyleInfo.class.isAssignableFrom(type)) {
+            styles.addIndex(property, keyType);
+        } else {
+            throw new IllegalArgumentException("Cannot index objects of type " + type);
+        }
     }
     
     public void setCatalog(Catalog catalog) {
@@ -193,16 +261,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public void remove(StoreInfo store) {
         store = unwrap(store);
-
-        synchronized(stores) {
-            stores.remove(store);
-        }
+        stores.remove(store);
     }
     
     public void save(StoreInfo store) {
         beforeSaved(store);
         stores.update(store);
         commitProxy(store);
+        // the store might have moved to another workspace
+        stores.reindex(store);
+        resources.reindex("store.id", store.getId());
+        layers.reindex("resource.store.id", store.getId());
         afterSaved(store);
     }
     
@@ -258,13 +327,11 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     
     public void setDefaultDataStore(WorkspaceInfo workspace, DataStoreInfo store) {
         DataStoreInfo old = defaultStores.get(workspace.getId());
-        synchronized(defaultStores) {
-            if (store != null) {
-                defaultStores.put(workspace.getId(), store);    
-            }
-            else {
-                defaultStores.remove(workspace.getId());
-            }
+        if (store != null) {
+            defaultStores.put(workspace.getId(), store);    
+        }
+        else {
+            defaultStores.remove(workspace.getId());
         }
         
         //fire change event
@@ -277,17 +344,13 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public ResourceInfo add(ResourceInfo resource) {
         resolve(resource);
-        synchronized(resources) {
-            resources.add(resource);
-        }
+        resources.add(resource);
         return ModificationProxy.create(resource, ResourceInfo.class);
     }
     
     public void remove(ResourceInfo resource) {
         resource = unwrap(resource);
-        synchronized(resources) {
-            resources.remove(resource);
-        }
+        resources.remove(resource);
     }
     
    
@@ -296,6 +359,9 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         resources.update(resource);
         layers.update(resource);
         commitProxy(resource);
+        // layers take some of their indexed properties from the resource
+        resources.reindex(resource);
+        layers.reindex(layers.findByName(RESOURCE_NAME_MAPPER.apply(resource), LayerInfo.class));
         afterSaved(resource);
     }
     
@@ -387,6 +453,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         beforeSaved(layer);
         layers.update(layer);
         commitProxy(layer);
+        layers.reindex(layer);
         afterSaved(layer);
     }
     
@@ -438,17 +505,13 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public MapInfo add(MapInfo map) {
         resolve(map);
-        synchronized(maps) {
-            maps.add(map);
-        }
+        maps.add(map);
         
         return ModificationProxy.create(map, MapInfo.class);
     }
 
     public void remove(MapInfo map) {
-        synchronized(maps) {
-            maps.remove(unwrap(map));
-        }
+        maps.remove(unwrap(map));
     }
 
     public void save(MapInfo map) {
@@ -490,9 +553,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public LayerGroupInfo add (LayerGroupInfo layerGroup) {
         resolve(layerGroup);
-        synchronized(layerGroups) {
-            layerGroups.add( layerGroup );
-        }
+        layerGroups.add( layerGroup );
         return ModificationProxy.create(layerGroup, LayerGroupInfo.class);
     }
     
@@ -500,9 +561,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
      * @see org.geoserver.catalog.impl.CatalogDAO#remove(org.geoserver.catalog.LayerGroupInfo)
      */
     public void remove(LayerGroupInfo layerGroup) {
-        synchronized(layerGroups) {
-            layerGroups.remove( unwrap(layerGroup) );
-        }
+        layerGroups.remove( unwrap(layerGroup) );
     }
     
     /* (non-Javadoc)
@@ -512,6 +571,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         beforeSaved(layerGroup);
         layerGroups.update(layerGroup);
         commitProxy(layerGroup);
+        layerGroups.reindex(layerGroup);
         afterSaved(layerGroup);
     }
     
@@ -587,9 +647,17 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     }
 
     public void save(NamespaceInfo namespace) {
+        ModificationProxy h = (ModificationProxy) Proxy.getInvocationHandler(namespace);
+        String oldPrefix = ((NamespaceInfo) h.getProxyObject()).getPrefix();
+        
         beforeSaved(namespace);
         namespaces.update(namespace);
         commitProxy(namespace);
+        namespaces.reindex(namespace);
+        if (oldPrefix != null && !oldPrefix.equals(namespace.getPrefix())) {
+            resources.reindex("namespace.prefix", oldPrefix);
+            layers.reindex("resource.namespace.prefix", oldPrefix);
+        }
         afterSaved(namespace);
     }
 
@@ -651,6 +719,7 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         // need to synch up the default store lookup
         ModificationProxy h = (ModificationProxy) Proxy.getInvocationHandler(workspace);
         WorkspaceInfo ws = (WorkspaceInfo) h.getProxyObject();
+        String oldName = ws.getName();
         if (!workspace.getName().equals(ws.getName())) {
             DataStoreInfo ds = defaultStores.remove(ws.getName());
             if(ds != null) {
@@ -661,6 +730,15 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         beforeSaved(workspace);
         workspaces.update(workspace);
         commitProxy(workspace);     
+        workspaces.reindex(workspace);
+        if (oldName != null && !oldName.equals(workspace.getName())) {
+            // objects indexed by workspace name need to move to the new one
+            stores.reindex("workspace.name", oldName);
+            resources.reindex("store.workspace.name", oldName);
+            layers.reindex("resource.store.workspace.name", oldName);
+            layerGroups.reindex("workspace.name", oldName);
+            styles.reindex("workspace.name", oldName);
+        }
         afterSaved(workspace);
     }
 
@@ -700,22 +778,19 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
     //
     public StyleInfo add(StyleInfo style) {
         resolve(style);
-        synchronized(styles) {
-            styles.add(style);
-        }
+        styles.add(style);
         return ModificationProxy.create(style, StyleInfo.class);
     }
 
     public void remove(StyleInfo style) {
-        synchronized(styles) {
-            styles.remove(unwrap(style));
-        }
+        styles.remove(unwrap(style));
     }
 
     public void save(StyleInfo style) {
         beforeSaved(style);
         styles.update(style);
         commitProxy(style);
+        styles.reindex(style);
         afterSaved(style);
     }
 
@@ -850,11 +925,13 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         //maps
         if ( maps == null ) {
-            maps = new ArrayList<MapInfo>();
+            maps = new CopyOnWriteArrayList<MapInfo>();
         }
         for ( MapInfo m : maps ) {
             resolve(m);
         }
+        
+        addDefaultIndexes();
     }
 
     public void syncTo(CatalogFacade dao) {
@@ -911,7 +988,26 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
 
     @Override
     public <T extends CatalogInfo> int count(final Class<T> of, final Filter filter) {
-        return Iterables.size(iterable(of, filter, null));
+        if (NamespaceInfo.class.isAssignableFrom(of)) {
+            return namespaces.count(of, filter);
+        } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
+            return workspaces.count(of, filter);
+        } else if (StoreInfo.class.isAssignableFrom(of)) {
+            return stores.count(of, filter);
+        } else if (ResourceInfo.class.isAssignableFrom(of)) {
+            return resources.count(of, filter);
+        } else if (LayerInfo.class.isAssignableFrom(of)) {
+            return layers.count(of, filter);
+        } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
+            return layerGroups.count(of, filter);
+        } else if (PublishedInfo.class.isAssignableFrom(of)) {
+            return layers.count(LayerInfo.class, filter)
+                    + layerGroups.count(LayerGroupInfo.class, filter);
+        } else if (StyleInfo.class.isAssignableFrom(of)) {
+            return styles.count(of, filter);
+        } else {
+            return Iterables.size(iterable(of, filter, null));
+        }
     }
 
     /**
@@ -995,23 +1091,23 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         
         T t = null;
         if (NamespaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) namespaces.list(of, toPredicate(filter));
+            all = (List<T>) namespaces.list(of, filter);
         } else if (WorkspaceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) workspaces.list(of, toPredicate(filter));
+            all = (List<T>) workspaces.list(of, filter);
         } else if (StoreInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) stores.list(of, toPredicate(filter));
+            all = (List<T>) stores.list(of, filter);
         } else if (ResourceInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) resources.list(of, toPredicate(filter));
+            all = (List<T>) resources.list(of, filter);
         } else if (LayerInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layers.list(of, toPredicate(filter));
+            all = (List<T>) layers.list(of, filter);
         } else if (LayerGroupInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) layerGroups.list(of, toPredicate(filter));
+            all = (List<T>) layerGroups.list(of, filter);
         } else if (PublishedInfo.class.isAssignableFrom(of)) {
             all = new ArrayList<>();
-            all.addAll((List<T>) layers.list(LayerInfo.class, toPredicate(filter)));
-            all.addAll((List<T>) layerGroups.list(LayerGroupInfo.class, toPredicate(filter)));
+            all.addAll((List<T>) layers.list(LayerInfo.class, filter));
+            all.addAll((List<T>) layerGroups.list(LayerGroupInfo.class, filter));
         } else if (StyleInfo.class.isAssignableFrom(of)) {
-            all = (List<T>) styles.list(of, toPredicate(filter));
+            all = (List<T>) styles.list(of, filter);
         } else if (MapInfo.class.isAssignableFrom(of)) {
             all = (List<T>) new ArrayList<>(maps);
         } else {
@@ -1032,14 +1128,6 @@ public class DefaultCatalogFacade extends AbstractCatalogFacade implements Catal
         return ModificationProxy.createList(all, of);
     }
 
-    private <T> Predicate<T> toPredicate(Filter filter) {
-        if(filter != null && filter != Filter.INCLUDE) {
-            return  o -> filter.evaluate(o);
-        } else {
-            return CatalogInfoLookup.TRUE;
-        }
-    }
-
     private Comparator<Object> comparator(final SortBy sortOrder) {
         return new Comparator<Object>() {
             @Override
@@ -18,6 +18,8 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.CatalogInfo;
@@ -51,6 +53,14 @@ import org.opengis.filter.FilterFactory;
  */
 public class ModificationProxy implements WrappingProxy, Serializable {
 
+    /**
+     * The property names of the getters and setters met so far, avoids parsing method names on
+     * each call
+     */
+    static final Map<Method, Optional<String>> GETTERS = new ConcurrentHashMap<>();
+
+    static final Map<Method, Optional<String>> SETTERS = new ConcurrentHashMap<>();
+
     /** 
      * the proxy object 
      */
@@ -90,12 +100,9 @@ public class ModificationProxy implements WrappingProxy, Serializable {
     public Object invoke(Object proxy, Method method, Object[] args)
             throws Throwable {
         
-        String property = null;
-        if ( ( method.getName().startsWith( "get")  || method.getName().startsWith( "is" ) ) 
-                && method.getParameterCount() == 0 ) {
+        String property = getterProperty( method );
+        if ( property != null ) {
             //intercept getter to check the dirty property set
-            property = method.getName().substring( 
-                method.getName().startsWith( "get") ? 3 : 2 );
             if ( properties != null && properties().containsKey( property ) ) {
                 //return the previously set object
                 return properties().get( property );
@@ -121,6 +128,12 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                         // in this case there is nothing we can do
                         return null;
                     }
+                    if(real.getClass() == MetadataMap.class) {
+                        // metadata is mostly read, defer the copies until it's modified
+                        Map wrap = new CopyOnWriteMetadataMap((MetadataMap) real, this, property);
+                        properties().put( property, wrap );
+                        return wrap;
+                    }
                     Map wrap = ModificationProxyCloner.cloneMap(real, true);
                     properties().put( property, wrap );
                     // we also need to store a clone of the initial state as the collection
@@ -135,10 +148,10 @@ public class ModificationProxy implements WrappingProxy, Serializable {
             }
             
         }
-        if ( method.getName().startsWith( "set") && args.length == 1) {
+        String setterProperty = setterProperty( method );
+        if ( setterProperty != null ) {
             //intercept setter and put new value in list
-            property = method.getName().substring( 3 );
-            properties().put( property, args[0] );
+            properties().put( setterProperty, args[0] );
             
             return null;
         }
@@ -176,6 +189,42 @@ public class ModificationProxy implements WrappingProxy, Serializable {
         }
     }
     
+    /**
+     * Returns the property read by the method, or null if it's not a getter
+     */
+    static String getterProperty( Method method ) {
+        Optional<String> property = GETTERS.get( method );
+        if ( property == null ) {
+            String name = method.getName();
+            if ( method.getParameterCount() == 0 && name.startsWith( "get" ) ) {
+                property = Optional.of( name.substring( 3 ) );
+            } else if ( method.getParameterCount() == 0 && name.startsWith( "is" ) ) {
+                property = Optional.of( name.substring( 2 ) );
+            } else {
+                property = Optional.empty();
+            }
+            GETTERS.put( method, property );
+        }
+        return property.orElse( null );
+    }
+
+    /**
+     * Returns the property written by the method, or null if it's not a setter
+     */
+    static String setterProperty( Method method ) {
+        Optional<String> property = SETTERS.get( method );
+        if ( property == null ) {
+            String name = method.getName();
+            if ( method.getParameterCount() == 1 && name.startsWith( "set" ) ) {
+                property = Optional.of( name.substring( 3 ) );
+            } else {
+                property = Optional.empty();
+            }
+            SETTERS.put( method, property );
+        }
+        return property.orElse( null );
+    }
+
     public Object getProxyObject() {
         return proxyObject;
     }
@@ -204,6 +253,11 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                             c.add(unwrap(o));
                         }
                     } else if( Map.class.isAssignableFrom( g.getReturnType() )) {
+                        if ( v instanceof CopyOnWriteMetadataMap 
+                                && !((CopyOnWriteMetadataMap) v).isCopied() ) {
+                            // never modified
+                            continue;
+                        }
                         Map proxied = (Map) v;
                         Map m = (Map) g.invoke(proxyObject, null);
                         m.clear();
@@ -311,6 +365,9 @@ public class ModificationProxy implements WrappingProxy, Serializable {
                 if ( h != null && !h.isDirty() ) {
                     continue;
                 }
+            } else if ( e.getValue() instanceof CopyOnWriteMetadataMap 
+                    && !((CopyOnWriteMetadataMap) e.getValue()).isCopied() ) {
+                continue;
             } else {
                 try {
                     Object orig = unwrap( getter((String) e.getKey()).invoke(proxyObject, null));
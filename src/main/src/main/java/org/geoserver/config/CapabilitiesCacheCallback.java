@@ -0,0 +1,652 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.geoserver.catalog.CatalogException;
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.event.CatalogAddEvent;
+import org.geoserver.catalog.event.CatalogListener;
+import org.geoserver.catalog.event.CatalogModifyEvent;
+import org.geoserver.catalog.event.CatalogPostModifyEvent;
+import org.geoserver.catalog.event.CatalogRemoveEvent;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.LocalPublished;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geotools.util.logging.Logging;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+/**
+ * Caches the capabilities documents of all OWS services server side, so that they are generated
+ * only once until the configuration they depend on changes.
+ * <p>
+ * Documents are cached for GET GetCapabilities requests, keyed by service, version, local
+ * workspace and layer (virtual services), the name and roles of the current user (data security
+ * rules can target either), the base URL of the
+ * request and its raw KVP parameters (which include namespace filters and output formats).
+ * Catalog and configuration events invalidate only the documents they can affect: a change to
+ * an object that belongs to a workspace drops the documents of that workspace and the global
+ * ones, a change to a service configuration only drops the documents of that service, and
+ * changes to global objects drop everything. Changes to the data security rules do not generate
+ * events, so entries are also expired after a configurable time.
+ * </p>
+ * <p>
+ * When enabled, a gzip compressed copy of each document is kept as well, and returned as is to
+ * clients accepting gzip encoding, saving the compression on each request.
+ * </p>
+ * <p>
+ * The cache is disabled by default, it can be configured with the following variables, either as
+ * system, environment or servlet context variables:
+ * <ul>
+ * <li>"CAPABILITIES_CACHE_ENABLED", true or false, defaults to false</li>
+ * <li>"CAPABILITIES_CACHE_SIZE", the maximum cache size in megabytes, defaults to 32</li>
+ * <li>"CAPABILITIES_CACHE_TTL", the time to live of entries, in seconds, defaults to 600</li>
+ * <li>"CAPABILITIES_CACHE_GZIP", true or false, defaults to false</li>
+ * </ul>
+ * </p>
+ */
+public class CapabilitiesCacheCallback extends AbstractDispatcherCallback
+        implements CatalogListener, ConfigurationListener {
+
+    static final Logger LOGGER = Logging.getLogger(CapabilitiesCacheCallback.class);
+
+    static final String ENABLED_PROPERTY = "CAPABILITIES_CACHE_ENABLED";
+
+    static final String SIZE_PROPERTY = "CAPABILITIES_CACHE_SIZE";
+
+    static final String TTL_PROPERTY = "CAPABILITIES_CACHE_TTL";
+
+    static final String GZIP_PROPERTY = "CAPABILITIES_CACHE_GZIP";
+
+    static final String GZIP = "gzip";
+
+    boolean enabled;
+
+    boolean gzipEnabled;
+
+    long maxSize;
+
+    Cache<Key, Entry> cache;
+
+    /**
+     * Incremented on every invalidation, documents whose generation started before the last
+     * invalidation are not cached, as they might reflect the old configuration
+     */
+    final AtomicLong generation = new AtomicLong();
+
+    volatile boolean globalChanged;
+
+    public CapabilitiesCacheCallback(GeoServer gs) {
+        this.enabled = Boolean.parseBoolean(GeoServerExtensions.getProperty(ENABLED_PROPERTY));
+        this.gzipEnabled = Boolean.parseBoolean(GeoServerExtensions.getProperty(GZIP_PROPERTY));
+        long sizeMB = getLongProperty(SIZE_PROPERTY, 32);
+        long ttl = getLongProperty(TTL_PROPERTY, 600);
+        this.maxSize = sizeMB * 1024 * 1024;
+        this.cache = CacheBuilder.newBuilder().maximumWeight(maxSize)
+                .weigher(new Weigher<Key, Entry>() {
+                    @Override
+                    public int weigh(Key key, Entry entry) {
+                        return entry.size();
+                    }
+                }).expireAfterWrite(ttl, TimeUnit.SECONDS).build();
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Capabilities cache enabled: " + enabled + ", size " + sizeMB
+                    + "MB, time to live " + ttl + "s, gzip variants: " + gzipEnabled);
+        }
+
+        gs.getCatalog().addListener(this);
+        gs.addListener(this);
+    }
+
+    static long getLongProperty(String name, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value + ", using "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns true if the capabilities documents are cached
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Enables/disables the capabilities cache, disabling it also empties it
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (!enabled) {
+            invalidateAll();
+        }
+    }
+
+    /**
+     * Returns true if gzip compressed variants of the documents are cached
+     */
+    public boolean isGzipEnabled() {
+        return gzipEnabled;
+    }
+
+    /**
+     * Enables/disables caching gzip compressed variants of the documents
+     */
+    public void setGzipEnabled(boolean gzipEnabled) {
+        this.gzipEnabled = gzipEnabled;
+        invalidateAll();
+    }
+
+    /**
+     * Returns the number of cached documents
+     */
+    public long size() {
+        return cache.size();
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        if (!enabled || !request.isGet() || request.isSOAP() || request.getHttpRequest() == null
+                || !"GetCapabilities".equalsIgnoreCase(request.getRequest())) {
+            return response;
+        }
+
+        Key key = buildKey(request);
+        boolean acceptsGzip = false;
+        if (gzipEnabled) {
+            String encoding = request.getHttpRequest().getHeader(HttpHeaders.ACCEPT_ENCODING);
+            acceptsGzip = ResponseUtils.acceptsEncoding(encoding, GZIP);
+        }
+        return new CachingResponse(response, key, cache.getIfPresent(key), acceptsGzip,
+                generation.get());
+    }
+
+    Key buildKey(Request request) {
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        WorkspaceInfo ws = LocalWorkspace.get();
+        PublishedInfo published = LocalPublished.get();
+
+        String user = null;
+        List<String> roles = new ArrayList<>();
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            user = auth.getName();
+        }
+        if (auth != null && auth.getAuthorities() != null) {
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                roles.add(authority.getAuthority());
+            }
+            Collections.sort(roles);
+        }
+
+        Map<String, String> kvp = new TreeMap<>();
+        Map<?, ?> rawKvp = request.getRawKvp();
+        if (rawKvp != null) {
+            for (Map.Entry<?, ?> e : rawKvp.entrySet()) {
+                kvp.put(String.valueOf(e.getKey()).toUpperCase(), String.valueOf(e.getValue()));
+            }
+        }
+
+        String service = request.getService() == null ? null : request.getService().toUpperCase();
+        return new Key(service, request.getVersion(), ws == null ? null : ws.getName(),
+                published == null ? null : published.prefixedName(), request.getNamespace(),
+                user, roles, ResponseUtils.baseURL(httpRequest), kvp);
+    }
+
+    void store(Key key, long startGeneration, byte[] data) {
+        byte[] gzipped = null;
+        if (gzipEnabled) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream(data.length / 4 + 16);
+            try (GZIPOutputStream gzos = new GZIPOutputStream(bos)) {
+                gzos.write(data);
+            } catch (IOException e) {
+                // cannot really happen with in memory streams
+                LOGGER.log(Level.FINE, "Failed to compress capabilities document", e);
+            }
+            gzipped = bos.toByteArray();
+        }
+        // do not store documents that might have been generated against an old configuration
+        if (generation.get() == startGeneration) {
+            cache.put(key, new Entry(data, gzipped));
+        }
+    }
+
+    /**
+     * Drops all cached documents
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        cache.invalidateAll();
+    }
+
+    /**
+     * Drops the documents of the given workspace, along with the global ones
+     */
+    void invalidateWorkspace(String workspace) {
+        invalidate(k -> k.workspace == null || k.workspace.equals(workspace));
+    }
+
+    /**
+     * Drops the documents of the given service. Changes to a global service configuration affect
+     * all workspaces, changes to a workspace specific one only the documents of that workspace
+     */
+    void invalidateService(String service, String workspace) {
+        invalidate(k -> (service == null || k.service == null || service.equalsIgnoreCase(k.service))
+                && (workspace == null || workspace.equals(k.workspace)));
+    }
+
+    void invalidate(Predicate<Key> predicate) {
+        generation.incrementAndGet();
+        cache.asMap().keySet().removeIf(predicate);
+    }
+
+    /**
+     * Invalidates the documents affected by a change in the given catalog object
+     */
+    void invalidate(CatalogInfo info) {
+        String workspace = workspaceOf(info);
+        if (workspace == null) {
+            invalidateAll();
+        } else {
+            invalidateWorkspace(workspace);
+        }
+    }
+
+    /**
+     * Returns the name of the workspace the object belongs to, or null if the object is global
+     * (or a workspace or namespace, whose changes can affect all documents)
+     */
+    static String workspaceOf(CatalogInfo info) {
+        WorkspaceInfo ws = null;
+        if (info instanceof StoreInfo) {
+            ws = ((StoreInfo) info).getWorkspace();
+        } else if (info instanceof ResourceInfo) {
+            ws = workspaceOf(((ResourceInfo) info).getStore());
+        } else if (info instanceof LayerInfo) {
+            ResourceInfo resource = ((LayerInfo) info).getResource();
+            ws = resource == null ? null : workspaceOf(resource.getStore());
+        } else if (info instanceof LayerGroupInfo) {
+            ws = ((LayerGroupInfo) info).getWorkspace();
+        } else if (info instanceof StyleInfo) {
+            ws = ((StyleInfo) info).getWorkspace();
+        }
+        return ws == null ? null : ws.getName();
+    }
+
+    private static WorkspaceInfo workspaceOf(StoreInfo store) {
+        return store == null ? null : store.getWorkspace();
+    }
+
+    @Override
+    public void handleAddEvent(CatalogAddEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleRemoveEvent(CatalogRemoveEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void handleModifyEvent(CatalogModifyEvent event) throws CatalogException {
+        // objects moving across workspaces affect both the old and the new one, the catalog
+        // itself only sends modification events, for its defaults
+        List<String> names = event.getPropertyNames();
+        if (names.contains("workspace") || names.contains("store")
+                || names.contains("defaultWorkspace") || names.contains("defaultNamespace")) {
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void handlePostModifyEvent(CatalogPostModifyEvent event) throws CatalogException {
+        invalidate(event.getSource());
+    }
+
+    @Override
+    public void reloaded() {
+        invalidateAll();
+    }
+
+    @Override
+    public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
+            List<Object> oldValues, List<Object> newValues) {
+        // every catalog change bumps the update sequence, that alone is not a reason to drop
+        // the documents of the unaffected workspaces
+        if (!Collections.singletonList("updateSequence").equals(propertyNames)) {
+            globalChanged = true;
+        }
+    }
+
+    @Override
+    public void handlePostGlobalChange(GeoServerInfo global) {
+        if (globalChanged) {
+            globalChanged = false;
+            invalidateAll();
+        }
+    }
+
+    @Override
+    public void handleSettingsAdded(SettingsInfo settings) {
+        invalidateSettings(settings);
+    }
+
+    @Override
+    public void handleSettingsModified(SettingsInfo settings, List<String> propertyNames,
+            List<Object> oldValues, List<Object> newValues) {
+        // wait for the post modification event
+    }
+
+    @Override
+    public void handleSettingsPostModified(SettingsInfo settings) {
+        invalidateSettings(settings);
+    }
+
+    @Override
+    public void handleSettingsRemoved(SettingsInfo settings) {
+        invalidateSettings(settings);
+    }
+
+    void invalidateSettings(SettingsInfo settings) {
+        if (settings.getWorkspace() == null) {
+            invalidateAll();
+        } else {
+            invalidate(k -> settings.getWorkspace().getName().equals(k.workspace));
+        }
+    }
+
+    @Override
+    public void handleLoggingChange(LoggingInfo logging, List<String> propertyNames,
+            List<Object> oldValues, List<Object> newValues) {
+        // logging does not affect capabilities
+    }
+
+    @Override
+    public void handlePostLoggingChange(LoggingInfo logging) {
+        // logging does not affect capabilities
+    }
+
+    @Override
+    public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
+            List<Object> oldValues, List<Object> newValues) {
+        // wait for the post modification event
+    }
+
+    @Override
+    public void handlePostServiceChange(ServiceInfo service) {
+        invalidateService(service);
+    }
+
+    @Override
+    public void handleServiceRemove(ServiceInfo service) {
+        invalidateService(service);
+    }
+
+    void invalidateService(ServiceInfo service) {
+        WorkspaceInfo ws = service.getWorkspace();
+        invalidateService(service.getName(), ws == null ? null : ws.getName());
+    }
+
+    /**
+     * Cache key for a capabilities document
+     */
+    static final class Key {
+        final String service;
+
+        final String version;
+
+        final String workspace;
+
+        final String published;
+
+        final String namespace;
+
+        final String user;
+
+        final List<String> roles;
+
+        final String baseURL;
+
+        final Map<String, String> kvp;
+
+        Key(String service, String version, String workspace, String published,
+                String namespace, String user, List<String> roles, String baseURL,
+                Map<String, String> kvp) {
+            this.service = service;
+            this.version = version;
+            this.workspace = workspace;
+            this.published = published;
+            this.namespace = namespace;
+            this.user = user;
+            this.roles = roles;
+            this.baseURL = baseURL;
+            this.kvp = kvp;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(service, version, workspace, published, namespace, user, roles,
+                    baseURL, kvp);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(service, other.service)
+                    && Objects.equals(version, other.version)
+                    && Objects.equals(workspace, other.workspace)
+                    && Objects.equals(published, other.published)
+                    && Objects.equals(namespace, other.namespace)
+                    && Objects.equals(user, other.user)
+                    && Objects.equals(roles, other.roles)
+                    && Objects.equals(baseURL, other.baseURL) && Objects.equals(kvp, other.kvp);
+        }
+
+        @Override
+        public String toString() {
+            return "Key [service=" + service + ", version=" + version + ", workspace="
+                    + workspace + ", published=" + published + ", user=" + user + ", roles="
+                    + roles + ", kvp=" + kvp + "]";
+        }
+    }
+
+    /**
+     * A cached capabilities document, along with its gzip compressed variant
+     */
+    static final class Entry {
+        final byte[] data;
+
+        final byte[] gzipped;
+
+        Entry(byte[] data, byte[] gzipped) {
+            this.data = data;
+            this.gzipped = gzipped;
+        }
+
+        int size() {
+            return data.length + (gzipped == null ? 0 : gzipped.length);
+        }
+    }
+
+    /**
+     * Writes out the cached document, if available, or captures the document written by the
+     * delegate response and caches it otherwise
+     */
+    private class CachingResponse extends Response {
+
+        Response delegate;
+
+        Key key;
+
+        Entry entry;
+
+        boolean serveGzipped;
+
+        long startGeneration;
+
+        public CachingResponse(Response delegate, Key key, Entry entry, boolean acceptsGzip,
+                long startGeneration) {
+            super(delegate.getBinding());
+            this.delegate = delegate;
+            this.key = key;
+            this.entry = entry;
+            this.serveGzipped = acceptsGzip && entry != null && entry.gzipped != null;
+            this.startGeneration = startGeneration;
+        }
+
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        public String getCharset(Operation operation) {
+            return delegate.getCharset(operation);
+        }
+
+        /**
+         * Adds the content encoding header when returning the pre-compressed variant
+         */
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            String[][] headers = delegate.getHeaders(value, operation);
+            if (!serveGzipped) {
+                return headers;
+            }
+            List<String[]> result = new ArrayList<>();
+            if (headers != null) {
+                for (String[] header : headers) {
+                    if (!HttpHeaders.CONTENT_ENCODING.equalsIgnoreCase(header[0])) {
+                        result.add(header);
+                    }
+                }
+            }
+            result.add(new String[] { HttpHeaders.CONTENT_ENCODING, GZIP });
+            result.add(new String[] { HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING });
+            return result.toArray(new String[result.size()][]);
+        }
+
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            if (entry != null) {
+                output.write(serveGzipped ? entry.gzipped : entry.data);
+                return;
+            }
+
+            CapturingOutputStream capture = new CapturingOutputStream(output, maxSize / 4);
+            delegate.write(value, capture, operation);
+            capture.flush();
+            byte[] data = capture.getCaptured();
+            if (data != null) {
+                store(key, startGeneration, data);
+            }
+        }
+
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+    }
+
+    /**
+     * Copies the bytes written to the delegate stream into a buffer, giving up on the copy if
+     * the document grows above the given limit
+     */
+    static class CapturingOutputStream extends FilterOutputStream {
+
+        ByteArrayOutputStream captured = new ByteArrayOutputStream(8192);
+
+        long limit;
+
+        CapturingOutputStream(OutputStream out, long limit) {
+            super(out);
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (captured != null) {
+                if (captured.size() + len > limit) {
+                    captured = null;
+                } else {
+                    captured.write(b, off, len);
+                }
+            }
+        }
+
+        /**
+         * Returns the bytes written, or null if the document went past the limit
+         */
+        byte[] getCaptured() {
+            return captured == null ? null : captured.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.geoserver.catalog.CatalogInfo;
+import org.geoserver.catalog.CoverageInfo;
+import org.geoserver.catalog.CoverageStoreInfo;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.MapInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.PublishedInfo;
+import org.geoserver.catalog.ResourceInfo;
+import org.geoserver.catalog.StoreInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.catalog.WMSStoreInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.Resources;
+import org.geotools.util.logging.Logging;
+
+/**
+ * A binary snapshot of the catalog configuration files, used by {@link GeoServerLoader} to avoid
+ * parsing again the XML files that did not change since the last startup.
+ * <p>
+ * For each configuration file the snapshot stores the checksum of its contents and the object
+ * parsed from it, in Java serialization format. References to other catalog objects are stored
+ * by id, and turned back into {@link ResolvingProxy} instances when read, the same way
+ * {@link XStreamPersister} does, so that objects coming from the snapshot and objects parsed
+ * from XML can be freely mixed during a load.
+ * </p>
+ * <p>
+ * Stores are always parsed from XML, as their connection parameters might contain passwords
+ * that are encrypted in the configuration files and decrypted when parsed.
+ * </p>
+ * <p>
+ * The snapshot is disabled by default, it can be enabled setting the
+ * <code>org.geoserver.catalog.snapshot</code> property to true. Any problem reading the
+ * snapshot, or a single entry in it, results in the XML files being parsed instead.
+ * </p>
+ */
+class CatalogSnapshot {
+
+    static final Logger LOGGER = Logging.getLogger(CatalogSnapshot.class);
+
+    /**
+     * The snapshot location, relative to the data directory
+     */
+    static final String SNAPSHOT_PATH = "catalog.snapshot";
+
+    static final String ENABLED_PROPERTY = "org.geoserver.catalog.snapshot";
+
+    static final int MAGIC = 0x47534353;
+
+    static final int VERSION = 1;
+
+    /**
+     * The types references are resolved to, in lookup order (more specific types first)
+     */
+    static final List<Class<? extends CatalogInfo>> REFERENCE_TYPES = Arrays.asList(
+            WorkspaceInfo.class, NamespaceInfo.class, DataStoreInfo.class,
+            CoverageStoreInfo.class, WMSStoreInfo.class, StoreInfo.class, FeatureTypeInfo.class,
+            CoverageInfo.class, WMSLayerInfo.class, ResourceInfo.class, LayerInfo.class,
+            LayerGroupInfo.class, PublishedInfo.class, StyleInfo.class, MapInfo.class);
+
+    static final class Entry {
+        final long checksum;
+
+        final byte[] data;
+
+        Entry(long checksum, byte[] data) {
+            this.checksum = checksum;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Placeholder for a reference to another catalog object
+     */
+    static final class Reference implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String ref;
+
+        final String prefix;
+
+        final String type;
+
+        Reference(String ref, String prefix, Class<?> type) {
+            this.ref = ref;
+            this.prefix = prefix;
+            this.type = type.getName();
+        }
+    }
+
+    final Resource resource;
+
+    final Map<String, Entry> previous;
+
+    final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+    volatile boolean changed;
+
+    CatalogSnapshot(Resource resource, Map<String, Entry> previous) {
+        this.resource = resource;
+        this.previous = previous;
+        this.changed = previous.isEmpty();
+    }
+
+    static boolean isEnabled() {
+        return Boolean.parseBoolean(GeoServerExtensions.getProperty(ENABLED_PROPERTY));
+    }
+
+    /**
+     * Reads the snapshot from the given resource, returns an empty snapshot if it is missing or
+     * cannot be read, or null if snapshots are not enabled
+     */
+    static CatalogSnapshot read(Resource resource) {
+        if (!isEnabled()) {
+            return null;
+        }
+        Map<String, Entry> entries = Collections.emptyMap();
+        if (Resources.exists(resource)) {
+            try (DataInputStream in = new DataInputStream(
+                    new GZIPInputStream(new BufferedInputStream(resource.in())))) {
+                if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                    LOGGER.info("Ignoring catalog snapshot " + resource.path()
+                            + ", unrecognized format");
+                } else {
+                    int count = in.readInt();
+                    entries = new HashMap<>(count * 4 / 3 + 1);
+                    for (int i = 0; i < count; i++) {
+                        String path = in.readUTF();
+                        long checksum = in.readLong();
+                        byte[] data = new byte[in.readInt()];
+                        in.readFully(data);
+                        entries.put(path, new Entry(checksum, data));
+                    }
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to read the catalog snapshot "
+                        + resource.path() + ", loading the catalog from XML", e);
+                entries = Collections.emptyMap();
+            }
+        }
+        return new CatalogSnapshot(resource, entries);
+    }
+
+    /**
+     * Loads an object from a configuration file, using the snapshot if the file did not change,
+     * parsing it otherwise. Safe to call from multiple threads.
+     */
+    <T> T load(XStreamPersister xp, Resource f, Class<T> clazz) throws IOException {
+        byte[] contents = f.getContents();
+        if (StoreInfo.class.isAssignableFrom(clazz)) {
+            // stores are not snapshotted, XStreamPersister decrypts their passwords on load
+            return GeoServerLoader.depersist(xp, contents, clazz);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(contents);
+        long checksum = crc.getValue();
+        String path = f.path();
+
+        Entry entry = previous.get(path);
+        if (entry != null && entry.checksum == checksum) {
+            try {
+                T result = clazz.cast(deserialize(entry.data));
+                current.put(path, entry);
+                return result;
+            } catch (Exception e) {
+                LOGGER.log(Level.FINE, "Failed to read " + path + " from the snapshot", e);
+            }
+        }
+
+        changed = true;
+        T result = GeoServerLoader.depersist(xp, contents, clazz);
+        byte[] data = serialize(result);
+        if (data != null) {
+            current.put(path, new Entry(checksum, data));
+        }
+        return result;
+    }
+
+    /**
+     * Writes the snapshot back, if anything changed compared to the one read
+     */
+    void save() {
+        if (!changed && current.keySet().equals(previous.keySet())) {
+            return;
+        }
+        try (OutputStream os = resource.out();
+                DataOutputStream out = new DataOutputStream(
+                        new GZIPOutputStream(new BufferedOutputStream(os)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(current.size());
+            for (Map.Entry<String, Entry> e : current.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().checksum);
+                out.writeInt(e.getValue().data.length);
+                out.write(e.getValue().data);
+            }
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to write the catalog snapshot " + resource.path(),
+                    e);
+        }
+    }
+
+    /**
+     * Serializes the object, replacing references to other catalog objects with their ids.
+     * Returns null if the object cannot be serialized.
+     */
+    static byte[] serialize(final Object object) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bos) {
+            {
+                enableReplaceObject(true);
+            }
+
+            @Override
+            protected Object replaceObject(Object obj) throws IOException {
+                if (obj == object) {
+                    return obj;
+                }
+                if (obj instanceof Proxy) {
+                    InvocationHandler h = Proxy.getInvocationHandler(obj);
+                    if (h instanceof ResolvingProxy) {
+                        ResolvingProxy rp = (ResolvingProxy) h;
+                        return new Reference(rp.getRef(), rp.getPrefix(),
+                                obj.getClass().getInterfaces()[0]);
+                    }
+                } else if (obj instanceof CatalogInfo && ((CatalogInfo) obj).getId() != null) {
+                    for (Class<?> type : REFERENCE_TYPES) {
+                        if (type.isInstance(obj)) {
+                            return new Reference(((CatalogInfo) obj).getId(), null, type);
+                        }
+                    }
+                }
+                return obj;
+            }
+        }) {
+            oos.writeObject(object);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Cannot add " + object + " to the catalog snapshot", e);
+            return null;
+        }
+        return bos.toByteArray();
+    }
+
+    static Object deserialize(byte[] data) throws IOException, ClassNotFoundException {
+        try (InputStream bis = new ByteArrayInputStream(data);
+                ObjectInputStream ois = new ObjectInputStream(bis) {
+                    {
+                        enableResolveObject(true);
+                    }
+
+                    @Override
+                    protected Object resolveObject(Object obj) throws IOException {
+                        if (obj instanceof Reference) {
+                            Reference ref = (Reference) obj;
+                            try {
+                                Class<?> type = Class.forName(ref.type, false,
+                                        CatalogInfo.class.getClassLoader());
+                                return ResolvingProxy.create(ref.ref, ref.prefix, type);
+                            } catch (ClassNotFoundException e) {
+                                throw new IOException(e);
+                            }
+                        }
+                        return obj;
+                    }
+                }) {
+            return ois.readObject();
+        }
+    }
+}
@@ -9,10 +9,18 @@ import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.function.Consumer;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -27,6 +35,7 @@ import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.NamespaceInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.ResourcePool;
+import org.geoserver.catalog.StoreInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WMSStoreInfo;
@@ -37,7 +46,6 @@ import org.geoserver.catalog.impl.CatalogImpl;
 import org.geoserver.catalog.util.LegacyCatalogImporter;
 import org.geoserver.catalog.util.LegacyCatalogReader;
 import org.geoserver.catalog.util.LegacyFeatureTypeInfoReader;
-import org.geoserver.config.AsynchResourceIterator.ResourceMapper;
 import org.geoserver.config.util.LegacyConfigurationImporter;
 import org.geoserver.config.util.XStreamPersister;
 import org.geoserver.config.util.XStreamPersisterFactory;
@@ -49,7 +57,6 @@ import org.geoserver.platform.resource.Resource;
 import org.geoserver.platform.resource.Resource.Type;
 import org.geoserver.platform.resource.Resources;
 import org.geoserver.platform.resource.Resources.ExtensionFilter;
-import org.geoserver.util.Filter;
 import org.geoserver.util.IOUtils;
 import org.geotools.util.logging.Logging;
 import org.springframework.beans.BeansException;
@@ -69,144 +76,123 @@ public abstract class GeoServerLoader {
     static Logger LOGGER = Logging.getLogger( "org.geoserver" );
     
     /**
-     * Workspace IO resources
+     * Number of threads used to read and parse the catalog configuration files
      */
-    static final class WorkspaceContents {
-        Resource resource;
-        byte[] contents;
-        byte[] nsContents;
-        
-        public WorkspaceContents(Resource resource, byte[] contents, byte[] nsContents) {
-            this.resource = resource;
-            this.contents = contents;
-            this.nsContents = nsContents;
+    static final int LOADING_PARALLELISM;
+
+    static {
+        String value = GeoServerExtensions.getProperty("org.geoserver.catalog.loadingParallelism");
+        if (value != null) {
+            LOADING_PARALLELISM = Integer.parseInt(value);
+        } else {
+            LOADING_PARALLELISM = Runtime.getRuntime().availableProcessors();
         }
     }
-    
+
     /**
-     * {@link ResourceMapper} for workspaces
+     * A workspace and its namespace, as parsed from disk
      */
-    static final class WorkspaceMapper implements ResourceMapper<WorkspaceContents> {
-
-        @Override
-        public WorkspaceContents apply(Resource rd) throws IOException {
-            Resource wr = rd.get("workspace.xml");
-            Resource nr = rd.get("namespace.xml");
-            if (Resources.exists(wr) && Resources.exists(nr)) {
-                byte[] contents = wr.getContents();
-                byte[] nrContents = nr.getContents();
-                return new WorkspaceContents(rd, contents, nrContents);
-            } else {
-                LOGGER.warning("Ignoring workspace directory " + rd.path());
-                return null;
-            }
+    static final class LoadedWorkspace {
+        Resource resource;
+        WorkspaceInfo workspace;
+        NamespaceInfo namespace;
+
+        public LoadedWorkspace(Resource resource, WorkspaceInfo workspace, NamespaceInfo namespace) {
+            this.resource = resource;
+            this.workspace = workspace;
+            this.namespace = namespace;
         }
     }
 
     /**
-     * Data store IO resources
+     * A store, as parsed from disk
      */
-    static final class StoreContents {
+    static final class LoadedStore {
         Resource resource;
-        byte[] contents;
-        public StoreContents(Resource resource, byte[] contents) {
-            super();
+        StoreInfo store;
+
+        public LoadedStore(Resource resource, StoreInfo store) {
             this.resource = resource;
-            this.contents = contents;
+            this.store = store;
         }
     }
-    
+
     /**
-     * Layer IO resources
+     * A resource and its layer, as parsed from disk
      */
-    static final class LayerContents {
-        Resource resource;
-        byte[] contents;
-        byte[] layerContents;
-        
-        public LayerContents(Resource resource, byte[] contents, byte[] layerContents) {
+    static final class LoadedResource {
+        Resource directory;
+        ResourceInfo resource;
+        LayerInfo layer;
+
+        public LoadedResource(Resource directory, ResourceInfo resource, LayerInfo layer) {
+            this.directory = directory;
             this.resource = resource;
-            this.contents = contents;
-            this.layerContents = layerContents;
+            this.layer = layer;
         }
     }
-    
+
     /**
-     * Resource/Layer mapper to IO resources (generic)
+     * Describes the configuration files of a type of store, and the resources it contains
      */
-    static final class ResourceLayerMapper implements ResourceMapper<LayerContents> {
-
-        private String resourceFileName;
-        private String resourceType;
+    static final class StoreType {
+        String storeFile;
+        Class<? extends StoreInfo> storeClass;
+        String storeType;
+        String resourceFile;
+        Class<? extends ResourceInfo> resourceClass;
+        String resourceType;
 
-        public ResourceLayerMapper(String resourceFileName, String resourceType) {
-            this.resourceFileName = resourceFileName;
+        public StoreType(String storeFile, Class<? extends StoreInfo> storeClass,
+                String storeType, String resourceFile,
+                Class<? extends ResourceInfo> resourceClass, String resourceType) {
+            this.storeFile = storeFile;
+            this.storeClass = storeClass;
+            this.storeType = storeType;
+            this.resourceFile = resourceFile;
+            this.resourceClass = resourceClass;
             this.resourceType = resourceType;
         }
 
-        @Override
-        public LayerContents apply(Resource rd) throws IOException {
-            Resource r = rd.get(resourceFileName);
-            Resource lr = rd.get("layer.xml");
-            if (Resources.exists(r) && Resources.exists(lr)) {
-                byte[] contents = r.getContents();
-                byte[] lrContents = lr.getContents();
-                return new LayerContents(rd, contents, lrContents);
-            } else {
-                LOGGER.warning("Ignoring " + resourceType + " directory " + rd.path());
-                return null;
+        static StoreType lookup(StoreInfo store) {
+            for (StoreType type : STORE_TYPES) {
+                if (type.storeClass.isInstance(store)) {
+                    return type;
+                }
             }
+            return null;
         }
     }
-    
-    /** Feature Type IO resource mapper */
-    static final ResourceLayerMapper FEATURE_LAYER_MAPPER = new ResourceLayerMapper("featuretype.xml", "feature type");
-    /** Coverage IO resource mapper */
-    static final ResourceLayerMapper COVERAGE_LAYER_MAPPER = new ResourceLayerMapper("coverage.xml", "coverage");
-    /** WMS Layer IO resource mapper */
-    static final ResourceLayerMapper WMS_LAYER_MAPPER = new ResourceLayerMapper("wmslayer.xml", "wms layer");
-    
+
+    static final List<StoreType> STORE_TYPES = Arrays.asList(
+            new StoreType("datastore.xml", DataStoreInfo.class, "data store", "featuretype.xml",
+                    FeatureTypeInfo.class, "feature type"),
+            new StoreType("coveragestore.xml", CoverageStoreInfo.class, "coverage store",
+                    "coverage.xml", CoverageInfo.class, "coverage"),
+            new StoreType("wmsstore.xml", WMSStoreInfo.class, "wms store", "wmslayer.xml",
+                    WMSLayerInfo.class, "wms layer"));
+
     /**
-     * Generic layer catalog loader for all types of IO resources
-     *
-     * @author Andrea Aime - GeoSolutions
+     * Logs the time spent in each catalog loading phase
      */
-    static final class LayerLoader<T extends ResourceInfo> implements Consumer<LayerContents> {
+    static final class PhaseTimer {
+        final long begin = System.nanoTime();
+        long start = begin;
 
-        Class<T> clazz;
-        XStreamPersister xp;
-        Catalog catalog;
-        
-        public LayerLoader(Class<T> clazz, XStreamPersister xp, Catalog catalog) {
-            this.clazz = clazz;
-            this.xp = xp;
-            this.catalog = catalog;
+        void phase(String description, int count) {
+            long now = System.nanoTime();
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.info(String.format("Catalog loading: %d %s in %d ms", count, description,
+                        TimeUnit.NANOSECONDS.toMillis(now - start)));
+            }
+            start = now;
         }
 
-        @Override
-        public void accept(LayerContents lc) {
-            T ft = null;
-            try {
-                ft = depersist(xp, lc.contents,clazz);
-                catalog.add(ft);
-            } catch( Exception e ) {
-                LOGGER.log( Level.WARNING, "Failed to load feature type", e);
-                return;
-            }
-            
-            if(LOGGER.isLoggable(Level.INFO)) {
-                LOGGER.info( "Loaded feature type '" + lc.resource.name() +"'");
+        void done() {
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.info(String.format("Catalog loaded in %d ms",
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)));
             }
-            
-            try {
-                LayerInfo l = depersist(xp, lc.layerContents, LayerInfo.class );
-                catalog.add( l );
-                
-                LOGGER.info( "Loaded layer '" + l.getName() + "'" );
-            } catch( Exception e ) {
-                LOGGER.log( Level.WARNING, "Failed to load layer " + lc.resource.name(), e);
-            }
-            
         }
     }
     
@@ -417,6 +403,18 @@ public abstract class GeoServerLoader {
     
     /**
      * Reads the catalog from disk.
+     * <p>
+     * Configuration files are read and parsed in parallel on a {@link ForkJoinPool} (sized by
+     * the <code>org.geoserver.catalog.loadingParallelism</code> property, defaulting to the
+     * number of processors), in waves respecting the dependencies among catalog objects:
+     * workspaces and namespaces, styles, stores, resources and layers, layer groups. Each wave
+     * is added to the catalog in directory order once fully parsed, so that the references to
+     * the objects of the previous waves can be resolved.
+     * </p>
+     * <p>
+     * When enabled, a {@link CatalogSnapshot} is used to skip parsing the files that did not
+     * change since the previous load.
+     * </p>
      */
     Catalog readCatalog( XStreamPersister xp ) throws Exception {
         CatalogImpl catalog = new CatalogImpl();
@@ -429,148 +427,68 @@ public abstract class GeoServerLoader {
         if(!checkStores) {
             catalog.setExtendedValidation(false);
         }
-       
-        //global styles
-        loadStyles(resourceLoader.get( "styles" ), catalog, xp);
-
-        //workspaces, stores, and resources
-        Resource workspaces = resourceLoader.get( "workspaces" );
-        if ( Resources.exists(workspaces) ) {
-            //do a first quick scan over all workspaces, setting the default
-            Resource dws = workspaces.get("default.xml");
-            WorkspaceInfo defaultWorkspace = null;
-            if (Resources.exists(dws)) {
-                try {
-                    defaultWorkspace = depersist(xp, dws, WorkspaceInfo.class);
-                    LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
-                } catch( Exception e ) {
-                    LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
+        
+        ForkJoinPool pool = createLoadingPool();
+        PhaseTimer timer = new PhaseTimer();
+        CatalogSnapshot snapshot = CatalogSnapshot
+                .read(resourceLoader.get(CatalogSnapshot.SNAPSHOT_PATH));
+        try {
+            //workspaces, stores, and resources
+            Resource workspaces = resourceLoader.get( "workspaces" );
+            List<Resource> workspaceList = new ArrayList<>();
+            if ( Resources.exists(workspaces) ) {
+                List<LoadedWorkspace> loaded = parallelMap(pool,
+                        children(pool, Collections.singletonList(workspaces)),
+                        wd -> readWorkspace(wd, xp, snapshot));
+                for (LoadedWorkspace lw : loaded) {
+                    workspaceList.add(lw.resource);
                 }
+                addWorkspaces(loaded, workspaces, catalog, xp);
+                timer.phase("workspaces", loaded.size());
             } else {
-                LOGGER.warning("No default workspace was found.");
+                LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
             }
             
-            List<Resource> workspaceList = workspaces.list().parallelStream()
-                    .filter(r -> Resources.DirectoryFilter.INSTANCE.accept(r))
-                    .collect(Collectors.toList());
+            //global and workspace styles
+            List<Resource> styleDirectories = new ArrayList<>();
+            styleDirectories.add(resourceLoader.get( "styles" ));
+            for (Resource wsd : workspaceList) {
+                styleDirectories.add(wsd.get("styles"));
+            }
+            int styles = loadStyles(pool, styleDirectories, catalog, xp, snapshot);
+            timer.phase("styles", styles);
             
-            try (AsynchResourceIterator<WorkspaceContents> it = new AsynchResourceIterator<>(
-                    workspaces, Resources.DirectoryFilter.INSTANCE, new WorkspaceMapper())) {
-                while (it.hasNext()) {
-                    WorkspaceContents wc = it.next();
-                    WorkspaceInfo ws;
-                    final Resource workspaceResource = wc.resource;
-                    try {
-                        ws = depersist(xp, wc.contents, WorkspaceInfo.class);
-                        catalog.add(ws);
-                        if (LOGGER.isLoggable(Level.INFO)) {
-                            LOGGER.info("Loaded workspace '" + ws.getName() + "'");
-                        }
-                    } catch (Exception e) {
-                        LOGGER.log(Level.WARNING,
-                                "Failed to load workspace '" + workspaceResource.name() + "'", e);
-                        continue;
-                    }
-
-                    // load the namespace
-                    NamespaceInfo ns = null;
-                    try {
-                        ns = depersist(xp, wc.nsContents, NamespaceInfo.class);
-                        catalog.add(ns);
-                    } catch (Exception e) {
-                        LOGGER.log(Level.WARNING,
-                                "Failed to load namespace for '" + workspaceResource.name() + "'", e);
-                    }
-                    
-                    // set the default workspace, this value might be null in the case of coming from a
-                    // 2.0.0 data directory. See https://osgeo-org.atlassian.net/browse/GEOS-3440
-                    if (defaultWorkspace != null) {
-                        if (ws.getName().equals(defaultWorkspace.getName())) {
-                            catalog.setDefaultWorkspace(ws);
-                            if (ns != null) {
-                                catalog.setDefaultNamespace(ns);
-                            }
-                        }
-                    } else {
-                        // create the default.xml file
-                        defaultWorkspace = catalog.getDefaultWorkspace();
-                        if (defaultWorkspace != null) {
-                            try {
-                                persist(xp, defaultWorkspace, dws);
-                            } catch (Exception e) {
-                                LOGGER.log(Level.WARNING, "Failed to persist default workspace '"
-                                        + workspaceResource.name() + "'", e);
-                            }
-
-                        }
-                    }
-
-                    //load the styles for the workspace
-                    Resource styles = workspaceResource.get("styles");
-                    if (styles != null) {
-                        loadStyles(styles, catalog, xp);
-                    }
-                }
+            // stores
+            List<LoadedStore> stores = addStores(parallelMap(pool,
+                    children(pool, workspaceList), sd -> readStore(sd, xp, snapshot)), catalog);
+            if (checkStores) {
+                checkDataStores(pool, stores);
             }
-
-            // maps each store into a StoreContents
-            ResourceMapper<StoreContents> storeMapper = sd -> {
-                Resource f = sd.get("datastore.xml");
-                if(Resources.exists(f)) {
-                    return new StoreContents(f, f.getContents());
-                }
-                f = sd.get("coveragestore.xml");
-                if(Resources.exists(f)) {
-                    return new StoreContents(f, f.getContents());
-                }
-                f = sd.get("wmsstore.xml");
-                if(Resources.exists(f)) {
-                    return new StoreContents(f, f.getContents());
-                }
-                if(!isConfigDirectory(sd)) {
-                    LOGGER.warning( "Ignoring store directory '" + sd.name() +  "'");
-                }
-                // nothing found
-                return null;
-                
-            };
+            timer.phase("stores", stores.size());
+            
+            // resources and layers, list first and then parse, a single store might contain
+            // most of the resources
+            List<SimpleImmutableEntry<Resource, StoreType>> resourceDirectories = pool
+                    .submit(() -> stores.parallelStream().flatMap(ls -> {
+                        StoreType type = StoreType.lookup(ls.store);
+                        return children(ls.resource.parent()).stream()
+                                .map(rd -> new SimpleImmutableEntry<>(rd, type));
+                    }).collect(Collectors.toList())).get();
+            List<LoadedResource> resources = parallelMap(pool, resourceDirectories,
+                    e -> readResource(e.getKey(), e.getValue(), xp, snapshot));
+            int layers = addResources(resources, catalog);
+            timer.phase("resources and layers", layers);
             
+            //workspace and global layer groups
+            List<Resource> groupDirectories = new ArrayList<>();
             for (Resource wsd : workspaceList) {
-                // load the stores for this workspace
-                try (AsynchResourceIterator<StoreContents> it = new AsynchResourceIterator<>(wsd,
-                        Resources.DirectoryFilter.INSTANCE, storeMapper)) {
-                    while (it.hasNext()) {
-                        StoreContents storeContents = it.next();
-                        final String resourceName = storeContents.resource.name();
-                        if ("datastore.xml".equals(resourceName)) {
-                            loadDataStore(storeContents, catalog, xp, checkStores);
-                        } else if ("coveragestore.xml".equals(resourceName)) {
-                            loadCoverageStore(storeContents, catalog, xp);
-                        } else if ("wmsstore.xml".equals(resourceName)) {
-                            loadWmsStore(storeContents, catalog, xp);
-                        } else if (!isConfigDirectory(storeContents.resource)) {
-                            LOGGER.warning("Ignoring store directory '"
-                                    + storeContents.resource.name() + "'");
-                            continue;
-                        }
-                    }
-                }
-
-                // load the layer groups for this workspace
-                Resource layergroups = wsd.get("layergroups");
-                if (layergroups != null) {
-                    loadLayerGroups(layergroups, catalog, xp);
-                }
+                groupDirectories.add(wsd.get("layergroups"));
             }
-        }
-        else {
-            LOGGER.warning( "No 'workspaces' directory found, unable to load any stores." );
-        }
-
-        //layergroups
-        Resource layergroups = resourceLoader.get( "layergroups" );
-        if (layergroups != null) {
-           loadLayerGroups(layergroups, catalog, xp);
+            groupDirectories.add(resourceLoader.get( "layergroups" ));
+            int groups = loadLayerGroups(pool, groupDirectories, catalog, xp, snapshot);
+            timer.phase("layer groups", groups);
+        } finally {
+            pool.shutdown();
         }
         xp.setUnwrapNulls(true);
         catalog.resolve();
@@ -578,101 +496,260 @@ public abstract class GeoServerLoader {
         if(!checkStores) {
             catalog.setExtendedValidation(true);
         }
+        if (snapshot != null) {
+            snapshot.save();
+        }
+        timer.done();
         return catalog;
     }
-    
-    private void loadWmsStore(StoreContents storeContents, CatalogImpl catalog,
-            XStreamPersister xp) {
-        final Resource storeResource = storeContents.resource;
-        WMSStoreInfo wms = null;
+
+    /**
+     * Creates the pool used to parse the configuration, making sure its threads see the same
+     * context class loader as the calling thread (needed for SPI lookups in a web container)
+     */
+    static ForkJoinPool createLoadingPool() {
+        final ClassLoader classLoader = Thread.currentThread().getContextClassLoader();
+        return new ForkJoinPool(LOADING_PARALLELISM, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory
+                    .newThread(p);
+            thread.setContextClassLoader(classLoader);
+            thread.setName("CatalogLoader-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+    }
+
+    /**
+     * Maps the sources in parallel in the given pool, skipping null results and preserving the
+     * source order
+     */
+    static <S, T> List<T> parallelMap(ForkJoinPool pool, List<S> sources,
+            Function<S, T> mapper) throws InterruptedException, ExecutionException {
+        return pool.submit(() -> sources.parallelStream().map(mapper).filter(Objects::nonNull)
+                .collect(Collectors.toList())).get();
+    }
+
+    /**
+     * Lists the child directories of the given directories, in parallel
+     */
+    static List<Resource> children(ForkJoinPool pool, List<Resource> directories)
+            throws InterruptedException, ExecutionException {
+        return pool.submit(() -> directories.parallelStream()
+                .flatMap(d -> children(d).stream()).collect(Collectors.toList())).get();
+    }
+
+    static List<Resource> children(Resource directory) {
+        return directory.list().stream().filter(r -> Resources.DirectoryFilter.INSTANCE.accept(r))
+                .collect(Collectors.toList());
+    }
+
+    LoadedWorkspace readWorkspace(Resource rd, XStreamPersister xp, CatalogSnapshot snapshot) {
+        Resource wr = rd.get("workspace.xml");
+        Resource nr = rd.get("namespace.xml");
+        if (!Resources.exists(wr) || !Resources.exists(nr)) {
+            LOGGER.warning("Ignoring workspace directory " + rd.path());
+            return null;
+        }
+        WorkspaceInfo ws;
         try {
-            wms = depersist( xp, storeContents.contents, WMSStoreInfo.class );
-            catalog.add( wms );
-        
-            LOGGER.info( "Loaded wmsstore '" + wms.getName() +"'");
-        } catch( Exception e ) {
-            LOGGER.log( Level.WARNING, "Failed to load wms store '" + storeResource.name() +"'", e);
-            return;
+            ws = load(snapshot, xp, wr, WorkspaceInfo.class);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load workspace '" + rd.name() + "'", e);
+            return null;
         }
-        
-        // load wms layers
-        LayerLoader<WMSLayerInfo> coverageLoader = new LayerLoader<>(WMSLayerInfo.class, xp, catalog);
-        try(AsynchResourceIterator<LayerContents> it = new AsynchResourceIterator<>(storeResource.parent(), Resources.DirectoryFilter.INSTANCE, WMS_LAYER_MAPPER)) {
-            while(it.hasNext()) {
-                LayerContents lc = it.next();
-                coverageLoader.accept(lc);
-            }
+        NamespaceInfo ns = null;
+        try {
+            ns = load(snapshot, xp, nr, NamespaceInfo.class);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load namespace for '" + rd.name() + "'", e);
         }
+        return new LoadedWorkspace(rd, ws, ns);
     }
 
-    private void loadCoverageStore(StoreContents storeContents, CatalogImpl catalog,
+    void addWorkspaces(List<LoadedWorkspace> loaded, Resource workspaces, Catalog catalog,
             XStreamPersister xp) {
-        CoverageStoreInfo cs = null;
-        final Resource storeResource = storeContents.resource;
-        try {
-            cs = depersist( xp, storeContents.contents, CoverageStoreInfo.class );
-            catalog.add( cs );
-
-            if(LOGGER.isLoggable(Level.INFO)) {
-                LOGGER.info( "Loaded coverage store '" + cs.getName() +"'");
+        //do a first quick scan over all workspaces, setting the default
+        Resource dws = workspaces.get("default.xml");
+        WorkspaceInfo defaultWorkspace = null;
+        if (Resources.exists(dws)) {
+            try {
+                defaultWorkspace = depersist(xp, dws, WorkspaceInfo.class);
+                LOGGER.info("Loaded default workspace " + defaultWorkspace.getName());
+            } catch( Exception e ) {
+                LOGGER.log(Level.WARNING, "Failed to load default workspace", e);
             }
-        } catch( Exception e ) {
-            LOGGER.log( Level.WARNING, "Failed to load coverage store '" + storeResource.name() +"'", e);
-            return;
+        } else {
+            LOGGER.warning("No default workspace was found.");
         }
-        
-        // load coverages
-        LayerLoader<CoverageInfo> coverageLoader = new LayerLoader<>(CoverageInfo.class, xp,
-                catalog);
-        try (AsynchResourceIterator<LayerContents> it = new AsynchResourceIterator<>(
-                storeResource.parent(), Resources.DirectoryFilter.INSTANCE,
-                COVERAGE_LAYER_MAPPER)) {
-            while (it.hasNext()) {
-                LayerContents lc = it.next();
-                coverageLoader.accept(lc);
+
+        for (LoadedWorkspace lw : loaded) {
+            WorkspaceInfo ws = lw.workspace;
+            try {
+                catalog.add(ws);
+                if (LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.info("Loaded workspace '" + ws.getName() + "'");
+                }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING,
+                        "Failed to load workspace '" + lw.resource.name() + "'", e);
+                continue;
+            }
+
+            // load the namespace
+            NamespaceInfo ns = lw.namespace;
+            if (ns != null) {
+                try {
+                    catalog.add(ns);
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING,
+                            "Failed to load namespace for '" + lw.resource.name() + "'", e);
+                    ns = null;
+                }
+            }
+
+            // set the default workspace, this value might be null in the case of coming from a
+            // 2.0.0 data directory. See https://osgeo-org.atlassian.net/browse/GEOS-3440
+            if (defaultWorkspace != null) {
+                if (ws.getName().equals(defaultWorkspace.getName())) {
+                    catalog.setDefaultWorkspace(ws);
+                    if (ns != null) {
+                        catalog.setDefaultNamespace(ns);
+                    }
+                }
+            } else {
+                // create the default.xml file
+                defaultWorkspace = catalog.getDefaultWorkspace();
+                if (defaultWorkspace != null) {
+                    try {
+                        persist(xp, defaultWorkspace, dws);
+                    } catch (Exception e) {
+                        LOGGER.log(Level.WARNING, "Failed to persist default workspace '"
+                                + lw.resource.name() + "'", e);
+                    }
+
+                }
             }
         }
     }
 
-    private void loadDataStore(StoreContents storeContents, CatalogImpl catalog, XStreamPersister xp, boolean checkStores) {
-        final Resource storeResource = storeContents.resource;
-        DataStoreInfo ds;
-        try {    
-            ds = depersist( xp, storeContents.contents, DataStoreInfo.class );
-            catalog.add( ds );
-            
-            if(LOGGER.isLoggable(Level.INFO)) {
-                LOGGER.info( "Loaded data store '" + ds.getName() +"'");
-            }
-            
-            if (checkStores && ds.isEnabled()) {
-                //connect to the datastore to determine if we should disable it
+    LoadedStore readStore(Resource sd, XStreamPersister xp, CatalogSnapshot snapshot) {
+        for (StoreType type : STORE_TYPES) {
+            Resource f = sd.get(type.storeFile);
+            if (Resources.exists(f)) {
                 try {
-                    ds.getDataStore(null);
-                } catch( Throwable t ) {
-                    LOGGER.warning( "Error connecting to '" + ds.getName() + "'. Disabling." );
-                    LOGGER.log( Level.INFO, "", t );
-                    
-                    ds.setError(t);
-                    ds.setEnabled(false);
+                    return new LoadedStore(f, load(snapshot, xp, f, type.storeClass));
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING,
+                            "Failed to load " + type.storeType + " '" + sd.name() + "'", e);
+                    return null;
                 }
             }
-        } catch( Exception e ) {
-            LOGGER.log( Level.WARNING, "Failed to load data store '" + storeResource.parent().name() + "'", e);
-            return;
         }
-        
-        // load feature types
-        LayerLoader<FeatureTypeInfo> featureLoader = new LayerLoader<>(FeatureTypeInfo.class, xp, catalog);
-        try(AsynchResourceIterator<LayerContents> it = new AsynchResourceIterator<>(storeResource.parent(), Resources.DirectoryFilter.INSTANCE, FEATURE_LAYER_MAPPER)) {
-            while(it.hasNext()) {
-                LayerContents lc = it.next();
-                featureLoader.accept(lc);
+        if (!isConfigDirectory(sd)) {
+            LOGGER.warning("Ignoring store directory '" + sd.name() + "'");
+        }
+        return null;
+    }
+
+    /**
+     * Adds the stores to the catalog, returns the ones that were successfully added
+     */
+    List<LoadedStore> addStores(List<LoadedStore> stores, Catalog catalog) {
+        List<LoadedStore> added = new ArrayList<>(stores.size());
+        for (LoadedStore ls : stores) {
+            StoreInfo store = ls.store;
+            StoreType type = StoreType.lookup(store);
+            try {
+                catalog.add(store);
+                if (LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.info("Loaded " + type.storeType + " '" + store.getName() + "'");
+                }
+                added.add(ls);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + type.storeType + " '"
+                        + ls.resource.parent().name() + "'", e);
             }
         }
-        
+        return added;
     }
 
+    /**
+     * Connects to the enabled data stores, in parallel, disabling the ones that fail
+     */
+    void checkDataStores(ForkJoinPool pool, List<LoadedStore> stores)
+            throws InterruptedException, ExecutionException {
+        pool.submit(() -> stores.parallelStream()
+                .filter(ls -> ls.store instanceof DataStoreInfo && ls.store.isEnabled())
+                .forEach(ls -> {
+                    DataStoreInfo ds = (DataStoreInfo) ls.store;
+                    //connect to the datastore to determine if we should disable it
+                    try {
+                        ds.getDataStore(null);
+                    } catch (Throwable t) {
+                        LOGGER.warning("Error connecting to '" + ds.getName() + "'. Disabling.");
+                        LOGGER.log(Level.INFO, "", t);
+
+                        ds.setError(t);
+                        ds.setEnabled(false);
+                    }
+                })).get();
+    }
+
+    LoadedResource readResource(Resource rd, StoreType type, XStreamPersister xp,
+            CatalogSnapshot snapshot) {
+        Resource r = rd.get(type.resourceFile);
+        Resource lr = rd.get("layer.xml");
+        if (!Resources.exists(r) || !Resources.exists(lr)) {
+            LOGGER.warning("Ignoring " + type.resourceType + " directory " + rd.path());
+            return null;
+        }
+        ResourceInfo resource;
+        try {
+            resource = load(snapshot, xp, r, type.resourceClass);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + type.resourceType, e);
+            return null;
+        }
+        LayerInfo layer = null;
+        try {
+            layer = load(snapshot, xp, lr, LayerInfo.class);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Failed to load layer " + rd.name(), e);
+        }
+        return new LoadedResource(rd, resource, layer);
+    }
+
+    /**
+     * Adds the resources and their layers to the catalog, returns the number of layers added
+     */
+    int addResources(List<LoadedResource> resources, Catalog catalog) {
+        int layers = 0;
+        for (LoadedResource lr : resources) {
+            try {
+                catalog.add(lr.resource);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + lr.resource.getClass().getSimpleName()
+                        + " '" + lr.directory.name() + "'", e);
+                continue;
+            }
+
+            if (LOGGER.isLoggable(Level.INFO)) {
+                LOGGER.info("Loaded resource '" + lr.directory.name() + "'");
+            }
+
+            if (lr.layer != null) {
+                try {
+                    catalog.add(lr.layer);
+                    layers++;
+
+                    LOGGER.info("Loaded layer '" + lr.layer.getName() + "'");
+                } catch (Exception e) {
+                    LOGGER.log(Level.WARNING, "Failed to load layer " + lr.directory.name(), e);
+                }
+            }
+        }
+        return layers;
+    }
+    
     /**
      * Some config directories in GeoServer are used to store workspace specific configurations, 
      * identify them so that we don't log complaints about their existence
@@ -830,44 +907,76 @@ public abstract class GeoServerLoader {
         }
     }
 
-    void loadStyles(Resource styles, Catalog catalog, XStreamPersister xp) throws IOException {
-        Filter<Resource> styleFilter = r -> XML_FILTER.accept(r) && !Resources.exists(styles.get(r.name() + ".xml"));
-        try (AsynchResourceIterator<byte[]> it = new AsynchResourceIterator<>(styles, styleFilter, r -> r.getContents())) {
-            while (it.hasNext()) {
-                try {
-                    StyleInfo s = depersist(xp, it.next(), StyleInfo.class);
-                    catalog.add(s);
+    /**
+     * Loads the styles found in the given directories, returns the number of styles loaded
+     */
+    int loadStyles(ForkJoinPool pool, List<Resource> directories, Catalog catalog,
+            XStreamPersister xp, CatalogSnapshot snapshot) throws InterruptedException, ExecutionException {
+        List<Resource> files = pool.submit(() -> directories.parallelStream()
+                .filter(d -> d != null)
+                .flatMap(styles -> styles.list().stream().filter(r -> XML_FILTER.accept(r)
+                        && !Resources.exists(styles.get(r.name() + ".xml"))))
+                .collect(Collectors.toList())).get();
+        List<StyleInfo> styles = parallelMap(pool, files, r -> {
+            try {
+                return load(snapshot, xp, r, StyleInfo.class);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load style", e);
+                return null;
+            }
+        });
 
-                    if(LOGGER.isLoggable(Level.INFO)) {
-                        LOGGER.info("Loaded style '" + s.getName() + "'");
-                    }
-                } catch (Exception e) {
-                    LOGGER.log(Level.WARNING, "Failed to load style", e);
+        int count = 0;
+        for (StyleInfo s : styles) {
+            try {
+                catalog.add(s);
+                count++;
+
+                if(LOGGER.isLoggable(Level.INFO)) {
+                    LOGGER.info("Loaded style '" + s.getName() + "'");
                 }
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load style", e);
             }
         }
+        return count;
     }
     
-   
-    void loadLayerGroups(Resource layerGroups, Catalog catalog, XStreamPersister xp) {
-        try (AsynchResourceIterator<byte[]> it = new AsynchResourceIterator<>(layerGroups,
-                XML_FILTER, r -> r.getContents())) {
-            while (it.hasNext()) {
-                try {
-                    LayerGroupInfo lg = depersist(xp, it.next(), LayerGroupInfo.class);
-                    if (lg.getLayers() == null || lg.getLayers().size() == 0) {
-                        LOGGER.warning(
-                                "Skipping empty layer group '" + lg.getName() + "', it is invalid");
-                        continue;
-                    }
-                    catalog.add(lg);
+    /**
+     * Loads the layer groups found in the given directories, returns the number of groups loaded
+     */
+    int loadLayerGroups(ForkJoinPool pool, List<Resource> directories, Catalog catalog,
+            XStreamPersister xp, CatalogSnapshot snapshot) throws InterruptedException, ExecutionException {
+        List<Resource> files = pool.submit(() -> directories.parallelStream()
+                .filter(d -> d != null)
+                .flatMap(groups -> groups.list().stream().filter(r -> XML_FILTER.accept(r)))
+                .collect(Collectors.toList())).get();
+        List<LayerGroupInfo> groups = parallelMap(pool, files, r -> {
+            try {
+                return load(snapshot, xp, r, LayerGroupInfo.class);
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer group", e);
+                return null;
+            }
+        });
 
-                    LOGGER.info("Loaded layer group '" + lg.getName() + "'");
-                } catch (Exception e) {
-                    LOGGER.log(Level.WARNING, "Failed to load layer group", e);
+        int count = 0;
+        for (LayerGroupInfo lg : groups) {
+            try {
+                if (lg.getLayers() == null || lg.getLayers().size() == 0) {
+                    LOGGER.warning(
+                            "Skipping empty layer group '" + lg.getName() + "', it is invalid");
+                    continue;
                 }
+                catalog.add(lg);
+                count++;
+
+                LOGGER.info("Loaded layer group '" + lg.getName() + "'");
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to load layer group", e);
             }
         }
+        return count;
     }
 
     void loadServices(Resource directory, boolean global, List<XStreamServiceLoader> loaders, GeoServer geoServer) {
@@ -915,6 +1024,18 @@ public abstract class GeoServerLoader {
         }
     }
     
+    /**
+     * Loads a catalog configuration file, from the snapshot if enabled and up to date, parsing
+     * it otherwise
+     */
+    static <T> T load(CatalogSnapshot snapshot, XStreamPersister xp, Resource f, Class<T> clazz)
+            throws IOException {
+        if (snapshot != null) {
+            return snapshot.load(xp, f, clazz);
+        }
+        return depersist(xp, f.getContents(), clazz);
+    }
+
     /**
      * Helper method which uses xstream to depersist an object as xml from disk.
      */
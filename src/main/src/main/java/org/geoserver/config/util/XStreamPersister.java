@@ -6,6 +6,7 @@
 package org.geoserver.config.util;
 
 import java.awt.geom.AffineTransform;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -13,15 +14,18 @@ import java.io.OutputStreamWriter;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -149,6 +153,7 @@ import com.thoughtworks.xstream.converters.collections.AbstractCollectionConvert
 import com.thoughtworks.xstream.converters.collections.CollectionConverter;
 import com.thoughtworks.xstream.converters.collections.MapConverter;
 import com.thoughtworks.xstream.converters.reflection.FieldDictionary;
+import com.thoughtworks.xstream.converters.reflection.ObjectAccessException;
 import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
 import com.thoughtworks.xstream.converters.reflection.ReflectionProvider;
 import com.thoughtworks.xstream.converters.reflection.SortableFieldKeySorter;
@@ -272,6 +277,29 @@ public class XStreamPersister {
      */
     boolean encryptPasswordFields = true;
 
+    /**
+     * System property enabling the precompiled marshalling of catalog and configuration objects,
+     * see {@link #setPrecompiledConverters(boolean)}
+     */
+    public static final String PRECOMPILED_CONVERTERS_PROPERTY = "org.geoserver.xstream.precompiled";
+
+    /**
+     * Flag controlling whether objects handled by the custom reflection converters are written
+     * using precompiled {@link MarshalPlan}s
+     */
+    boolean precompiledConverters = Boolean.parseBoolean(
+            GeoServerExtensions.getProperty(PRECOMPILED_CONVERTERS_PROPERTY));
+
+    /**
+     * The marshalling plans compiled so far, by class
+     */
+    Map<Class<?>, MarshalPlan> marshalPlans = new ConcurrentHashMap<Class<?>, MarshalPlan>();
+
+    /**
+     * Whether the converters only needed by the precompiled mode have been registered
+     */
+    boolean precompiledConvertersRegistered;
+
     /**
      * Constructs the persister and underlying xstream.
      */
@@ -467,6 +495,9 @@ public class XStreamPersister {
         xs.registerConverter(new CoverageInfoConverter());
         xs.registerConverter(new LayerInfoConverter());
         xs.registerConverter(new LayerGroupInfoConverter());
+        if (precompiledConverters) {
+            registerPrecompiledConverters(xs);
+        }
         xs.registerConverter(new GridGeometry2DConverter());
         xs.registerConverter(new ProxyCollectionConverter( xs.getMapper() ) );
         xs.registerConverter(new VirtualTableConverter());
@@ -543,10 +574,47 @@ public class XStreamPersister {
         xs.omitField(impl(LayerGroupInfo.class), "id" );
         xs.omitField(impl(AttributeTypeInfo.class), "id");
         xs.omitField(impl(ServiceInfo.class), "id");
+        marshalPlans.clear();
     }
     
     public void setHideFeatureTypeAttributes() {
         xs.omitField(FeatureTypeInfoImpl.class, "attributes");
+        marshalPlans.clear();
+    }
+
+    /**
+     * Enables the precompiled marshalling mode. In this mode the catalog and configuration
+     * objects handled by the custom reflection converters are written following a plan computed
+     * once per class, holding the fields to be written, their element names and converters,
+     * instead of querying the reflection provider and the mapper chain for every field of every
+     * object. The output is the same as the one of the reflection based converters.
+     * <p>
+     * Plans are computed on first use, the xstream instance should be fully configured (aliases,
+     * omitted fields, local converters) before saving objects, calling this method again discards
+     * the plans computed so far.
+     * </p>
+     */
+    public void setPrecompiledConverters(boolean precompiledConverters) {
+        this.precompiledConverters = precompiledConverters;
+        if (precompiledConverters) {
+            registerPrecompiledConverters(xs);
+        }
+        marshalPlans.clear();
+    }
+
+    /**
+     * Registers the converters that let the precompiled mode handle objects otherwise written by
+     * the default xstream converters, leaving the output of the default mode untouched
+     */
+    void registerPrecompiledConverters(XStream xs) {
+        if (!precompiledConvertersRegistered) {
+            xs.registerConverter(new AbstractReflectionConverter(StyleInfo.class));
+            precompiledConvertersRegistered = true;
+        }
+    }
+
+    public boolean isPrecompiledConverters() {
+        return precompiledConverters;
     }
 
     public void setEncryptPasswordFields(boolean encryptPasswordFields) {
@@ -587,7 +655,8 @@ public class XStreamPersister {
     public void save(Object obj, OutputStream out) throws IOException {
         //unwrap dynamic proxies
         obj = unwrapProxies( obj );
-        xs.toXML(obj, new OutputStreamWriter( out, "UTF-8" ));
+        //buffer the output, the xstream writers flush it once done
+        xs.toXML(obj, new BufferedWriter(new OutputStreamWriter( out, "UTF-8" ), 8192));
     }
 
     /**
@@ -722,6 +791,14 @@ public class XStreamPersister {
         public void visitSerializableFields(Object object, Visitor visitor) {
             super.visitSerializableFields(object, new VisitorWrapper(visitor));
         }
+
+        /**
+         * Returns the fields of the class, in the same order used by
+         * {@link #visitSerializableFields(Object, Visitor)}
+         */
+        Iterator fieldsFor(Class type) {
+            return fieldDictionary.fieldsFor(type);
+        }
         
         class VisitorWrapper implements ReflectionProvider.Visitor {
 
@@ -1515,7 +1592,12 @@ public class XStreamPersister {
         @Override
         protected void doMarshal(Object source,
                 HierarchicalStreamWriter writer, MarshallingContext context) {
-            super.doMarshal(source, writer, context);
+            MarshalPlan plan = precompiledConverters ? marshalPlan(source.getClass()) : null;
+            if (plan != null && plan.isCompiled()) {
+                plan.marshal(source, writer, context);
+            } else {
+                super.doMarshal(source, writer, context);
+            }
             postDoMarshal(source,writer,context);
         }
         
@@ -1523,6 +1605,159 @@ public class XStreamPersister {
         }
     }
 
+    MarshalPlan marshalPlan(Class<?> type) {
+        MarshalPlan plan = marshalPlans.get(type);
+        if (plan == null) {
+            plan = new MarshalPlan(type);
+            marshalPlans.put(type, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Precompiled form of the decisions {@link ReflectionConverter} takes when writing an object
+     * of a given class: which fields are written, under which element name, with which local
+     * converter, and when a class attribute is needed. Fields are read through cached accessible
+     * {@link Field} references, and skipped when empty or null, as done by the
+     * {@link CustomReflectionProvider}.
+     * <p>
+     * Classes using features the plan does not reproduce (fields written as attributes, implicit
+     * collections, fields shadowing others with the same name) are not compiled and left to the
+     * reflection converter.
+     * </p>
+     */
+    class MarshalPlan {
+
+        final FieldPlan[] fields;
+
+        final String classAttribute;
+
+        MarshalPlan(Class<?> type) {
+            this.fields = compile(type);
+            this.classAttribute = xs.getMapper().aliasForSystemAttribute("class");
+        }
+
+        boolean isCompiled() {
+            return fields != null;
+        }
+
+        FieldPlan[] compile(Class<?> type) {
+            if (!(xs.getReflectionProvider() instanceof CustomReflectionProvider)) {
+                return null;
+            }
+            CustomReflectionProvider provider = (CustomReflectionProvider) xs.getReflectionProvider();
+            Mapper mapper = xs.getMapper();
+            List<FieldPlan> plans = new ArrayList<FieldPlan>();
+            Set<String> names = new HashSet<String>();
+            for (Iterator it = provider.fieldsFor(type); it.hasNext();) {
+                Field field = (Field) it.next();
+                int modifiers = field.getModifiers();
+                if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                    continue;
+                }
+                String name = field.getName();
+                Class<?> definedIn = field.getDeclaringClass();
+                if (!names.add(name)) {
+                    return null;
+                }
+                if (!mapper.shouldSerializeMember(definedIn, name)) {
+                    continue;
+                }
+                if (mapper.getConverterFromItemType(name, field.getType(), definedIn) != null
+                        || mapper.getImplicitCollectionDefForFieldName(type, name) != null) {
+                    return null;
+                }
+                if (!field.isAccessible()) {
+                    field.setAccessible(true);
+                }
+                plans.add(new FieldPlan(field, mapper.serializedMember(type, name),
+                        mapper.defaultImplementationOf(field.getType()),
+                        mapper.getLocalConverter(definedIn, name)));
+            }
+            return plans.toArray(new FieldPlan[plans.size()]);
+        }
+
+        void marshal(Object source, HierarchicalStreamWriter writer, MarshallingContext context) {
+            for (FieldPlan f : fields) {
+                Object value = f.get(source);
+                //skip empty collections + maps
+                if (value instanceof Collection && ((Collection) value).isEmpty()) {
+                    continue;
+                }
+                if (value instanceof Map && ((Map) value).isEmpty()) {
+                    continue;
+                }
+                value = unwrapProxies(value);
+                if (value == null) {
+                    continue;
+                }
+
+                Class<?> actualType = value.getClass();
+                ExtendedHierarchicalStreamWriterHelper.startNode(writer, f.name, actualType);
+                if (classAttribute != null && actualType != f.defaultType) {
+                    String className = f.serializedClass(actualType);
+                    if (className != null) {
+                        writer.addAttribute(classAttribute, className);
+                    }
+                }
+                context.convertAnother(value, f.converter);
+                writer.endNode();
+            }
+        }
+    }
+
+    /**
+     * Precompiled marshalling information for a single field, see {@link MarshalPlan}
+     */
+    class FieldPlan {
+
+        final Field field;
+
+        final String name;
+
+        final Class<?> defaultType;
+
+        final String defaultClassName;
+
+        final Converter converter;
+
+        /**
+         * The class attribute written for each actual type met so far, empty if none is needed
+         */
+        final Map<Class<?>, String> classNames = new ConcurrentHashMap<Class<?>, String>();
+
+        FieldPlan(Field field, String name, Class<?> defaultType, Converter converter) {
+            this.field = field;
+            this.name = name;
+            this.defaultType = defaultType;
+            this.defaultClassName = xs.getMapper().serializedClass(defaultType);
+            this.converter = converter;
+        }
+
+        Object get(Object source) {
+            try {
+                return field.get(source);
+            } catch (IllegalAccessException e) {
+                throw new ObjectAccessException("Could not get field " + field.getDeclaringClass()
+                        + "." + field.getName(), e);
+            }
+        }
+
+        /**
+         * Returns the class attribute value for a field value of the given type, or null if the
+         * type maps to the same name as the field default implementation
+         */
+        String serializedClass(Class<?> actualType) {
+            String className = classNames.get(actualType);
+            if (className == null) {
+                String serialized = xs.getMapper().serializedClass(actualType);
+                className = serialized.equals(defaultClassName) ? "" : serialized;
+                classNames.put(actualType, className);
+            }
+            return className.isEmpty() ? null : className;
+        }
+    }
+
     /**
      * Converter for workspaces and namespaces.
      */
@@ -0,0 +1,140 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.feature;
+
+import java.io.IOException;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.geoserver.ows.trace.Span;
+import org.geoserver.ows.trace.Tracing;
+import org.geoserver.security.decorators.DecoratingSimpleFeatureSource;
+import org.geotools.data.Query;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureIterator;
+import org.geotools.data.simple.SimpleFeatureSource;
+import org.geotools.feature.collection.DecoratingSimpleFeatureCollection;
+import org.geotools.feature.collection.DecoratingSimpleFeatureIterator;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.filter.Filter;
+
+/**
+ * Traces the queries run against the wrapped feature source in the current request
+ * {@link org.geoserver.ows.trace.Trace}. Each query gets a "query" span, lasting from the query
+ * to the end of the features iteration, with the number of features read and the time actually
+ * spent reading them, as the iteration is usually interleaved with other work (e.g., rendering)
+ */
+public class TracingFeatureSource extends DecoratingSimpleFeatureSource {
+
+    static final int MAX_FILTER_LENGTH = 1000;
+
+    final String layer;
+
+    /**
+     * Wraps the source if the current request is being traced, returns it as is otherwise
+     */
+    public static SimpleFeatureSource wrap(SimpleFeatureSource source, String layer) {
+        if (Tracing.isActive()) {
+            return new TracingFeatureSource(source, layer);
+        }
+        return source;
+    }
+
+    public TracingFeatureSource(SimpleFeatureSource delegate, String layer) {
+        super(delegate);
+        this.layer = layer;
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatures() throws IOException {
+        return getFeatures(Query.ALL);
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatures(Filter filter) throws IOException {
+        return getFeatures(new Query(getSchema().getTypeName(), filter));
+    }
+
+    @Override
+    public SimpleFeatureCollection getFeatures(Query query) throws IOException {
+        Span span = Tracing.create("query");
+        if (!span.isRecording()) {
+            return delegate.getFeatures(query);
+        }
+        span.attribute("layer", layer);
+        if (query.getFilter() != null && query.getFilter() != Filter.INCLUDE) {
+            String filter = query.getFilter().toString();
+            if (filter.length() > MAX_FILTER_LENGTH) {
+                filter = filter.substring(0, MAX_FILTER_LENGTH) + "...";
+            }
+            span.attribute("filter", filter);
+        }
+        if (!query.isMaxFeaturesUnlimited()) {
+            span.attribute("maxFeatures", query.getMaxFeatures());
+        }
+        try {
+            return new TracingFeatureCollection(delegate.getFeatures(query), span);
+        } catch (IOException | RuntimeException e) {
+            span.attribute("error", e.toString());
+            span.close();
+            throw e;
+        }
+    }
+
+    static class TracingFeatureCollection extends DecoratingSimpleFeatureCollection {
+
+        final Span span;
+
+        final AtomicLong features = new AtomicLong();
+
+        final AtomicLong readTime = new AtomicLong();
+
+        TracingFeatureCollection(SimpleFeatureCollection delegate, Span span) {
+            super(delegate);
+            this.span = span;
+        }
+
+        @Override
+        public SimpleFeatureIterator features() {
+            long start = System.nanoTime();
+            SimpleFeatureIterator iterator = delegate.features();
+            readTime.addAndGet(System.nanoTime() - start);
+            return new DecoratingSimpleFeatureIterator(iterator) {
+
+                @Override
+                public boolean hasNext() {
+                    long start = System.nanoTime();
+                    try {
+                        return super.hasNext();
+                    } finally {
+                        readTime.addAndGet(System.nanoTime() - start);
+                    }
+                }
+
+                @Override
+                public SimpleFeature next() throws NoSuchElementException {
+                    long start = System.nanoTime();
+                    try {
+                        return super.next();
+                    } finally {
+                        readTime.addAndGet(System.nanoTime() - start);
+                        features.incrementAndGet();
+                    }
+                }
+
+                @Override
+                public void close() {
+                    try {
+                        super.close();
+                    } finally {
+                        span.attribute("features", features.get());
+                        span.attribute("readMillis", readTime.get() / 1e6);
+                        span.close();
+                    }
+                }
+            };
+        }
+    }
+}
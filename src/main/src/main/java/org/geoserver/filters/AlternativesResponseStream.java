@@ -5,6 +5,7 @@
  */
 package org.geoserver.filters;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
 import java.util.Set;
@@ -21,6 +22,11 @@ import javax.servlet.http.HttpServletResponse;
  * A response stream that figures out whether or not to compress the output
  * just before the first write.  The decision is based on the mimetype set
  * for the output request.
+ * <p>
+ * When a compression threshold is configured and the content length is not known
+ * in advance, the output is buffered until the threshold is reached, responses
+ * smaller than the threshold are sent uncompressed.
+ * </p>
  *
  * @author David Winslow <dwinslow@openplans.org>
  */
@@ -30,34 +36,86 @@ public class AlternativesResponseStream extends ServletOutputStream {
     Set myCompressibleTypes;
     Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
     int contentLength;
+    CompressionSettings settings;
+    ResponseEncoder encoder;
+    /** Holds the output while waiting to reach the compression threshold */
+    ByteArrayOutputStream buffer;
+    boolean bufferChecked;
 
     public AlternativesResponseStream(HttpServletResponse response, Set compressible, int contentLength) throws IOException {
+        this(response, new CompressionSettings(compressible), new GZIPResponseEncoder(),
+                contentLength);
+    }
+
+    public AlternativesResponseStream(HttpServletResponse response,
+            CompressionSettings settings, ResponseEncoder encoder, int contentLength)
+            throws IOException {
         super();
         myResponse = response;
-        myCompressibleTypes = compressible;
+        myCompressibleTypes = settings.compressedTypes;
+        this.settings = settings;
+        this.encoder = encoder;
         this.contentLength = contentLength;
     }
 
     public void close() throws IOException {
+        if (buffer != null) {
+            // the output did not reach the threshold, send it as is
+            ByteArrayOutputStream contents = buffer;
+            buffer = null;
+            myResponse.addHeader("Vary", "Accept-Encoding");
+            myResponse.setContentLength(contents.size());
+            myStream = myResponse.getOutputStream();
+            contents.writeTo(myStream);
+        }
         if (isDirty())
             getStream().close();
     }
 
     public void flush() throws IOException {
+        // while buffering there is nothing to flush yet, the data is sent out
+        // either when reaching the threshold, or on close
         if (isDirty())
             getStream().flush();
     }
 
     public void write(int b) throws IOException {
-        getStream().write(b);
+        if (isBuffering(1)) {
+            buffer.write(b);
+        } else {
+            getStream().write(b);
+        }
     }
 
     public void write(byte b[]) throws IOException {
-        getStream().write(b);
+        write(b, 0, b.length);
     }
 
     public void write(byte b[], int off, int len) throws IOException {
-        getStream().write(b, off, len);
+        if (isBuffering(len)) {
+            buffer.write(b, off, len);
+        } else {
+            getStream().write(b, off, len);
+        }
+    }
+
+    /**
+     * Returns true if the next <code>len</code> bytes should be buffered, while
+     * waiting to know if the output is large enough to be compressed
+     */
+    boolean isBuffering(int len) {
+        if (myStream != null) {
+            return false;
+        }
+        if (!bufferChecked) {
+            bufferChecked = true;
+            String type = myResponse.getContentType();
+            if (settings.getThreshold() > 0 && contentLength < 0 && type != null
+                    && isCompressible(type) && !myResponse.containsHeader("Content-Encoding")) {
+                buffer = new ByteArrayOutputStream(settings.getThreshold());
+            }
+        }
+        return buffer != null && buffer.size() + len < settings.getThreshold();
     }
 
     protected ServletOutputStream getStream() throws IOException{
@@ -68,18 +126,40 @@ public class AlternativesResponseStream extends ServletOutputStream {
 //            logger.warning("Mime type was not set before first write!");
 //        }
 
-        if (type != null && isCompressible(type)){
+        if (myResponse.containsHeader("Content-Encoding")) {
+            // the application already encoded the output (e.g., cached pre-compressed content)
+            logger.log(Level.FINE, "Output already encoded, not compressing it again");
+            if(contentLength >= 0) {
+                myResponse.setContentLength(contentLength);
+            }
+            myStream = myResponse.getOutputStream();
+        } else if (type != null && isCompressible(type)
+                && (contentLength < 0 || contentLength >= settings.getThreshold())) {
             logger.log(Level.FINE, "Compressing output for mimetype: {0}", type);
-            myResponse.addHeader("Content-Encoding", "gzip");
-            myStream = new GZIPResponseStream(myResponse);
+            String stripped = stripParams(type);
+            myResponse.addHeader("Content-Encoding", encoder.getName());
+            myResponse.addHeader("Vary", "Accept-Encoding");
+            myStream = encoder.encode(myResponse, settings.getLevel(stripped),
+                    settings.getBufferSize(stripped));
         } else {
             logger.log(Level.FINE, "Not compressing output for mimetype: {0}", type);
+            if (type != null && isCompressible(type)) {
+                // below the compression threshold
+                myResponse.addHeader("Vary", "Accept-Encoding");
+            }
             if(contentLength >= 0) {
                 myResponse.setContentLength(contentLength);
             }
             myStream = myResponse.getOutputStream();
         }
 
+        if (buffer != null) {
+            // the threshold was reached (or an explicit flush happened), send the buffered output
+            ByteArrayOutputStream contents = buffer;
+            buffer = null;
+            contents.writeTo(myStream);
+        }
+
         return myStream;
     }
 
@@ -0,0 +1,114 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+
+/**
+ * The {@link GZIPFilter} configuration: which mime types get compressed, with which compression
+ * level and buffer size, and the minimum size of a response worth compressing.
+ */
+public class CompressionSettings {
+
+    static final int DEFAULT_BUFFER_SIZE = 4096;
+
+    Set<Pattern> compressedTypes;
+
+    int level = Deflater.DEFAULT_COMPRESSION;
+
+    int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    Map<Pattern, Integer> levels = Collections.emptyMap();
+
+    Map<Pattern, Integer> bufferSizes = Collections.emptyMap();
+
+    int threshold = 0;
+
+    public CompressionSettings(Set<Pattern> compressedTypes) {
+        this.compressedTypes = compressedTypes;
+    }
+
+    /**
+     * Sets the default compression level, between 0 and 9, or -1 for the encoder default
+     */
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    /**
+     * Sets the default buffer size used by the encoders
+     */
+    public void setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Sets the compression levels overriding the default one for specific mime types, the first
+     * pattern matching the mime type wins
+     */
+    public void setLevels(Map<Pattern, Integer> levels) {
+        this.levels = new LinkedHashMap<Pattern, Integer>(levels);
+    }
+
+    /**
+     * Sets the buffer sizes overriding the default one for specific mime types, the first pattern
+     * matching the mime type wins
+     */
+    public void setBufferSizes(Map<Pattern, Integer> bufferSizes) {
+        this.bufferSizes = new LinkedHashMap<Pattern, Integer>(bufferSizes);
+    }
+
+    /**
+     * Sets the minimum size, in bytes, of the responses that get compressed. Smaller responses
+     * are not worth the compression overhead
+     */
+    public void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Returns true if the given mime type (without parameters) should be compressed
+     */
+    public boolean isCompressible(String mimeType) {
+        for (Pattern pattern : compressedTypes) {
+            if (pattern.matcher(mimeType).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the compression level for the given mime type (without parameters)
+     */
+    public int getLevel(String mimeType) {
+        return lookup(levels, mimeType, level);
+    }
+
+    /**
+     * Returns the buffer size for the given mime type (without parameters)
+     */
+    public int getBufferSize(String mimeType) {
+        return lookup(bufferSizes, mimeType, bufferSize);
+    }
+
+    private int lookup(Map<Pattern, Integer> values, String mimeType, int defaultValue) {
+        for (Map.Entry<Pattern, Integer> entry : values.entrySet()) {
+            if (entry.getKey().matcher(mimeType).matches()) {
+                return entry.getValue();
+            }
+        }
+        return defaultValue;
+    }
+}
@@ -0,0 +1,43 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The built-in <code>deflate</code> encoder (zlib format, as mandated by the HTTP specification)
+ */
+public class DeflateResponseEncoder implements ResponseEncoder {
+
+    @Override
+    public String getName() {
+        return "deflate";
+    }
+
+    @Override
+    public ServletOutputStream encode(HttpServletResponse response, int level, int bufferSize)
+            throws IOException {
+        final Deflater deflater = new Deflater(level);
+        DeflaterOutputStream deflate = new DeflaterOutputStream(
+                EncodedResponseStream.unclosable(response.getOutputStream()), deflater,
+                bufferSize, true) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    // a custom deflater is not released by the stream
+                    deflater.end();
+                }
+            }
+        };
+        return new EncodedResponseStream(deflate);
+    }
+}
@@ -0,0 +1,81 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletOutputStream;
+
+/**
+ * A servlet output stream writing through an encoding output stream, for {@link ResponseEncoder}
+ * implementations. The encoding stream should be built on top of {@link #unclosable(OutputStream)}
+ * so that closing it completes the encoding without closing the response.
+ */
+public class EncodedResponseStream extends ServletOutputStream {
+
+    protected OutputStream encoded;
+
+    protected boolean closed = false;
+
+    public EncodedResponseStream(OutputStream encoded) {
+        this.encoded = encoded;
+    }
+
+    /**
+     * Wraps the stream so that closing it only flushes it
+     */
+    public static OutputStream unclosable(OutputStream out) {
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.flush();
+            }
+        };
+    }
+
+    public void close() throws IOException {
+        if (closed) {
+            throw new IOException("This output stream has already been closed");
+        }
+        encoded.close();
+        closed = true;
+    }
+
+    public void flush() throws IOException {
+        if (closed) {
+            throw new IOException("Cannot flush a closed output stream");
+        }
+        encoded.flush();
+    }
+
+    public void write(int b) throws IOException {
+        if (closed) {
+            throw new IOException("Cannot write to a closed output stream");
+        }
+        encoded.write(b);
+    }
+
+    public void write(byte b[]) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    public void write(byte b[], int off, int len) throws IOException {
+        if (closed) {
+            throw new IOException("Cannot write to a closed output stream");
+        }
+        encoded.write(b, off, len);
+    }
+
+    public boolean closed() {
+        return closed;
+    }
+}
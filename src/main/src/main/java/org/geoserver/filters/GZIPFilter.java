@@ -13,8 +13,15 @@
 package org.geoserver.filters;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
 import javax.servlet.Filter;
@@ -26,9 +33,39 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.geoserver.ows.util.ResponseUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Compresses the responses whose mime type matches one of the <code>compressed-types</code>
+ * regular expressions, using the best content coding accepted by the client.
+ * <p>
+ * Besides <code>compressed-types</code>, the following init parameters are supported:
+ * <ul>
+ * <li><code>compression-level</code>: the default compression level, between 0 and 9</li>
+ * <li><code>buffer-size</code>: the default encoder buffer size, in bytes</li>
+ * <li><code>compression-levels</code>, <code>buffer-sizes</code>: per mime type overrides, as a
+ * comma separated list of <code>regex=value</code> pairs</li>
+ * <li><code>compression-threshold</code>: the minimum response size, in bytes, worth
+ * compressing</li>
+ * <li><code>encodings</code>: the comma separated list of content codings to use, in order of
+ * preference. By default the {@link ResponseEncoder} extensions are preferred, followed by
+ * <code>gzip</code> and <code>deflate</code></li>
+ * </ul>
+ * </p>
+ */
 public class GZIPFilter implements Filter {
 
-    private Set myCompressedTypes;
+    static final Logger LOGGER = Logging.getLogger(GZIPFilter.class);
+
+    private Set<Pattern> myCompressedTypes;
+
+    private CompressionSettings settings;
+
+    private List<String> encodings;
+
+    private Map<String, ResponseEncoder> builtInEncoders;
 
     public void doFilter(ServletRequest req, ServletResponse res,
             FilterChain chain) throws IOException, ServletException {
@@ -36,11 +73,13 @@ public class GZIPFilter implements Filter {
             HttpServletRequest request = (HttpServletRequest) req;
             HttpServletResponse response = (HttpServletResponse) res;
             String ae = request.getHeader("accept-encoding");
-            if (ae != null && ae.indexOf("gzip") != -1) {
-                GZIPResponseWrapper wrappedResponse =
-                    new GZIPResponseWrapper(response, myCompressedTypes, request.getRequestURL().toString());
+            ResponseEncoder encoder = ae == null ? null : selectEncoder(ae);
+            if (encoder != null) {
+                final GZIPResponseWrapper wrappedResponse = new GZIPResponseWrapper(response,
+                        settings, encoder, request.getRequestURL().toString());
                 chain.doFilter(req, wrappedResponse);
-                wrappedResponse.finishResponse();
+                // the response might still be written by another thread
+                RequestCompletion.afterCompletion(request, wrappedResponse::finishResponse);
                 return;
             }
         }
@@ -48,19 +87,125 @@ public class GZIPFilter implements Filter {
         chain.doFilter(req, res);
     }
 
+    /**
+     * Picks the encoder to use given the <code>Accept-Encoding</code> header, or returns null if
+     * the client does not accept any of the available ones. The encoder with the highest quality
+     * value wins, ties are broken by the server preference order.
+     */
+    ResponseEncoder selectEncoder(String acceptEncoding) {
+        Map<String, Float> accepted = ResponseUtils.parseAcceptEncoding(acceptEncoding);
+        if (accepted.isEmpty()) {
+            return null;
+        }
+        Float any = accepted.get("*");
+
+        ResponseEncoder best = null;
+        float bestQuality = 0;
+        for (ResponseEncoder encoder : getEncoders()) {
+            Float quality = accepted.get(encoder.getName().toLowerCase(Locale.ENGLISH));
+            if (quality == null) {
+                quality = any;
+            }
+            if (quality != null && quality > bestQuality) {
+                best = encoder;
+                bestQuality = quality;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the available encoders, in order of preference
+     */
+    List<ResponseEncoder> getEncoders() {
+        Map<String, ResponseEncoder> available = new LinkedHashMap<String, ResponseEncoder>();
+        for (ResponseEncoder encoder : GeoServerExtensions.extensions(ResponseEncoder.class)) {
+            String name = encoder.getName().toLowerCase(Locale.ENGLISH);
+            if (!available.containsKey(name)) {
+                available.put(name, encoder);
+            }
+        }
+        for (Map.Entry<String, ResponseEncoder> entry : builtInEncoders.entrySet()) {
+            if (!available.containsKey(entry.getKey())) {
+                available.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (encodings == null) {
+            return new ArrayList<ResponseEncoder>(available.values());
+        }
+
+        List<ResponseEncoder> result = new ArrayList<ResponseEncoder>();
+        for (String name : encodings) {
+            ResponseEncoder encoder = available.get(name);
+            if (encoder != null) {
+                result.add(encoder);
+            }
+        }
+        return result;
+    }
+
     public void init(FilterConfig filterConfig) {
+        myCompressedTypes = new HashSet<Pattern>();
+        settings = new CompressionSettings(myCompressedTypes);
+        builtInEncoders = new LinkedHashMap<String, ResponseEncoder>();
+        builtInEncoders.put("gzip", new GZIPResponseEncoder());
+        builtInEncoders.put("deflate", new DeflateResponseEncoder());
         try {
             String compressedTypes = filterConfig.getInitParameter("compressed-types");
             String[] typeNames = 
                 (compressedTypes == null ? new String[0] : compressedTypes.split(",")); 
             // TODO: Are commas allowed in mimetypes?
-            myCompressedTypes = new HashSet();
             for (int i = 0; i < typeNames.length; i++){
                 myCompressedTypes.add(Pattern.compile(typeNames[i]));
             }
+
+            String level = filterConfig.getInitParameter("compression-level");
+            if (level != null) {
+                settings.setLevel(Integer.parseInt(level.trim()));
+            }
+            String bufferSize = filterConfig.getInitParameter("buffer-size");
+            if (bufferSize != null) {
+                settings.setBufferSize(Integer.parseInt(bufferSize.trim()));
+            }
+            settings.setLevels(parseTypeValues(filterConfig.getInitParameter("compression-levels")));
+            settings.setBufferSizes(parseTypeValues(filterConfig.getInitParameter("buffer-sizes")));
+            String threshold = filterConfig.getInitParameter("compression-threshold");
+            if (threshold != null) {
+                settings.setThreshold(Integer.parseInt(threshold.trim()));
+            }
+
+            String encodingList = filterConfig.getInitParameter("encodings");
+            if (encodingList != null) {
+                encodings = new ArrayList<String>();
+                for (String name : encodingList.split(",")) {
+                    if (!name.trim().isEmpty()) {
+                        encodings.add(name.trim().toLowerCase(Locale.ENGLISH));
+                    }
+                }
+            }
         } catch (Exception e){
-            System.out.println("Error while setting up GZIPFilter; " + e);
+            LOGGER.log(Level.SEVERE, "Error while setting up GZIPFilter", e);
+        }
+    }
+
+    /**
+     * Parses a comma separated list of <code>regex=value</code> pairs
+     */
+    static Map<Pattern, Integer> parseTypeValues(String spec) {
+        Map<Pattern, Integer> result = new LinkedHashMap<Pattern, Integer>();
+        if (spec == null) {
+            return result;
+        }
+        for (String item : spec.split(",")) {
+            int idx = item.lastIndexOf('=');
+            if (idx <= 0) {
+                LOGGER.warning("Ignoring invalid GZIPFilter mime type setting: " + item);
+                continue;
+            }
+            result.put(Pattern.compile(item.substring(0, idx).trim()),
+                    Integer.valueOf(item.substring(idx + 1).trim()));
         }
+        return result;
     }
 
     public void destroy() {
@@ -0,0 +1,27 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The built-in <code>gzip</code> encoder
+ */
+public class GZIPResponseEncoder implements ResponseEncoder {
+
+    @Override
+    public String getName() {
+        return "gzip";
+    }
+
+    @Override
+    public ServletOutputStream encode(HttpServletResponse response, int level, int bufferSize)
+            throws IOException {
+        return new GZIPResponseStream(response, level, bufferSize);
+    }
+}
@@ -5,6 +5,8 @@
 package org.geoserver.filters;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.ServletOutputStream;
@@ -21,9 +23,18 @@ public class GZIPResponseStream extends ServletOutputStream {
     protected boolean closed = false;
 
     public GZIPResponseStream(HttpServletResponse response) throws IOException {
+        this(response, Deflater.DEFAULT_COMPRESSION, 4096);
+    }
+
+    /**
+     * Builds a stream compressing with the given level (between 0 and 9, or -1 for the default
+     * one) and buffer size
+     */
+    public GZIPResponseStream(HttpServletResponse response, int level, int bufferSize)
+            throws IOException {
         super();
         closed = false;
-        gzipstream = new GZIPOutputStream(response.getOutputStream(), 4096, true);
+        gzipstream = new LevelGZIPOutputStream(response.getOutputStream(), level, bufferSize);
     }
 
     public void close() throws IOException {
@@ -31,6 +42,9 @@ public class GZIPResponseStream extends ServletOutputStream {
             throw new IOException("This output stream has already been closed");
         }
         gzipstream.finish();
+        if (gzipstream instanceof LevelGZIPOutputStream) {
+            ((LevelGZIPOutputStream) gzipstream).end();
+        }
         closed = true;
     }
 
@@ -63,4 +77,23 @@ public class GZIPResponseStream extends ServletOutputStream {
         return (this.closed);
     }
 
+    /**
+     * A {@link GZIPOutputStream} with a configurable compression level, writing directly into the
+     * response output stream
+     */
+    static class LevelGZIPOutputStream extends GZIPOutputStream {
+
+        public LevelGZIPOutputStream(OutputStream out, int level, int bufferSize)
+                throws IOException {
+            super(out, bufferSize, true);
+            def.setLevel(level);
+        }
+
+        /**
+         * Releases the native resources of the deflater, without closing the response stream
+         */
+        void end() {
+            def.end();
+        }
+    }
 }
@@ -26,20 +26,28 @@ public class GZIPResponseWrapper extends HttpServletResponseWrapper {
     protected AlternativesResponseStream stream = null;
     protected PrintWriter writer = null;
     protected Set formatsToCompress;
+    protected CompressionSettings settings;
+    protected ResponseEncoder encoder;
     protected String requestedURL;
     protected Logger logger = org.geotools.util.logging.Logging.getLogger("org.geoserver.filters");
     private int contentLength = -1;
 
     public GZIPResponseWrapper(HttpServletResponse response, Set toCompress, String url) {
+        this(response, new CompressionSettings(toCompress), new GZIPResponseEncoder(), url);
+    }
+
+    public GZIPResponseWrapper(HttpServletResponse response, CompressionSettings settings,
+            ResponseEncoder encoder, String url) {
         super(response);
         requestedURL = url;
         origResponse = response;
-        // TODO: allow user-configured format list here
-        formatsToCompress = toCompress;
+        formatsToCompress = settings.compressedTypes;
+        this.settings = settings;
+        this.encoder = encoder;
     }
 
     protected AlternativesResponseStream createOutputStream() throws IOException {
-        return new AlternativesResponseStream(origResponse, formatsToCompress, contentLength);
+        return new AlternativesResponseStream(origResponse, settings, encoder, contentLength);
     }
 
     
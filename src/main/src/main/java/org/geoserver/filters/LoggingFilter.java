@@ -79,10 +79,13 @@ public class LoggingFilter implements Filter {
             }
 
             logger.info(message + (body == null? "" : "\n" + body + "\n"));
-            long startTime = System.currentTimeMillis();
+            final long startTime = System.currentTimeMillis();
             chain.doFilter(req, res);
-            long requestTime = System.currentTimeMillis() - startTime;
-            logger.info(path +  " took " + requestTime + "ms");
+            final String requestPath = path;
+            RequestCompletion.afterCompletion(req, () -> {
+                long requestTime = System.currentTimeMillis() - startTime;
+                logger.info(requestPath +  " took " + requestTime + "ms");
+            });
         } else {
             chain.doFilter(req, res);
         }
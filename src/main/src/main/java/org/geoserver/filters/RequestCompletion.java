@@ -0,0 +1,67 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletRequest;
+
+/**
+ * Helps filters run their post processing once the request is actually complete.
+ * <p>
+ * When the dispatcher runs a request asynchronously (see
+ * {@link org.geoserver.ows.Dispatcher#setAsyncExecutor(java.util.concurrent.Executor)}) the
+ * filter chain returns as soon as the request is handed over to the worker thread, while the
+ * response is still being computed. Filters that measure, log or finish the response after the
+ * chain returns should do so via {@link #afterCompletion(ServletRequest, Action)} instead.
+ * </p>
+ */
+public class RequestCompletion {
+
+    /**
+     * The work to be done once the request is complete
+     */
+    public interface Action {
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs the action right away if the request has been processed by the calling thread, or
+     * when the asynchronous processing completes otherwise. To be called after the filter chain
+     * returned.
+     *
+     * @return true if the action has been deferred, false if it has been run already
+     */
+    public static boolean afterCompletion(ServletRequest request, final Action action)
+            throws IOException {
+        if (!request.isAsyncStarted()) {
+            action.run();
+            return false;
+        }
+
+        request.getAsyncContext().addListener(new AsyncListener() {
+
+            @Override
+            public void onComplete(AsyncEvent event) throws IOException {
+                action.run();
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onError(AsyncEvent event) throws IOException {
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) throws IOException {
+            }
+        });
+        return true;
+    }
+}
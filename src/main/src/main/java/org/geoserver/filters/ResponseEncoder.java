@@ -0,0 +1,39 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.filters;
+
+import java.io.IOException;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A content coding {@link GZIPFilter} can compress the responses with.
+ * <p>
+ * Besides the built-in <code>gzip</code> and <code>deflate</code> encoders, more can be
+ * contributed as GeoServer extensions (e.g., <code>br</code> or <code>zstd</code> ones, based on
+ * native libraries). Contributed encoders are preferred over the built-in ones, in
+ * {@link org.geoserver.platform.ExtensionPriority} order, when the client accepts them.
+ * </p>
+ */
+public interface ResponseEncoder {
+
+    /**
+     * The content coding name, as used in the <code>Accept-Encoding</code> and
+     * <code>Content-Encoding</code> headers
+     */
+    String getName();
+
+    /**
+     * Returns a stream encoding the output into the response output stream. Closing the returned
+     * stream must complete the encoding, without closing the response output stream.
+     *
+     * @param response the response to write into
+     * @param level the compression level, between 0 and 9, or -1 for the encoder default
+     * @param bufferSize the size of the buffer used by the encoder
+     */
+    ServletOutputStream encode(HttpServletResponse response, int level, int bufferSize)
+            throws IOException;
+}
@@ -0,0 +1,207 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.LayerGroupInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.DispatcherCallback;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+
+/**
+ * {@link DispatcherCallback} feeding the {@link MetricsRegistry} with the count, duration, size
+ * and outcome of each OWS request.
+ * <p>
+ * Labels are never taken verbatim from the request: the service and operation are the ones of
+ * the dispatched operation, the output format is recorded only if declared by the dispatched
+ * response, and the layers only if found in the catalog.
+ * </p>
+ */
+public class MetricsCallback extends AbstractDispatcherCallback {
+
+    /**
+     * The raw kvp parameters naming the layers involved in a request
+     */
+    static final String[] LAYER_KEYS = { "LAYERS", "LAYER", "TYPENAME", "TYPENAMES",
+            "COVERAGEID", "IDENTIFIER" };
+
+    final MetricsRegistry registry;
+
+    public MetricsCallback(MetricsRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Request init(Request request) {
+        if (request.getHttpResponse() != null) {
+            request.setHttpResponse(new MetricsResponseWrapper(request.getHttpResponse()));
+        }
+        return request;
+    }
+
+    @Override
+    public Operation operationDispatched(Request request, Operation operation) {
+        MetricsResponseWrapper response = getWrapper(request.getHttpResponse());
+        if (response != null) {
+            // resolve now, while the local workspace is still set
+            response.layers = resolveLayers(getLayers(request));
+        }
+        return operation;
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        MetricsResponseWrapper wrapper = getWrapper(request.getHttpResponse());
+        if (wrapper != null) {
+            wrapper.format = getFormat(request.getOutputFormat(), response);
+        }
+        return response;
+    }
+
+    @Override
+    public void finished(Request request) {
+        MetricsResponseWrapper response = getWrapper(request.getHttpResponse());
+        long nanos;
+        if (response != null) {
+            nanos = System.nanoTime() - response.start;
+        } else if (request.getTimestamp() != null) {
+            nanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()
+                    - request.getTimestamp().getTime());
+        } else {
+            return;
+        }
+        long bytes = response != null ? response.getBytes() : 0;
+        boolean error = request.getError() != null
+                || (response != null && response.status >= 400);
+
+        String service = null;
+        String operation = null;
+        Operation op = request.getOperation();
+        if (op != null) {
+            service = op.getService().getId();
+            operation = op.getId();
+        }
+        String format = response != null ? response.format : null;
+        List<String> layers = response != null && response.layers != null ? response.layers
+                : Collections.<String> emptyList();
+        registry.recordRequest(normalize(service), operation, format, layers, nanos, bytes,
+                error);
+    }
+
+    /**
+     * Returns the requested output format, as declared by the response, or null if the response
+     * does not declare it
+     */
+    static String getFormat(String requested, Response response) {
+        if (requested == null || response == null) {
+            return null;
+        }
+        for (String format : response.getOutputFormats()) {
+            if (format.equalsIgnoreCase(requested)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the layer names against the catalog, returning the prefixed names of the layers
+     * and layer groups found, the others are dropped
+     */
+    List<String> resolveLayers(List<String> names) {
+        Catalog catalog = registry.catalog;
+        if (catalog == null || names.isEmpty()) {
+            return Collections.emptyList();
+        }
+        WorkspaceInfo ws = LocalWorkspace.get();
+        List<String> layers = new ArrayList<>();
+        for (String name : names) {
+            String resolved = null;
+            if (ws != null && name.indexOf(':') < 0) {
+                resolved = resolveLayer(catalog, ws.getName() + ":" + name);
+            }
+            if (resolved == null) {
+                resolved = resolveLayer(catalog, name);
+            }
+            // WCS 2.0 coverage ids use a double underscore as the workspace separator
+            if (resolved == null && name.contains("__")) {
+                resolved = resolveLayer(catalog, name.replaceFirst("__", ":"));
+            }
+            if (resolved != null && !layers.contains(resolved)) {
+                layers.add(resolved);
+            }
+        }
+        return layers;
+    }
+
+    static String resolveLayer(Catalog catalog, String name) {
+        LayerInfo layer = catalog.getLayerByName(name);
+        if (layer != null) {
+            return layer.prefixedName();
+        }
+        LayerGroupInfo group = catalog.getLayerGroupByName(name);
+        if (group != null) {
+            return group.prefixedName();
+        }
+        return null;
+    }
+
+    static MetricsResponseWrapper getWrapper(ServletResponse response) {
+        while (response != null) {
+            if (response instanceof MetricsResponseWrapper) {
+                return (MetricsResponseWrapper) response;
+            } else if (response instanceof HttpServletResponseWrapper) {
+                response = ((HttpServletResponseWrapper) response).getResponse();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    static String normalize(String service) {
+        return service == null ? null : service.toUpperCase();
+    }
+
+    /**
+     * Extracts the layer names from the raw kvp parameters, as provided by the client
+     */
+    static List<String> getLayers(Request request) {
+        Map kvp = request.getRawKvp();
+        if (kvp == null) {
+            return Collections.emptyList();
+        }
+        for (String key : LAYER_KEYS) {
+            Object value = kvp.get(key);
+            if (value instanceof String && !((String) value).isEmpty()) {
+                List<String> layers = new ArrayList<>();
+                // WFS 2.0 allows lists of lists of type names, e.g. (a,b)(c)
+                for (String layer : ((String) value).split("[,()]")) {
+                    layer = layer.trim();
+                    if (!layer.isEmpty() && !layers.contains(layer)) {
+                        layers.add(layer);
+                    }
+                }
+                return layers;
+            }
+        }
+        return Collections.emptyList();
+    }
+}
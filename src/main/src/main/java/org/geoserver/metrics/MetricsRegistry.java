@@ -0,0 +1,409 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceCacheStatistics;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Collects the service metrics (request counts, latencies, errors, bytes out, rendering times,
+ * tile cache hits and misses) and writes them down in the Prometheus text exposition format.
+ * <p>
+ * Label values are expected to come from the configuration (catalog layers, output formats
+ * declared by the responses, dispatched operations), not from the clients. On top of that, each
+ * metric family keeps at most {@link #getMaxSeries()} label combinations, dropping the least
+ * recently used ones first, so that the memory usage of the registry and the size of the scrape
+ * stay bounded as layers come and go. The limit can be set with the
+ * {@code org.geoserver.metrics.maxSeries} system/environment/servlet context variable.
+ * </p>
+ */
+public class MetricsRegistry {
+
+    static final Logger LOGGER = Logging.getLogger(MetricsRegistry.class);
+
+    /**
+     * The label value used when a label is not available (e.g., no output format requested)
+     */
+    public static final String UNKNOWN = "";
+
+    static final int DEFAULT_MAX_SERIES = 500;
+
+    /**
+     * The histogram bucket upper bounds, in seconds
+     */
+    static final double[] BUCKETS = { 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+            30, 60 };
+
+    /**
+     * Returns the registry in the application context, or null if not found
+     */
+    public static MetricsRegistry get() {
+        return GeoServerExtensions.bean(MetricsRegistry.class);
+    }
+
+    final Catalog catalog;
+
+    final int maxSeries;
+
+    final SeriesMap requests;
+
+    final SeriesMap layers;
+
+    final SeriesMap rendering;
+
+    final SeriesMap tiles;
+
+    public MetricsRegistry(Catalog catalog) {
+        this(catalog, lookupMaxSeries());
+    }
+
+    public MetricsRegistry(Catalog catalog, int maxSeries) {
+        this.catalog = catalog;
+        this.maxSeries = maxSeries;
+        this.requests = new SeriesMap("service", "operation", "format");
+        this.layers = new SeriesMap("service", "layer");
+        this.rendering = new SeriesMap("format");
+        this.tiles = new SeriesMap("layer", "result");
+    }
+
+    static int lookupMaxSeries() {
+        String value = GeoServerExtensions.getProperty("org.geoserver.metrics.maxSeries");
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for org.geoserver.metrics.maxSeries: " + value
+                        + ", using the default " + DEFAULT_MAX_SERIES);
+            }
+        }
+        return DEFAULT_MAX_SERIES;
+    }
+
+    /**
+     * The max number of label combinations kept by each metric family
+     */
+    public int getMaxSeries() {
+        return maxSeries;
+    }
+
+    /**
+     * Records a completed OWS request
+     *
+     * @param service the service, e.g. WMS
+     * @param operation the operation, e.g., GetMap
+     * @param format the output format, if known
+     * @param layers the layers involved in the request, if any
+     * @param nanos the request duration
+     * @param bytes the number of bytes written back to the client
+     * @param error whether the request failed
+     */
+    public void recordRequest(String service, String operation, String format,
+            List<String> layers, long nanos, long bytes, boolean error) {
+        Series series = requests.get(service, operation, format);
+        series.record(nanos, error);
+        series.bytes.add(bytes);
+        if (layers != null) {
+            for (String layer : layers) {
+                this.layers.get(service, layer).record(nanos, error);
+            }
+        }
+    }
+
+    /**
+     * Records the time spent rendering a map
+     *
+     * @param format the map output format
+     * @param nanos the rendering time
+     * @param error whether the rendering failed (e.g., timed out, too many errors)
+     */
+    public void recordRendering(String format, long nanos, boolean error) {
+        rendering.get(format).record(nanos, error);
+    }
+
+    /**
+     * Records a tile request served by the tile cache
+     *
+     * @param layer the tile layer name
+     * @param hit true if the tile was found in the cache, false if it had to be rendered
+     */
+    public void recordTile(String layer, boolean hit) {
+        tiles.get(layer, hit ? "hit" : "miss").count.increment();
+    }
+
+    /**
+     * Clears all the collected metrics
+     */
+    public void reset() {
+        requests.clear();
+        layers.clear();
+        rendering.clear();
+        tiles.clear();
+    }
+
+    /**
+     * Writes down all the metrics in the Prometheus text exposition format, version 0.0.4
+     */
+    public void write(Writer w) throws IOException {
+        requests.writeCounter(w, "geoserver_ows_requests_total", "Number of OWS requests",
+                s -> s.count.sum());
+        requests.writeCounter(w, "geoserver_ows_request_errors_total",
+                "Number of failed OWS requests", s -> s.errors.sum());
+        requests.writeCounter(w, "geoserver_ows_response_bytes_total",
+                "Number of bytes written back to the clients", s -> s.bytes.sum());
+        requests.writeHistogram(w, "geoserver_ows_request_duration_seconds",
+                "OWS request duration");
+
+        layers.writeCounter(w, "geoserver_layer_requests_total",
+                "Number of OWS requests, by layer", s -> s.count.sum());
+        layers.writeCounter(w, "geoserver_layer_request_errors_total",
+                "Number of failed OWS requests, by layer", s -> s.errors.sum());
+        layers.writeHistogram(w, "geoserver_layer_request_duration_seconds",
+                "OWS request duration, by layer");
+
+        rendering.writeCounter(w, "geoserver_wms_rendering_errors_total",
+                "Number of failed map renderings", s -> s.errors.sum());
+        rendering.writeHistogram(w, "geoserver_wms_rendering_duration_seconds",
+                "Map rendering time");
+
+        tiles.writeCounter(w, "geoserver_gwc_tile_requests_total",
+                "Number of tile requests, by cache result", s -> s.count.sum());
+
+        writeResourcePoolCaches(w);
+    }
+
+    void writeResourcePoolCaches(Writer w) throws IOException {
+        if (catalog == null || catalog.getResourcePool() == null) {
+            return;
+        }
+        Map<String, ResourceCacheStatistics> statistics;
+        try {
+            statistics = new TreeMap<>(catalog.getResourcePool().getCacheStatistics());
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Could not get the resource pool cache statistics", e);
+            return;
+        }
+        writeCacheStatistic(w, statistics, "geoserver_resource_pool_cache_hits_total", "counter",
+                "Resource pool cache hits", s -> s.getHitCount());
+        writeCacheStatistic(w, statistics, "geoserver_resource_pool_cache_misses_total",
+                "counter", "Resource pool cache misses", s -> s.getMissCount());
+        writeCacheStatistic(w, statistics, "geoserver_resource_pool_cache_evictions_total",
+                "counter", "Resource pool cache evictions", s -> s.getEvictionCount());
+        writeCacheStatistic(w, statistics, "geoserver_resource_pool_cache_load_seconds_total",
+                "counter", "Time spent loading resource pool cache entries",
+                s -> s.getTotalLoadTime() / 1e9);
+        writeCacheStatistic(w, statistics, "geoserver_resource_pool_cache_size", "gauge",
+                "Resource pool cache entries", s -> s.getSize());
+    }
+
+    void writeCacheStatistic(Writer w, Map<String, ResourceCacheStatistics> statistics,
+            String name, String type, String help, StatisticValue value) throws IOException {
+        writeHeader(w, name, type, help);
+        for (ResourceCacheStatistics s : statistics.values()) {
+            w.write(name);
+            w.write("{cache=\"");
+            w.write(escape(s.getName()));
+            w.write("\"} ");
+            w.write(format(value.get(s)));
+            w.write('\n');
+        }
+    }
+
+    static void writeHeader(Writer w, String name, String type, String help) throws IOException {
+        w.write("# HELP ");
+        w.write(name);
+        w.write(' ');
+        w.write(help);
+        w.write("\n# TYPE ");
+        w.write(name);
+        w.write(' ');
+        w.write(type);
+        w.write('\n');
+    }
+
+    static String escape(String value) {
+        if (value.indexOf('\\') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    static String format(double value) {
+        if (value == Math.rint(value) && !Double.isInfinite(value)
+                && Math.abs(value) < Long.MAX_VALUE) {
+            return Long.toString((long) value);
+        }
+        return Double.toString(value);
+    }
+
+    interface SeriesValue {
+        double get(Series series);
+    }
+
+    interface StatisticValue {
+        double get(ResourceCacheStatistics statistics);
+    }
+
+    /**
+     * The counters for a single label combination
+     */
+    static class Series {
+        final LongAdder count = new LongAdder();
+
+        final LongAdder errors = new LongAdder();
+
+        final LongAdder bytes = new LongAdder();
+
+        /**
+         * Non cumulative bucket counts, the last one being the +Inf bucket
+         */
+        final LongAdder[] buckets = new LongAdder[BUCKETS.length + 1];
+
+        final DoubleAdder seconds = new DoubleAdder();
+
+        Series() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void record(long nanos, boolean error) {
+            double s = nanos / 1e9;
+            int i = Arrays.binarySearch(BUCKETS, s);
+            buckets[i >= 0 ? i : -i - 1].increment();
+            seconds.add(s);
+            count.increment();
+            if (error) {
+                errors.increment();
+            }
+        }
+    }
+
+    /**
+     * A family of series sharing the same label names, bounded to {@link #maxSeries} entries,
+     * the least recently used series are dropped first (Prometheus sees a counter reset if they
+     * come back)
+     */
+    class SeriesMap {
+        final String[] labels;
+
+        final Cache<List<String>, Series> series = CacheBuilder.newBuilder()
+                .maximumSize(Math.max(0, maxSeries)).build();
+
+        SeriesMap(String... labels) {
+            this.labels = labels;
+        }
+
+        Series get(String... values) {
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] == null) {
+                    values[i] = UNKNOWN;
+                }
+            }
+            try {
+                return series.get(Arrays.asList(values), Series::new);
+            } catch (ExecutionException e) {
+                // cannot happen, building a series does not throw checked exceptions
+                throw new IllegalStateException(e);
+            }
+        }
+
+        void clear() {
+            series.invalidateAll();
+        }
+
+        void writeCounter(Writer w, String name, String help, SeriesValue value)
+                throws IOException {
+            writeHeader(w, name, "counter", help);
+            for (Map.Entry<List<String>, Series> entry : sorted().entrySet()) {
+                w.write(name);
+                writeLabels(w, entry.getKey(), null);
+                w.write(' ');
+                w.write(format(value.get(entry.getValue())));
+                w.write('\n');
+            }
+        }
+
+        void writeHistogram(Writer w, String name, String help) throws IOException {
+            writeHeader(w, name, "histogram", help);
+            for (Map.Entry<List<String>, Series> entry : sorted().entrySet()) {
+                List<String> values = entry.getKey();
+                Series s = entry.getValue();
+                long cumulative = 0;
+                for (int i = 0; i < s.buckets.length; i++) {
+                    cumulative += s.buckets[i].sum();
+                    w.write(name);
+                    w.write("_bucket");
+                    writeLabels(w, values, i < BUCKETS.length ? format(BUCKETS[i]) : "+Inf");
+                    w.write(' ');
+                    w.write(Long.toString(cumulative));
+                    w.write('\n');
+                }
+                w.write(name);
+                w.write("_sum");
+                writeLabels(w, values, null);
+                w.write(' ');
+                w.write(format(s.seconds.sum()));
+                w.write('\n');
+                // the count is taken from the buckets so that it's consistent with them
+                w.write(name);
+                w.write("_count");
+                writeLabels(w, values, null);
+                w.write(' ');
+                w.write(Long.toString(cumulative));
+                w.write('\n');
+            }
+        }
+
+        void writeLabels(Writer w, List<String> values, String le) throws IOException {
+            w.write('{');
+            for (int i = 0; i < labels.length; i++) {
+                if (i > 0) {
+                    w.write(',');
+                }
+                w.write(labels[i]);
+                w.write("=\"");
+                w.write(escape(values.get(i)));
+                w.write('"');
+            }
+            if (le != null) {
+                w.write(",le=\"");
+                w.write(le);
+                w.write('"');
+            }
+            w.write('}');
+        }
+
+        Map<List<String>, Series> sorted() {
+            Map<List<String>, Series> result = new TreeMap<>((a, b) -> {
+                for (int i = 0; i < a.size(); i++) {
+                    int c = a.get(i).compareTo(b.get(i));
+                    if (c != 0) {
+                        return c;
+                    }
+                }
+                return 0;
+            });
+            result.putAll(series.asMap());
+            return result;
+        }
+    }
+}
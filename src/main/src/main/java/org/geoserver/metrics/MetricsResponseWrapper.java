@@ -0,0 +1,112 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import java.io.IOException;
+import java.util.List;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper tracking the request start time, the status code and the number of bytes
+ * written to the output stream, along with the request labels resolved while it's dispatched
+ */
+class MetricsResponseWrapper extends HttpServletResponseWrapper {
+
+    final long start = System.nanoTime();
+
+    int status = SC_OK;
+
+    CountingOutputStream output;
+
+    /**
+     * The catalog layers the request works against, if resolved
+     */
+    List<String> layers;
+
+    /**
+     * The output format declared by the dispatched response, if any
+     */
+    String format;
+
+    MetricsResponseWrapper(HttpServletResponse response) {
+        super(response);
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+        if (output == null) {
+            output = new CountingOutputStream(super.getOutputStream());
+        }
+        return output;
+    }
+
+    @Override
+    public void setStatus(int sc) {
+        this.status = sc;
+        super.setStatus(sc);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    public void setStatus(int sc, String sm) {
+        this.status = sc;
+        super.setStatus(sc, sm);
+    }
+
+    @Override
+    public void sendError(int sc) throws IOException {
+        this.status = sc;
+        super.sendError(sc);
+    }
+
+    @Override
+    public void sendError(int sc, String msg) throws IOException {
+        this.status = sc;
+        super.sendError(sc, msg);
+    }
+
+    /**
+     * The number of bytes written so far
+     */
+    long getBytes() {
+        return output == null ? 0 : output.count;
+    }
+
+    static class CountingOutputStream extends ServletOutputStream {
+
+        final ServletOutputStream delegate;
+
+        long count;
+
+        CountingOutputStream(ServletOutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
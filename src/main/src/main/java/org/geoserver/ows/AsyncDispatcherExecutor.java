@@ -0,0 +1,173 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+import org.springframework.beans.factory.DisposableBean;
+
+/**
+ * A bounded executor running the OWS requests outside of the servlet container threads, see
+ * {@link Dispatcher#setAsyncExecutor(Executor)}.
+ * <p>
+ * The executor is disabled by default, it's enabled by setting the {@value #ASYNC_THREADS}
+ * property (system variable, environment variable or servlet context parameter) to the number of
+ * requests that can run in parallel. Requests in excess wait in a queue that can hold up to
+ * {@value #ASYNC_QUEUE} requests (1000 by default), without holding a container thread, once
+ * the queue is full the requests run in the container thread as usual.
+ * </p>
+ * <p>
+ * On Java virtual machines supporting virtual threads the requests are run by virtual threads,
+ * unless {@value #ASYNC_VIRTUAL_THREADS} is set to false. The thread locals of the container
+ * thread (authentication, admin request and the like) are transferred to the worker thread via
+ * {@link ThreadLocalsTransfer}.
+ * </p>
+ * <p>
+ * The servlet and all the filters in the chain must be marked as asynchronous in
+ * <code>web.xml</code>, the executor is not used otherwise.
+ * </p>
+ */
+public class AsyncDispatcherExecutor implements Executor, DisposableBean {
+
+    static final Logger LOGGER = Logging.getLogger(AsyncDispatcherExecutor.class);
+
+    /**
+     * Number of requests running in parallel, enables the executor when positive
+     */
+    public static final String ASYNC_THREADS = "OWS_ASYNC_THREADS";
+
+    /**
+     * Number of requests waiting for a worker thread
+     */
+    public static final String ASYNC_QUEUE = "OWS_ASYNC_QUEUE";
+
+    /**
+     * Enables/disables the usage of virtual threads, when available
+     */
+    public static final String ASYNC_VIRTUAL_THREADS = "OWS_ASYNC_VIRTUAL_THREADS";
+
+    static final int DEFAULT_QUEUE = 1000;
+
+    ThreadPoolExecutor executor;
+
+    public AsyncDispatcherExecutor(Dispatcher dispatcher) {
+        int threads = getIntProperty(ASYNC_THREADS, 0);
+        if (threads <= 0) {
+            return;
+        }
+        int queue = getIntProperty(ASYNC_QUEUE, DEFAULT_QUEUE);
+        String virtual = GeoServerExtensions.getProperty(ASYNC_VIRTUAL_THREADS);
+        ThreadFactory threadFactory = virtual == null || Boolean.valueOf(virtual)
+                ? getVirtualThreadFactory() : null;
+        if (threadFactory == null) {
+            threadFactory = new WorkerThreadFactory();
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(Math.max(1, queue)), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+        LOGGER.info("Running OWS requests asynchronously, with " + threads
+                + " threads and a queue of " + queue + " requests");
+
+        dispatcher.setAsyncExecutor(this);
+    }
+
+    int getIntProperty(String name, int defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.log(Level.SEVERE, "Invalid " + name + " value, will use " + defaultValue
+                        + " instead");
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * Returns a factory building virtual threads, or null if the JVM does not support them
+     */
+    static ThreadFactory getVirtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            Object builder = ofVirtual.invoke(null);
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder,
+                    "gs-ows-async-", 0L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (Exception e) {
+            LOGGER.log(Level.FINE, "Virtual threads not available, will use platform threads",
+                    e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the executor is running, false if it's disabled
+     */
+    public boolean isEnabled() {
+        return executor != null;
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        // collect the thread locals in the calling thread
+        final ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        executor.execute(() -> {
+            transfer.apply();
+            try {
+                command.run();
+            } finally {
+                transfer.cleanup();
+                // same as the ThreadLocalsCleanupFilter does for the container threads
+                CRS.cleanupThreadLocals();
+            }
+        });
+    }
+
+    /**
+     * Returns the number of requests currently running
+     */
+    public int getActiveCount() {
+        return executor == null ? 0 : executor.getActiveCount();
+    }
+
+    /**
+     * Returns the number of requests waiting for a worker thread
+     */
+    public int getQueueSize() {
+        return executor == null ? 0 : executor.getQueue().size();
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    static class WorkerThreadFactory implements ThreadFactory {
+        AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "gs-ows-async-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
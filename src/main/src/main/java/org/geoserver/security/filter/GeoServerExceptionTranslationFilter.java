@@ -8,10 +8,14 @@ package org.geoserver.security.filter;
 
 import java.io.IOException;
 
+import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.geoserver.ows.Dispatcher;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.security.config.ExceptionTranslationFilterConfig;
 import org.geoserver.security.config.SecurityNamedServiceConfig;
@@ -85,6 +89,19 @@ public class GeoServerExceptionTranslationFilter extends GeoServerCompositeFilte
         
     };
     
+    protected AuthenticationEntryPoint entryPoint;
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+            throws IOException, ServletException {
+        // requests run asynchronously fail after this filter returned, let the dispatcher use
+        // the same entry point
+        if (entryPoint != null) {
+            request.setAttribute(Dispatcher.AUTHENTICATION_ENTRY_POINT, entryPoint);
+        }
+        super.doFilter(request, response, chain);
+    }
+
     @Override
     public void initializeFromConfig(SecurityNamedServiceConfig config) throws IOException {
         super.initializeFromConfig(config);
@@ -93,6 +110,7 @@ public class GeoServerExceptionTranslationFilter extends GeoServerCompositeFilte
                 (ExceptionTranslationFilterConfig) config;
 
         DynamicAuthenticationEntryPoint ep = new DynamicAuthenticationEntryPoint();
+        entryPoint = ep;
         
         if (StringUtils.hasLength(authConfig.getAuthenticationFilterName())) {
             GeoServerSecurityFilter authFilter = getSecurityManager().loadFilter(authConfig.getAuthenticationFilterName());
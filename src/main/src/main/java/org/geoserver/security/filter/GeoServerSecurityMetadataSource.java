@@ -96,6 +96,12 @@ public class GeoServerSecurityMetadataSource extends DefaultFilterInvocationSecu
         list.add(new SecurityConfig(GeoServerRole.ADMIN_ROLE.getAuthority()));
         requestMap.put(matcher,list);
 
+        // the service metrics expose the whole catalog layer list and usage
+        matcher = new AntPathRequestMatcher("/metrics");
+        list = new ArrayList<ConfigAttribute>();
+        list.add(new SecurityConfig(GeoServerRole.ADMIN_ROLE.getAuthority()));
+        requestMap.put(matcher,list);
+
         matcher = new AntPathRequestMatcher("/**");
         list = new ArrayList<ConfigAttribute>();
         list.add(new SecurityConfig("IS_AUTHENTICATED_ANONYMOUSLY"));
@@ -106,6 +112,7 @@ public class GeoServerSecurityMetadataSource extends DefaultFilterInvocationSecu
         super(requestMap);
         /*
         <sec:intercept-url pattern="/config/**" access="ROLE_ADMINISTRATOR"/>
+        <sec:intercept-url pattern="/metrics" access="ROLE_ADMINISTRATOR"/>
         <sec:intercept-url pattern="/**" access="IS_AUTHENTICATED_ANONYMOUSLY"/>
         */
         
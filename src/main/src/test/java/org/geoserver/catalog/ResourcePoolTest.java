@@ -19,7 +19,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import javax.media.jai.PlanarImage;
 import javax.xml.namespace.QName;
@@ -54,7 +57,6 @@ import org.geotools.styling.AbstractStyleVisitor;
 import org.geotools.styling.Mark;
 import org.geotools.styling.PolygonSymbolizer;
 import org.geotools.styling.Style;
-import org.geotools.util.SoftValueHashMap;
 import org.geotools.util.Version;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
@@ -252,7 +254,85 @@ public class ResourcePoolTest extends GeoServerSystemTestSupport {
         Catalog catalog = getCatalog();
         // we actually keep two versions of the feature type in the cache, so we need it 
         // twice as big
-        assertEquals(400, ((SoftValueHashMap)catalog.getResourcePool().getFeatureTypeCache()).getHardReferencesCount());
+        assertEquals(400, catalog.getResourcePool().getCacheStatistics().get("featureType")
+                .getMaximumWeight());
+    }
+
+    @Test
+    public void testCacheEvictionAndStatistics() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        final CountDownLatch disposed = new CountDownLatch(1);
+        final Thread testThread = Thread.currentThread();
+        final Thread[] disposingThread = new Thread[1];
+        ResourcePool.CatalogResourceCache<String, String> cache = pool.new CatalogResourceCache<String, String>(
+                "test", 2) {
+
+            @Override
+            protected void dispose(String key, String object) {
+                disposingThread[0] = Thread.currentThread();
+                disposed.countDown();
+            }
+        };
+
+        cache.put("a", "A");
+        cache.put("b", "B");
+        assertEquals("A", cache.get("a"));
+        assertNull(cache.get(null));
+        // goes beyond the max weight, "b" is the least recently used and gets evicted
+        cache.put("c", "C");
+        assertTrue(disposed.await(10, TimeUnit.SECONDS));
+        assertNotSame(testThread, disposingThread[0]);
+        assertNull(cache.get("b"));
+
+        ResourceCacheStatistics stats = pool.getCacheStatistics().get("test");
+        assertSame(stats, cache.getStatistics());
+        assertEquals(2, stats.getSize());
+        assertEquals(2, stats.getMaximumWeight());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getEvictionCount());
+    }
+
+    @Test
+    public void testCacheSoftOverflow() throws Exception {
+        ResourcePool pool = new ResourcePool(getCatalog());
+        final List<String> disposed = new ArrayList<>();
+        ResourcePool.CatalogResourceCache<String, String> cache = pool.new CatalogResourceCache<String, String>(
+                "softTest", 2, true) {
+
+            @Override
+            protected void dispose(String key, String object) {
+                disposed.add(key);
+            }
+        };
+
+        cache.put("a", "A");
+        cache.put("b", "B");
+        cache.get("a");
+        // "b" goes beyond the bound, but stays softly reachable and is not disposed
+        cache.put("c", "C");
+        assertTrue(cache.containsKey("b"));
+        assertEquals("B", cache.get("b"));
+        assertEquals(3, cache.getStatistics().getSize());
+        assertTrue(disposed.isEmpty());
+
+        // explicit removals and clear still dispose, wherever the entry is
+        cache.clear();
+        assertEquals(0, cache.getStatistics().getSize());
+        assertEquals(3, disposed.size());
+    }
+
+    @Test
+    public void testCacheStatisticsRecordLoads() throws Exception {
+        ResourcePool pool = getCatalog().getResourcePool();
+        ResourceCacheStatistics stats = pool.getCacheStatistics().get("dataStore");
+        stats.reset();
+
+        DataStoreInfo info = getCatalog().getDataStores().get(0);
+        pool.clear(info);
+        pool.getDataStore(info);
+        pool.getDataStore(info);
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getHitCount());
     }
     
     @Test public void testDropCoverageStore() throws Exception {
@@ -2553,6 +2553,67 @@ public class CatalogImplTest {
                 Lists.newArrayList(catalog.list(LayerInfo.class, filter, offset, limit, null)));
     }
         
+    @Test
+    public void testListCountIndexedProperties() {
+        addDataStore();
+        addNamespace();
+        addStyle();
+
+        FeatureTypeInfo ft1, ft2, ft3;
+        catalog.add(ft1 = newFeatureType("ft1", ds));
+        catalog.add(ft2 = newFeatureType("ft2", ds));
+        catalog.add(ft3 = newFeatureType("ft3", ds));
+        ft1 = catalog.getFeatureType(ft1.getId());
+        ft2 = catalog.getFeatureType(ft2.getId());
+        ft3 = catalog.getFeatureType(ft3.getId());
+        ft2.getKeywords().add(new Keyword("indexed"));
+        catalog.save(ft2);
+
+        LayerInfo l1, l2, l3;
+        catalog.add(l1 = newLayer(ft1, s));
+        catalog.add(l2 = newLayer(ft2, s));
+        catalog.add(l3 = newLayer(ft3, s));
+
+        Filter inWorkspace = equal("resource.store.workspace.name", ws.getName());
+        assertEquals(3, catalog.count(LayerInfo.class, inWorkspace));
+        assertEquals(Sets.newHashSet(l1, l2, l3),
+                Sets.newHashSet(catalog.list(LayerInfo.class, inWorkspace)));
+        assertEquals(1, catalog.count(FeatureTypeInfo.class, equal("keywords.value", "indexed")));
+        assertEquals(0, catalog.count(CoverageInfo.class, equal("keywords.value", "indexed")));
+
+        // disabling the resource changes what the layer index reports
+        ft3 = catalog.getFeatureType(ft3.getId());
+        ft3.setEnabled(false);
+        catalog.save(ft3);
+        Filter enabled = equal("enabled", Boolean.TRUE);
+        assertEquals(2, catalog.count(LayerInfo.class, enabled));
+        assertEquals(Sets.newHashSet(l1, l2),
+                Sets.newHashSet(catalog.list(LayerInfo.class, enabled)));
+        assertEquals(1, catalog.count(LayerInfo.class, equal("enabled", Boolean.FALSE)));
+        assertEquals(Sets.newHashSet(l1),
+                Sets.newHashSet(catalog.list(LayerInfo.class, Predicates.and(enabled,
+                        equal("resource.name", "ft1")))));
+
+        // renaming the workspace moves the layers under the new name
+        WorkspaceInfo workspace = catalog.getWorkspaceByName(ws.getName());
+        String oldName = workspace.getName();
+        workspace.setName("renamed");
+        catalog.save(workspace);
+        assertEquals(0, catalog.count(LayerInfo.class, inWorkspace));
+        assertEquals(3, catalog.count(LayerInfo.class,
+                equal("resource.store.workspace.name", "renamed")));
+        assertEquals(3, catalog.count(FeatureTypeInfo.class,
+                equal("store.workspace.name", "renamed")));
+        assertEquals(0, catalog.count(FeatureTypeInfo.class,
+                equal("store.workspace.name", oldName)));
+
+        // removal is reflected as well
+        catalog.remove(catalog.getLayer(l1.getId()));
+        assertEquals(2, catalog.count(LayerInfo.class,
+                equal("resource.store.workspace.name", "renamed")));
+        assertEquals(1, catalog.count(LayerInfo.class, enabled));
+    }
+
     /**
      * This tests more advanced filters: multi-valued filters, opposite equations, field equations
      */
@@ -3017,6 +3078,53 @@ public class CatalogImplTest {
         }
     }
     
+    @Test
+    public void testConcurrentAddRemoveStyles() throws Exception {
+        addStyle();
+        final int tasks = 8;
+        final int stylesPerTask = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(tasks);
+        try {
+            ExecutorCompletionService<Void> completionService = new ExecutorCompletionService<>(executor);
+            for (int i = 0; i < tasks; i++) {
+                final int task = i;
+                completionService.submit(() -> {
+                    for (int j = 0; j < stylesPerTask; j++) {
+                        StyleInfo style = newStyle("style_" + task + "_" + j, "style.sld");
+                        catalog.add(style);
+                        // a style that is not being modified must always be visible to readers
+                        assertNotNull(catalog.getStyleByName(s.getName()));
+                        StyleInfo added = catalog.getStyleByName(style.getName());
+                        assertNotNull(added);
+                        assertNotNull(catalog.getStyle(added.getId()));
+                        // remove every other style
+                        if (j % 2 == 0) {
+                            catalog.remove(added);
+                            assertNull(catalog.getStyleByName(style.getName()));
+                        }
+                    }
+                }, null);
+            }
+            for (int i = 0; i < tasks; ++i) {
+                completionService.take().get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1 + tasks * stylesPerTask / 2, catalog.getStyles().size());
+        for (int i = 0; i < tasks; i++) {
+            for (int j = 0; j < stylesPerTask; j++) {
+                StyleInfo style = catalog.getStyleByName("style_" + i + "_" + j);
+                if (j % 2 == 0) {
+                    assertNull(style);
+                } else {
+                    assertNotNull(style);
+                }
+            }
+        }
+    }
+    
     @Test
     public void testChangeLayerGroupOrder() {
         addLayerGroup();
@@ -12,6 +12,8 @@ import java.lang.reflect.Proxy;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.geoserver.catalog.DimensionInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
 import org.junit.Test;
 
 import junit.framework.TestCase;
@@ -53,6 +55,37 @@ public class InfoObjectProxyTest {
         assertEquals( 2, bean.getScratch().size() );
     }
     
+    @Test
+    public void testMetadataCopyOnWrite() throws Exception {
+        FeatureTypeInfoImpl ft = new FeatureTypeInfoImpl( null );
+        DimensionInfoImpl time = new DimensionInfoImpl();
+        time.setEnabled( false );
+        ft.getMetadata().put( "foo", "bar" );
+        ft.getMetadata().put( "time", time );
+        
+        FeatureTypeInfo proxy = ModificationProxy.create( ft, FeatureTypeInfo.class );
+        ModificationProxy handler = ModificationProxy.handler( proxy );
+        
+        // immutable values are read from the live map
+        assertEquals( "bar", proxy.getMetadata().get( "foo" ) );
+        assertFalse( ((CopyOnWriteMetadataMap) proxy.getMetadata()).isCopied() );
+        assertFalse( handler.isDirty() );
+        
+        // values that can be modified in place are copies
+        DimensionInfo copy = proxy.getMetadata().get( "time", DimensionInfo.class );
+        assertNotSame( time, copy );
+        copy.setEnabled( true );
+        assertFalse( time.isEnabled() );
+        
+        proxy.getMetadata().put( "foo", "baz" );
+        assertEquals( "bar", ft.getMetadata().get( "foo" ) );
+        assertTrue( handler.isDirty() );
+        
+        handler.commit();
+        assertEquals( "baz", ft.getMetadata().get( "foo" ) );
+        assertTrue( ft.getMetadata().get( "time", DimensionInfo.class ).isEnabled() );
+    }
+    
     static interface Bean {
         
         String getFoo();
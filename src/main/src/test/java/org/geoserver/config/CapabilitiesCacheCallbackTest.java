@@ -0,0 +1,247 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.config.impl.GeoServerImpl;
+import org.geoserver.config.impl.ServiceInfoImpl;
+import org.geoserver.ows.LocalWorkspace;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.security.authentication.TestingAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+public class CapabilitiesCacheCallbackTest {
+
+    GeoServerImpl geoServer;
+
+    Catalog catalog;
+
+    CapabilitiesCacheCallback callback;
+
+    CountingResponse response;
+
+    @Before
+    public void setUp() throws Exception {
+        geoServer = new GeoServerImpl();
+        catalog = new CatalogImpl();
+        geoServer.setCatalog(catalog);
+        addWorkspace("a");
+        addWorkspace("b");
+
+        callback = new CapabilitiesCacheCallback(geoServer);
+        callback.setEnabled(true);
+        response = new CountingResponse();
+    }
+
+    @After
+    public void tearDown() {
+        LocalWorkspace.remove();
+        SecurityContextHolder.clearContext();
+    }
+
+    void addWorkspace(String name) {
+        WorkspaceInfo ws = catalog.getFactory().createWorkspace();
+        ws.setName(name);
+        catalog.add(ws);
+        NamespaceInfo ns = catalog.getFactory().createNamespace();
+        ns.setPrefix(name);
+        ns.setURI("http://" + name);
+        catalog.add(ns);
+    }
+
+    void addStore(String workspace, String name) {
+        DataStoreInfo ds = catalog.getFactory().createDataStore();
+        ds.setName(name);
+        ds.setWorkspace(catalog.getWorkspaceByName(workspace));
+        catalog.add(ds);
+    }
+
+    Request request(String workspace, String acceptEncoding) {
+        LocalWorkspace.set(workspace == null ? null : catalog.getWorkspaceByName(workspace));
+        MockHttpServletRequest httpRequest = new MockHttpServletRequest("GET", "/geoserver/ows");
+        if (acceptEncoding != null) {
+            httpRequest.addHeader("Accept-Encoding", acceptEncoding);
+        }
+        Map<String, Object> kvp = new HashMap<>();
+        kvp.put("SERVICE", "WMS");
+        kvp.put("REQUEST", "GetCapabilities");
+        Request request = new Request();
+        request.setHttpRequest(httpRequest);
+        request.setGet(true);
+        request.setService("WMS");
+        request.setVersion("1.3.0");
+        request.setRequest("GetCapabilities");
+        request.setRawKvp(kvp);
+        return request;
+    }
+
+    String getCapabilities(String workspace) throws IOException {
+        Request request = request(workspace, null);
+        Response r = callback.responseDispatched(request, null, "caps", response);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        r.write("caps", bos, null);
+        return new String(bos.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testCached() throws Exception {
+        assertEquals("caps-1", getCapabilities(null));
+        assertEquals("caps-1", getCapabilities(null));
+        assertEquals(1, response.count);
+
+        // a different workspace is a different document
+        assertEquals("caps-2", getCapabilities("a"));
+        assertEquals("caps-2", getCapabilities("a"));
+        assertEquals(2, response.count);
+        assertEquals(2, callback.size());
+    }
+
+    @Test
+    public void testUserInKey() throws Exception {
+        // same roles, but data security rules can target users directly
+        SecurityContextHolder.getContext()
+                .setAuthentication(new TestingAuthenticationToken("alice", "pw", "ROLE_A"));
+        assertEquals("caps-1", getCapabilities(null));
+        SecurityContextHolder.getContext()
+                .setAuthentication(new TestingAuthenticationToken("bob", "pw", "ROLE_A"));
+        assertEquals("caps-2", getCapabilities(null));
+        assertEquals("caps-2", getCapabilities(null));
+        assertEquals(2, callback.size());
+    }
+
+    @Test
+    public void testWorkspaceInvalidation() throws Exception {
+        getCapabilities(null);
+        getCapabilities("a");
+        getCapabilities("b");
+        assertEquals(3, response.count);
+
+        // only the global document and the one of workspace "a" are affected
+        addStore("a", "store");
+        assertEquals(1, callback.size());
+        assertEquals("caps-3", getCapabilities("b"));
+        assertEquals("caps-4", getCapabilities("a"));
+        assertEquals("caps-5", getCapabilities(null));
+    }
+
+    @Test
+    public void testServiceInvalidation() throws Exception {
+        getCapabilities("a");
+        getCapabilities("b");
+
+        ServiceInfoImpl wfs = new ServiceInfoImpl();
+        wfs.setName("WFS");
+        geoServer.add(wfs);
+        assertEquals(2, callback.size());
+
+        ServiceInfoImpl wms = new ServiceInfoImpl();
+        wms.setName("WMS");
+        wms.setWorkspace(catalog.getWorkspaceByName("b"));
+        geoServer.add(wms);
+        assertEquals(1, callback.size());
+        assertEquals("caps-1", getCapabilities("a"));
+
+        ServiceInfo wmsGlobal = new ServiceInfoImpl();
+        wmsGlobal.setName("WMS");
+        geoServer.add(wmsGlobal);
+        assertEquals(0, callback.size());
+    }
+
+    @Test
+    public void testUpdateSequenceChange() throws Exception {
+        GeoServerInfo global = geoServer.getFactory().createGlobal();
+        geoServer.setGlobal(global);
+        getCapabilities(null);
+
+        global = geoServer.getGlobal();
+        global.setUpdateSequence(global.getUpdateSequence() + 1);
+        geoServer.save(global);
+        assertEquals(1, callback.size());
+
+        global = geoServer.getGlobal();
+        global.setAdminPassword("newAdminPassword");
+        geoServer.save(global);
+        assertEquals(0, callback.size());
+    }
+
+    @Test
+    public void testGzipVariant() throws Exception {
+        callback.setGzipEnabled(true);
+        getCapabilities(null);
+
+        Request request = request(null, "gzip, deflate");
+        Response r = callback.responseDispatched(request, null, "caps", response);
+        String[][] headers = r.getHeaders("caps", null);
+        assertArrayEquals(new String[] { "Content-Encoding", "gzip" }, headers[0]);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        r.write("caps", bos, null);
+        byte[] decompressed = IOUtils
+                .toByteArray(new GZIPInputStream(new ByteArrayInputStream(bos.toByteArray())));
+        assertEquals("caps-1", new String(decompressed, StandardCharsets.UTF_8));
+
+        // clients not accepting gzip get the plain document
+        r = callback.responseDispatched(request(null, null), null, "caps", response);
+        assertNull(r.getHeaders("caps", null));
+        r = callback.responseDispatched(request(null, "gzip;q=0, deflate"), null, "caps",
+                response);
+        assertNull(r.getHeaders("caps", null));
+        assertEquals(1, response.count);
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        callback.setEnabled(false);
+        getCapabilities(null);
+        getCapabilities(null);
+        assertEquals(2, response.count);
+        assertEquals(0, callback.size());
+    }
+
+    static class CountingResponse extends Response {
+
+        int count;
+
+        CountingResponse() {
+            super(String.class);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return "text/xml";
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            count++;
+            output.write((value + "-" + count).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.config;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.impl.LayerInfoImpl;
+import org.geoserver.catalog.impl.ResolvingProxy;
+import org.geoserver.catalog.impl.StyleInfoImpl;
+import org.geoserver.config.util.XStreamPersister;
+import org.geoserver.config.util.XStreamPersisterFactory;
+import org.geoserver.platform.resource.FileSystemResourceStore;
+import org.geoserver.platform.resource.Resource;
+import org.geoserver.platform.resource.ResourceStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CatalogSnapshotTest {
+
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testReferencesRoundTrip() throws Exception {
+        LayerInfoImpl layer = new LayerInfoImpl();
+        layer.setId("layer1");
+        layer.setResource(ResolvingProxy.create("ft1", FeatureTypeInfo.class));
+        StyleInfoImpl style = new StyleInfoImpl(null);
+        style.setId("style1");
+        style.setName("point");
+        layer.setDefaultStyle(style);
+
+        byte[] data = CatalogSnapshot.serialize(layer);
+        assertNotNull(data);
+        LayerInfo copy = (LayerInfo) CatalogSnapshot.deserialize(data);
+
+        assertEquals("layer1", copy.getId());
+        assertResolvingProxy("ft1", copy.getResource());
+        // real objects are stored as references too, they will be resolved against the catalog
+        assertTrue(copy.getDefaultStyle() instanceof StyleInfo);
+        assertResolvingProxy("style1", copy.getDefaultStyle());
+    }
+
+    void assertResolvingProxy(String ref, Object object) {
+        assertTrue(object instanceof Proxy);
+        ResolvingProxy h = (ResolvingProxy) Proxy.getInvocationHandler(object);
+        assertEquals(ref, h.getRef());
+    }
+
+    @Test
+    public void testReuseUnchangedEntries() throws Exception {
+        System.setProperty(CatalogSnapshot.ENABLED_PROPERTY, "true");
+        try {
+            ResourceStore store = new FileSystemResourceStore(temp.getRoot());
+            XStreamPersister xp = new XStreamPersisterFactory().createXMLPersister();
+            Resource styleFile = store.get("styles/point.xml");
+            styleFile.setContents(styleXML("point"));
+
+            Resource snapshotFile = store.get(CatalogSnapshot.SNAPSHOT_PATH);
+            CatalogSnapshot snapshot = CatalogSnapshot.read(snapshotFile);
+            assertEquals("point", snapshot.load(xp, styleFile, StyleInfo.class).getName());
+            snapshot.save();
+
+            // read back, the entry is used and nothing changes
+            snapshot = CatalogSnapshot.read(snapshotFile);
+            assertEquals(Collections.singleton(styleFile.path()), snapshot.previous.keySet());
+            assertEquals("point", snapshot.load(xp, styleFile, StyleInfo.class).getName());
+            assertFalse(snapshot.changed);
+
+            // modify the file, it gets parsed again
+            styleFile.setContents(styleXML("point2"));
+            snapshot = CatalogSnapshot.read(snapshotFile);
+            assertEquals("point2", snapshot.load(xp, styleFile, StyleInfo.class).getName());
+            assertTrue(snapshot.changed);
+        } finally {
+            System.clearProperty(CatalogSnapshot.ENABLED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testDisabled() throws Exception {
+        ResourceStore store = new FileSystemResourceStore(temp.getRoot());
+        assertNull(CatalogSnapshot.read(store.get(CatalogSnapshot.SNAPSHOT_PATH)));
+    }
+
+    byte[] styleXML(String name) {
+        return ("<style><id>style1</id><name>" + name + "</name><filename>point.sld</filename>"
+                + "</style>").getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -104,6 +104,23 @@ public class DefaultGeoServerLoaderTest {
         assertEquals( "default_polygon.sld", polygon.getFilename() );
     }
     
+    @Test
+    public void testLoadCatalogContents() throws Exception {
+        loader.readCatalog(catalog, xp);
+
+        assertNotNull(catalog.getWorkspaceByName("topp"));
+        assertEquals("topp", catalog.getDefaultWorkspace().getName());
+        assertNotNull(catalog.getNamespaceByPrefix("topp"));
+        assertEquals(1, catalog.getDataStores().size());
+        assertEquals(2, catalog.getFeatureTypes().size());
+        assertEquals(2, catalog.getLayers().size());
+        assertEquals(2, catalog.getLayerGroups().size());
+        for (LayerInfo layer : catalog.getLayers()) {
+            assertEquals(catalog.getDataStores().get(0).getId(),
+                    layer.getResource().getStore().getId());
+        }
+    }
+
     @Test
     public void testLoadNestedLayerGroups() throws Exception {
         GeoServerResourceLoader resources = GeoServerExtensions.bean(GeoServerResourceLoader.class );
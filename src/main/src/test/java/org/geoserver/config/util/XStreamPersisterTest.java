@@ -770,6 +770,66 @@ public class XStreamPersisterTest {
         assertEquals(1, l.getStyles().size());
         assertTrue(l.getStyles().contains(s));
     }
+
+    @Test
+    public void testPrecompiledConverters() throws Exception {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory cFactory = catalog.getFactory();
+
+        WorkspaceInfo ws = cFactory.createWorkspace();
+        ws.setName( "foo" );
+        catalog.add( ws );
+
+        NamespaceInfo ns = cFactory.createNamespace();
+        ns.setPrefix( "acme" );
+        ns.setURI( "http://acme.org" );
+        catalog.add( ns );
+
+        DataStoreInfo ds = cFactory.createDataStore();
+        ds.setWorkspace( ws );
+        ds.setName( "foo" );
+        ds.getConnectionParameters().put( "directory", "file:data/foo" );
+        catalog.add( ds );
+
+        FeatureTypeInfo ft = cFactory.createFeatureType();
+        ft.setStore( ds );
+        ft.setNamespace( ns );
+        ft.setName( "ft" );
+        ft.setAbstract( "abstract");
+        ft.setSRS( "EPSG:4326");
+        ft.setNativeCRS( CRS.decode( "EPSG:4326") );
+        ft.getKeywords().add( new Keyword( "keyword" ) );
+        ft.getMetadata().put( "one", 1 );
+        catalog.add( ft );
+
+        StyleInfo s = cFactory.createStyle();
+        s.setName( "style" );
+        s.setFilename( "style.sld" );
+        catalog.add( s );
+
+        LayerInfo l = cFactory.createLayer();
+        l.setResource( ft );
+        l.setDefaultStyle( s );
+        l.getStyles().add(s);
+        catalog.add( l );
+
+        XStreamPersister precompiled = new XStreamPersisterFactory().createXMLPersister();
+        precompiled.setPrecompiledConverters(true);
+        for (Object o : new Object[] { ws, ns, ds, ft, s, l }) {
+            ByteArrayOutputStream expected = out();
+            persister.save( o, expected );
+            ByteArrayOutputStream actual = out();
+            precompiled.save( o, actual );
+            assertEquals( expected.toString("UTF-8"), actual.toString("UTF-8") );
+        }
+
+        ByteArrayOutputStream out = out();
+        precompiled.save( l, out );
+        precompiled.setCatalog( catalog );
+        l = precompiled.load( in( out ), LayerInfo.class );
+        assertEquals( ft, l.getResource() );
+        assertEquals( s, l.getDefaultStyle() );
+    }
     
     @Test
     public void testLayerGroupInfo() throws Exception {
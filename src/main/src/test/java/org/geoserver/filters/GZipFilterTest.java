@@ -2,17 +2,22 @@ package org.geoserver.filters;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.servlet.ServletException;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 import org.springframework.mock.web.DelegatingServletOutputStream;
 
@@ -127,4 +132,145 @@ public class GZipFilterTest {
         assertTrue(response.containsHeader("Content-Length"));
         assertEquals("1000", response.getHeader("Content-Length"));
     }
+
+    GZIPFilter buildFilter(String... params) throws Exception {
+        GZIPFilter filter = new GZIPFilter();
+        MockFilterConfig config = new MockFilterConfig(new MockServletContext());
+        config.addInitParameter("compressed-types", "text/plain,.*xml.*");
+        for (int i = 0; i < params.length; i += 2) {
+            config.addInitParameter(params[i], params[i + 1]);
+        }
+        filter.init(config);
+        return filter;
+    }
+
+    MockHttpServletResponse run(GZIPFilter filter, String acceptEncoding, final String mimeType,
+            final byte[] contents) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET",
+                "http://www.geoserver.org");
+        request.addHeader("accept-encoding", acceptEncoding);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+                    throws IOException, ServletException {
+                response.setContentType(mimeType);
+                ServletOutputStream os = response.getOutputStream();
+                // write in small bits, like a streaming encoder would do
+                for (int i = 0; i < contents.length; i += 10) {
+                    os.write(contents, i, Math.min(10, contents.length - i));
+                }
+            }
+        };
+        filter.doFilter(request, response, chain);
+        return response;
+    }
+
+    byte[] contents(int size) {
+        byte[] contents = new byte[size];
+        for (int i = 0; i < size; i++) {
+            contents[i] = (byte) ('a' + i % 26);
+        }
+        return contents;
+    }
+
+    @Test
+    public void testEncodingNegotiation() throws Exception {
+        GZIPFilter filter = buildFilter();
+        byte[] contents = contents(1000);
+
+        // gzip is preferred on ties
+        MockHttpServletResponse response = run(filter, "deflate, gzip", "text/plain", contents);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertArrayEquals(contents, IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(response.getContentAsByteArray()))));
+
+        // quality values are honored
+        response = run(filter, "gzip;q=0.5, deflate", "text/plain", contents);
+        assertEquals("deflate", response.getHeader("Content-Encoding"));
+        assertArrayEquals(contents, IOUtils.toByteArray(new InflaterInputStream(
+                new ByteArrayInputStream(response.getContentAsByteArray()))));
+
+        // gzip explicitly refused, nothing else acceptable
+        response = run(filter, "gzip;q=0, br", "text/plain", contents);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertArrayEquals(contents, response.getContentAsByteArray());
+
+        // wildcard
+        response = run(filter, "*", "text/plain", contents);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+
+        // restricted list of encodings
+        filter = buildFilter("encodings", "gzip");
+        response = run(filter, "deflate", "text/plain", contents);
+        assertNull(response.getHeader("Content-Encoding"));
+    }
+
+    @Test
+    public void testCompressionLevels() throws Exception {
+        GZIPFilter filter = buildFilter("compression-level", "0", "compression-levels",
+                "text/plain=9", "buffer-sizes", ".*xml.*=512");
+        byte[] contents = contents(10000);
+
+        MockHttpServletResponse stored = run(filter, "gzip", "text/xml", contents);
+        assertEquals("gzip", stored.getHeader("Content-Encoding"));
+        byte[] storedBytes = stored.getContentAsByteArray();
+        // level 0 does not compress at all
+        assertTrue(storedBytes.length > contents.length);
+        assertArrayEquals(contents, IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(storedBytes))));
+
+        MockHttpServletResponse compressed = run(filter, "gzip", "text/plain", contents);
+        assertEquals("gzip", compressed.getHeader("Content-Encoding"));
+        assertTrue(compressed.getContentAsByteArray().length < contents.length / 10);
+    }
+
+    @Test
+    public void testCompressionThreshold() throws Exception {
+        GZIPFilter filter = buildFilter("compression-threshold", "100");
+
+        // below the threshold, sent as is with a content length
+        byte[] small = contents(99);
+        MockHttpServletResponse response = run(filter, "gzip", "text/plain", small);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertEquals(99, response.getContentLength());
+        assertArrayEquals(small, response.getContentAsByteArray());
+
+        // reaching the threshold, compressed
+        byte[] large = contents(100);
+        response = run(filter, "gzip", "text/plain", large);
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertArrayEquals(large, IOUtils.toByteArray(new GZIPInputStream(
+                new ByteArrayInputStream(response.getContentAsByteArray()))));
+
+        // not compressible anyways
+        response = run(filter, "gzip", "image/png", large);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertNull(response.getHeader("Vary"));
+        assertTrue(Arrays.equals(large, response.getContentAsByteArray()));
+    }
+
+    @Test
+    public void testThresholdWithContentLength() throws Exception {
+        GZIPFilter filter = buildFilter("compression-threshold", "100");
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET",
+                "http://www.geoserver.org");
+        request.addHeader("accept-encoding", "gzip");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        MockFilterChain chain = new MockFilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response)
+                    throws IOException, ServletException {
+                response.setContentType("text/plain");
+                response.setContentLength(50);
+                response.getOutputStream().write(contents(50));
+            }
+        };
+        filter.doFilter(request, response, chain);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals(50, response.getContentLength());
+    }
 }
@@ -0,0 +1,46 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.servlet.Filter;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.geoserver.test.SystemTest;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+@Category(SystemTest.class)
+public class MetricsControllerTest extends GeoServerSystemTestSupport {
+
+    @Override
+    protected List<Filter> getFilters() {
+        return Collections.singletonList((Filter) GeoServerExtensions.bean("filterChainProxy"));
+    }
+
+    @Test
+    public void testAnonymousDenied() throws Exception {
+        setRequestAuth(null, null);
+        MockHttpServletResponse response = getAsServletResponse("metrics");
+        assertEquals(401, response.getStatus());
+    }
+
+    @Test
+    public void testAdministrator() throws Exception {
+        setRequestAuth("admin", "geoserver");
+        MockHttpServletResponse response = getAsServletResponse("metrics");
+        assertEquals(200, response.getStatus());
+        assertTrue(response.getContentType().startsWith("text/plain"));
+        assertTrue(response.getContentAsString()
+                .contains("# TYPE geoserver_ows_requests_total counter"));
+    }
+}
@@ -0,0 +1,232 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.CatalogFactory;
+import org.geoserver.catalog.DataStoreInfo;
+import org.geoserver.catalog.FeatureTypeInfo;
+import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.NamespaceInfo;
+import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.impl.CatalogImpl;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.ows.util.KvpMap;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geotools.util.Version;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class MetricsRegistryTest {
+
+    @Test
+    public void testRequests() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry(null, 100);
+        registry.recordRequest("WMS", "GetMap", "image/png", Arrays.asList("topp:states"),
+                TimeUnit.MILLISECONDS.toNanos(20), 1000, false);
+        registry.recordRequest("WMS", "GetMap", "image/png", Arrays.asList("topp:states"),
+                TimeUnit.MILLISECONDS.toNanos(300), 500, true);
+
+        String text = write(registry);
+        String labels = "{service=\"WMS\",operation=\"GetMap\",format=\"image/png\"";
+        assertTrue(text.contains("# TYPE geoserver_ows_requests_total counter\n"));
+        assertTrue(text.contains("geoserver_ows_requests_total" + labels + "} 2\n"));
+        assertTrue(text.contains("geoserver_ows_request_errors_total" + labels + "} 1\n"));
+        assertTrue(text.contains("geoserver_ows_response_bytes_total" + labels + "} 1500\n"));
+        // cumulative buckets
+        assertTrue(text.contains("geoserver_ows_request_duration_seconds_bucket" + labels
+                + ",le=\"0.01\"} 0\n"));
+        assertTrue(text.contains("geoserver_ows_request_duration_seconds_bucket" + labels
+                + ",le=\"0.025\"} 1\n"));
+        assertTrue(text.contains("geoserver_ows_request_duration_seconds_bucket" + labels
+                + ",le=\"0.5\"} 2\n"));
+        assertTrue(text.contains("geoserver_ows_request_duration_seconds_bucket" + labels
+                + ",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("geoserver_ows_request_duration_seconds_count" + labels
+                + "} 2\n"));
+        assertTrue(text.contains(
+                "geoserver_layer_requests_total{service=\"WMS\",layer=\"topp:states\"} 2\n"));
+
+        registry.reset();
+        assertFalse(write(registry).contains("geoserver_ows_requests_total{"));
+    }
+
+    @Test
+    public void testBoundedSeries() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry(null, 2);
+        for (int i = 0; i < 10; i++) {
+            registry.recordRequest("WMS", "GetMap", "image/png", Arrays.asList("layer" + i), 0,
+                    0, false);
+        }
+        // the least recently used series are dropped
+        String text = write(registry);
+        assertFalse(text.contains("layer=\"layer0\""));
+        assertFalse(text.contains("layer=\"layer7\""));
+        assertTrue(text.contains("layer=\"layer8\"} 1\n"));
+        assertTrue(text.contains("layer=\"layer9\"} 1\n"));
+        assertEquals(2, registry.layers.series.size());
+    }
+
+    @Test
+    public void testTilesAndRendering() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry(null, 100);
+        registry.recordTile("topp:states", true);
+        registry.recordTile("topp:states", true);
+        registry.recordTile("topp:states", false);
+        registry.recordRendering("image/png", TimeUnit.SECONDS.toNanos(100), true);
+
+        String text = write(registry);
+        assertTrue(text.contains(
+                "geoserver_gwc_tile_requests_total{layer=\"topp:states\",result=\"hit\"} 2\n"));
+        assertTrue(text.contains(
+                "geoserver_gwc_tile_requests_total{layer=\"topp:states\",result=\"miss\"} 1\n"));
+        assertTrue(text.contains(
+                "geoserver_wms_rendering_errors_total{format=\"image/png\"} 1\n"));
+        assertTrue(text.contains("geoserver_wms_rendering_duration_seconds_bucket"
+                + "{format=\"image/png\",le=\"60\"} 0\n"));
+        assertTrue(text.contains("geoserver_wms_rendering_duration_seconds_bucket"
+                + "{format=\"image/png\",le=\"+Inf\"} 1\n"));
+    }
+
+    @Test
+    public void testEscaping() {
+        assertEquals("a\\\"b\\\\c\\n", MetricsRegistry.escape("a\"b\\c\n"));
+        assertEquals("abc", MetricsRegistry.escape("abc"));
+    }
+
+    Catalog buildCatalog(String prefix, String... layerNames) {
+        Catalog catalog = new CatalogImpl();
+        CatalogFactory factory = catalog.getFactory();
+        WorkspaceInfo ws = factory.createWorkspace();
+        ws.setName(prefix);
+        catalog.add(ws);
+        NamespaceInfo ns = factory.createNamespace();
+        ns.setPrefix(prefix);
+        ns.setURI("http://" + prefix);
+        catalog.add(ns);
+        DataStoreInfo ds = factory.createDataStore();
+        ds.setName("store");
+        ds.setWorkspace(ws);
+        catalog.add(ds);
+        for (String name : layerNames) {
+            FeatureTypeInfo ft = factory.createFeatureType();
+            ft.setName(name);
+            ft.setNativeName(name);
+            ft.setNamespace(ns);
+            ft.setStore(ds);
+            catalog.add(ft);
+            LayerInfo layer = factory.createLayer();
+            layer.setResource(ft);
+            catalog.add(layer);
+        }
+        return catalog;
+    }
+
+    Request dispatch(MetricsCallback callback, String typeNames, String outputFormat,
+            Exception error) throws IOException {
+        Request request = new Request();
+        request.setHttpResponse(new MockHttpServletResponse());
+        KvpMap kvp = new KvpMap();
+        kvp.put("typeNames", typeNames);
+        request.setRawKvp(kvp);
+        request.setService("wfs");
+        request.setRequest("GetFeature");
+        request.setOutputFormat(outputFormat);
+
+        request = callback.init(request);
+        Service service = new Service("wfs", new Object(), new Version("2.0.0"),
+                Arrays.asList("GetFeature"));
+        Operation operation = new Operation("GetFeature", service, null, new Object[0]);
+        request.setOperation(callback.operationDispatched(request, operation));
+        Response response = new Response(Object.class,
+                Collections.singleton("application/json")) {
+
+            @Override
+            public String getMimeType(Object value, Operation operation) {
+                return "application/json";
+            }
+
+            @Override
+            public void write(Object value, OutputStream output, Operation operation) {
+            }
+        };
+        callback.responseDispatched(request, operation, null, response);
+        request.getHttpResponse().getOutputStream().write(new byte[123]);
+        if (error != null) {
+            request.setError(error);
+        }
+        callback.finished(request);
+        return request;
+    }
+
+    @Test
+    public void testCallback() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry(buildCatalog("topp", "states", "roads"),
+                100);
+        MetricsCallback callback = new MetricsCallback(registry);
+
+        Request request = dispatch(callback, "(topp:states,topp:roads)(topp:states)",
+                "APPLICATION/JSON", null);
+        assertEquals(Arrays.asList("topp:states", "topp:roads"),
+                MetricsCallback.getLayers(request));
+        String text = write(registry);
+        assertTrue(text.contains("geoserver_ows_response_bytes_total{service=\"WFS\","
+                + "operation=\"GetFeature\",format=\"application/json\"} 123\n"));
+        assertTrue(text.contains(
+                "geoserver_layer_requests_total{service=\"WFS\",layer=\"topp:roads\"} 1\n"));
+
+        // failures are accounted as errors
+        dispatch(callback, "topp:states", "application/json", new Exception());
+        assertTrue(write(registry).contains("geoserver_ows_request_errors_total{service=\"WFS\","
+                + "operation=\"GetFeature\",format=\"application/json\"} 1\n"));
+    }
+
+    @Test
+    public void testCallbackIgnoresClientLabels() throws IOException {
+        MetricsRegistry registry = new MetricsRegistry(buildCatalog("topp", "states"), 100);
+        MetricsCallback callback = new MetricsCallback(registry);
+
+        // made up layers and formats do not end up in the labels
+        dispatch(callback, "topp:states,foo:bar", "made/up", null);
+        String text = write(registry);
+        assertTrue(text.contains("geoserver_ows_requests_total{service=\"WFS\","
+                + "operation=\"GetFeature\",format=\"\"} 1\n"));
+        assertTrue(text.contains("layer=\"topp:states\"} 1\n"));
+        assertFalse(text.contains("foo:bar"));
+        assertFalse(text.contains("made/up"));
+
+        // nothing dispatched, no service or operation label from the request
+        Request request = new Request();
+        request.setHttpResponse(new MockHttpServletResponse());
+        request.setService("bogus");
+        request.setRequest("bogus");
+        request = callback.init(request);
+        request.setError(new Exception());
+        callback.finished(request);
+        text = write(registry);
+        assertFalse(text.contains("bogus"));
+        assertTrue(text.contains("geoserver_ows_request_errors_total{service=\"\","
+                + "operation=\"\",format=\"\"} 1\n"));
+    }
+
+    String write(MetricsRegistry registry) throws IOException {
+        StringWriter writer = new StringWriter();
+        registry.write(writer);
+        return writer.toString();
+    }
+}
@@ -52,6 +52,7 @@ public class GeoServerExtensionsHelper {
         GeoServerExtensions.singletonBeanCache.clear();
         GeoServerExtensions.propertyCache.clear();
         GeoServerExtensions.fileCache.clear();
+        GeoServerExtensions.clearRegistry();
     }
     /**
      * Sets the web application context to be used for looking up extensions.
@@ -91,6 +92,7 @@ public class GeoServerExtensionsHelper {
             return;
         }
         GeoServerExtensions.singletonBeanCache.put( name,  bean );
+        GeoServerExtensions.clearRegistry();
         if (declaredClasses != null && declaredClasses.length > 0) {
             for (Class<?> clazz : declaredClasses) {
                 addToCache(GeoServerExtensions.extensionsCache, clazz, name);
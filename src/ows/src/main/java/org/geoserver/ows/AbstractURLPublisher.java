@@ -6,6 +6,7 @@
 package org.geoserver.ows;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -22,6 +23,7 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.geoserver.ows.util.EncodingInfo;
+import org.geoserver.ows.util.ResponseUtils;
 import org.geoserver.ows.util.XmlCharsetDetector;
 import org.geotools.data.DataUtilities;
 import org.springframework.web.servlet.ModelAndView;
@@ -47,6 +49,12 @@ import org.springframework.web.servlet.mvc.AbstractController;
  *   &lt;/bean&gt;
  * </code>
  * </pre>
+ * </p>
+ * <p>
+ * If the client accepts gzip encoded responses and a pre-compressed <code>.gz</code> variant of the
+ * file is found next to it, at least as recent as the file itself, the variant is sent out as is,
+ * saving the cost of compressing the file on each request.
+ * </p>
  * 
  * @author Justin Deoliveira, The Open Planning Project
  * @author Andrea Aime - GeoSolutions
@@ -86,6 +94,12 @@ public abstract class AbstractURLPublisher extends AbstractController {
             response.setContentType(mime);
         }
 
+        File compressed = getCompressedVariant(request, file);
+        if (compressed != null) {
+            writeCompressed(response, file, compressed);
+            return null;
+        }
+
         // set the content length and content type
         URLConnection connection = null;
         InputStream input = null;
@@ -136,6 +150,57 @@ public abstract class AbstractURLPublisher extends AbstractController {
         return null;
     }
 
+    /**
+     * Returns the pre-compressed variant of the file, if the client accepts gzip and the variant
+     * is up to date, null otherwise
+     */
+    File getCompressedVariant(HttpServletRequest request, File file) {
+        if (file == null || !ResponseUtils.acceptsEncoding(request.getHeader("Accept-Encoding"), "gzip")) {
+            return null;
+        }
+        File compressed = new File(file.getPath() + ".gz");
+        if (compressed.isFile() && compressed.lastModified() >= file.lastModified()) {
+            return compressed;
+        }
+        return null;
+    }
+
+    /**
+     * Sends out the pre-compressed variant of the file, the charset is still determined from the
+     * original file
+     */
+    void writeCompressed(HttpServletResponse response, File file, File compressed)
+            throws IOException {
+        final byte[] b4 = new byte[4];
+        int count;
+        try (InputStream input = new FileInputStream(file)) {
+            count = input.read(b4);
+        }
+        EncodingInfo encInfo = XmlCharsetDetector.getEncodingName(b4, count);
+        response.setCharacterEncoding(encInfo.getEncoding() != null ? encInfo.getEncoding()
+                : "UTF-8");
+
+        response.setHeader("Content-Encoding", "gzip");
+        response.addHeader("Vary", "Accept-Encoding");
+        long length = compressed.length();
+        if (length > 0 && length <= Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        }
+        long lastModified = file.lastModified();
+        if (lastModified > 0) {
+            response.setHeader("Last-Modified", lastModified(lastModified));
+        }
+
+        try (InputStream input = new FileInputStream(compressed)) {
+            OutputStream output = response.getOutputStream();
+            byte[] buffer = new byte[8192];
+            int n = -1;
+            while ((n = input.read(buffer)) != -1) {
+                output.write(buffer, 0, n);
+            }
+        }
+    }
+
     private boolean checkNotModified(HttpServletRequest request, long timeStamp) {
         Enumeration headers = request.getHeaders("If-Modified-Since");
         String header = headers != null && headers.hasMoreElements() ? headers.nextElement().toString() : null;
@@ -17,6 +17,7 @@ import java.io.OutputStream;
 import java.lang.reflect.Method;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -27,9 +28,13 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.xml.namespace.QName;
@@ -44,8 +49,13 @@ import org.apache.commons.fileupload.FileItem;
 import org.apache.commons.fileupload.disk.DiskFileItemFactory;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
 import org.eclipse.emf.ecore.EObject;
+import org.geoserver.ows.trace.Span;
+import org.geoserver.ows.trace.Trace;
+import org.geoserver.ows.trace.TraceBuffer;
+import org.geoserver.ows.trace.Tracing;
 import org.geoserver.ows.util.CaseInsensitiveMap;
 import org.geoserver.ows.util.KvpMap;
+import org.geoserver.ows.util.KvpParsingPlan;
 import org.geoserver.ows.util.KvpUtils;
 import org.geoserver.ows.util.OwsUtils;
 import org.geoserver.ows.util.RequestUtils;
@@ -58,6 +68,16 @@ import org.geotools.xml.EMFUtils;
 import org.geotools.xml.transform.TransformerBase;
 import org.springframework.beans.factory.NoSuchBeanDefinitionException;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.security.authentication.AuthenticationTrustResolver;
+import org.springframework.security.authentication.AuthenticationTrustResolverImpl;
+import org.springframework.security.authentication.InsufficientAuthenticationException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.AuthenticationException;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.web.AuthenticationEntryPoint;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.AbstractController;
 import org.w3c.dom.Document;
@@ -68,6 +88,9 @@ import org.xml.sax.SAXException;
 import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserFactory;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
 
 /**
  * Dispatches an http request to an open web service (OWS).
@@ -113,7 +136,8 @@ import org.xmlpull.v1.XmlPullParserFactory;
  *
  * @author Justin Deoliveira, The Open Planning Project, jdeolive@openplans.org
  */
-public class Dispatcher extends AbstractController {
+public class Dispatcher extends AbstractController
+        implements ApplicationListener<ContextRefreshedEvent> {
     /**
      * Logging instance
      */
@@ -130,6 +154,12 @@ public class Dispatcher extends AbstractController {
     /** thread local variable for the request */
     public static final ThreadLocal<Request> REQUEST = new InheritableThreadLocal<Request>();
     
+    /**
+     * Request attribute holding the {@link AuthenticationEntryPoint} used to challenge for
+     * credentials the clients of requests run asynchronously, set by the security filter chain
+     */
+    public static final String AUTHENTICATION_ENTRY_POINT = "_DISPATCHER_AUTHENTICATION_ENTRY_POINT";
+
     static final Charset UTF8 = Charset.forName("UTF-8");
     
     /**
@@ -137,11 +167,35 @@ public class Dispatcher extends AbstractController {
      */
     int XML_LOOKAHEAD = 8192;
 
+    /**
+     * executor used to run requests outside of the servlet container threads, if any
+     */
+    Executor asyncExecutor;
+
+    /**
+     * Maximum number of kvp parsing plans kept, each service/version/request combination
+     * gets its own, the least recently used ones are dropped first
+     */
+    static final int MAX_KVP_PARSING_PLANS = 256;
+
+    /**
+     * kvp parsing plans, by upper case service, version and upper case request. The parsers
+     * are looked up, and the {@link org.geoserver.platform.ExtensionFilter}s evaluated, when a
+     * plan is built, plans are dropped when the application context is refreshed
+     */
+    Cache<List<String>, KvpParsingPlan> kvpParsingPlans = CacheBuilder.newBuilder()
+            .maximumSize(MAX_KVP_PARSING_PLANS).build();
+
     /**
      * list of callbacks 
      */
     List<DispatcherCallback> callbacks = Collections.EMPTY_LIST;
 
+    /**
+     * samples and collects the request traces, if available
+     */
+    TraceBuffer traces;
+
     /** SOAP namespace */
     static final String SOAP_NS = "http://www.w3.org/2003/05/soap-envelope";
     
@@ -182,10 +236,47 @@ public class Dispatcher extends AbstractController {
         return citeCompliant;
     }
 
+    /**
+     * Sets the executor used to run the requests asynchronously.
+     * <p>
+     * When set, and the servlet container supports asynchronous processing for the request, the
+     * request is detached from the container thread and the whole operation, from parsing to
+     * response writing, is run by the executor. This frees the container threads while requests
+     * are waiting on slow data sources, or are queued by callbacks blocking in
+     * {@link DispatcherCallback#operationDispatched(Request, Operation)}. Requests the executor
+     * rejects are run synchronously.
+     * </p>
+     * 
+     * @param asyncExecutor the executor, or <code>null</code> to run requests synchronously
+     */
+    public void setAsyncExecutor(Executor asyncExecutor) {
+        this.asyncExecutor = asyncExecutor;
+    }
+
+    public Executor getAsyncExecutor() {
+        return asyncExecutor;
+    }
+
+    /**
+     * Sets the buffer sampling and collecting the request traces, looked up in the application
+     * context if not set
+     */
+    public void setTraceBuffer(TraceBuffer traces) {
+        this.traces = traces;
+    }
+
+    public TraceBuffer getTraceBuffer() {
+        return traces;
+    }
+
     @Override
     protected void initApplicationContext(ApplicationContext context) {
         //load life cycle callbacks
         callbacks = GeoServerExtensions.extensions( DispatcherCallback.class, context);
+        kvpParsingPlans.invalidateAll();
+        if (traces == null) {
+            traces = GeoServerExtensions.bean(TraceBuffer.class, context);
+        }
         
         // setup the xml lookahead value
         String lookahead = GeoServerExtensions.getProperty("XML_LOOKAHEAD", context);
@@ -224,6 +315,109 @@ public class Dispatcher extends AbstractController {
         HttpServletResponse httpResponse) throws Exception {
         preprocessRequest(httpRequest);
 
+        if (asyncExecutor != null && httpRequest.isAsyncSupported()
+                && !httpRequest.isAsyncStarted()) {
+            handleRequestAsync(httpRequest, httpResponse);
+        } else {
+            processRequest(httpRequest, httpResponse);
+        }
+
+        return null;
+    }
+
+    /**
+     * Detaches the request from the container thread and runs it with the {@link #asyncExecutor}
+     */
+    void handleRequestAsync(final HttpServletRequest httpRequest,
+            final HttpServletResponse httpResponse) {
+        final AsyncContext context = httpRequest.startAsync(httpRequest, httpResponse);
+        // queuing time is controlled by the callbacks (e.g., control flow), and execution
+        // time is not limited in synchronous mode either
+        context.setTimeout(0);
+        Runnable task = () -> {
+            try {
+                processRequest(httpRequest, httpResponse);
+            } catch (Throwable t) {
+                asyncError(t, httpRequest, httpResponse);
+            } finally {
+                context.complete();
+            }
+        };
+        try {
+            asyncExecutor.execute(task);
+        } catch (RejectedExecutionException e) {
+            logger.log(Level.FINE, "Asynchronous executor saturated, running the request "
+                    + "in the container thread", e);
+            task.run();
+        }
+    }
+
+    /**
+     * Handles an exception that would have been left to the servlet filters in synchronous mode,
+     * which are no longer there once the request is detached from the container thread.
+     * <p>
+     * Security exceptions are handled like the exception translation filter does, using the
+     * entry point it published in the {@link #AUTHENTICATION_ENTRY_POINT} request attribute, so
+     * that clients still get challenged for credentials.
+     * </p>
+     */
+    void asyncError(Throwable t, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) {
+        if (httpResponse.isCommitted()) {
+            logger.log(Level.WARNING, "Error running request asynchronously, "
+                    + "the response was already committed", t);
+            return;
+        }
+        try {
+            if (isSecurityException(t)) {
+                securityError(t, httpRequest, httpResponse);
+            } else {
+                logger.log(Level.SEVERE, "Error running request asynchronously", t);
+                httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+            }
+        } catch (IOException | ServletException e) {
+            logger.log(Level.FINER, "Failed to send the error", e);
+        }
+    }
+
+    /**
+     * Challenges for credentials, or denies access to authenticated users, as the
+     * ExceptionTranslationFilter would
+     */
+    void securityError(Throwable t, HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse) throws IOException, ServletException {
+        AuthenticationEntryPoint entryPoint = (AuthenticationEntryPoint) httpRequest
+                .getAttribute(AUTHENTICATION_ENTRY_POINT);
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        AuthenticationTrustResolver resolver = new AuthenticationTrustResolverImpl();
+        AuthenticationException authenticationException;
+        if (t instanceof AuthenticationException) {
+            // the credentials provided are not valid anymore
+            SecurityContextHolder.getContext().setAuthentication(null);
+            authenticationException = (AuthenticationException) t;
+        } else if (t instanceof AccessDeniedException && authentication != null
+                && !resolver.isAnonymous(authentication)
+                && !resolver.isRememberMe(authentication)) {
+            httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN, t.getMessage());
+            return;
+        } else {
+            authenticationException = new InsufficientAuthenticationException(
+                    "Full authentication is required to access this resource", t);
+        }
+
+        if (entryPoint != null) {
+            entryPoint.commence(httpRequest, httpResponse, authenticationException);
+        } else {
+            httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED,
+                    authenticationException.getMessage());
+        }
+    }
+
+    /**
+     * Runs the request, from parsing to response writing
+     */
+    void processRequest(HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+            throws Exception {
         //create a new request instance
         Request request = new Request();
 
@@ -233,20 +427,29 @@ public class Dispatcher extends AbstractController {
 
         Service service = null;
 
+        // trace the request if sampled, or as part of the current trace if nested
+        Trace trace = null;
+        Span nested = Tracing.start("Dispatcher");
+        if (!nested.isRecording() && traces != null) {
+            trace = traces.start("Dispatcher");
+        }
+
         try {
             // initialize the request and allow callbacks to override it
-            request = init(request);
+            try (Span span = Tracing.start("init")) {
+                request = init(request);
+            }
 
             // store it in the thread local
             REQUEST.set(request);
             
             //find the service
-            try {
+            try (Span span = Tracing.start("service")) {
                 service = service(request);
             } catch (Throwable t) {
                 exception(t, null, request);
 
-                return null;
+                return;
             }
             
             //throw any outstanding errors
@@ -255,7 +458,10 @@ public class Dispatcher extends AbstractController {
             }
 
             //dispatch the operation
-            Operation operation = dispatch(request, service);
+            Operation operation;
+            try (Span span = Tracing.start("dispatch")) {
+                operation = dispatch(request, service);
+            }
             request.setOperation(operation);
 
             if (request.isSOAP()) {
@@ -265,11 +471,16 @@ public class Dispatcher extends AbstractController {
             }
 
             //execute it
-            Object result = execute(request, operation);
+            Object result;
+            try (Span span = Tracing.start("execute")) {
+                result = execute(request, operation);
+            }
 
             //write the response
             if (result != null) {
-                response(result, request, operation);
+                try (Span span = Tracing.start("response")) {
+                    response(result, request, operation);
+                }
             }
         } catch (Throwable t) {
          // make Spring security exceptions flow so that exception transformer filter can handle them
@@ -279,9 +490,33 @@ public class Dispatcher extends AbstractController {
         } finally {
             fireFinishedCallback(request);
             REQUEST.remove();
+            if (trace != null) {
+                describe(trace.getRoot(), request);
+                traces.end(trace);
+            } else if (nested.isRecording()) {
+                describe(nested, request);
+                nested.close();
+            }
         }
+    }
 
-        return null;
+    /**
+     * Adds the request description to the span covering the whole request
+     */
+    void describe(Span span, Request request) {
+        span.attribute("service", request.getService());
+        span.attribute("version", request.getVersion());
+        span.attribute("request", request.getRequest());
+        span.attribute("outputFormat", request.getOutputFormat());
+        HttpServletRequest httpRequest = request.getHttpRequest();
+        if (httpRequest != null) {
+            span.attribute("method", httpRequest.getMethod());
+            String query = httpRequest.getQueryString();
+            span.attribute("url", httpRequest.getRequestURI() + (query != null ? "?" + query : ""));
+        }
+        if (request.getError() != null) {
+            span.attribute("error", request.getError().toString());
+        }
     }
 
     void flagAsSOAP(Operation op) {
@@ -1006,7 +1241,11 @@ public class Dispatcher extends AbstractController {
                 }
     
                 // actually write out the response
-                response.write(result, output, opDescriptor);
+                try (Span span = Tracing.start("write")) {
+                    span.attribute("response", response.getClass().getSimpleName());
+                    span.attribute("mimeType", mimeType);
+                    response.write(result, output, opDescriptor);
+                }
     
                 if (req.isSOAP()) {
                     //SOAP request, start the SOAP wrapper
@@ -1498,13 +1737,42 @@ public class Dispatcher extends AbstractController {
     }
 
     Map parseKVP(Request req, Map kvp) {
-        List<Throwable> errors = KvpUtils.parse(kvp);
+        List<Throwable> errors = getKvpParsingPlan(kvp).parse(kvp);
         if ( !errors.isEmpty() ) {
             req.setError(errors.get(0));
         }
         return kvp;
     }
 
+    /**
+     * Returns the parsing plan for the service, version and request found in the kvp, building
+     * it if not already available
+     */
+    KvpParsingPlan getKvpParsingPlan(Map kvp) {
+        String service = KvpUtils.getSingleValue(kvp, "service");
+        String version = KvpUtils.getSingleValue(kvp, "version");
+        String request = KvpUtils.getSingleValue(kvp, "request");
+        // parsers match service and request ignoring case, the version exactly
+        List<String> key = Arrays.asList(service == null ? null : service.toUpperCase(), version,
+                request == null ? null : request.toUpperCase());
+
+        KvpParsingPlan plan = kvpParsingPlans.getIfPresent(key);
+        if (plan == null) {
+            plan = new KvpParsingPlan(GeoServerExtensions.extensions(KvpParser.class), service,
+                    version, request);
+            // the parameters come from the client, the size bound keeps bogus values from
+            // filling the cache while letting the plans in use replace them
+            kvpParsingPlans.put(key, plan);
+        }
+        return plan;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        // parsers might have been added or removed
+        kvpParsingPlans.invalidateAll();
+    }
+
     Object parseRequestKVP(Class type, Request request)
         throws Exception {
         KvpRequestReader kvpReader = findKvpRequestReader(type);
@@ -1518,7 +1786,11 @@ public class Dispatcher extends AbstractController {
             Object requestBean = kvpReader.createRequest();
 
             if (requestBean != null) {
-                requestBean = kvpReader.read(requestBean, request.getKvp(), request.getRawKvp());
+                try (Span span = Tracing.start("read")) {
+                    span.attribute("reader", kvpReader.getClass().getSimpleName());
+                    requestBean = kvpReader.read(requestBean, request.getKvp(),
+                            request.getRawKvp());
+                }
             }
 
             return requestBean;
@@ -1578,7 +1850,10 @@ public class Dispatcher extends AbstractController {
         }
 
         //return xmlReader.read(input);
-        return xmlReader.read( requestBean, input, request.getKvp() );
+        try (Span span = Tracing.start("read")) {
+            span.attribute("reader", xmlReader.getClass().getSimpleName());
+            return xmlReader.read( requestBean, input, request.getKvp() );
+        }
     }
 
     /**
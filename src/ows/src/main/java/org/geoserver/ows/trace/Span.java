@@ -0,0 +1,167 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.trace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A timed section of a {@link Trace}, with attributes and nested spans. Spans are created via
+ * {@link Tracing#start(String)} and should be closed in a finally block, or using a
+ * try-with-resources statement:
+ *
+ * <pre>
+ * try (Span span = Tracing.start("render")) {
+ *     span.attribute("layers", layers.size());
+ *     ...
+ * }
+ * </pre>
+ *
+ * When the current request is not being traced the span returned is {@link #NOOP}, doing
+ * nothing, use {@link #isRecording()} to avoid computing expensive attributes in that case.
+ */
+public class Span implements AutoCloseable {
+
+    /**
+     * The span used when there is no trace active, ignores attributes and children
+     */
+    public static final Span NOOP = new Span() {
+        @Override
+        public Span attribute(String name, Object value) {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            // nothing to do
+        }
+
+        @Override
+        Span child(String name) {
+            return this;
+        }
+    };
+
+    final String name;
+
+    final Span parent;
+
+    final Trace trace;
+
+    final long start;
+
+    volatile long end = -1;
+
+    Map<String, Object> attributes;
+
+    List<Span> children;
+
+    private Span() {
+        this.name = null;
+        this.parent = null;
+        this.trace = null;
+        this.start = 0;
+    }
+
+    Span(String name, Span parent, Trace trace) {
+        this.name = name;
+        this.parent = parent;
+        this.trace = trace;
+        this.start = System.nanoTime();
+    }
+
+    /**
+     * Creates a child span, without making it the current one
+     */
+    Span child(String name) {
+        Span child = new Span(name, this, trace);
+        synchronized (this) {
+            if (children == null) {
+                children = new ArrayList<>(4);
+            }
+            children.add(child);
+        }
+        return child;
+    }
+
+    /**
+     * Sets an attribute, the value should be a string, a number or a boolean, anything else will
+     * be converted to a string when the trace is encoded
+     */
+    public Span attribute(String name, Object value) {
+        synchronized (this) {
+            if (attributes == null) {
+                attributes = new LinkedHashMap<>();
+            }
+            attributes.put(name, value);
+        }
+        return this;
+    }
+
+    /**
+     * Ends the span, and if the span is the current one, makes its parent the current span.
+     * Closing a span again moves its end forward, e.g., for data read in multiple passes.
+     */
+    @Override
+    public void close() {
+        end = System.nanoTime();
+        if (Tracing.CURRENT.get() == this) {
+            if (parent != null) {
+                Tracing.CURRENT.set(parent);
+            } else {
+                Tracing.CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the span is part of an actual trace
+     */
+    public boolean isRecording() {
+        return this != NOOP;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * The span start, in nanoseconds from the start of the trace
+     */
+    public long getOffset() {
+        return start - trace.root.start;
+    }
+
+    /**
+     * The span duration in nanoseconds, or -1 if the span has not been closed yet
+     */
+    public long getDuration() {
+        long end = this.end;
+        return end < 0 ? -1 : end - start;
+    }
+
+    /**
+     * A copy of the span attributes
+     */
+    public synchronized Map<String, Object> getAttributes() {
+        return attributes == null ? Collections.<String, Object> emptyMap()
+                : new LinkedHashMap<>(attributes);
+    }
+
+    /**
+     * A copy of the child spans
+     */
+    public synchronized List<Span> getChildren() {
+        return children == null ? Collections.<Span> emptyList() : new ArrayList<>(children);
+    }
+
+    @Override
+    public String toString() {
+        return "Span[" + name + ", " + getDuration() + "ns]";
+    }
+}
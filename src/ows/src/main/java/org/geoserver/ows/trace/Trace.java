@@ -0,0 +1,54 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.trace;
+
+import java.util.Date;
+
+/**
+ * The tree of {@link Span} collected while executing a request
+ */
+public class Trace {
+
+    final long id;
+
+    final Date timestamp = new Date();
+
+    final Span root;
+
+    Trace(long id, String name) {
+        this.id = id;
+        this.root = new Span(name, null, this);
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * The time the trace was started
+     */
+    public Date getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * The root span, covering the whole request
+     */
+    public Span getRoot() {
+        return root;
+    }
+
+    /**
+     * The trace duration in nanoseconds, or -1 if the trace is still running
+     */
+    public long getDuration() {
+        return root.getDuration();
+    }
+
+    @Override
+    public String toString() {
+        return "Trace[" + id + ", " + root.getName() + "]";
+    }
+}
@@ -0,0 +1,281 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.trace;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.GeoServerExtensions;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Samples the requests to be traced, and keeps the last completed traces in memory.
+ * <p>
+ * The sample rate, the buffer capacity and the minimum duration for a trace to be kept can be
+ * set with the {@code org.geoserver.trace.sampleRate} (between 0 and 1, 0 by default, that is,
+ * tracing is disabled), {@code org.geoserver.trace.capacity} (100 by default) and
+ * {@code org.geoserver.trace.minDuration} (in milliseconds, 0 by default) system/environment/
+ * servlet context variables, or changed at runtime.
+ * </p>
+ */
+public class TraceBuffer {
+
+    static final Logger LOGGER = Logging.getLogger(TraceBuffer.class);
+
+    final AtomicLong ids = new AtomicLong();
+
+    volatile double sampleRate;
+
+    volatile long minDuration;
+
+    Trace[] traces;
+
+    int next;
+
+    public TraceBuffer() {
+        this(getProperty("org.geoserver.trace.sampleRate", 0d),
+                (int) getProperty("org.geoserver.trace.capacity", 100d),
+                (long) getProperty("org.geoserver.trace.minDuration", 0d));
+    }
+
+    public TraceBuffer(double sampleRate, int capacity, long minDuration) {
+        setSampleRate(sampleRate);
+        setCapacity(capacity);
+        setMinDuration(minDuration);
+    }
+
+    static double getProperty(String name, double defaultValue) {
+        String value = GeoServerExtensions.getProperty(name);
+        if (value != null) {
+            try {
+                return Double.parseDouble(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + name + ": " + value + ", using the default "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * The fraction of requests being traced, between 0 and 1
+     */
+    public double getSampleRate() {
+        return sampleRate;
+    }
+
+    public void setSampleRate(double sampleRate) {
+        this.sampleRate = Math.max(0, Math.min(1, sampleRate));
+    }
+
+    /**
+     * The minimum duration, in milliseconds, for a trace to be kept in the buffer
+     */
+    public long getMinDuration() {
+        return minDuration;
+    }
+
+    public void setMinDuration(long minDuration) {
+        this.minDuration = Math.max(0, minDuration);
+    }
+
+    /**
+     * The max number of traces kept in memory
+     */
+    public synchronized int getCapacity() {
+        return traces.length;
+    }
+
+    /**
+     * Sets the max number of traces kept in memory, the current ones are discarded
+     */
+    public synchronized void setCapacity(int capacity) {
+        this.traces = new Trace[Math.max(1, capacity)];
+        this.next = 0;
+    }
+
+    /**
+     * Decides whether the current request should be traced, and if so, starts a new trace and
+     * makes its root span the current one
+     *
+     * @return the new trace, or null if the request is not sampled
+     */
+    public Trace start(String name) {
+        double rate = sampleRate;
+        if (rate <= 0 || (rate < 1 && ThreadLocalRandom.current().nextDouble() >= rate)) {
+            return null;
+        }
+        Trace trace = new Trace(ids.incrementAndGet(), name);
+        Tracing.CURRENT.set(trace.root);
+        return trace;
+    }
+
+    /**
+     * Ends the trace, clears the current span, and adds the trace to the buffer if it took at
+     * least {@link #getMinDuration()} milliseconds
+     */
+    public void end(Trace trace) {
+        trace.root.close();
+        Tracing.CURRENT.remove();
+        if (trace.getDuration() >= TimeUnit.MILLISECONDS.toNanos(minDuration)) {
+            add(trace);
+        }
+    }
+
+    synchronized void add(Trace trace) {
+        traces[next] = trace;
+        next = (next + 1) % traces.length;
+    }
+
+    /**
+     * Returns the traces in the buffer, newest first
+     */
+    public synchronized List<Trace> getTraces() {
+        List<Trace> result = new ArrayList<>(traces.length);
+        for (int i = 1; i <= traces.length; i++) {
+            Trace trace = traces[(next - i + traces.length) % traces.length];
+            if (trace == null) {
+                break;
+            }
+            result.add(trace);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the trace with the given id, or null if not found
+     */
+    public Trace getTrace(long id) {
+        for (Trace trace : getTraces()) {
+            if (trace.getId() == id) {
+                return trace;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes all traces from the buffer
+     */
+    public synchronized void clear() {
+        setCapacity(traces.length);
+    }
+
+    /**
+     * Writes down the traces as a JSON array, times being expressed in milliseconds
+     */
+    public static void writeJSON(Collection<Trace> traces, Writer w) throws IOException {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        w.write('[');
+        boolean first = true;
+        for (Trace trace : traces) {
+            if (!first) {
+                w.write(',');
+            }
+            first = false;
+            w.write("{\"id\":");
+            w.write(Long.toString(trace.getId()));
+            w.write(",\"timestamp\":");
+            writeString(w, format.format(trace.getTimestamp()));
+            w.write(",\"root\":");
+            writeSpan(w, trace.getRoot());
+            w.write('}');
+        }
+        w.write(']');
+        w.flush();
+    }
+
+    static void writeSpan(Writer w, Span span) throws IOException {
+        w.write("{\"name\":");
+        writeString(w, span.getName());
+        w.write(",\"start\":");
+        w.write(Double.toString(span.getOffset() / 1e6));
+        w.write(",\"duration\":");
+        long duration = span.getDuration();
+        w.write(duration < 0 ? "null" : Double.toString(duration / 1e6));
+        Map<String, Object> attributes = span.getAttributes();
+        if (!attributes.isEmpty()) {
+            w.write(",\"attributes\":{");
+            boolean first = true;
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                if (!first) {
+                    w.write(',');
+                }
+                first = false;
+                writeString(w, entry.getKey());
+                w.write(':');
+                Object value = entry.getValue();
+                if (value == null) {
+                    w.write("null");
+                } else if (value instanceof Boolean || (value instanceof Number
+                        && !Double.isNaN(((Number) value).doubleValue())
+                        && !Double.isInfinite(((Number) value).doubleValue()))) {
+                    w.write(value.toString());
+                } else {
+                    writeString(w, value.toString());
+                }
+            }
+            w.write('}');
+        }
+        List<Span> children = span.getChildren();
+        if (!children.isEmpty()) {
+            w.write(",\"children\":[");
+            for (int i = 0; i < children.size(); i++) {
+                if (i > 0) {
+                    w.write(',');
+                }
+                writeSpan(w, children.get(i));
+            }
+            w.write(']');
+        }
+        w.write('}');
+    }
+
+    static void writeString(Writer w, String value) throws IOException {
+        if (value == null) {
+            w.write("null");
+            return;
+        }
+        w.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                w.write("\\\"");
+                break;
+            case '\\':
+                w.write("\\\\");
+                break;
+            case '\n':
+                w.write("\\n");
+                break;
+            case '\r':
+                w.write("\\r");
+                break;
+            case '\t':
+                w.write("\\t");
+                break;
+            default:
+                if (c < 0x20) {
+                    w.write(String.format("\\u%04x", (int) c));
+                } else {
+                    w.write(c);
+                }
+            }
+        }
+        w.write('"');
+    }
+}
@@ -0,0 +1,59 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.trace;
+
+/**
+ * Entry point to create {@link Span} objects in the {@link Trace} of the current request, if
+ * any. The trace itself is started and collected by the {@link TraceBuffer}.
+ */
+public class Tracing {
+
+    /**
+     * The current span, public so that it can be transferred to other threads
+     */
+    public static final ThreadLocal<Span> CURRENT = new ThreadLocal<Span>();
+
+    /**
+     * Starts a new span as a child of the current one, and makes it current until it's closed.
+     * Returns {@link Span#NOOP} if the current request is not being traced.
+     */
+    public static Span start(String name) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return Span.NOOP;
+        }
+        Span span = parent.child(name);
+        CURRENT.set(span);
+        return span;
+    }
+
+    /**
+     * Starts a new span as a child of the current one, without making it current, for work that
+     * spans over other operations, e.g., reading data while rendering it. Returns
+     * {@link Span#NOOP} if the current request is not being traced.
+     */
+    public static Span create(String name) {
+        Span parent = CURRENT.get();
+        if (parent == null) {
+            return Span.NOOP;
+        }
+        return parent.child(name);
+    }
+
+    /**
+     * Returns the current span, or {@link Span#NOOP} if the current request is not being traced
+     */
+    public static Span current() {
+        Span span = CURRENT.get();
+        return span == null ? Span.NOOP : span;
+    }
+
+    /**
+     * Returns true if the current request is being traced
+     */
+    public static boolean isActive() {
+        return CURRENT.get() != null;
+    }
+}
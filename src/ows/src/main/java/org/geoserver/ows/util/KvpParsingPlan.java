@@ -0,0 +1,123 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.ows.KvpParser;
+
+/**
+ * The {@link KvpParser} selection for a given service, version and request, resolved once and
+ * reused for all the requests having the same service, version and request.
+ * <p>
+ * Parsing a map with a plan gives the same results as {@link KvpUtils#parse(Map)}, without
+ * looking up, purging and scanning the whole list of parsers for each request and each key.
+ * </p>
+ * <p>
+ * The parsers are captured when the plan is built, so any
+ * {@link org.geoserver.platform.ExtensionFilter} excluding them is evaluated once at that time,
+ * users caching plans should drop them when the available extensions change.
+ * </p>
+ */
+public class KvpParsingPlan {
+
+    /**
+     * The selected parsers, by upper case key. Keys with ambiguous parsers map to the
+     * exception thrown by {@link KvpUtils#findParser}, which is thrown again only if the key is
+     * actually used
+     */
+    final Map<String, Object> parsers;
+
+    /**
+     * Builds a plan for the given service, version and request
+     *
+     * @param parsers all the available parsers
+     * @param service the service parameter (can be null)
+     * @param version the version parameter (can be null)
+     * @param request the request parameter (can be null)
+     */
+    public KvpParsingPlan(List<KvpParser> parsers, String service, String version,
+            String request) {
+        List<KvpParser> candidates = new ArrayList<KvpParser>(parsers);
+        KvpUtils.purgeParsers(candidates, service, version, request);
+
+        Map<String, Object> selected = new HashMap<String, Object>();
+        for (KvpParser candidate : candidates) {
+            String key = candidate.getKey().toUpperCase();
+            if (!selected.containsKey(key)) {
+                try {
+                    selected.put(key, KvpUtils.findParser(key, service, request, version,
+                            candidates));
+                } catch (IllegalStateException e) {
+                    selected.put(key, e);
+                }
+            }
+        }
+        this.parsers = selected;
+    }
+
+    /**
+     * Returns the parser for the given key, or null if there is none
+     *
+     * @throws IllegalStateException if more than one candidate parser is found
+     */
+    public KvpParser getParser(String key) {
+        Object parser = parsers.get(key.toUpperCase());
+        if (parser instanceof IllegalStateException) {
+            throw new IllegalStateException(((IllegalStateException) parser).getMessage());
+        }
+        return (KvpParser) parser;
+    }
+
+    /**
+     * Parses a map of key value pairs, overriding the original values with the parsed ones, see
+     * {@link KvpUtils#parse(Map)}
+     *
+     * @param kvp raw or unparsed kvp.
+     * @return A list of errors that occured.
+     */
+    public List<Throwable> parse(Map kvp) {
+        List<Throwable> errors = null;
+        for (Iterator<Map.Entry<Object, Object>> itr = kvp.entrySet().iterator(); itr.hasNext();) {
+            Map.Entry<Object, Object> entry = itr.next();
+            KvpParser parser = getParser((String) entry.getKey());
+            if (parser == null) {
+                continue;
+            }
+
+            Object parsed = null;
+            try {
+                if (entry.getValue() instanceof String) {
+                    parsed = parser.parse((String) entry.getValue());
+                } else {
+                    String[] values = (String[]) entry.getValue();
+                    List<Object> result = new ArrayList<Object>(values.length);
+                    for (String v : values) {
+                        result.add(parser.parse(v));
+                    }
+                    parsed = result;
+                }
+            } catch (Throwable t) {
+                // dont throw any exceptions yet, before the service is known
+                if (errors == null) {
+                    errors = new ArrayList<Throwable>();
+                }
+                errors.add(t);
+            }
+
+            // the value is left untouched (a String) if the parser failed or returned null
+            if (parsed != null) {
+                entry.setValue(parsed);
+            }
+        }
+
+        return errors == null ? Collections.<Throwable> emptyList() : errors;
+    }
+}
@@ -333,6 +333,10 @@ public class KvpUtils {
 
             if (entry.getValue() instanceof String) {
                 value = trim((String) entry.getValue());
+            } else if (entry.getValue() instanceof String[]
+                    && ((String[]) entry.getValue()).length == 1) {
+                // the common case, no need to check for duplicates
+                value = trim(((String[]) entry.getValue())[0]);
             } else if (entry.getValue() instanceof String[]) {
                 String[] values = (String[]) entry.getValue();
                 // we use a set so that mere value repetition (a common error for which the OWS spec
@@ -353,8 +357,8 @@ public class KvpUtils {
                 }
             }
             
-            //convert key to lowercase 
-            normalizedKvp.put(key.toLowerCase(), value);
+            // the map takes care of the key case
+            normalizedKvp.put(key, value);
         }
         
         return normalizedKvp;
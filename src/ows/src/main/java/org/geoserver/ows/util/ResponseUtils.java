@@ -9,7 +9,9 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URLDecoder;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.Locale;
 import java.util.Map;
 
 import javax.servlet.http.HttpServletRequest;
@@ -486,6 +488,68 @@ public class ResponseUtils {
             throw new RuntimeException("This is unexpected", e);
         }
     }
-    
-    
+
+    /**
+     * Parses a <code>Accept-Encoding</code> header into a map from lower case content coding
+     * (including the <code>*</code> wildcard) to quality value. The <code>x-gzip</code> alias is
+     * reported as <code>gzip</code>, invalid quality values are reported as zero.
+     *
+     * @param acceptEncoding The header value, may be null
+     * @return The accepted codings, an empty map if the header is missing
+     */
+    public static Map<String, Float> parseAcceptEncoding(String acceptEncoding) {
+        Map<String, Float> result = new HashMap<String, Float>();
+        if (acceptEncoding == null) {
+            return result;
+        }
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.split(";");
+            String name = parts[0].trim().toLowerCase(Locale.ENGLISH);
+            if (name.isEmpty()) {
+                continue;
+            }
+            float quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        quality = Float.parseFloat(param.substring(2).trim());
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            // x-gzip is an alias of gzip, see RFC 7230
+            if ("x-gzip".equals(name)) {
+                name = "gzip";
+            }
+            result.put(name, quality);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the quality value the <code>Accept-Encoding</code> header assigns to the given
+     * content coding, falling back on the <code>*</code> wildcard when the coding is not listed.
+     *
+     * @param acceptEncoding The header value, may be null
+     * @param coding The content coding, e.g. <code>gzip</code>
+     * @return The quality value, zero if the coding is not accepted
+     */
+    public static float getEncodingQuality(String acceptEncoding, String coding) {
+        Map<String, Float> accepted = parseAcceptEncoding(acceptEncoding);
+        Float quality = accepted.get(coding.toLowerCase(Locale.ENGLISH));
+        if (quality == null) {
+            quality = accepted.get("*");
+        }
+        return quality != null && quality > 0 ? quality : 0;
+    }
+
+    /**
+     * Returns true if the <code>Accept-Encoding</code> header accepts the given content coding
+     * with a non zero quality value, either explicitly or through the <code>*</code> wildcard
+     */
+    public static boolean acceptsEncoding(String acceptEncoding, String coding) {
+        return getEncodingQuality(acceptEncoding, coding) > 0;
+    }
 }
@@ -20,9 +20,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.lang.reflect.Method;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.mail.internet.InternetHeaders;
 import javax.mail.internet.MimeBodyPart;
@@ -33,6 +42,10 @@ import javax.servlet.http.HttpServletResponse;
 import junit.framework.TestCase;
 
 import org.geoserver.ows.TestDispatcherCallback.Status;
+import org.geoserver.ows.trace.Span;
+import org.geoserver.ows.trace.TraceBuffer;
+import org.geoserver.ows.trace.Tracing;
+import org.geoserver.ows.util.KvpParsingPlan;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.Service;
 import org.geoserver.test.CodeExpectingHttpServletResponse;
@@ -152,6 +165,28 @@ public class DispatcherTest extends TestCase {
         assertEquals(new Message("Hello world!"), message);
     }
 
+    public void testKvpParsingPlans() throws Exception {
+        Dispatcher dispatcher = new Dispatcher();
+
+        Map<String, Object> kvp = new HashMap<String, Object>();
+        kvp.put("service", "hello");
+        kvp.put("request", "Hello");
+        KvpParsingPlan plan = dispatcher.getKvpParsingPlan(kvp);
+
+        // service and request case does not matter
+        kvp.put("service", "HELLO");
+        kvp.put("request", "hello");
+        assertSame(plan, dispatcher.getKvpParsingPlan(kvp));
+        assertEquals(1, dispatcher.kvpParsingPlans.size());
+
+        // bogus requests do not grow the cache past its limit
+        for (int i = 0; i < Dispatcher.MAX_KVP_PARSING_PLANS * 2; i++) {
+            kvp.put("request", "bogus" + i);
+            dispatcher.getKvpParsingPlan(kvp);
+        }
+        assertTrue(dispatcher.kvpParsingPlans.size() <= Dispatcher.MAX_KVP_PARSING_PLANS);
+    }
+
     public void testParseXML() throws Exception {
         URL url = getClass().getResource("applicationContext.xml");
 
@@ -552,6 +587,96 @@ public class DispatcherTest extends TestCase {
         assertEquals(TestDispatcherCallback.Status.FINISHED, callback.dispatcherStatus.get());
     }
     
+    public void testTracing() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        TraceBuffer traces = new TraceBuffer(1, 10, 0);
+        dispatcher.setTraceBuffer(traces);
+
+        MockHttpServletRequest request = setupRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        dispatcher.handleRequest(request, response);
+        assertEquals("Hello world!", response.getContentAsString());
+        assertFalse(Tracing.isActive());
+
+        assertEquals(1, traces.getTraces().size());
+        Span root = traces.getTraces().get(0).getRoot();
+        assertEquals("Hello", root.getAttributes().get("request"));
+        assertTrue(root.getDuration() >= 0);
+        List<String> names = new ArrayList<String>();
+        for (Span span : root.getChildren()) {
+            names.add(span.getName());
+            assertTrue(span.getDuration() >= 0);
+        }
+        assertEquals(Arrays.asList("init", "service", "dispatch", "execute", "response"), names);
+        Span write = root.getChildren().get(4).getChildren().get(0);
+        assertEquals("write", write.getName());
+
+        // not sampled
+        traces.setSampleRate(0);
+        dispatcher.handleRequest(setupRequest(), new MockHttpServletResponse());
+        assertEquals(1, traces.getTraces().size());
+    }
+    
+    public void testAsyncExecution() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        TestDispatcherCallback callback = new TestDispatcherCallback();
+        dispatcher.callbacks.add(callback);
+        final AtomicReference<Thread> executionThread = new AtomicReference<>();
+        dispatcher.callbacks.add(new AbstractDispatcherCallback() {
+            @Override
+            public Object operationExecuted(Request request, Operation operation, Object result) {
+                executionThread.set(Thread.currentThread());
+                return result;
+            }
+        });
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        dispatcher.setAsyncExecutor(executor);
+
+        MockHttpServletRequest request = setupRequest();
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        try {
+            dispatcher.handleRequest(request, response);
+            assertTrue(request.isAsyncStarted());
+        } finally {
+            executor.shutdown();
+            assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        }
+
+        assertFalse(request.isAsyncStarted());
+        assertEquals("Hello world!", response.getContentAsString());
+        assertEquals(TestDispatcherCallback.Status.FINISHED, callback.dispatcherStatus.get());
+        assertNotNull(executionThread.get());
+        assertNotSame(Thread.currentThread(), executionThread.get());
+    }
+
+    public void testAsyncExecutionRejected() throws Exception {
+        URL url = getClass().getResource("applicationContext.xml");
+
+        FileSystemXmlApplicationContext context = new FileSystemXmlApplicationContext(url.toString());
+
+        Dispatcher dispatcher = (Dispatcher) context.getBean("dispatcher");
+        dispatcher.setAsyncExecutor(command -> {
+            throw new RejectedExecutionException();
+        });
+
+        // a saturated executor makes the request run in the calling thread
+        MockHttpServletRequest request = setupRequest();
+        request.setAsyncSupported(true);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        dispatcher.handleRequest(request, response);
+        assertFalse(request.isAsyncStarted());
+        assertEquals("Hello world!", response.getContentAsString());
+    }
+
     public void testDispatcherCallbackFailInit() throws Exception {
         URL url = getClass().getResource("applicationContext.xml");
 
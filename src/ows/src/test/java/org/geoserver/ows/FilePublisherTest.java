@@ -9,8 +9,11 @@ package org.geoserver.ows;
 import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.mock.web.MockServletContext;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,6 +22,8 @@ import org.geoserver.platform.GeoServerResourceLoader;
 import org.junit.AfterClass;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.apache.commons.io.IOUtils;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
@@ -30,6 +35,7 @@ public class FilePublisherTest {
 
     static FilePublisher publisher;
     static List<String[]> paths = new ArrayList<String[]>();
+    static String[] compressedPath;
 
     @BeforeClass
     public static void create() throws Exception {
@@ -41,6 +47,14 @@ public class FilePublisherTest {
         paths.add(create(tmp, "with space", "ascii"));
         paths.add(create(tmp, "with space", "làtîn"));
 
+        // a file with a pre-compressed variant
+        compressedPath = create(tmp, "compressed", "style.css");
+        File compressed = new File(tmp, "compressed/style.css.gz");
+        compressed.deleteOnExit();
+        try (GZIPOutputStream gzout = new GZIPOutputStream(new FileOutputStream(compressed))) {
+            gzout.write("style.css".getBytes("UTF-8"));
+        }
+
         GeoServerResourceLoader loader = new GeoServerResourceLoader(tmp);
         publisher = new FilePublisher(loader);
         publisher.setServletContext(new MockServletContext());
@@ -67,6 +81,11 @@ public class FilePublisherTest {
     }
 
     private MockHttpServletResponse request(String[] path, String modifiedSince) throws Exception {
+        return request(path, modifiedSince, null);
+    }
+
+    private MockHttpServletResponse request(String[] path, String modifiedSince,
+            String acceptEncoding) throws Exception {
         MockHttpServletRequest request = new MockHttpServletRequest();
         request.setContextPath("/geoserver");
         request.setMethod("GET");
@@ -79,6 +98,9 @@ public class FilePublisherTest {
         if (modifiedSince != null) {
             request.addHeader("If-Modified-Since", modifiedSince);
         }
+        if (acceptEncoding != null) {
+            request.addHeader("Accept-Encoding", acceptEncoding);
+        }
         MockHttpServletResponse response = new MockHttpServletResponse();
         publisher.handleRequest(request, response);
         return response;
@@ -114,4 +136,32 @@ public class FilePublisherTest {
         }
     }
 
+    @Test
+    public void testPreCompressedVariant() throws Exception {
+        MockHttpServletResponse response = request(compressedPath, null, "gzip, deflate");
+        assertEquals(200, response.getStatus());
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        assertEquals("Accept-Encoding", response.getHeader("Vary"));
+        assertNotNull(response.getHeader("Last-Modified"));
+        byte[] contents = response.getContentAsByteArray();
+        assertEquals(contents.length, response.getContentLength());
+        try (GZIPInputStream gzin = new GZIPInputStream(new ByteArrayInputStream(contents))) {
+            assertEquals("style.css", IOUtils.toString(gzin, "UTF-8"));
+        }
+
+        // gzip not accepted, the plain file is returned
+        response = request(compressedPath, null, "gzip;q=0, deflate");
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("style.css", response.getContentAsString());
+        response = request(compressedPath, null, null);
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("style.css", response.getContentAsString());
+
+        // gzip accepted through the wildcard, unless explicitly refused
+        response = request(compressedPath, null, "*;q=0.5");
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        response = request(compressedPath, null, "gzip;q=0, *");
+        assertNull(response.getHeader("Content-Encoding"));
+    }
+
 }
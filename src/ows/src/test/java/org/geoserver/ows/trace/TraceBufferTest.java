@@ -0,0 +1,122 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.trace;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class TraceBufferTest {
+
+    @After
+    public void cleanup() {
+        Tracing.CURRENT.remove();
+    }
+
+    @Test
+    public void testNoTrace() {
+        assertFalse(Tracing.isActive());
+        Span span = Tracing.start("test");
+        assertSame(Span.NOOP, span);
+        assertFalse(span.isRecording());
+        span.attribute("a", 1).close();
+        assertTrue(span.getAttributes().isEmpty());
+        assertFalse(Tracing.isActive());
+    }
+
+    @Test
+    public void testSampling() {
+        TraceBuffer buffer = new TraceBuffer(0, 10, 0);
+        assertNull(buffer.start("request"));
+        assertFalse(Tracing.isActive());
+
+        buffer.setSampleRate(1);
+        Trace trace = buffer.start("request");
+        assertTrue(Tracing.isActive());
+        buffer.end(trace);
+        assertFalse(Tracing.isActive());
+        assertEquals(Arrays.asList(trace), buffer.getTraces());
+    }
+
+    @Test
+    public void testNesting() {
+        TraceBuffer buffer = new TraceBuffer(1, 10, 0);
+        Trace trace = buffer.start("request");
+        try (Span outer = Tracing.start("outer")) {
+            outer.attribute("layers", 2);
+            try (Span inner = Tracing.start("inner")) {
+                assertSame(inner, Tracing.current());
+            }
+            assertSame(outer, Tracing.current());
+            // detached spans do not become current
+            Span detached = Tracing.create("query");
+            assertSame(outer, Tracing.current());
+            detached.close();
+        }
+        assertSame(trace.getRoot(), Tracing.current());
+        buffer.end(trace);
+
+        Span outer = trace.getRoot().getChildren().get(0);
+        assertEquals("outer", outer.getName());
+        assertEquals(2, outer.getAttributes().get("layers"));
+        assertEquals(2, outer.getChildren().size());
+        assertEquals("inner", outer.getChildren().get(0).getName());
+        assertEquals("query", outer.getChildren().get(1).getName());
+        assertTrue(outer.getOffset() >= 0);
+        assertTrue(outer.getDuration() <= trace.getDuration());
+    }
+
+    @Test
+    public void testBufferBounded() {
+        TraceBuffer buffer = new TraceBuffer(1, 3, 0);
+        for (int i = 0; i < 5; i++) {
+            buffer.end(buffer.start("request"));
+        }
+        assertEquals(3, buffer.getTraces().size());
+        // newest first
+        assertEquals(5, buffer.getTraces().get(0).getId());
+        assertEquals(3, buffer.getTraces().get(2).getId());
+        assertNull(buffer.getTrace(2));
+        assertEquals(4, buffer.getTrace(4).getId());
+
+        buffer.clear();
+        assertTrue(buffer.getTraces().isEmpty());
+    }
+
+    @Test
+    public void testMinDuration() {
+        TraceBuffer buffer = new TraceBuffer(1, 3, 60000);
+        buffer.end(buffer.start("request"));
+        assertTrue(buffer.getTraces().isEmpty());
+    }
+
+    @Test
+    public void testJSON() throws Exception {
+        TraceBuffer buffer = new TraceBuffer(1, 3, 0);
+        Trace trace = buffer.start("request");
+        try (Span span = Tracing.start("paint")) {
+            span.attribute("width", 256).attribute("filter", "name = \"a\"\n");
+        }
+        buffer.end(trace);
+
+        StringWriter writer = new StringWriter();
+        TraceBuffer.writeJSON(Collections.singletonList(trace), writer);
+        String json = writer.toString();
+        assertTrue(json, json.startsWith("[{\"id\":" + trace.getId() + ",\"timestamp\":\""));
+        assertTrue(json, json.contains("\"root\":{\"name\":\"request\",\"start\":0.0,"));
+        assertTrue(json, json.contains(
+                "\"attributes\":{\"width\":256,\"filter\":\"name = \\\"a\\\"\\n\"}"));
+        assertTrue(json, json.endsWith("}]}}]"));
+    }
+}
@@ -0,0 +1,88 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.geoserver.ows.KvpParser;
+import org.geoserver.ows.kvp.BooleanKvpParser;
+import org.geoserver.ows.kvp.IntegerKvpParser;
+import org.junit.Test;
+
+public class KvpParsingPlanTest {
+
+    @Test
+    public void testParserSelection() {
+        IntegerKvpParser width = new IntegerKvpParser("width");
+        IntegerKvpParser wfsMaxFeatures = new IntegerKvpParser("maxFeatures");
+        wfsMaxFeatures.setService("WFS");
+        IntegerKvpParser genericMaxFeatures = new IntegerKvpParser("maxFeatures");
+        List<KvpParser> parsers = Arrays.<KvpParser> asList(width, wfsMaxFeatures,
+                genericMaxFeatures);
+
+        KvpParsingPlan wms = new KvpParsingPlan(parsers, "WMS", "1.1.1", "GetMap");
+        assertSame(width, wms.getParser("WIDTH"));
+        assertSame(width, wms.getParser("width"));
+        assertSame(genericMaxFeatures, wms.getParser("maxfeatures"));
+        assertNull(wms.getParser("height"));
+
+        // the service specific parser is the closest match
+        KvpParsingPlan wfs = new KvpParsingPlan(parsers, "wfs", "1.0.0", "GetFeature");
+        assertSame(wfsMaxFeatures, wfs.getParser("MAXFEATURES"));
+    }
+
+    @Test
+    public void testAmbiguousParsers() {
+        List<KvpParser> parsers = Arrays.<KvpParser> asList(new IntegerKvpParser("width"),
+                serviceParser(new IntegerKvpParser("dpi")), serviceParser(
+                        new IntegerKvpParser("dpi")));
+        KvpParsingPlan plan = new KvpParsingPlan(parsers, "WMS", null, null);
+        // not a problem until the key is actually used
+        assertTrue(plan.getParser("width") instanceof IntegerKvpParser);
+        try {
+            plan.getParser("dpi");
+            fail("Should have failed, two parsers match");
+        } catch (IllegalStateException e) {
+            // fine
+        }
+    }
+
+    KvpParser serviceParser(KvpParser parser) {
+        parser.setService("WMS");
+        return parser;
+    }
+
+    @Test
+    public void testParse() {
+        List<KvpParser> parsers = Arrays.<KvpParser> asList(new IntegerKvpParser("width"),
+                new BooleanKvpParser("transparent"));
+        KvpParsingPlan plan = new KvpParsingPlan(parsers, "WMS", "1.1.1", "GetMap");
+
+        Map<String, Object> kvp = new KvpMap();
+        kvp.put("width", "256");
+        kvp.put("transparent", new String[] { "true", "false" });
+        kvp.put("layers", "topp:states");
+        assertTrue(plan.parse(kvp).isEmpty());
+        assertEquals(256, kvp.get("WIDTH"));
+        assertEquals(Arrays.asList(true, false), kvp.get("TRANSPARENT"));
+        assertEquals("topp:states", kvp.get("LAYERS"));
+
+        // errors are collected, the value is left untouched
+        kvp = new HashMap<>();
+        kvp.put("WIDTH", "abc");
+        List<Throwable> errors = plan.parse(kvp);
+        assertEquals(1, errors.size());
+        assertEquals("abc", kvp.get("WIDTH"));
+    }
+}
@@ -0,0 +1,44 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.ows.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ResponseUtilsTest {
+
+    @Test
+    public void testParseAcceptEncoding() {
+        Map<String, Float> accepted = ResponseUtils
+                .parseAcceptEncoding("GZIP;q=0.8, deflate , br;Q=0.1, *;q=0, x-foo;q=bad");
+        assertEquals(5, accepted.size());
+        assertEquals(0.8f, accepted.get("gzip"), 0f);
+        assertEquals(1f, accepted.get("deflate"), 0f);
+        assertEquals(0.1f, accepted.get("br"), 0f);
+        assertEquals(0f, accepted.get("*"), 0f);
+        assertEquals(0f, accepted.get("x-foo"), 0f);
+
+        assertEquals(1f, ResponseUtils.parseAcceptEncoding("x-gzip").get("gzip"), 0f);
+        assertTrue(ResponseUtils.parseAcceptEncoding(null).isEmpty());
+        assertTrue(ResponseUtils.parseAcceptEncoding(" , ").isEmpty());
+    }
+
+    @Test
+    public void testAcceptsEncoding() {
+        assertTrue(ResponseUtils.acceptsEncoding("gzip, deflate", "gzip"));
+        assertTrue(ResponseUtils.acceptsEncoding("x-gzip", "gzip"));
+        assertTrue(ResponseUtils.acceptsEncoding("deflate, *;q=0.1", "gzip"));
+        assertFalse(ResponseUtils.acceptsEncoding("gzip;q=0", "gzip"));
+        assertFalse(ResponseUtils.acceptsEncoding("gzip;q=0, *", "gzip"));
+        assertFalse(ResponseUtils.acceptsEncoding("deflate", "gzip"));
+        assertFalse(ResponseUtils.acceptsEncoding(null, "gzip"));
+        assertEquals(0.5f, ResponseUtils.getEncodingQuality("*;q=0.5", "gzip"), 0f);
+    }
+}
@@ -0,0 +1,96 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.platform;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Tracks how often {@link GeoServerExtensions} lookups are served from the precomputed
+ * extensions, and how often they take the slow path, by extension point. Extension points
+ * taking the slow path over and over are either using prototype beans or
+ * {@link ExtensionProvider}, or are looked up in a context other than the default one.
+ */
+public class ExtensionLookupStatistics implements ExtensionLookupStatisticsMBean {
+
+    final LongAdder registryHits = new LongAdder();
+
+    final LongAdder slowLookups = new LongAdder();
+
+    final Map<String, LongAdder> slowLookupsByPoint = new ConcurrentHashMap<>();
+
+    void recordSlowLookup(Class<?> extensionPoint) {
+        slowLookups.increment();
+        slowLookupsByPoint.computeIfAbsent(extensionPoint.getName(), k -> new LongAdder())
+                .increment();
+    }
+
+    @Override
+    public long getRegistryHitCount() {
+        return registryHits.sum();
+    }
+
+    @Override
+    public long getSlowLookupCount() {
+        return slowLookups.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getRegistryHitCount();
+        long total = hits + getSlowLookupCount();
+        return total == 0 ? 1d : (double) hits / total;
+    }
+
+    @Override
+    public Map<String, Long> getSlowLookups() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, LongAdder> entry : slowLookupsByPoint.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public int getRegistrySize() {
+        return GeoServerExtensions.extensionsRegistry.size();
+    }
+
+    @Override
+    public void reset() {
+        registryHits.reset();
+        slowLookups.reset();
+        slowLookupsByPoint.clear();
+    }
+
+    /**
+     * Registers the statistics in the platform MBean server
+     */
+    void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.geoserver:type=ExtensionLookup");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(this, name);
+            }
+        } catch (Exception e) {
+            GeoServerExtensions.LOGGER.log(Level.WARNING,
+                    "Could not register the extension lookup statistics", e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ExtensionLookupStatistics[hits: " + getRegistryHitCount() + ", slow lookups: "
+                + getSlowLookupCount() + "]";
+    }
+}
@@ -0,0 +1,43 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.platform;
+
+import java.util.Map;
+
+/**
+ * JMX management interface for the {@link GeoServerExtensions} lookup statistics.
+ */
+public interface ExtensionLookupStatisticsMBean {
+
+    /**
+     * Number of lookups served from the precomputed extensions
+     */
+    long getRegistryHitCount();
+
+    /**
+     * Number of lookups that went to the application context, extension providers and SPI
+     */
+    long getSlowLookupCount();
+
+    /**
+     * Ratio between the registry hits and the total lookups, or 1 if no lookup was performed yet
+     */
+    double getHitRatio();
+
+    /**
+     * Number of slow lookups, by extension point class name
+     */
+    Map<String, Long> getSlowLookups();
+
+    /**
+     * Number of extension points currently in the registry
+     */
+    int getRegistrySize();
+
+    /**
+     * Resets all counters
+     */
+    void reset();
+}
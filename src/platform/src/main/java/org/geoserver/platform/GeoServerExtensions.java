@@ -15,6 +15,7 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -29,6 +30,8 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationContextAware;
 import org.springframework.context.ApplicationEvent;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.web.context.WebApplicationContext;
 
@@ -79,6 +82,21 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
      * SPI lookups are very  expensive, we need to cache them
      */
     static SoftValueHashMap<Class, List<Object>> spiCache = new SoftValueHashMap<Class, List<Object>>(40);
+
+    /**
+     * The sorted, unfiltered extensions of each extension point looked up in the default context,
+     * for the extension points whose extensions can only change when the context is refreshed
+     * (all singletons, no {@link ExtensionProvider} involved)
+     */
+    static ConcurrentHashMap<Class, Extensions> extensionsRegistry = new ConcurrentHashMap<Class, Extensions>();
+
+    /**
+     * Incremented each time the registry is cleared, so that lookups running in parallel with a
+     * clear do not store stale results
+     */
+    static final AtomicLong registryGeneration = new AtomicLong();
+
+    static final ExtensionLookupStatistics statistics = new ExtensionLookupStatistics();
     
     /**
      * Flag to identify use of spring context via {@link #setApplicationContext(ApplicationContext)} an
@@ -110,6 +128,18 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
         extensionsCache.clear();
         singletonBeanCache.clear();
         propertyCache.clear();
+        clearRegistry();
+        if (context != null) {
+            statistics.register();
+        }
+    }
+
+    /**
+     * Clears the precomputed extensions
+     */
+    static void clearRegistry() {
+        registryGeneration.incrementAndGet();
+        extensionsRegistry.clear();
     }
 
     /**
@@ -122,41 +152,95 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
      */
     @SuppressWarnings("unchecked")
     public static final <T> List<T> extensions(Class<T> extensionPoint, ApplicationContext context) {
-        Collection<String> names;
-        names = extensionNames(extensionPoint, context);
-        
-        // lookup extension filters preventing recursion
+        boolean registryEnabled = isSpringContext && context != null
+                && context == GeoServerExtensions.context;
+        Extensions extensions = registryEnabled ? extensionsRegistry.get(extensionPoint) : null;
+        if (extensions != null) {
+            statistics.registryHits.increment();
+        } else {
+            statistics.recordSlowLookup(extensionPoint);
+            long generation = registryGeneration.get();
+            extensions = lookupExtensions(extensionPoint, context);
+            if (registryEnabled && extensions.cacheable && !isClosed(context)
+                    && generation == registryGeneration.get()) {
+                extensionsRegistry.put(extensionPoint, extensions);
+            }
+        }
+
+        // lookup extension filters preventing recursion. Filters are applied on each call, an
+        // extension filter can change its mind from call to call
         List<ExtensionFilter> filters;
         if(ExtensionFilter.class.isAssignableFrom(extensionPoint)) {
             filters = Collections.emptyList();
         } else {
             filters = extensions(ExtensionFilter.class, context);
         }
-        
+
+        List<T> result = new ArrayList<T>(extensions.beans.length);
+        for (int i = 0; i < extensions.beans.length; i++) {
+            Object bean = extensions.beans[i];
+            if (filters.isEmpty() || !excludeBean(extensions.names[i], bean, filters)) {
+                result.add((T) bean);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The extensions of an extension point, sorted by {@link ExtensionPriority}, along with their
+     * bean names (null for extensions not coming from the application context)
+     */
+    static final class Extensions {
+        final String[] names;
+
+        final Object[] beans;
+
+        final boolean cacheable;
+
+        Extensions(String[] names, Object[] beans, boolean cacheable) {
+            this.names = names;
+            this.beans = beans;
+            this.cacheable = cacheable;
+        }
+    }
+
+    /**
+     * Looks up the extensions in the application context, in the extension providers and in
+     * the SPI registry, without filtering them
+     */
+    static <T> Extensions lookupExtensions(Class<T> extensionPoint, ApplicationContext context) {
+        final List<String> names = new ArrayList<String>();
+        final List<Object> beans = new ArrayList<Object>();
+        boolean cacheable = true;
+
         // look up all the beans
-        List<T> result = new ArrayList<T>(names.size());
-        for(String name : names) {
+        for(String name : extensionNames(extensionPoint, context)) {
             Object bean = getBean(context, name);
-            if(!excludeBean(name, bean, filters))
-                result.add( (T) bean);
+            if (context == null || !context.isSingleton(name)) {
+                cacheable = false;
+            }
+            names.add(name);
+            beans.add(bean);
         }
-        
-        // load from secondary extension providers
+
+        // load from secondary extension providers, these are dynamic
         if (!ExtensionProvider.class.isAssignableFrom(extensionPoint) && 
             !ExtensionFilter.class.isAssignableFrom(extensionPoint)) {
             
-            List<Object> secondary = new ArrayList<Object>();
             for (ExtensionProvider xp : extensions(ExtensionProvider.class, context)) {
                 try {
                     if (extensionPoint.isAssignableFrom(xp.getExtensionPoint())) {
-                        secondary.addAll(xp.getExtensions(extensionPoint));
+                        cacheable = false;
+                        for (Object bean : xp.getExtensions(extensionPoint)) {
+                            names.add(null);
+                            beans.add(bean);
+                        }
                     }
                 }
                 catch(Exception e) {
                     LOGGER.log(Level.WARNING, "Extension provider threw exception", e);
                 }
             }
-            filter(secondary, filters, result);
         }
         
         // load from factory spi
@@ -169,27 +253,49 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
             }
             spiCache.put(extensionPoint, spiExtensions);
         }
-        // filter the beans coming from SPI (we don't cache the results
-        // of the filtering, an extension filter can change its mind 
-        // from call to call
-        filter(spiExtensions, filters, result);
+        for (Object bean : spiExtensions) {
+            names.add(null);
+            beans.add(bean);
+        }
         
-        //sort the results based on ExtensionPriority
-        Collections.sort( result, new Comparator<Object>() {
-            public int compare(Object o1, Object o2) {
-                int p1 = ExtensionPriority.LOWEST;
-                if ( o1 instanceof ExtensionPriority ) {
-                    p1 = ((ExtensionPriority)o1).getPriority();
-                }
-                int p2 = ExtensionPriority.LOWEST;
-                if ( o2 instanceof ExtensionPriority ) {
-                    p2 = ((ExtensionPriority)o2).getPriority();
-                }
-                return p1 - p2;
+        //sort the results based on ExtensionPriority (the sort is stable, so filtering the
+        // sorted list gives the same result as sorting the filtered one)
+        Integer[] order = new Integer[beans.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer i1, Integer i2) {
+                return getPriority(beans.get(i1)) - getPriority(beans.get(i2));
             }
         });
+        String[] sortedNames = new String[order.length];
+        Object[] sortedBeans = new Object[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedNames[i] = names.get(order[i]);
+            sortedBeans[i] = beans.get(order[i]);
+        }
         
-        return result;
+        return new Extensions(sortedNames, sortedBeans, cacheable);
+    }
+
+    static int getPriority(Object extension) {
+        if (extension instanceof ExtensionPriority) {
+            return ((ExtensionPriority) extension).getPriority();
+        }
+        return ExtensionPriority.LOWEST;
+    }
+
+    static boolean isClosed(ApplicationContext context) {
+        return context instanceof ConfigurableApplicationContext
+                && !((ConfigurableApplicationContext) context).isActive();
+    }
+
+    /**
+     * Returns the extension lookup statistics
+     */
+    public static ExtensionLookupStatistics getStatistics() {
+        return statistics;
     }
     
     public static <T> Collection<String> extensionNames(Class<T> extensionPoint) {
@@ -243,13 +349,6 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
         return bean;
     }
 
-    private static void filter(List objects, List<ExtensionFilter> filters, List result) {
-        for (Object bean : objects) {
-            if(!excludeBean(null, bean, filters))
-                result.add(bean);
-        }
-    }
-    
     /**
      * Returns true if any of the {@link ExtensionFilter} asks to exclude the bean
      */
@@ -379,6 +478,9 @@ public class GeoServerExtensions implements ApplicationContextAware, Application
         if(event instanceof ContextRefreshedEvent) { 
             extensionsCache.clear();
             singletonBeanCache.clear();
+            clearRegistry();
+        } else if (event instanceof ContextClosedEvent) {
+            clearRegistry();
         }
     }
     
@@ -25,6 +25,7 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.context.ApplicationContext;
+import org.springframework.context.event.ContextRefreshedEvent;
 
 /**
  * Unit test suite for {@link GeoServerExtensions}
@@ -135,6 +136,60 @@ public class GeoServerExtensionsTest {
         verify(customAppContext);
     }
     
+    @Test
+    public void testExtensionsRegistry() {
+        ApplicationContext appContext = createNiceMock(ApplicationContext.class);
+        ExtensionPriority low = () -> ExtensionPriority.LOWEST;
+        ExtensionPriority high = () -> ExtensionPriority.HIGHEST;
+        expect(appContext.getBeanNamesForType(ExtensionPriority.class))
+                .andReturn(new String[] { "low", "high" }).anyTimes();
+        expect(appContext.getBean("low")).andReturn(low).anyTimes();
+        expect(appContext.getBean("high")).andReturn(high).anyTimes();
+        expect(appContext.isSingleton((String) anyObject())).andReturn(true).anyTimes();
+        replay(appContext);
+
+        GeoServerExtensions gse = new GeoServerExtensions();
+        gse.setApplicationContext(appContext);
+        ExtensionLookupStatistics statistics = GeoServerExtensions.getStatistics();
+        statistics.reset();
+
+        List<ExtensionPriority> extensions = GeoServerExtensions.extensions(ExtensionPriority.class);
+        assertEquals(Arrays.asList(high, low), extensions);
+        assertTrue(GeoServerExtensions.extensionsRegistry.containsKey(ExtensionPriority.class));
+        long slowLookups = statistics.getSlowLookupCount();
+        assertEquals(Long.valueOf(1),
+                statistics.getSlowLookups().get(ExtensionPriority.class.getName()));
+
+        // second lookup served from the registry, and still a list the caller can modify
+        extensions = GeoServerExtensions.extensions(ExtensionPriority.class);
+        assertEquals(Arrays.asList(high, low), extensions);
+        extensions.clear();
+        assertEquals(2, GeoServerExtensions.extensions(ExtensionPriority.class).size());
+        assertEquals(slowLookups, statistics.getSlowLookupCount());
+        assertTrue(statistics.getRegistryHitCount() > 0);
+
+        // a refresh clears the registry
+        gse.onApplicationEvent(new ContextRefreshedEvent(appContext));
+        assertTrue(GeoServerExtensions.extensionsRegistry.isEmpty());
+    }
+
+    @Test
+    public void testExtensionsRegistryPrototype() {
+        ApplicationContext appContext = createNiceMock(ApplicationContext.class);
+        expect(appContext.getBeanNamesForType(GeoServerExtensionsTest.class))
+                .andReturn(new String[] { "prototype" }).anyTimes();
+        expect(appContext.getBean("prototype")).andReturn(this).anyTimes();
+        expect(appContext.isSingleton("prototype")).andReturn(false).anyTimes();
+        replay(appContext);
+
+        GeoServerExtensions gse = new GeoServerExtensions();
+        gse.setApplicationContext(appContext);
+
+        // prototype beans have to be looked up each time
+        assertEquals(1, GeoServerExtensions.extensions(GeoServerExtensionsTest.class).size());
+        assertFalse(GeoServerExtensions.extensionsRegistry.containsKey(GeoServerExtensionsTest.class));
+    }
+
     @Test
     public void testExtensionFilterByName() {
         ApplicationContext appContext = createNiceMock(ApplicationContext.class);
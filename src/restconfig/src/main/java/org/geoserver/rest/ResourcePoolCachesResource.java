@@ -0,0 +1,39 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.geoserver.catalog.Catalog;
+import org.geoserver.catalog.ResourceCacheStatistics;
+
+/**
+ * Returns the hit, miss, eviction and load time statistics of the
+ * {@link org.geoserver.catalog.ResourcePool} caches
+ */
+public class ResourcePoolCachesResource extends MapResource {
+
+    Catalog catalog;
+
+    public ResourcePoolCachesResource(Catalog catalog) {
+        this.catalog = catalog;
+    }
+
+    @Override
+    public Map getMap() throws Exception {
+        Map<String, ResourceCacheStatistics> statistics = catalog.getResourcePool()
+                .getCacheStatistics();
+
+        Map<String, Object> caches = new TreeMap<>();
+        for (ResourceCacheStatistics stats : statistics.values()) {
+            caches.put(stats.getName(), stats.toMap());
+        }
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("caches", caches);
+        return map;
+    }
+}
@@ -0,0 +1,39 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.rest;
+
+import static org.junit.Assert.*;
+
+import org.geoserver.test.GeoServerSystemTestSupport;
+import org.junit.Test;
+import org.w3c.dom.Document;
+
+import net.sf.json.JSON;
+import net.sf.json.JSONObject;
+
+public class ResourcePoolCachesTest extends GeoServerSystemTestSupport {
+
+    @Test
+    public void testGetAsXML() throws Exception {
+        Document dom = getAsDOM("/rest/resourcepool/caches.xml");
+
+        assertNotNull(getFirstElementByTagName(dom, "caches"));
+        assertNotNull(getFirstElementByTagName(dom, "dataStore"));
+        assertNotNull(getFirstElementByTagName(dom, "featureType"));
+    }
+
+    @Test
+    public void testGetAsJSON() throws Exception {
+        JSON json = getAsJSON("/rest/resourcepool/caches.json");
+
+        assertTrue(json instanceof JSONObject);
+        JSONObject caches = ((JSONObject) json).getJSONObject("caches");
+        JSONObject dataStore = caches.getJSONObject("dataStore");
+        assertTrue(dataStore.has("hits"));
+        assertTrue(dataStore.has("misses"));
+        assertTrue(dataStore.has("evictions"));
+        assertTrue(dataStore.has("averageLoadTime"));
+    }
+}
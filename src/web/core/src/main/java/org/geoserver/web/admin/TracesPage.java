@@ -0,0 +1,162 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.web.admin;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.NumberTextField;
+import org.apache.wicket.markup.html.form.SubmitLink;
+import org.apache.wicket.markup.html.form.TextArea;
+import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.markup.html.link.Link;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.handler.resource.ResourceStreamRequestHandler;
+import org.apache.wicket.request.resource.ContentDisposition;
+import org.apache.wicket.util.resource.AbstractStringResourceStream;
+import org.apache.wicket.util.resource.IResourceStream;
+import org.apache.wicket.validation.validator.RangeValidator;
+import org.geoserver.ows.trace.Span;
+import org.geoserver.ows.trace.Trace;
+import org.geoserver.ows.trace.TraceBuffer;
+import org.geoserver.web.GeoServerSecuredPage;
+
+/**
+ * Shows the last request traces collected by the {@link TraceBuffer}, and allows to change the
+ * sampling configuration
+ */
+public class TracesPage extends GeoServerSecuredPage {
+    private static final long serialVersionUID = -2284367813487541716L;
+
+    double sampleRate;
+
+    long minDuration;
+
+    int capacity;
+
+    @SuppressWarnings("serial")
+    public TracesPage() {
+        TraceBuffer buffer = getTraceBuffer();
+        sampleRate = buffer.getSampleRate();
+        minDuration = buffer.getMinDuration();
+        capacity = buffer.getCapacity();
+
+        Form<?> form = new Form<Void>("form");
+        add(form);
+
+        // a text field, the number one would force a step of 1 in the browsers
+        TextField<Double> sampleRate = new TextField<Double>("sampleRate",
+                new PropertyModel<Double>(this, "sampleRate"), Double.class);
+        sampleRate.add(RangeValidator.range(0d, 1d));
+        form.add(sampleRate);
+        NumberTextField<Long> minDuration = new NumberTextField<Long>("minDuration",
+                new PropertyModel<Long>(this, "minDuration"), Long.class);
+        minDuration.add(RangeValidator.minimum(0L));
+        form.add(minDuration);
+        NumberTextField<Integer> capacity = new NumberTextField<Integer>("capacity",
+                new PropertyModel<Integer>(this, "capacity"), Integer.class);
+        capacity.add(RangeValidator.minimum(1));
+        form.add(capacity);
+
+        form.add(new SubmitLink("apply") {
+            @Override
+            public void onSubmit() {
+                TraceBuffer buffer = getTraceBuffer();
+                buffer.setSampleRate(TracesPage.this.sampleRate);
+                buffer.setMinDuration(TracesPage.this.minDuration);
+                if (buffer.getCapacity() != TracesPage.this.capacity) {
+                    buffer.setCapacity(TracesPage.this.capacity);
+                }
+                setResponsePage(TracesPage.class);
+            }
+        });
+        form.add(new SubmitLink("clear") {
+            @Override
+            public void onSubmit() {
+                getTraceBuffer().clear();
+                setResponsePage(TracesPage.class);
+            }
+        });
+
+        TextArea<String> traces = new TextArea<String>("traces", new TracesModel());
+        add(traces);
+
+        add(new Link<Object>("download") {
+
+            @Override
+            public void onClick() {
+                final List<Trace> traces = getTraceBuffer().getTraces();
+                IResourceStream stream = new AbstractStringResourceStream("application/json") {
+                    @Override
+                    protected String getString() {
+                        StringWriter writer = new StringWriter();
+                        try {
+                            TraceBuffer.writeJSON(traces, writer);
+                        } catch (IOException e) {
+                            // cannot happen with a string writer
+                            throw new RuntimeException(e);
+                        }
+                        return writer.toString();
+                    }
+                };
+                ResourceStreamRequestHandler handler = new ResourceStreamRequestHandler(stream,
+                        "traces.json");
+                handler.setContentDisposition(ContentDisposition.ATTACHMENT);
+
+                RequestCycle.get().scheduleRequestHandlerAfterCurrent(handler);
+            }
+        });
+    }
+
+    TraceBuffer getTraceBuffer() {
+        return getGeoServerApplication().getBeanOfType(TraceBuffer.class);
+    }
+
+    /**
+     * Formats the traces as indented span trees
+     */
+    class TracesModel extends LoadableDetachableModel<String> {
+        private static final long serialVersionUID = 3806254347395891633L;
+
+        @Override
+        protected String load() {
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+            StringBuilder sb = new StringBuilder();
+            for (Trace trace : getTraceBuffer().getTraces()) {
+                sb.append('#').append(trace.getId()).append(' ')
+                        .append(format.format(trace.getTimestamp())).append(' ');
+                append(sb, trace.getRoot(), 0);
+                sb.append('\n');
+            }
+            return sb.toString();
+        }
+
+        void append(StringBuilder sb, Span span, int depth) {
+            for (int i = 0; i < depth; i++) {
+                sb.append("  ");
+            }
+            sb.append(span.getName());
+            long duration = span.getDuration();
+            sb.append(' ').append(duration < 0 ? "running"
+                    : String.format(Locale.ENGLISH, "%.3fms", duration / 1e6));
+            for (Map.Entry<String, Object> entry : span.getAttributes().entrySet()) {
+                if (entry.getValue() != null) {
+                    sb.append(' ').append(entry.getKey()).append('=').append(entry.getValue());
+                }
+            }
+            sb.append('\n');
+            for (Span child : span.getChildren()) {
+                append(sb, child, depth + 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.web.admin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.wicket.util.tester.FormTester;
+import org.geoserver.ows.trace.Span;
+import org.geoserver.ows.trace.Trace;
+import org.geoserver.ows.trace.TraceBuffer;
+import org.geoserver.ows.trace.Tracing;
+import org.geoserver.web.GeoServerWicketTestSupport;
+import org.junit.After;
+import org.junit.Test;
+
+public class TracesPageTest extends GeoServerWicketTestSupport {
+
+    @After
+    public void resetBuffer() {
+        TraceBuffer buffer = getTraceBuffer();
+        buffer.setSampleRate(0);
+        buffer.setMinDuration(0);
+        buffer.setCapacity(100);
+    }
+
+    TraceBuffer getTraceBuffer() {
+        return getGeoServerApplication().getBeanOfType(TraceBuffer.class);
+    }
+
+    @Test
+    public void testShowTraces() {
+        TraceBuffer buffer = getTraceBuffer();
+        buffer.setSampleRate(1);
+        Trace trace = buffer.start("Dispatcher");
+        try (Span span = Tracing.start("paint")) {
+            span.attribute("width", 256);
+        }
+        buffer.end(trace);
+
+        login();
+        tester.startPage(TracesPage.class);
+        tester.assertRenderedPage(TracesPage.class);
+        String traces = tester.getComponentFromLastRenderedPage("traces")
+                .getDefaultModelObjectAsString();
+        assertTrue(traces, traces.contains("#" + trace.getId()));
+        assertTrue(traces, traces.contains("  paint "));
+        assertTrue(traces, traces.contains("width=256"));
+    }
+
+    @Test
+    public void testApply() {
+        login();
+        tester.startPage(TracesPage.class);
+        FormTester form = tester.newFormTester("form");
+        form.setValue("sampleRate", "0.5");
+        form.setValue("minDuration", "100");
+        form.setValue("capacity", "20");
+        form.submitLink("apply", false);
+        tester.assertRenderedPage(TracesPage.class);
+
+        TraceBuffer buffer = getTraceBuffer();
+        assertEquals(0.5, buffer.getSampleRate(), 0d);
+        assertEquals(100, buffer.getMinDuration());
+        assertEquals(20, buffer.getCapacity());
+    }
+}
@@ -7,10 +7,13 @@ package org.geoserver.wfs;
 
 import static org.custommonkey.xmlunit.XMLAssert.assertXpathEvaluatesTo;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.servlet.Filter;
 import javax.xml.namespace.QName;
@@ -19,6 +22,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import org.apache.commons.codec.binary.Base64;
 import org.custommonkey.xmlunit.exceptions.XpathException;
 import org.geoserver.data.test.SystemTestData;
+import org.geoserver.ows.Dispatcher;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.security.AccessMode;
 import org.geoserver.security.CatalogMode;
@@ -74,6 +78,32 @@ public class SecuredGetFeatureTest extends WFSTestSupport {
         assertEquals("Basic realm=\"GeoServer Realm\"", resp.getHeader("WWW-Authenticate"));
     }
     
+    @Test
+    public void testGetNoAuthChallengeAsync() throws Exception {
+        DataAccessRuleDAO dao = GeoServerExtensions.bean(DataAccessRuleDAO.class, applicationContext);
+        dao.setCatalogMode(CatalogMode.CHALLENGE);
+        dao.storeRules();
+
+        // the request is detached from the filter chain, the challenge has to be sent anyways
+        Dispatcher dispatcher = (Dispatcher) GeoServerExtensions.bean("dispatcher");
+        Executor previous = dispatcher.getAsyncExecutor();
+        AtomicBoolean executed = new AtomicBoolean();
+        dispatcher.setAsyncExecutor(command -> {
+            executed.set(true);
+            command.run();
+        });
+        try {
+            MockHttpServletRequest request = createRequest("wfs?request=GetFeature&version=1.0.0&service=wfs&typeName=" + getLayerId(SystemTestData.BUILDINGS));
+            request.setAsyncSupported(true);
+            MockHttpServletResponse resp = dispatch(request);
+            assertTrue(executed.get());
+            assertEquals(401, resp.getStatus());
+            assertEquals("Basic realm=\"GeoServer Realm\"", resp.getHeader("WWW-Authenticate"));
+        } finally {
+            dispatcher.setAsyncExecutor(previous);
+        }
+    }
+    
     @Test
     public void testInvalidAuthChallenge() throws Exception {
         DataAccessRuleDAO dao = GeoServerExtensions.bean(DataAccessRuleDAO.class, applicationContext);
@@ -8,9 +8,12 @@ package org.geoserver.wms;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.opengis.wfs.FeatureCollectionType;
 
@@ -148,12 +151,24 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
      */
     private static Boolean USE_GLOBAL_RENDERING_POOL = null;
 
+    /**
+     * Number of threads rendering groups of layers in parallel, 0 disables parallel rendering
+     */
+    private static Integer PARALLEL_RENDERING_THREADS = null;
+
+    /**
+     * The bounded pool rendering groups of layers in parallel
+     */
+    private static ExecutorService LAYER_RENDERING_POOL;
+
     private GetCapabilities getCapabilities;
 
     private DescribeLayer describeLayer;
 
     private GetMap getMap;
 
+    private GetMapCoalescer getMapCoalescer;
+
     private GetFeatureInfo getFeatureInfo;
 
     private GetStyles getStyles;
@@ -192,6 +207,13 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         this.getMap = getMap;
     }
 
+    /**
+     * Establishes the object sharing the rendering among identical concurrent GetMap requests
+     */
+    public void setGetMapCoalescer(GetMapCoalescer getMapCoalescer) {
+        this.getMapCoalescer = getMapCoalescer;
+    }
+
     /**
      * Establishes the operation bean responsible for executing the GetFeatureInfo requests
      */
@@ -247,6 +269,15 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             else
                 USE_GLOBAL_RENDERING_POOL = Boolean.valueOf(usePool);
         }
+
+        // parallel rendering of groups of layers, disabled by default
+        if (PARALLEL_RENDERING_THREADS == null) {
+            String threads = GeoServerExtensions.getProperty("PARALLEL_RENDERING_THREADS", context);
+            if (threads == null)
+                PARALLEL_RENDERING_THREADS = 0;
+            else
+                PARALLEL_RENDERING_THREADS = Math.max(0, Integer.valueOf(threads.trim()));
+        }
     }
 
     /**
@@ -317,6 +348,9 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
             throw new UnsupportedOperationException(
                     "Operation not properly configured, make sure the operation bean has been set");
         }
+        if (getMapCoalescer != null && getMapCoalescer.isEnabled()) {
+            return getMapCoalescer.getMap(request, getMap::run);
+        }
         return getMap.run(request);
     }
 
@@ -686,12 +720,50 @@ public class DefaultWebMapService implements WebMapService, ApplicationContextAw
         return RENDERING_POOL;
     }
 
+    /**
+     * Returns the number of threads used to render groups of layers in parallel (set by the
+     * PARALLEL_RENDERING_THREADS property, 0, the default, disables parallel rendering)
+     */
+    public static int getParallelRenderingThreads() {
+        return PARALLEL_RENDERING_THREADS == null ? 0 : PARALLEL_RENDERING_THREADS;
+    }
+
+    /**
+     * Returns the app wide, bounded pool rendering groups of layers in parallel, or null if
+     * parallel rendering is disabled. The pool rejects the tasks once its queue is full, the
+     * caller is then expected to run them in its own thread
+     */
+    public static ExecutorService getLayerRenderingPool() {
+        int threads = getParallelRenderingThreads();
+        if (threads > 0 && LAYER_RENDERING_POOL == null) {
+            synchronized (DefaultWebMapService.class) {
+                if (LAYER_RENDERING_POOL == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    LAYER_RENDERING_POOL = new ThreadPoolExecutor(threads, threads, 0L,
+                            TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(threads * 4), r -> {
+                                Thread t = new Thread(r,
+                                        "GeoServerLayerRendering-" + count.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            });
+                }
+            }
+        }
+
+        return LAYER_RENDERING_POOL;
+    }
+
     public void destroy() throws Exception {
         if (RENDERING_POOL != null) {
             RENDERING_POOL.shutdown();
             RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
             RENDERING_POOL = null;
         }
+        if (LAYER_RENDERING_POOL != null) {
+            LAYER_RENDERING_POOL.shutdown();
+            LAYER_RENDERING_POOL.awaitTermination(10, TimeUnit.SECONDS);
+            LAYER_RENDERING_POOL = null;
+        }
     }
 
 }
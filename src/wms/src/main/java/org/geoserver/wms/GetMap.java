@@ -28,6 +28,9 @@ import org.geoserver.catalog.DimensionInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.WMSLayerInfo;
+import org.geoserver.feature.TracingFeatureSource;
+import org.geoserver.ows.trace.Span;
+import org.geoserver.ows.trace.Tracing;
 import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.map.MetatileMapOutputFormat;
@@ -474,6 +477,10 @@ public class GetMap {
                 // /////////////////////////////////////////////////////////
                 try {
                     source = mapLayerInfo.getFeatureSource(true);
+                    if (source instanceof SimpleFeatureSource) {
+                        source = TracingFeatureSource.wrap((SimpleFeatureSource) source,
+                                mapLayerInfo.getName());
+                    }
 
                     // NOTE for the feature. Here there was some code that
                     // sounded like:
@@ -620,7 +627,12 @@ public class GetMap {
         //
         // /////////////////////////////////////////////////////////
         mapContent = fireBeforeRender(mapContent);
-        WebMap map = delegate.produceMap(mapContent);
+        WebMap map;
+        try (Span span = Tracing.start("produceMap")) {
+            span.attribute("format", delegate.getMimeType());
+            span.attribute("layers", mapContent.layers().size());
+            map = delegate.produceMap(mapContent);
+        }
         
         if (cachingPossible) {
             map.setResponseHeader("Cache-Control", "max-age=" + maxAge + ", must-revalidate");
@@ -0,0 +1,413 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.ows.AbstractDispatcherCallback;
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.ows.util.OwsUtils;
+import org.geoserver.platform.GeoServerExtensions;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.map.RawMap;
+import org.geotools.util.logging.Logging;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Shares the rendering of identical GetMap requests running at the same time.
+ * <p>
+ * The first request for a given map, the leader, renders and encodes it as usual, while its
+ * response is written out the encoded bytes are also kept in memory. Identical requests arriving
+ * in the meantime wait for the leader to complete, and then return the same bytes, without
+ * rendering the map again. Requests are identical when they have the same KVP parameters, are
+ * issued against the same (virtual) service, and by the same user with the same roles.
+ * </p>
+ * <p>
+ * Waiting requests fall back on rendering the map on their own if the leader takes longer than
+ * {@value #MAX_WAIT_KEY} milliseconds, fails, or produces a response larger than
+ * {@value #MAX_SIZE_KEY} kilobytes. Coalescing is disabled when the max wait is zero, the
+ * default. Only KVP requests are coalesced, once the leader is done, the following requests
+ * render the map again.
+ * </p>
+ */
+public class GetMapCoalescer extends AbstractDispatcherCallback {
+
+    static final Logger LOGGER = Logging.getLogger(GetMapCoalescer.class);
+
+    /**
+     * System property setting how long, in milliseconds, a request waits for an identical one
+     * being rendered, zero disables coalescing
+     */
+    public static final String MAX_WAIT_KEY = "org.geoserver.wms.getmap.coalesce.maxWait";
+
+    /**
+     * System property setting the max size, in kilobytes, of a response shared among identical
+     * requests
+     */
+    public static final String MAX_SIZE_KEY = "org.geoserver.wms.getmap.coalesce.maxSize";
+
+    static final long DEFAULT_MAX_SIZE = 1024;
+
+    static final ThreadLocal<Flight> LEADER = new ThreadLocal<>();
+
+    final Map<String, Flight> flights = new ConcurrentHashMap<>();
+
+    final long maxWait;
+
+    final long maxSize;
+
+    final LongAdder coalesced = new LongAdder();
+
+    public GetMapCoalescer() {
+        this(getLong(MAX_WAIT_KEY, 0), getLong(MAX_SIZE_KEY, DEFAULT_MAX_SIZE) * 1024);
+    }
+
+    /**
+     * @param maxWait how long a request waits for an identical one to complete, in milliseconds
+     * @param maxSize the max size of a shared response, in bytes
+     */
+    public GetMapCoalescer(long maxWait, long maxSize) {
+        this.maxWait = maxWait;
+        this.maxSize = maxSize;
+    }
+
+    static long getLong(String key, long defaultValue) {
+        String value = GeoServerExtensions.getProperty(key);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + key + ": " + value + ", using the default "
+                        + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    public boolean isEnabled() {
+        return maxWait > 0;
+    }
+
+    /**
+     * Returns the number of requests that got their response from an identical request
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * Produces the map, or waits for an identical request already producing it and returns its
+     * response
+     *
+     * @param request the GetMap request
+     * @param producer produces the map when no identical request is running
+     */
+    public WebMap getMap(GetMapRequest request, Function<GetMapRequest, WebMap> producer) {
+        Request owsRequest = Dispatcher.REQUEST.get();
+        String key = isEnabled() ? getKey(request, owsRequest) : null;
+        if (key == null) {
+            return producer.apply(request);
+        }
+
+        Flight flight = new Flight(key, owsRequest);
+        Flight leader = flights.putIfAbsent(key, flight);
+        if (leader == null) {
+            // the flight is completed and removed when the response is written, or the request
+            // finishes
+            LEADER.set(flight);
+            return producer.apply(request);
+        }
+
+        SharedMap shared = null;
+        try {
+            shared = leader.await(maxWait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (shared == null) {
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Identical GetMap request did not provide a response, rendering: "
+                        + key);
+            }
+            return producer.apply(request);
+        }
+        coalesced.increment();
+        return new CoalescedMap(shared);
+    }
+
+    /**
+     * Builds the key identifying a request, or returns null if the request cannot be coalesced
+     */
+    String getKey(GetMapRequest request, Request owsRequest) {
+        // only top level GetMap requests are coalesced, not the ones nested in other operations,
+        // or already leading a coalesced request
+        if (owsRequest == null || owsRequest.getOperation() == null || LEADER.get() != null
+                || OwsUtils.parameter(owsRequest.getOperation().getParameters(),
+                        GetMapRequest.class) != request) {
+            return null;
+        }
+        Map<String, String> kvp = request.getRawKvp();
+        if (kvp == null || kvp.isEmpty()) {
+            return null;
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(owsRequest.getContext()).append('|').append(owsRequest.getPath()).append('|');
+        Authentication auth = SecurityContextHolder.getContext().getAuthentication();
+        if (auth != null) {
+            sb.append(auth.getName());
+            for (GrantedAuthority authority : auth.getAuthorities()) {
+                sb.append(',').append(authority.getAuthority());
+            }
+        }
+        sb.append('|');
+        Map<String, String> sorted = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        sorted.putAll(kvp);
+        for (Map.Entry<String, String> entry : sorted.entrySet()) {
+            sb.append(entry.getKey().toUpperCase()).append('=').append(entry.getValue())
+                    .append('&');
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public Response responseDispatched(Request request, Operation operation, Object result,
+            Response response) {
+        Flight flight = LEADER.get();
+        if (flight != null && flight.request == request && result instanceof WebMap) {
+            return new SharingResponse(response, flight);
+        }
+        return response;
+    }
+
+    @Override
+    public void finished(Request request) {
+        Flight flight = LEADER.get();
+        if (flight != null && flight.request == request) {
+            LEADER.remove();
+            flights.remove(flight.key, flight);
+            // in case the response was not written, the waiting requests will render on their own
+            flight.complete(null);
+        }
+    }
+
+    /**
+     * A request being rendered, that identical requests can wait for
+     */
+    static class Flight {
+
+        final String key;
+
+        final Request request;
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        volatile SharedMap result;
+
+        Flight(String key, Request request) {
+            this.key = key;
+            this.request = request;
+        }
+
+        void complete(SharedMap result) {
+            if (done.getCount() > 0) {
+                this.result = result;
+                done.countDown();
+            }
+        }
+
+        SharedMap await(long maxWait) throws InterruptedException {
+            if (done.await(maxWait, TimeUnit.MILLISECONDS)) {
+                return result;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The encoded map, along with the information needed to write it out again
+     */
+    static class SharedMap {
+
+        final byte[] contents;
+
+        final String mimeType;
+
+        final String[][] headers;
+
+        final String fileName;
+
+        final String disposition;
+
+        SharedMap(byte[] contents, String mimeType, String[][] headers, String fileName,
+                String disposition) {
+            this.contents = contents;
+            this.mimeType = mimeType;
+            this.headers = headers;
+            this.fileName = fileName;
+            this.disposition = disposition;
+        }
+    }
+
+    /**
+     * The map returned to the requests waiting for an identical one
+     */
+    static class CoalescedMap extends RawMap {
+
+        final SharedMap shared;
+
+        CoalescedMap(SharedMap shared) {
+            super(null, shared.contents, shared.mimeType);
+            this.shared = shared;
+            if (shared.headers != null) {
+                for (String[] header : shared.headers) {
+                    setResponseHeader(header[0], header[1]);
+                }
+            }
+        }
+
+        @Override
+        public String getAttachmentFileName() {
+            return shared.fileName;
+        }
+
+        @Override
+        public String getDisposition() {
+            return shared.disposition;
+        }
+    }
+
+    /**
+     * Writes out the leader response, keeping a copy of the encoded map for the requests waiting
+     * on it
+     */
+    class SharingResponse extends Response {
+
+        final Response delegate;
+
+        final Flight flight;
+
+        SharingResponse(Response delegate, Flight flight) {
+            super(delegate.getBinding(), delegate.getOutputFormats());
+            this.delegate = delegate;
+            this.flight = flight;
+        }
+
+        @Override
+        public boolean canHandle(Operation operation) {
+            return delegate.canHandle(operation);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return delegate.getMimeType(value, operation);
+        }
+
+        @Override
+        public String[][] getHeaders(Object value, Operation operation) throws ServiceException {
+            return delegate.getHeaders(value, operation);
+        }
+
+        @Override
+        public String getPreferredDisposition(Object value, Operation operation) {
+            return delegate.getPreferredDisposition(value, operation);
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return delegate.getAttachmentFileName(value, operation);
+        }
+
+        @Override
+        public String getCharset(Operation operation) {
+            return delegate.getCharset(operation);
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            // the map might be disposed while writing, grab its description first
+            String mimeType = getMimeType(value, operation);
+            String[][] headers = getHeaders(value, operation);
+            String fileName = getAttachmentFileName(value, operation);
+            String disposition = getPreferredDisposition(value, operation);
+
+            SharingOutputStream sharing = new SharingOutputStream(output);
+            delegate.write(value, sharing, operation);
+            if (!sharing.overflow) {
+                flight.complete(new SharedMap(sharing.copy.toByteArray(), mimeType, headers,
+                        fileName, disposition));
+            }
+        }
+    }
+
+    /**
+     * Copies the output in memory, up to the max size
+     */
+    class SharingOutputStream extends OutputStream {
+
+        final OutputStream delegate;
+
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+
+        boolean overflow;
+
+        SharingOutputStream(OutputStream delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            delegate.write(b);
+            if (!overflow) {
+                overflow = copy.size() + 1 > maxSize;
+                if (!overflow) {
+                    copy.write(b);
+                } else {
+                    copy.reset();
+                }
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            delegate.write(b, off, len);
+            if (!overflow) {
+                overflow = copy.size() + len > maxSize;
+                if (!overflow) {
+                    copy.write(b, off, len);
+                } else {
+                    copy.reset();
+                }
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+}
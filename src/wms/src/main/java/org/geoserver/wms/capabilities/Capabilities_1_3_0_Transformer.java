@@ -698,7 +698,8 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
 
             Set<LayerInfo> layersAlreadyProcessed = new HashSet<LayerInfo>();
             
-            // encode layer groups
+            // encode layer groups, skipping the ones nested in other groups
+            Set<String> nestedGroups = CapabilityUtil.getNestedGroupIds(catalog);
             CloseableIterator<LayerGroupInfo> layerGroups;
             {
                 final Filter lgFilter = Predicates.acceptAll();
@@ -707,7 +708,7 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
                         layerGroupOrder);
             }            
             try {
-                layersAlreadyProcessed = handleLayerGroups(layerGroups);
+                layersAlreadyProcessed = handleLayerGroups(layerGroups, nestedGroups);
             } catch (Exception e) {
                 throw new RuntimeException("Can't obtain Envelope of Layer-Groups: "
                         + e.getMessage(), e);
@@ -1072,17 +1073,26 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
             }
         }
         
-        protected Set<LayerInfo> handleLayerGroups(Iterator<LayerGroupInfo> layerGroups) throws FactoryException,
-                TransformException, IOException {
+        /**
+         * Encodes the top level layer groups, as they are returned by the iterator
+         * 
+         * @param layerGroups the layer groups to encode
+         * @param nestedGroups the ids of the groups nested in other groups, which are encoded
+         *        along with their parent instead
+         */
+        protected Set<LayerInfo> handleLayerGroups(Iterator<LayerGroupInfo> layerGroups,
+                Set<String> nestedGroups) throws FactoryException, TransformException, IOException {
             Set<LayerInfo> layersAlreadyProcessed = new HashSet<LayerInfo>();
             
             if (layerGroups == null) {
                 return layersAlreadyProcessed;
             }
             
-            List<LayerGroupInfo> topLevelGroups = filterNestedGroups(layerGroups);
-
-            for (LayerGroupInfo group : topLevelGroups) {
+            while (layerGroups.hasNext()) {
+                LayerGroupInfo group = layerGroups.next();
+                if (group != null && nestedGroups.contains(group.getId())) {
+                    continue;
+                }
                 try {
                     mark();
                     handleLayerGroup(group, layersAlreadyProcessed);
@@ -1107,32 +1117,6 @@ public class Capabilities_1_3_0_Transformer extends TransformerBase {
             
             return layersAlreadyProcessed;
         }
-        
-        /**
-         * Returns a list of top level groups, that is, the ones that are not nested within
-         * other layer groups
-         * 
-         * @param allGroups
-         *
-         */
-        private List<LayerGroupInfo> filterNestedGroups(Iterator<LayerGroupInfo> iterator) {
-            List<LayerGroupInfo> allGroups = new ArrayList<LayerGroupInfo>();
-            while(iterator.hasNext()) {
-                allGroups.add(iterator.next());
-            }
-            LinkedHashSet<LayerGroupInfo> result = new LinkedHashSet<LayerGroupInfo>(allGroups);
-            for(LayerGroupInfo group : allGroups) {
-                for(PublishedInfo pi : group.getLayers()) {
-                    if(pi instanceof LayerGroupInfo) {
-                        result.remove(pi);
-                    }
-                }
-            }
-            
-            return new ArrayList<LayerGroupInfo>(result);
-        }
-        
-
 
         protected void handleLayerGroup(LayerGroupInfo layerGroup, Set<LayerInfo> layersAlreadyProcessed) throws TransformException, FactoryException, IOException {
             String layerName = layerGroup.prefixedName();
@@ -11,10 +11,13 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.LayerGroupInfo;
 import org.geoserver.catalog.LayerInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.StyleInfo;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geotools.styling.FeatureTypeStyle;
 import org.geotools.styling.Rule;
 import org.geotools.styling.Style;
@@ -190,4 +193,27 @@ final class CapabilityUtil {
 		
 		return scaleHint;
 	}
+
+	/**
+	 * Returns the ids of the layer groups contained in other layer groups, that is, the groups
+	 * that are not encoded at the top level of the capabilities document. Streams over the catalog
+	 * layer groups, only the ids are kept in memory.
+	 * 
+	 * @param catalog
+	 * @return the ids of the nested layer groups
+	 */
+	public static Set<String> getNestedGroupIds(final Catalog catalog) {
+	    Set<String> nested = new HashSet<String>();
+	    try (CloseableIterator<LayerGroupInfo> groups = catalog.list(LayerGroupInfo.class,
+	            Predicates.acceptAll())) {
+	        while (groups.hasNext()) {
+	            for (PublishedInfo child : groups.next().getLayers()) {
+	                if (child instanceof LayerGroupInfo) {
+	                    nested.add(child.getId());
+	                }
+	            }
+	        }
+	    }
+	    return nested;
+	}
 }
@@ -5,6 +5,9 @@
  */
 package org.geoserver.wms.capabilities;
 
+import static org.geoserver.catalog.Predicates.and;
+import static org.geoserver.catalog.Predicates.asc;
+import static org.geoserver.catalog.Predicates.equal;
 import static org.geoserver.ows.util.ResponseUtils.appendPath;
 import static org.geoserver.ows.util.ResponseUtils.appendQueryString;
 import static org.geoserver.ows.util.ResponseUtils.buildSchemaURL;
@@ -38,6 +41,7 @@ import javax.xml.transform.TransformerException;
 import org.apache.commons.lang.StringUtils;
 import org.geoserver.catalog.AttributionInfo;
 import org.geoserver.catalog.AuthorityURLInfo;
+import org.geoserver.catalog.Catalog;
 import org.geoserver.catalog.DataLinkInfo;
 import org.geoserver.catalog.FeatureTypeInfo;
 import org.geoserver.catalog.KeywordInfo;
@@ -46,12 +50,14 @@ import org.geoserver.catalog.LayerIdentifierInfo;
 import org.geoserver.catalog.LayerInfo;
 import org.geoserver.catalog.LegendInfo;
 import org.geoserver.catalog.MetadataLinkInfo;
+import org.geoserver.catalog.Predicates;
 import org.geoserver.catalog.PublishedInfo;
 import org.geoserver.catalog.PublishedType;
 import org.geoserver.catalog.ResourceInfo;
 import org.geoserver.catalog.StyleInfo;
 import org.geoserver.catalog.WMSLayerInfo;
 import org.geoserver.catalog.WorkspaceInfo;
+import org.geoserver.catalog.util.CloseableIterator;
 import org.geoserver.config.ContactInfo;
 import org.geoserver.config.GeoServer;
 import org.geoserver.config.ResourceErrorHandling;
@@ -74,7 +80,7 @@ import org.geotools.styling.Style;
 import org.geotools.util.NumberRange;
 import org.geotools.xml.transform.TransformerBase;
 import org.geotools.xml.transform.Translator;
-import org.opengis.feature.type.Name;
+import org.opengis.filter.Filter;
 import org.opengis.referencing.FactoryException;
 import org.opengis.referencing.operation.TransformException;
 import org.opengis.util.InternationalString;
@@ -673,24 +679,14 @@ public class GetCapabilitiesTransformer extends TransformerBase {
         private void handleLayers() {
             start("Layer");
 
-            final List<LayerInfo> layers;
-
             // filter the layers if a namespace filter has been set
+            Filter filter = Predicates.acceptAll();
             if (request.getNamespace() != null) {
-                final List<LayerInfo> allLayers = wmsConfig.getLayers();
-                layers = new ArrayList<LayerInfo>();
-
-                String namespace = wmsConfig.getNamespaceByPrefix(request.getNamespace());
-                for (LayerInfo layer : allLayers) {
-                    Name name = layer.getResource().getQualifiedName();
-                    if (name.getNamespaceURI().equals(namespace)) {
-                        layers.add(layer);
-                    }
-                }
-            } else {
-                layers = wmsConfig.getLayers();
+                filter = equal("resource.namespace.prefix", request.getNamespace());
             }
 
+            final Catalog catalog = wmsConfig.getCatalog();
+
             //WMSInfo serviceInfo = wmsConfig.getServiceInfo();
             element("Title", serviceInfo.getTitle());
             element("Abstract", serviceInfo.getAbstract());
@@ -705,7 +701,12 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             }
             handleRootCrsList(srs);
 
-            handleRootBbox(layers);
+            CloseableIterator<LayerInfo> layers = catalog.list(LayerInfo.class, filter);
+            try {
+                handleRootBbox(layers);
+            } finally {
+                layers.close();
+            }
 
             // handle AuthorityURL
             handleAuthorityURL(serviceInfo.getAuthorityURLs());
@@ -715,18 +716,27 @@ public class GetCapabilitiesTransformer extends TransformerBase {
 
             Set<LayerInfo> layersAlreadyProcessed = new HashSet<LayerInfo>();
             
-            // encode layer groups
+            // encode layer groups, skipping the ones nested in other groups
+            Set<String> nestedGroups = CapabilityUtil.getNestedGroupIds(catalog);
+            CloseableIterator<LayerGroupInfo> layerGroups = catalog.list(LayerGroupInfo.class,
+                    Predicates.acceptAll(), null, null, asc("name"));
             try {
-                List<LayerGroupInfo> layerGroups = wmsConfig.getLayerGroups();
-                layersAlreadyProcessed = handleLayerGroups(new ArrayList<LayerGroupInfo>(layerGroups));
+                layersAlreadyProcessed = handleLayerGroups(layerGroups, nestedGroups);
             } catch (Exception e) {
                 throw new RuntimeException("Can't obtain Envelope of Layer-Groups: "
                         + e.getMessage(), e);
-            } 
+            } finally {
+                layerGroups.close();
+            }
             
-            // now encode each layer individually
-            LayerTree featuresLayerTree = new LayerTree(layers);
-            handleLayerTree(featuresLayerTree, layersAlreadyProcessed);
+            // now encode each layer individually, in name order
+            layers = catalog.list(LayerInfo.class, and(filter, equal("enabled", Boolean.TRUE)),
+                    null, null, asc("name"));
+            try {
+                handleLayerTree(layers, layersAlreadyProcessed);
+            } finally {
+                layers.close();
+            }
 
             end("Layer");
         }
@@ -783,14 +793,15 @@ public class GetCapabilitiesTransformer extends TransformerBase {
          * @param ftypes
          *            the collection of FeatureTypeInfo and CoverageInfo objects to traverse
          */
-        private void handleRootBbox(Collection<LayerInfo> layers) {
+        private void handleRootBbox(Iterator<LayerInfo> layers) {
 
             Envelope latlonBbox = new Envelope();
             Envelope layerBbox = null;
 
             LOGGER.finer("Collecting summarized latlonbbox and common SRS...");
 
-            for (LayerInfo layer : layers) {
+            while (layers.hasNext()) {
+                LayerInfo layer = layers.next();
                 ResourceInfo resource = layer.getResource();
                 layerBbox = resource.getLatLonBoundingBox();
                 if (layerBbox != null)
@@ -812,6 +823,27 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             return WMS.isWmsExposable(layer);   
         }
         
+        /**
+         * Encodes the layers returned by the iterator, expected to be sorted by name, as they come.
+         * A {@link LayerTree} is built only for the layers that have a wms path set, which are
+         * encoded after the others.
+         */
+        private void handleLayerTree(final Iterator<LayerInfo> layers, Set<LayerInfo> layersAlreadyProcessed) {
+            LayerTree nestedLayers = new LayerTree();
+
+            while (layers.hasNext()) {
+                LayerInfo layer = layers.next();
+                final String path = layer.getPath();
+                if (path != null && path.length() > 0 && !"/".equals(path)) {
+                    nestedLayers.add(layer);
+                    continue;
+                }
+                handleTreeLayer(layer, layersAlreadyProcessed);
+            }
+
+            handleLayerTree(nestedLayers, layersAlreadyProcessed);
+        }
+
         /**
          * @param layerTree
          */
@@ -826,28 +858,7 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             });
 
             for (LayerInfo layer : data) {
-                // ask for enabled() instead of isEnabled() to account for disabled resource/store
-                // don't expose a geometryless layer through wms
-                if (layer.enabled() && !layersAlreadyProcessed.contains(layer) && isExposable(layer)) {
-                    try {
-                        mark();
-                        handleLayer(layer);
-                        commit();
-                    } catch (Exception e) {
-                        if (skipping) {
-                            reset();
-                            LOGGER.log(
-                                Level.WARNING, 
-                                "Error writing metadata; skipping layer: " + layer.getName(),
-                                e);
-                        } else {
-                            // report what layer we failed on to help the admin locate and fix it
-                            throw new ServiceException(
-                                    "Error occurred trying to write out metadata for layer: "
-                                            + layer.getName(), e);
-                        }
-                    }
-                }
+                handleTreeLayer(layer, layersAlreadyProcessed);
             }
 
             for (LayerTree childLayerTree : children) {
@@ -859,6 +870,31 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             }
         }
 
+        private void handleTreeLayer(LayerInfo layer, Set<LayerInfo> layersAlreadyProcessed) {
+            // ask for enabled() instead of isEnabled() to account for disabled resource/store
+            // don't expose a geometryless layer through wms
+            if (layer.enabled() && !layersAlreadyProcessed.contains(layer) && isExposable(layer)) {
+                try {
+                    mark();
+                    handleLayer(layer);
+                    commit();
+                } catch (Exception e) {
+                    if (skipping) {
+                        reset();
+                        LOGGER.log(
+                            Level.WARNING, 
+                            "Error writing metadata; skipping layer: " + layer.getName(),
+                            e);
+                    } else {
+                        // report what layer we failed on to help the admin locate and fix it
+                        throw new ServiceException(
+                                "Error occurred trying to write out metadata for layer: "
+                                        + layer.getName(), e);
+                    }
+                }
+            }
+        }
+
         /**
          * Calls super.handleFeatureType to add common FeatureType content such as Name, Title and
          * LatLonBoundingBox, and then writes WMS specific layer properties as Styles, Scale Hint,
@@ -1153,17 +1189,26 @@ public class GetCapabilitiesTransformer extends TransformerBase {
            end("Layer");
        }
        
-        protected Set<LayerInfo> handleLayerGroups(List<LayerGroupInfo> layerGroups) throws FactoryException,
-                TransformException, IOException {
+        /**
+         * Encodes the top level layer groups, as they are returned by the iterator
+         * 
+         * @param layerGroups the layer groups to encode
+         * @param nestedGroups the ids of the groups nested in other groups, which are encoded
+         *        along with their parent instead
+         */
+        protected Set<LayerInfo> handleLayerGroups(Iterator<LayerGroupInfo> layerGroups,
+                Set<String> nestedGroups) throws FactoryException, TransformException, IOException {
             Set<LayerInfo> layersAlreadyProcessed = new HashSet<LayerInfo>();
             
-            if (layerGroups == null || layerGroups.size() == 0) {
+            if (layerGroups == null) {
                 return layersAlreadyProcessed;
             }
             
-            List<LayerGroupInfo> topLevelGropus = filterNestedGroups(layerGroups);
-
-            for (LayerGroupInfo layerGroup : topLevelGropus) {
+            while (layerGroups.hasNext()) {
+                LayerGroupInfo layerGroup = layerGroups.next();
+                if (layerGroup != null && nestedGroups.contains(layerGroup.getId())) {
+                    continue;
+                }
                 try {
                     mark();
                     handleLayerGroup(layerGroup, layersAlreadyProcessed);
@@ -1189,26 +1234,6 @@ public class GetCapabilitiesTransformer extends TransformerBase {
             return layersAlreadyProcessed;
         }
 
-        /**
-         * Returns a list of top level groups, that is, the ones that are not nested within
-         * other layer groups
-         * 
-         * @param allGroups
-         *
-         */
-        private List<LayerGroupInfo> filterNestedGroups(List<LayerGroupInfo> allGroups) {
-            LinkedHashSet<LayerGroupInfo> result = new LinkedHashSet<LayerGroupInfo>(allGroups);
-            for (LayerGroupInfo group : allGroups) {
-                for(PublishedInfo pi : group.getLayers()) {
-                    if(pi instanceof LayerGroupInfo) {
-                        result.remove(pi);
-                    }
-                }
-            }
-            
-            return new ArrayList<LayerGroupInfo>(result);
-        }
-
         protected void handleAttribution(PublishedInfo layer) {
             AttributionInfo attribution = layer.getAttribution();
             
@@ -5,6 +5,7 @@
  */
 package org.geoserver.wms.map;
 
+import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
 import java.awt.image.SampleModel;
 import java.io.IOException;
@@ -13,6 +14,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.geoserver.config.JAIInfo;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.Operation;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wms.GetMapRequest;
@@ -20,6 +22,7 @@ import org.geoserver.wms.MapProducerCapabilities;
 import org.geoserver.wms.RasterCleaner;
 import org.geoserver.wms.WMS;
 import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.png.FastPNGWriter;
 import org.geoserver.wms.map.png.PNGJWriter;
 import org.geotools.image.ImageWorker;
 import org.geotools.util.logging.Logging;
@@ -62,6 +65,14 @@ public class PNGMapResponse extends RenderedImageMapResponse {
     private static MapProducerCapabilities CAPABILITIES = new MapProducerCapabilities(true, false,
             true, true, null);
 
+    /**
+     * Encoding settings for the {@link JAIInfo.PngEncoderType#FAST} encoder, for the true color
+     * and paletted (png8) output formats
+     */
+    final EncodingSettings pngSettings = new EncodingSettings("png");
+
+    final EncodingSettings png8Settings = new EncodingSettings("png8");
+
     /**
      * @param format the format name as to be reported in the capabilities document
      * @param wms
@@ -100,7 +111,11 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         image = applyPalette(image, mapContent, "image/png8", true);
         float quality = (100 - wms.getPngCompression()) / 100.0f;
         JAIInfo.PngEncoderType encoder = wms.getPNGEncoderType();
-        if(encoder == JAIInfo.PngEncoderType.PNGJ) {
+        if (encoder == JAIInfo.PngEncoderType.FAST && writeFast(image, outStream, mapContent)) {
+            RasterCleaner.addImage(image);
+        } else if (encoder == JAIInfo.PngEncoderType.PNGJ
+                || encoder == JAIInfo.PngEncoderType.FAST) {
+            // the fast encoder falls back on PNGJ for the images it does not support
             image = new PNGJWriter().writePNG(image, outStream, quality, mapContent);
             RasterCleaner.addImage(image);
         } else {
@@ -119,8 +134,71 @@ public class PNGMapResponse extends RenderedImageMapResponse {
         }
     }
     
+    /**
+     * Encodes the image with the {@link FastPNGWriter}, returns false if the image is not
+     * supported by it
+     */
+    boolean writeFast(RenderedImage image, OutputStream outStream, WMSMapContent mapContent)
+            throws IOException {
+        String format = mapContent.getRequest().getFormat();
+        EncodingSettings settings = format != null && format.contains("8") ? png8Settings
+                : pngSettings;
+        int level = settings.compression;
+        if (level < 0) {
+            level = Math.round(wms.getPngCompression() * 9 / 100f);
+        }
+        FastPNGWriter.Filter filter = settings.filter;
+        if (filter == null) {
+            // paletted images compress best unfiltered, true color ones only benefit from
+            // filtering when painted from continuous rasters
+            if (!(image.getColorModel() instanceof IndexColorModel)
+                    && PNGJWriter.isHighChangeRaster(mapContent)) {
+                filter = FastPNGWriter.Filter.SUB;
+            } else {
+                filter = FastPNGWriter.Filter.NONE;
+            }
+        }
+        return new FastPNGWriter().writePNG(image, outStream, level, filter);
+    }
+
     @Override
     public MapProducerCapabilities getCapabilities(String outputFormat) {
         return CAPABILITIES;
     }
+
+    /**
+     * The filter and deflate compression level used by the fast encoder for a given format, set
+     * via the <code>org.geoserver.wms.[png|png8].filter</code> and
+     * <code>org.geoserver.wms.[png|png8].compression</code> properties. When not set, the filter
+     * is chosen based on the image contents, and the compression level follows the WMS PNG
+     * compression setting
+     */
+    static class EncodingSettings {
+
+        FastPNGWriter.Filter filter;
+
+        int compression = -1;
+
+        EncodingSettings(String format) {
+            String prefix = "org.geoserver.wms." + format + ".";
+            String value = GeoServerExtensions.getProperty(prefix + "filter");
+            if (value != null) {
+                try {
+                    filter = FastPNGWriter.Filter.valueOf(value.trim().toUpperCase());
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warning("Invalid PNG filter " + value + " for " + format
+                            + ", valid values are NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE");
+                }
+            }
+            value = GeoServerExtensions.getProperty(prefix + "compression");
+            if (value != null) {
+                try {
+                    compression = Math.max(0, Math.min(9, Integer.parseInt(value.trim())));
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Invalid PNG compression level " + value + " for " + format
+                            + ", it should be between 0 and 9");
+                }
+            }
+        }
+    }
 }
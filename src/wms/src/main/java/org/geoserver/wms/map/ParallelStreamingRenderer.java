@@ -0,0 +1,387 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.threadlocals.ThreadLocalsTransfer;
+import org.geoserver.wms.WMSMapContent;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.map.StyleLayer;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.FeatureTypeStyle;
+import org.geotools.styling.Rule;
+import org.geotools.styling.Style;
+import org.geotools.styling.Symbolizer;
+import org.geotools.styling.TextSymbolizer;
+import org.geotools.util.logging.Logging;
+import org.opengis.feature.simple.SimpleFeature;
+
+/**
+ * A {@link StreamingRenderer} splitting the map layers in groups of consecutive layers, rendering
+ * each group in a separate image on a bounded executor, and compositing the images in order.
+ * <p>
+ * Layers whose rendering depends on the layers below them, or on the layers above them, are
+ * rendered together in the last group, that is, from the first layer having labels (label
+ * conflict resolution and painting happen once per renderer, on top of all its layers), using
+ * composition/blending, or sorting features across layers, to the end of the map. The result is
+ * thus the same as rendering sequentially.
+ * </p>
+ * <p>
+ * Render listeners and {@link #stopRendering()} apply to all the groups, so that the
+ * {@link MaxErrorEnforcer}, the {@link RenderingTimeoutEnforcer} and the
+ * {@link RenderExceptionStrategy} work as usual. Group tasks not yet started by the executor
+ * are run by the calling thread, so a busy executor slows down the requests, but cannot stall
+ * them. When rendering fails or is stopped, the groups already running are stopped and waited
+ * for before returning, as they are still using the map layers. The thread locals of the calling
+ * thread are transferred to the executor threads via {@link ThreadLocalsTransfer}.
+ * </p>
+ */
+public class ParallelStreamingRenderer extends StreamingRenderer {
+
+    static final Logger LOGGER = Logging.getLogger(ParallelStreamingRenderer.class);
+
+    final ExecutorService executor;
+
+    final int maxGroups;
+
+    final Supplier<StreamingRenderer> rendererFactory;
+
+    final List<RenderListener> listeners = new CopyOnWriteArrayList<>();
+
+    final List<StreamingRenderer> renderers = new CopyOnWriteArrayList<>();
+
+    volatile boolean stopped;
+
+    ExecutorService threadPool;
+
+    /**
+     * Builds a new parallel renderer
+     *
+     * @param executor the executor rendering the groups
+     * @param maxGroups the max number of groups a map is split into
+     * @param rendererFactory builds the renderers for the single groups
+     */
+    public ParallelStreamingRenderer(ExecutorService executor, int maxGroups,
+            Supplier<StreamingRenderer> rendererFactory) {
+        this.executor = executor;
+        this.maxGroups = maxGroups;
+        this.rendererFactory = rendererFactory;
+    }
+
+    @Override
+    public void setThreadPool(ExecutorService threadPool) {
+        super.setThreadPool(threadPool);
+        this.threadPool = threadPool;
+    }
+
+    @Override
+    public void addRenderListener(RenderListener listener) {
+        super.addRenderListener(listener);
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeRenderListener(RenderListener listener) {
+        super.removeRenderListener(listener);
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void stopRendering() {
+        stopped = true;
+        super.stopRendering();
+        for (StreamingRenderer renderer : renderers) {
+            renderer.stopRendering();
+        }
+    }
+
+    @Override
+    public void paint(Graphics2D graphics, Rectangle paintArea, ReferencedEnvelope mapArea,
+            AffineTransform worldToScreen) {
+        List<List<Layer>> groups = getGroups(getMapContent().layers());
+        if (groups.size() < 2 || paintArea.x != 0 || paintArea.y != 0
+                || !graphics.getTransform().isIdentity()) {
+            super.paint(graphics, paintArea, mapArea, worldToScreen);
+            return;
+        }
+        stopped = false;
+
+        List<GroupTask> tasks = new ArrayList<>(groups.size());
+        for (List<Layer> group : groups) {
+            tasks.add(new GroupTask(group, graphics, paintArea, mapArea, worldToScreen));
+        }
+        // the first group is run by this thread, the others are offered to the executor
+        ThreadLocalsTransfer transfer = new ThreadLocalsTransfer();
+        for (GroupTask task : tasks.subList(1, tasks.size())) {
+            try {
+                executor.execute(() -> {
+                    transfer.apply();
+                    try {
+                        task.run();
+                    } finally {
+                        transfer.cleanup();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // will be run by this thread
+                LOGGER.log(Level.FINE, "Layer group rendering rejected by the executor", e);
+            }
+        }
+        // run the groups not yet picked up by the executor, and compose them in order
+        boolean completed = false;
+        try {
+            for (GroupTask task : tasks) {
+                task.run();
+                task.await();
+                if (task.error != null) {
+                    stopRendering();
+                }
+                if (stopped) {
+                    break;
+                }
+                task.paintOn(graphics);
+            }
+            completed = !stopped;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (!completed) {
+                stopRendering();
+            }
+            // the tasks not started will just skip rendering, the ones running are still using
+            // the map layers, which the caller disposes as soon as we return
+            boolean interrupted = false;
+            for (GroupTask task : tasks) {
+                if (!task.claimed.compareAndSet(false, true)) {
+                    interrupted |= task.awaitUninterruptibly();
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            renderers.clear();
+        }
+        for (GroupTask task : tasks) {
+            if (task.error != null) {
+                throw task.error;
+            }
+        }
+    }
+
+    /**
+     * Splits the layers in groups, the layers that must be rendered along with the ones below
+     * them (from the first one using labels, composition or cross-layer sorting) all go in the
+     * last group
+     */
+    List<List<Layer>> getGroups(List<Layer> layers) {
+        int sequential = layers.size();
+        for (int i = 0; i < layers.size(); i++) {
+            if (requiresSequentialRendering(layers.get(i))) {
+                sequential = i;
+                break;
+            }
+        }
+
+        List<List<Layer>> groups = new ArrayList<>();
+        int parallelGroups = Math.min(sequential, maxGroups - (sequential < layers.size() ? 1 : 0));
+        if (parallelGroups > 0) {
+            // consecutive layers, evenly distributed among the groups
+            int start = 0;
+            for (int g = 0; g < parallelGroups; g++) {
+                int end = (int) ((long) sequential * (g + 1) / parallelGroups);
+                groups.add(new ArrayList<>(layers.subList(start, end)));
+                start = end;
+            }
+        }
+        if (sequential < layers.size()) {
+            groups.add(new ArrayList<>(layers.subList(sequential, layers.size())));
+        }
+        return groups;
+    }
+
+    static boolean requiresSequentialRendering(Layer layer) {
+        if (!(layer instanceof StyleLayer)) {
+            return false;
+        }
+        Style style = ((StyleLayer) layer).getStyle();
+        if (style == null) {
+            return false;
+        }
+        for (FeatureTypeStyle fts : style.featureTypeStyles()) {
+            Map<String, String> options = fts.getOptions();
+            if (options != null && (options.containsKey(FeatureTypeStyle.COMPOSITE)
+                    || options.containsKey(FeatureTypeStyle.COMPOSITE_BASE)
+                    || options.containsKey(FeatureTypeStyle.SORT_BY_GROUP))) {
+                return true;
+            }
+            for (Rule rule : fts.rules()) {
+                for (Symbolizer symbolizer : rule.symbolizers()) {
+                    if (symbolizer instanceof TextSymbolizer) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Renders a group of layers in its own image, it is run by either the executor or the
+     * calling thread, whichever gets to it first
+     */
+    class GroupTask implements Runnable {
+
+        final List<Layer> layers;
+
+        final Graphics2D graphics;
+
+        final Rectangle paintArea;
+
+        final ReferencedEnvelope mapArea;
+
+        final AffineTransform worldToScreen;
+
+        final AtomicBoolean claimed = new AtomicBoolean();
+
+        final CountDownLatch done = new CountDownLatch(1);
+
+        BufferedImage image;
+
+        RuntimeException error;
+
+        GroupTask(List<Layer> layers, Graphics2D graphics, Rectangle paintArea,
+                ReferencedEnvelope mapArea, AffineTransform worldToScreen) {
+            this.layers = layers;
+            this.graphics = graphics;
+            this.paintArea = paintArea;
+            this.mapArea = mapArea;
+            this.worldToScreen = worldToScreen;
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                if (!stopped) {
+                    render();
+                }
+            } catch (RuntimeException e) {
+                error = e;
+            } finally {
+                done.countDown();
+            }
+        }
+
+        void render() {
+            MapContent content = getMapContent();
+            MapContent groupContent;
+            if (content instanceof WMSMapContent) {
+                groupContent = new WMSMapContent((WMSMapContent) content, false);
+            } else {
+                groupContent = new MapContent();
+                groupContent.getViewport().setBounds(content.getViewport().getBounds());
+            }
+            // do not dispose the group content, it would dispose the layers as well
+            groupContent.layers().addAll(layers);
+
+            StreamingRenderer renderer = rendererFactory.get();
+            renderer.setMapContent(groupContent);
+            renderer.setJava2DHints(getJava2DHints());
+            Map<Object, Object> hints = getRendererHints();
+            renderer.setRendererHints(hints == null ? null : new HashMap<>(hints));
+            if (threadPool != null) {
+                renderer.setThreadPool(threadPool);
+            }
+            renderer.addRenderListener(new ForwardingListener());
+            renderers.add(renderer);
+            if (stopped) {
+                return;
+            }
+
+            image = new BufferedImage(paintArea.width, paintArea.height,
+                    BufferedImage.TYPE_INT_ARGB_PRE);
+            Graphics2D g = image.createGraphics();
+            try {
+                g.setRenderingHints(graphics.getRenderingHints());
+                renderer.paint(g, paintArea, mapArea, worldToScreen);
+            } finally {
+                g.dispose();
+            }
+        }
+
+        void await() throws InterruptedException {
+            done.await();
+        }
+
+        /**
+         * Waits for the task to complete, returns true if the thread got interrupted meanwhile
+         */
+        boolean awaitUninterruptibly() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    return interrupted;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        void paintOn(Graphics2D target) {
+            if (image != null) {
+                target.setComposite(AlphaComposite.SrcOver);
+                target.drawImage(image, 0, 0, null);
+                image = null;
+            }
+        }
+    }
+
+    /**
+     * Forwards the group renderer events to the listeners of this renderer, one at a time
+     */
+    class ForwardingListener implements RenderListener {
+
+        @Override
+        public void featureRenderer(SimpleFeature feature) {
+            synchronized (listeners) {
+                for (RenderListener listener : listeners) {
+                    listener.featureRenderer(feature);
+                }
+            }
+        }
+
+        @Override
+        public void errorOccurred(Exception e) {
+            synchronized (listeners) {
+                for (RenderListener listener : listeners) {
+                    listener.errorOccurred(e);
+                }
+            }
+        }
+    }
+}
@@ -7,14 +7,19 @@ package org.geoserver.wms.map;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.DataBuffer;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.commons.lang.builder.HashCodeBuilder;
@@ -23,6 +28,7 @@ import org.geoserver.config.GeoServer;
 import org.geoserver.config.GeoServerInfo;
 import org.geoserver.config.ServiceInfo;
 import org.geoserver.config.impl.GeoServerLifecycleHandler;
+import org.geoserver.platform.GeoServerExtensions;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.wfs.TransactionEvent;
 import org.geoserver.wfs.TransactionListener;
@@ -31,11 +37,23 @@ import org.geoserver.wms.GetMapRequest;
 import org.geotools.geometry.jts.ReferencedEnvelope;
 import org.geotools.referencing.CRS;
 import org.geotools.referencing.CRS.AxisOrder;
-import org.geotools.util.CanonicalSet;
+import org.geotools.util.logging.Logging;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.ExecutionError;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import com.vividsolutions.jts.geom.Envelope;
 
+/**
+ * A bounded, concurrent cache of the meta tiles built for tiled GetMap requests. The cache is
+ * wiped out on configuration changes, catalog reloads and WFS transactions.
+ */
 public class QuickTileCache implements TransactionListener, GeoServerLifecycleHandler {
+
+    static final Logger LOGGER = Logging.getLogger(QuickTileCache.class);
+
     /**
      * Set of parameters that we can ignore, since they do not define a map, are either unrelated,
      * or define the tiling instead
@@ -55,40 +73,81 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
     }
 
     /**
-     * Canonicalizer used to return the same object when two threads ask for the same meta-tile
+     * System property setting the max memory used by the cached meta tiles, in megabytes
      */
-    private CanonicalSet<MetaTileKey> metaTileKeys = CanonicalSet.newInstance(MetaTileKey.class);
+    public static final String MAX_MEMORY_KEY = "org.geoserver.wms.metaTileCache.maxMemory";
 
-    private WeakHashMap tileCache = new WeakHashMap();
+    static final long DEFAULT_MAX_MEMORY = 64;
+
+    /**
+     * The meta tiles, weighted by their memory usage. Only one thread builds a given meta tile,
+     * the others asking for it wait for the result
+     */
+    private final Cache<MetaTileKey, RenderedImage[]> tileCache;
 
     public QuickTileCache(GeoServer geoServer) {
+        this(getMaxMemory() * 1024 * 1024);
         geoServer.addListener(new ConfigurationListenerAdapter() {
             public void handleGlobalChange(GeoServerInfo global, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                tileCache.invalidateAll();
             }
 
             public void handleServiceChange(ServiceInfo service, List<String> propertyNames,
                     List<Object> oldValues, List<Object> newValues) {
-                tileCache.clear();
+                tileCache.invalidateAll();
             }
 
             public void reloaded() {
-                tileCache.clear();
+                tileCache.invalidateAll();
             }
         });
     }
 
+    QuickTileCache(long maxMemory) {
+        tileCache = CacheBuilder.newBuilder().maximumWeight(maxMemory)
+                .weigher((MetaTileKey key, RenderedImage[] tiles) -> getMemoryUse(tiles))
+                .recordStats().build();
+    }
+
+    static long getMaxMemory() {
+        String value = GeoServerExtensions.getProperty(MAX_MEMORY_KEY);
+        if (value != null) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                LOGGER.warning("Invalid value for " + MAX_MEMORY_KEY + ": " + value
+                        + ", using the default " + DEFAULT_MAX_MEMORY + "MB");
+            }
+        }
+        return DEFAULT_MAX_MEMORY;
+    }
+
+    /**
+     * Estimates the memory used by the tiles, in bytes
+     */
+    static int getMemoryUse(RenderedImage[] tiles) {
+        long memory = 0;
+        for (RenderedImage tile : tiles) {
+            if (tile != null) {
+                SampleModel sm = tile.getSampleModel();
+                memory += (long) tile.getWidth() * tile.getHeight() * sm.getNumDataElements()
+                        * Math.max(1, DataBuffer.getDataTypeSize(sm.getDataType()) / 8);
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, memory);
+    }
+
     /**
      * For testing only
      */
     QuickTileCache() {
+        this(DEFAULT_MAX_MEMORY * 1024 * 1024);
     }
 
     /**
      * Given a tiled request, builds a key that can be used to access the cache looking for a
-     * specific meta-tile, and also as a synchronization tool to avoid multiple requests to trigger
-     * parallel computation of the same meta-tile
+     * specific meta-tile
      * 
      * @param request
      *
@@ -111,12 +170,7 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         Point tileCoords = getTileCoordinates(bbox, origin);
         Point metaTileCoords = getMetaTileCoordinates(tileCoords);
         ReferencedEnvelope metaTileEnvelope = getMetaTileEnvelope(bbox, tileCoords, metaTileCoords);
-        MetaTileKey key = new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
-
-        // since this will be used for thread synchronization, we have to make
-        // sure two thread asking for the same meta tile will get the same key
-        // object
-        return metaTileKeys.unique(key);
+        return new MetaTileKey(mapKey, metaTileCoords, metaTileEnvelope);
     }
 
     private ReferencedEnvelope getMetaTileEnvelope(ReferencedEnvelope bbox, Point tileCoords, Point metaTileCoords) {
@@ -335,14 +389,44 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param request
      *
      */
-    public synchronized RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
-        CacheElement ce = (CacheElement) tileCache.get(key);
+    public RenderedImage getTile(MetaTileKey key, GetMapRequest request) {
+        RenderedImage[] tiles = tileCache.getIfPresent(key);
 
-        if (ce == null) {
+        if (tiles == null) {
             return null;
         }
 
-        return getTile(key, request, ce.tiles);
+        return getTile(key, request, tiles);
+    }
+
+    /**
+     * Returns the tiles of the meta tile, building them with the loader if they are not in the
+     * cache. Only one thread runs the loader for a given meta tile, the others asking for it in
+     * the meantime wait for it and share its result, or its failure
+     * 
+     * @param key
+     * @param loader
+     *
+     */
+    public RenderedImage[] getTiles(MetaTileKey key, Callable<RenderedImage[]> loader)
+            throws IOException {
+        try {
+            return tileCache.get(key, loader);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new ServiceException("Failed to build the meta tile", cause);
+        } catch (UncheckedExecutionException | ExecutionError e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
     }
 
     /**
@@ -371,16 +455,29 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
      * @param tiles
      *
      */
-    public synchronized void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
-        tileCache.put(key, new CacheElement(tiles));
+    public void storeTiles(MetaTileKey key, RenderedImage[] tiles) {
+        tileCache.put(key, tiles);
     }
 
-    class CacheElement {
-        RenderedImage[] tiles;
+    /**
+     * Returns the hit, miss, load and eviction statistics of the cache
+     */
+    public CacheStats getStatistics() {
+        return tileCache.stats();
+    }
 
-        public CacheElement(RenderedImage[] tiles) {
-            this.tiles = tiles;
-        }
+    /**
+     * Returns the number of meta tiles in the cache
+     */
+    public long size() {
+        return tileCache.size();
+    }
+
+    /**
+     * Removes all meta tiles from the cache
+     */
+    public void clear() {
+        tileCache.invalidateAll();
     }
 
     public void dataStoreChange(TransactionEvent event) throws WFSException {
@@ -388,18 +485,18 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
         // contains a string with part of the map request where the layer
         // name is included, but we would have to parse it and consider
         // also that the namespace may be missing in the getmap request
-        tileCache.clear();
+        tileCache.invalidateAll();
     }
 
     @Override
     public void onReset() {
         // data might have changed in the meantime
-        tileCache.clear();        
+        tileCache.invalidateAll();        
     }
 
     @Override
     public void onDispose() {
-        tileCache.clear();
+        tileCache.invalidateAll();
     }
 
     public void beforeReload() {
@@ -408,6 +505,6 @@ public class QuickTileCache implements TransactionListener, GeoServerLifecycleHa
 
     @Override
     public void onReload() {
-        tileCache.clear();
+        tileCache.invalidateAll();
     }
 }
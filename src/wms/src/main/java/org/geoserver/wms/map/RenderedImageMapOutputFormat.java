@@ -28,6 +28,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +45,9 @@ import javax.media.jai.ROIShape;
 import javax.media.jai.operator.ConstantDescriptor;
 import javax.media.jai.operator.MosaicDescriptor;
 
+import org.geoserver.metrics.MetricsRegistry;
+import org.geoserver.ows.trace.Span;
+import org.geoserver.ows.trace.Tracing;
 import org.geoserver.platform.GeoServerResourceLoader;
 import org.geoserver.platform.ServiceException;
 import org.geoserver.platform.resource.Resource;
@@ -422,7 +426,7 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         graphic.setRenderingHints(hintsMap);
 
         RenderingHints hints = new RenderingHints(hintsMap);
-        StreamingRenderer renderer = buildRenderer();
+        StreamingRenderer renderer = buildRenderer(mapContent, paintArea, maxMemory, memory);
         renderer.setThreadPool(DefaultWebMapService.getRenderingPool());
         renderer.setMapContent(mapContent);
         renderer.setJava2DHints(hints);
@@ -545,10 +549,16 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
             }
         };
         timeout.start();
+        final long renderingStart = System.nanoTime();
+        boolean renderingFailed = true;
         try {
             // finally render the image;
-            renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
-                    mapContent.getRenderingTransform());
+            try (Span span = Tracing.start("paint")) {
+                span.attribute("width", paintArea.width);
+                span.attribute("height", paintArea.height);
+                renderer.paint(graphic, paintArea, mapContent.getRenderingArea(),
+                        mapContent.getRenderingTransform());
+            }
 
             // apply watermarking
             if (layout != null) {
@@ -580,9 +590,13 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
                 serviceException = new ServiceException("Rendering process failed", renderError, "internalError");
             }
             
+            renderingFailed = serviceException != null;
+            
             // If there were no exceptions, return the map
             if (serviceException == null) {
-                return optimizeAndBuildMap(palette, preparedImage, mapContent);
+                try (Span span = Tracing.start("buildMap")) {
+                    return optimizeAndBuildMap(palette, preparedImage, mapContent);
+                }
             
             // If the exception format is PARTIALMAP, return whatever did get rendered with the exception
             } else if (saveMap) {
@@ -597,10 +611,21 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         } finally {
             timeout.stop();
             graphic.dispose();
+            recordRendering(System.nanoTime() - renderingStart, renderingFailed);
         }
         throw serviceException;
     }
 
+    /**
+     * Records the rendering time in the {@link MetricsRegistry}, if available
+     */
+    void recordRendering(long nanos, boolean failed) {
+        MetricsRegistry metrics = MetricsRegistry.get();
+        if (metrics != null) {
+            metrics.recordRendering(getMimeType(), nanos, failed);
+        }
+    }
+
     /**
      * Creates a {@link StreamingRenderer} instance (subclasses can provide
      * their own specialized subclasses of {@link StreamingRenderer}
@@ -611,6 +636,33 @@ public class RenderedImageMapOutputFormat extends AbstractMapOutputFormat {
         return new StreamingRenderer();
     }
 
+    /**
+     * Builds the renderer for the map, a {@link ParallelStreamingRenderer} if parallel rendering
+     * is enabled, the map has more than one layer, and the memory limits allow for at least two
+     * layer groups to be rendered in separate images. Subclasses overriding
+     * {@link #buildRenderer()} get their own renderer, always.
+     */
+    StreamingRenderer buildRenderer(WMSMapContent mapContent, Rectangle paintArea,
+            long maxMemory, long memory) {
+        StreamingRenderer renderer = buildRenderer();
+        ExecutorService pool = DefaultWebMapService.getLayerRenderingPool();
+        if (pool == null || mapContent.layers().size() < 2
+                || renderer.getClass() != StreamingRenderer.class) {
+            return renderer;
+        }
+        int maxGroups = DefaultWebMapService.getParallelRenderingThreads();
+        if (maxMemory > 0) {
+            // each group paints on its own transparent image
+            long groupMemory = getDrawingSurfaceMemoryUse(paintArea.width, paintArea.height, null,
+                    true);
+            maxGroups = (int) Math.min(maxGroups, (maxMemory - memory) / Math.max(1, groupMemory));
+        }
+        if (maxGroups < 2) {
+            return renderer;
+        }
+        return new ParallelStreamingRenderer(pool, maxGroups, this::buildRenderer);
+    }
+
     private boolean getFormatOptionAsBoolean(final GetMapRequest request, final String formatOptionKey) {
         if (request.getFormatOptions().get(formatOptionKey) != null) {
             String formatOptionValue = (String)request.getFormatOptions().get(formatOptionKey);
@@ -0,0 +1,80 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.MapProducerCapabilities;
+import org.geoserver.wms.RasterCleaner;
+import org.geoserver.wms.WMS;
+import org.geoserver.wms.WMSMapContent;
+import org.geoserver.wms.map.webp.WebPWriter;
+import org.geotools.util.logging.Logging;
+
+/**
+ * Handles a GetMap request that expects a map in WebP format, using a pure Java lossless encoder.
+ * <p>
+ * The <code>image/webp8</code> format quantizes the map to 256 colors first, like
+ * <code>image/png8</code>, trading some color accuracy for a smaller output.
+ * </p>
+ */
+public class WebPMapResponse extends RenderedImageMapResponse {
+
+    private static final Logger LOGGER = Logging.getLogger(WebPMapResponse.class);
+
+    public static final String MIME_TYPE = "image/webp";
+
+    public static final String PALETTED_FORMAT = "image/webp8";
+
+    private static final String[] OUTPUT_FORMATS = { MIME_TYPE, PALETTED_FORMAT };
+
+    /**
+     * Default capabilities for WebP format.
+     *
+     * <p>
+     * <ol>
+     * <li>tiled = supported</li>
+     * <li>multipleValues = unsupported</li>
+     * <li>paletteSupported = supported</li>
+     * <li>transparency = supported</li>
+     * </ol>
+     */
+    private static MapProducerCapabilities CAPABILITIES = new MapProducerCapabilities(true, false,
+            true, true, null);
+
+    public WebPMapResponse(WMS wms) {
+        super(OUTPUT_FORMATS, wms);
+    }
+
+    @Override
+    public void formatImageOutputStream(RenderedImage image, OutputStream outStream,
+            WMSMapContent mapContent) throws ServiceException, IOException {
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Writing webp image ...");
+        }
+        if (image.getWidth() > WebPWriter.MAX_SIZE || image.getHeight() > WebPWriter.MAX_SIZE) {
+            throw new ServiceException("WebP maps cannot be larger than " + WebPWriter.MAX_SIZE
+                    + "x" + WebPWriter.MAX_SIZE + " pixels", "InvalidParameterValue", "width");
+        }
+
+        image = applyPalette(image, mapContent, PALETTED_FORMAT, true);
+        new WebPWriter().writeWebP(image, outStream);
+        RasterCleaner.addImage(image);
+
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Writing webp image ... done!");
+        }
+    }
+
+    @Override
+    public MapProducerCapabilities getCapabilities(String outputFormat) {
+        return CAPABILITIES;
+    }
+}
@@ -0,0 +1,533 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.IndexColorModel;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A PNG encoder working straight off the image rasters, for the image layouts GeoServer
+ * rendering produces: paletted images (8 bits or packed 1/2/4 bits), 8 bits gray/RGB with or
+ * without alpha in interleaved bytes, and packed RGB/ARGB ints.
+ * <p>
+ * Paletted images are written as is, without any conversion, and the {@link Deflater} instances
+ * are pooled and reused across requests, sparing the native memory allocation each encoding
+ * would otherwise need. Images in other layouts are not supported, see
+ * {@link #isSupported(RenderedImage)}, the caller is expected to use another encoder for them.
+ * </p>
+ */
+public class FastPNGWriter {
+
+    /**
+     * The scanline filter strategies, {@link #ADAPTIVE} picks the best filter for each row using
+     * the minimum sum of absolute differences heuristic
+     */
+    public enum Filter {
+        NONE, SUB, UP, AVERAGE, PAETH, ADAPTIVE
+    }
+
+    static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+
+    static final byte[] IHDR = { 'I', 'H', 'D', 'R' };
+
+    static final byte[] PLTE = { 'P', 'L', 'T', 'E' };
+
+    static final byte[] TRNS = { 't', 'R', 'N', 'S' };
+
+    static final byte[] IDAT = { 'I', 'D', 'A', 'T' };
+
+    static final byte[] IEND = { 'I', 'E', 'N', 'D' };
+
+    static final int COLOR_GRAY = 0;
+
+    static final int COLOR_RGB = 2;
+
+    static final int COLOR_PALETTE = 3;
+
+    static final int COLOR_GRAY_ALPHA = 4;
+
+    static final int COLOR_RGBA = 6;
+
+    static final int IDAT_SIZE = 64 * 1024;
+
+    /**
+     * The deflaters ready to be reused, each one holds a few hundred kilobytes of native memory,
+     * so the pool is bounded
+     */
+    static final BlockingQueue<Deflater> DEFLATERS = new ArrayBlockingQueue<>(
+            Runtime.getRuntime().availableProcessors() * 2);
+
+    /**
+     * Returns true if the image can be written by this encoder
+     */
+    public boolean isSupported(RenderedImage image) {
+        return getLayout(image) != null;
+    }
+
+    /**
+     * Writes the image in PNG format
+     *
+     * @param image the image to be written
+     * @param out the destination
+     * @param compressionLevel the deflate compression level, between 0 and 9
+     * @param filter the scanline filter strategy
+     * @return true if the image was written, false if its layout is not supported, in which case
+     *         nothing is written
+     */
+    public boolean writePNG(RenderedImage image, OutputStream out, int compressionLevel,
+            Filter filter) throws IOException {
+        Layout layout = getLayout(image);
+        if (layout == null) {
+            return false;
+        }
+
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        writeInt(header, 0, image.getWidth());
+        writeInt(header, 4, image.getHeight());
+        header[8] = (byte) layout.bitDepth;
+        header[9] = (byte) layout.colorType;
+        writeChunk(out, IHDR, header, 13);
+        if (layout.colorType == COLOR_PALETTE) {
+            writePalette(out, (IndexColorModel) image.getColorModel(), layout.bitDepth);
+        }
+
+        Deflater deflater = borrowDeflater(compressionLevel, filter);
+        try {
+            IdatOutputStream idat = new IdatOutputStream(out);
+            DeflaterOutputStream dos = new DeflaterOutputStream(idat, deflater, IDAT_SIZE);
+            writeRows(image, layout, filter, dos);
+            dos.finish();
+            idat.flushChunk();
+        } finally {
+            returnDeflater(deflater);
+        }
+
+        writeChunk(out, IEND, new byte[0], 0);
+        out.flush();
+        return true;
+    }
+
+    static Deflater borrowDeflater(int level, Filter filter) {
+        Deflater deflater = DEFLATERS.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        deflater.setLevel(Math.max(0, Math.min(9, level)));
+        // as recommended by the zlib docs, filtered rows compress better with less string matching
+        deflater.setStrategy(
+                filter == Filter.NONE ? Deflater.DEFAULT_STRATEGY : Deflater.FILTERED);
+        return deflater;
+    }
+
+    static void returnDeflater(Deflater deflater) {
+        deflater.reset();
+        if (!DEFLATERS.offer(deflater)) {
+            deflater.end();
+        }
+    }
+
+    void writePalette(OutputStream out, IndexColorModel icm, int bitDepth) throws IOException {
+        int size = Math.min(icm.getMapSize(), 1 << bitDepth);
+        byte[] palette = new byte[size * 3];
+        int lastTranslucent = -1;
+        for (int i = 0; i < size; i++) {
+            palette[i * 3] = (byte) icm.getRed(i);
+            palette[i * 3 + 1] = (byte) icm.getGreen(i);
+            palette[i * 3 + 2] = (byte) icm.getBlue(i);
+            if (icm.getAlpha(i) != 255) {
+                lastTranslucent = i;
+            }
+        }
+        writeChunk(out, PLTE, palette, palette.length);
+
+        if (icm.getTransparency() != Transparency.OPAQUE && lastTranslucent >= 0) {
+            // only the entries up to the last non opaque one need to be listed
+            byte[] alphas = new byte[lastTranslucent + 1];
+            for (int i = 0; i < alphas.length; i++) {
+                alphas[i] = (byte) icm.getAlpha(i);
+            }
+            writeChunk(out, TRNS, alphas, alphas.length);
+        }
+    }
+
+    void writeRows(RenderedImage image, Layout layout, Filter filter, OutputStream out)
+            throws IOException {
+        Raster raster = getRaster(image);
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int bitsPerPixel = layout.bitDepth * layout.channels;
+        int rowLength = (width * bitsPerPixel + 7) / 8;
+        int bpp = Math.max(1, bitsPerPixel / 8);
+
+        byte[] previous = new byte[rowLength];
+        byte[] current = new byte[rowLength];
+        byte[] filtered = new byte[rowLength + 1];
+        byte[] candidate = filter == Filter.ADAPTIVE ? new byte[rowLength + 1] : null;
+        for (int y = 0; y < height; y++) {
+            layout.reader.read(raster, image.getMinX(), image.getMinY() + y, width, current);
+            if (filter == Filter.ADAPTIVE) {
+                long best = Long.MAX_VALUE;
+                for (Filter f : Filter.values()) {
+                    if (f == Filter.ADAPTIVE) {
+                        continue;
+                    }
+                    long cost = filter(f, current, previous, bpp, candidate);
+                    if (cost < best) {
+                        best = cost;
+                        byte[] swap = filtered;
+                        filtered = candidate;
+                        candidate = swap;
+                    }
+                }
+            } else {
+                filter(filter, current, previous, bpp, filtered);
+            }
+            out.write(filtered, 0, rowLength + 1);
+
+            byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+    }
+
+    /**
+     * Applies the filter on the row, returns the sum of the absolute values of the filtered bytes
+     * (as signed bytes)
+     */
+    static long filter(Filter filter, byte[] row, byte[] previous, int bpp, byte[] out) {
+        int length = row.length;
+        long cost = 0;
+        switch (filter) {
+        case NONE:
+            out[0] = 0;
+            System.arraycopy(row, 0, out, 1, length);
+            for (int i = 0; i < length; i++) {
+                cost += Math.abs(row[i]);
+            }
+            return cost;
+        case SUB:
+            out[0] = 1;
+            for (int i = 0; i < length; i++) {
+                int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                byte value = (byte) ((row[i] & 0xFF) - left);
+                out[i + 1] = value;
+                cost += Math.abs(value);
+            }
+            return cost;
+        case UP:
+            out[0] = 2;
+            for (int i = 0; i < length; i++) {
+                byte value = (byte) ((row[i] & 0xFF) - (previous[i] & 0xFF));
+                out[i + 1] = value;
+                cost += Math.abs(value);
+            }
+            return cost;
+        case AVERAGE:
+            out[0] = 3;
+            for (int i = 0; i < length; i++) {
+                int left = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                byte value = (byte) ((row[i] & 0xFF) - ((left + (previous[i] & 0xFF)) >> 1));
+                out[i + 1] = value;
+                cost += Math.abs(value);
+            }
+            return cost;
+        case PAETH:
+            out[0] = 4;
+            for (int i = 0; i < length; i++) {
+                int a = i >= bpp ? row[i - bpp] & 0xFF : 0;
+                int b = previous[i] & 0xFF;
+                int c = i >= bpp ? previous[i - bpp] & 0xFF : 0;
+                byte value = (byte) ((row[i] & 0xFF) - paeth(a, b, c));
+                out[i + 1] = value;
+                cost += Math.abs(value);
+            }
+            return cost;
+        default:
+            throw new IllegalArgumentException("Unexpected filter " + filter);
+        }
+    }
+
+    static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        } else if (pb <= pc) {
+            return b;
+        }
+        return c;
+    }
+
+    static Raster getRaster(RenderedImage image) {
+        if (image instanceof BufferedImage) {
+            return ((BufferedImage) image).getRaster();
+        } else if (image.getNumXTiles() == 1 && image.getNumYTiles() == 1) {
+            return image.getTile(image.getMinTileX(), image.getMinTileY());
+        }
+        return image.getData();
+    }
+
+    /**
+     * Figures out how to write the image, returns null if not supported
+     */
+    static Layout getLayout(RenderedImage image) {
+        ColorModel cm = image.getColorModel();
+        SampleModel sm = image.getSampleModel();
+        int dataType = sm.getDataType();
+        if (cm == null || image.getWidth() <= 0 || image.getHeight() <= 0) {
+            return null;
+        }
+
+        if (cm instanceof IndexColorModel && dataType == DataBuffer.TYPE_BYTE
+                && sm.getNumBands() == 1 && ((IndexColorModel) cm).getMapSize() <= 256) {
+            if (sm instanceof MultiPixelPackedSampleModel) {
+                int bits = ((MultiPixelPackedSampleModel) sm).getPixelBitStride();
+                if (bits == 1 || bits == 2 || bits == 4) {
+                    return new Layout(COLOR_PALETTE, bits, 1, FastPNGWriter::readPacked);
+                }
+            } else if (sm instanceof ComponentSampleModel
+                    && ((ComponentSampleModel) sm).getPixelStride() == 1) {
+                return new Layout(COLOR_PALETTE, 8, 1, FastPNGWriter::readBytes);
+            }
+        } else if (cm instanceof ComponentColorModel && dataType == DataBuffer.TYPE_BYTE
+                && sm instanceof ComponentSampleModel && !cm.isAlphaPremultiplied()
+                && singleBank((ComponentSampleModel) sm)) {
+            int bands = sm.getNumBands();
+            int csType = cm.getColorSpace().getType();
+            if (cm.getNumComponents() != bands) {
+                return null;
+            } else if (csType == ColorSpace.TYPE_GRAY && bands <= 2) {
+                return new Layout(bands == 1 ? COLOR_GRAY : COLOR_GRAY_ALPHA, 8, bands,
+                        FastPNGWriter::readBytes);
+            } else if (csType == ColorSpace.TYPE_RGB && (bands == 3 || bands == 4)
+                    && (bands == 3 || cm.hasAlpha())) {
+                return new Layout(bands == 3 ? COLOR_RGB : COLOR_RGBA, 8, bands,
+                        FastPNGWriter::readBytes);
+            }
+        } else if (cm instanceof DirectColorModel && dataType == DataBuffer.TYPE_INT
+                && sm instanceof SinglePixelPackedSampleModel && !cm.isAlphaPremultiplied()) {
+            DirectColorModel dcm = (DirectColorModel) cm;
+            if (dcm.getRedMask() == 0xFF0000 && dcm.getGreenMask() == 0xFF00
+                    && dcm.getBlueMask() == 0xFF) {
+                if (!dcm.hasAlpha()) {
+                    return new Layout(COLOR_RGB, 8, 3, FastPNGWriter::readInts);
+                } else if (dcm.getAlphaMask() == 0xFF000000) {
+                    return new Layout(COLOR_RGBA, 8, 4, FastPNGWriter::readInts);
+                }
+            }
+        }
+        return null;
+    }
+
+    static boolean singleBank(ComponentSampleModel sm) {
+        for (int bank : sm.getBankIndices()) {
+            if (bank != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the interleaved bytes of a row, in band order
+     */
+    static void readBytes(Raster raster, int minX, int y, int width, byte[] row) {
+        ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = buffer.getData(0);
+        int[] bandOffsets = sm.getBandOffsets();
+        // the sample model offset includes the first band offset
+        int offset = buffer.getOffset() + sm.getOffset(minX - raster.getSampleModelTranslateX(),
+                y - raster.getSampleModelTranslateY()) - bandOffsets[0];
+        int pixelStride = sm.getPixelStride();
+        int bands = bandOffsets.length;
+
+        boolean sequential = pixelStride == bands;
+        for (int b = 0; b < bands && sequential; b++) {
+            sequential = bandOffsets[b] == b;
+        }
+        if (sequential) {
+            System.arraycopy(data, offset, row, 0, width * bands);
+        } else {
+            int i = 0;
+            for (int x = 0; x < width; x++) {
+                int pixel = offset + x * pixelStride;
+                for (int b = 0; b < bands; b++) {
+                    row[i++] = data[pixel + bandOffsets[b]];
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the packed 1/2/4 bits pixels of a row, which are laid out just like in PNG
+     */
+    static void readPacked(Raster raster, int minX, int y, int width, byte[] row) {
+        MultiPixelPackedSampleModel sm = (MultiPixelPackedSampleModel) raster.getSampleModel();
+        DataBufferByte buffer = (DataBufferByte) raster.getDataBuffer();
+        byte[] data = buffer.getData(0);
+        int x = minX - raster.getSampleModelTranslateX();
+        int offset = buffer.getOffset()
+                + sm.getOffset(x, y - raster.getSampleModelTranslateY());
+        int bitOffset = sm.getBitOffset(x);
+        if (bitOffset == 0) {
+            System.arraycopy(data, offset, row, 0, row.length);
+        } else {
+            // not aligned on a byte boundary, shift the bits into place
+            int bits = sm.getPixelBitStride();
+            int mask = (1 << bits) - 1;
+            Arrays.fill(row, (byte) 0);
+            for (int i = 0; i < width; i++) {
+                int sourceBit = bitOffset + i * bits;
+                int value = (data[offset + sourceBit / 8] >> (8 - bits - sourceBit % 8)) & mask;
+                int targetBit = i * bits;
+                row[targetBit / 8] |= value << (8 - bits - targetBit % 8);
+            }
+        }
+    }
+
+    /**
+     * Reads a row of RGB/ARGB packed ints as RGB/RGBA bytes
+     */
+    static void readInts(Raster raster, int minX, int y, int width, byte[] row) {
+        SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        int[] data = buffer.getData(0);
+        int offset = buffer.getOffset() + sm.getOffset(minX - raster.getSampleModelTranslateX(),
+                y - raster.getSampleModelTranslateY());
+        boolean alpha = row.length == width * 4;
+        int i = 0;
+        for (int x = 0; x < width; x++) {
+            int pixel = data[offset + x];
+            row[i++] = (byte) (pixel >> 16);
+            row[i++] = (byte) (pixel >> 8);
+            row[i++] = (byte) pixel;
+            if (alpha) {
+                row[i++] = (byte) (pixel >>> 24);
+            }
+        }
+    }
+
+    static void writeInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    static void writeChunk(OutputStream out, byte[] type, byte[] data, int length)
+            throws IOException {
+        byte[] header = new byte[8];
+        writeInt(header, 0, length);
+        System.arraycopy(type, 0, header, 4, 4);
+        out.write(header);
+        out.write(data, 0, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(data, 0, length);
+        byte[] trailer = new byte[4];
+        writeInt(trailer, 0, (int) crc.getValue());
+        out.write(trailer);
+    }
+
+    /**
+     * Reads a row of pixels in PNG order
+     */
+    interface RowReader {
+        void read(Raster raster, int minX, int y, int width, byte[] row);
+    }
+
+    /**
+     * How an image is going to be written
+     */
+    static class Layout {
+
+        final int colorType;
+
+        final int bitDepth;
+
+        final int channels;
+
+        final RowReader reader;
+
+        Layout(int colorType, int bitDepth, int channels, RowReader reader) {
+            this.colorType = colorType;
+            this.bitDepth = bitDepth;
+            this.channels = channels;
+            this.reader = reader;
+        }
+    }
+
+    /**
+     * Splits the compressed data in IDAT chunks
+     */
+    static class IdatOutputStream extends OutputStream {
+
+        final OutputStream out;
+
+        final byte[] buffer = new byte[IDAT_SIZE];
+
+        int count;
+
+        IdatOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (count > 0) {
+                writeChunk(out, IDAT, buffer, count);
+                count = 0;
+            }
+        }
+    }
+}
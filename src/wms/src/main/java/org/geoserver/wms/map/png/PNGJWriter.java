@@ -65,6 +65,16 @@ public class PNGJWriter {
      *
      */
     private FilterType getFilterType(WMSMapContent mapContent) {
+        return isHighChangeRaster(mapContent) ? FilterType.FILTER_SUB : FilterType.FILTER_NONE;
+    }
+
+    /**
+     * Returns true if any of the map layers is painted with a "high change" raster symbolizer
+     * 
+     * @param mapContent
+     *
+     */
+    public static boolean isHighChangeRaster(WMSMapContent mapContent) {
         RasterSymbolizerVisitor visitor = new RasterSymbolizerVisitor();
         for (Layer layer : mapContent.layers()) {
             // check if the style has a raster symbolizer, don't trust the layer type as
@@ -75,12 +85,12 @@ public class PNGJWriter {
             if (style != null) {
                 style.accept(visitor);
                 if (visitor.highChangeRasterSymbolizer) {
-                    return FilterType.FILTER_SUB;
+                    return true;
                 }
             }
         }
 
-        return FilterType.FILTER_NONE;
+        return false;
     }
 
     /**
@@ -89,7 +99,7 @@ public class PNGJWriter {
      * 
      * @author Andrea Aime - GeoSolutions
      */
-    class RasterSymbolizerVisitor extends AbstractStyleVisitor {
+    static class RasterSymbolizerVisitor extends AbstractStyleVisitor {
 
         boolean highChangeRasterSymbolizer;
 
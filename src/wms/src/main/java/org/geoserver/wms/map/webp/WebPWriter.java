@@ -0,0 +1,937 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.webp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+/**
+ * A pure Java encoder for lossless WebP images (the VP8L bitstream), requiring no native
+ * libraries.
+ * <p>
+ * Images with up to 256 colors, like most vector maps, are encoded with a color table, packing
+ * several pixels per byte when there are 16 colors or less. Other images are encoded with the
+ * subtract green and predictor transforms. In both cases pixels are then compressed with LZ77
+ * backward references, a color cache and prefix (Huffman) codes. Fully transparent pixels are all
+ * written as transparent black, which makes no visible difference.
+ * </p>
+ */
+public class WebPWriter {
+
+    /**
+     * The max width and height of a lossless WebP image
+     */
+    public static final int MAX_SIZE = 1 << 14;
+
+    static final int PREDICTOR_TRANSFORM = 0;
+
+    static final int SUBTRACT_GREEN_TRANSFORM = 2;
+
+    static final int COLOR_INDEXING_TRANSFORM = 3;
+
+    static final int NUM_LITERAL_CODES = 256;
+
+    static final int NUM_LENGTH_CODES = 24;
+
+    static final int NUM_DISTANCE_CODES = 40;
+
+    static final int NUM_CODE_LENGTH_CODES = 19;
+
+    static final int[] CODE_LENGTH_ORDER = { 17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11,
+            12, 13, 14, 15 };
+
+    static final int MAX_CODE_LENGTH = 15;
+
+    static final int MAX_CODE_LENGTH_CODE_LENGTH = 7;
+
+    static final int CACHE_BITS = 10;
+
+    /**
+     * Distances up to 120 map to neighbour pixels, larger ones are linear distances plus 120
+     */
+    static final int DISTANCE_OFFSET = 120;
+
+    static final int MAX_DISTANCE = (1 << 20) - DISTANCE_OFFSET;
+
+    static final int MIN_MATCH = 3;
+
+    static final int MAX_MATCH = 4096;
+
+    static final int HASH_BITS = 15;
+
+    static final int MAX_CHAIN = 32;
+
+    static final int PREDICTOR_BITS = 4;
+
+    static final int NUM_PREDICTOR_MODES = 14;
+
+    static final int[] RESIDUAL_COSTS = new int[256];
+    static {
+        for (int i = 0; i < 256; i++) {
+            RESIDUAL_COSTS[i] = Math.min(i, 256 - i);
+        }
+    }
+
+    /**
+     * Writes the image as a lossless WebP
+     *
+     * @param image the image to be written, at most {@link #MAX_SIZE} pixels wide and high
+     * @param out the destination
+     */
+    public void writeWebP(RenderedImage image, OutputStream out) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width > MAX_SIZE || height > MAX_SIZE) {
+            throw new IllegalArgumentException("WebP images cannot be larger than " + MAX_SIZE
+                    + "x" + MAX_SIZE + " pixels, got " + width + "x" + height);
+        }
+        int[] argb = getPixels(image);
+        boolean hasAlpha = false;
+        for (int i = 0; i < argb.length; i++) {
+            int alpha = argb[i] >>> 24;
+            if (alpha == 0) {
+                argb[i] = 0;
+            }
+            hasAlpha |= alpha != 0xFF;
+        }
+
+        BitWriter bw = new BitWriter(argb.length / 2 + 1024);
+        bw.writeBits(0x2F, 8);
+        bw.writeBits(width - 1, 14);
+        bw.writeBits(height - 1, 14);
+        bw.writeBits(hasAlpha ? 1 : 0, 1);
+        bw.writeBits(0, 3);
+
+        int[] palette = getPalette(argb);
+        if (palette != null) {
+            bw.writeBits(1, 1);
+            bw.writeBits(COLOR_INDEXING_TRANSFORM, 2);
+            bw.writeBits(palette.length - 1, 8);
+            // the color table is delta coded
+            int[] deltas = new int[palette.length];
+            deltas[0] = palette[0];
+            for (int i = 1; i < palette.length; i++) {
+                deltas[i] = subPixels(palette[i], palette[i - 1]);
+            }
+            encodeImage(bw, deltas, palette.length, 1, false);
+            bw.writeBits(0, 1);
+
+            int widthBits = palette.length <= 2 ? 3 : palette.length <= 4 ? 2
+                    : palette.length <= 16 ? 1 : 0;
+            int packedWidth = subSampleSize(width, widthBits);
+            int[] packed = pack(argb, width, height, palette, widthBits, packedWidth);
+            encodeImage(bw, packed, packedWidth, height, true);
+        } else {
+            bw.writeBits(1, 1);
+            bw.writeBits(SUBTRACT_GREEN_TRANSFORM, 2);
+            for (int i = 0; i < argb.length; i++) {
+                int green = (argb[i] >> 8) & 0xFF;
+                argb[i] = subPixels(argb[i], (green << 16) | green);
+            }
+
+            bw.writeBits(1, 1);
+            bw.writeBits(PREDICTOR_TRANSFORM, 2);
+            bw.writeBits(PREDICTOR_BITS - 2, 3);
+            int modesWidth = subSampleSize(width, PREDICTOR_BITS);
+            int modesHeight = subSampleSize(height, PREDICTOR_BITS);
+            int[] modes = new int[modesWidth * modesHeight];
+            int[] residuals = predict(argb, width, height, modes, modesWidth);
+            encodeImage(bw, modes, modesWidth, modesHeight, false);
+            bw.writeBits(0, 1);
+            encodeImage(bw, residuals, width, height, true);
+        }
+
+        int size = bw.size();
+        int padding = size & 1;
+        byte[] header = new byte[20];
+        writeTag(header, 0, "RIFF");
+        writeInt(header, 4, 12 + size + padding);
+        writeTag(header, 8, "WEBP");
+        writeTag(header, 12, "VP8L");
+        writeInt(header, 16, size);
+        out.write(header);
+        bw.writeTo(out);
+        if (padding > 0) {
+            out.write(0);
+        }
+    }
+
+    /**
+     * Returns the image pixels as non premultiplied ARGB values
+     */
+    int[] getPixels(RenderedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage bi;
+        if (image instanceof BufferedImage) {
+            bi = (BufferedImage) image;
+        } else {
+            ColorModel cm = image.getColorModel();
+            if (cm == null) {
+                throw new IllegalArgumentException("Cannot encode images without a color model");
+            }
+            WritableRaster raster = cm.createCompatibleWritableRaster(width, height);
+            image.copyData(raster.createWritableTranslatedChild(image.getMinX(),
+                    image.getMinY()));
+            bi = new BufferedImage(cm, raster, cm.isAlphaPremultiplied(), null);
+        }
+        return bi.getRGB(0, 0, width, height, null, 0, width);
+    }
+
+    /**
+     * Returns the sorted colors of the image, or null if there are more than 256
+     */
+    int[] getPalette(int[] argb) {
+        // open addressing set, large enough to stay sparse
+        int[] colors = new int[1024];
+        boolean[] used = new boolean[1024];
+        int count = 0;
+        int last = 0;
+        boolean first = true;
+        for (int pixel : argb) {
+            if (pixel == last && !first) {
+                continue;
+            }
+            first = false;
+            last = pixel;
+            int slot = (pixel * 0x1E35A7BD) >>> 22;
+            while (used[slot] && colors[slot] != pixel) {
+                slot = (slot + 1) & 1023;
+            }
+            if (!used[slot]) {
+                if (++count > 256) {
+                    return null;
+                }
+                used[slot] = true;
+                colors[slot] = pixel;
+            }
+        }
+
+        int[] palette = new int[count];
+        for (int i = 0, j = 0; i < colors.length; i++) {
+            if (used[i]) {
+                palette[j++] = colors[i];
+            }
+        }
+        Arrays.sort(palette);
+        return palette;
+    }
+
+    /**
+     * Replaces the pixels with their palette index, packing several of them in each pixel when
+     * the palette is small
+     */
+    int[] pack(int[] argb, int width, int height, int[] palette, int widthBits,
+            int packedWidth) {
+        int[] packed = new int[packedWidth * height];
+        int bitsPerPixel = 8 >> widthBits;
+        int mask = (1 << widthBits) - 1;
+        int lastColor = palette[0];
+        int lastIndex = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pixel = argb[y * width + x];
+                if (pixel != lastColor) {
+                    lastColor = pixel;
+                    lastIndex = Arrays.binarySearch(palette, pixel);
+                }
+                // the index goes in the green channel
+                packed[y * packedWidth + (x >> widthBits)] |= lastIndex << (8
+                        + (x & mask) * bitsPerPixel);
+            }
+        }
+        for (int i = 0; i < packed.length; i++) {
+            packed[i] |= 0xFF000000;
+        }
+        return packed;
+    }
+
+    /**
+     * Picks the best predictor for each block, stores it in the modes image and returns the
+     * prediction residuals
+     */
+    int[] predict(int[] argb, int width, int height, int[] modes, int modesWidth) {
+        int blockSize = 1 << PREDICTOR_BITS;
+        long[] costs = new long[NUM_PREDICTOR_MODES];
+        for (int by = 0; by < height; by += blockSize) {
+            for (int bx = 0; bx < width; bx += blockSize) {
+                Arrays.fill(costs, 0);
+                int maxY = Math.min(by + blockSize, height);
+                int maxX = Math.min(bx + blockSize, width);
+                for (int y = Math.max(by, 1); y < maxY; y++) {
+                    for (int x = Math.max(bx, 1); x < maxX; x++) {
+                        addCosts(costs, argb, y * width + x, width);
+                    }
+                }
+                int bestMode = 0;
+                for (int mode = 1; mode < NUM_PREDICTOR_MODES; mode++) {
+                    if (costs[mode] < costs[bestMode]) {
+                        bestMode = mode;
+                    }
+                }
+                modes[(by >> PREDICTOR_BITS) * modesWidth + (bx >> PREDICTOR_BITS)] = 0xFF000000
+                        | (bestMode << 8);
+            }
+        }
+
+        int[] residuals = new int[argb.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int pos = y * width + x;
+                int prediction;
+                if (y == 0) {
+                    prediction = x == 0 ? 0xFF000000 : argb[pos - 1];
+                } else if (x == 0) {
+                    prediction = argb[pos - width];
+                } else {
+                    int mode = (modes[(y >> PREDICTOR_BITS) * modesWidth
+                            + (x >> PREDICTOR_BITS)] >> 8) & 0xF;
+                    prediction = predict(mode, argb, pos, width);
+                }
+                residuals[pos] = subPixels(argb[pos], prediction);
+            }
+        }
+        return residuals;
+    }
+
+    /**
+     * Adds the cost of predicting the pixel with each mode, all at once as it is much faster than
+     * going through {@link #predict(int, int[], int, int)} for each mode
+     */
+    static void addCosts(long[] costs, int[] argb, int pos, int width) {
+        int pixel = argb[pos];
+        int left = argb[pos - 1];
+        int top = argb[pos - width];
+        int topRight = argb[pos - width + 1];
+        int topLeft = argb[pos - width - 1];
+        int leftTop = average(left, top);
+        costs[0] += residualCost(subPixels(pixel, 0xFF000000));
+        costs[1] += residualCost(subPixels(pixel, left));
+        costs[2] += residualCost(subPixels(pixel, top));
+        costs[3] += residualCost(subPixels(pixel, topRight));
+        costs[4] += residualCost(subPixels(pixel, topLeft));
+        costs[5] += residualCost(subPixels(pixel, average(average(left, topRight), top)));
+        costs[6] += residualCost(subPixels(pixel, average(left, topLeft)));
+        costs[7] += residualCost(subPixels(pixel, leftTop));
+        costs[8] += residualCost(subPixels(pixel, average(topLeft, top)));
+        costs[9] += residualCost(subPixels(pixel, average(top, topRight)));
+        costs[10] += residualCost(subPixels(pixel,
+                average(average(left, topLeft), average(top, topRight))));
+        costs[11] += residualCost(subPixels(pixel, select(left, top, topLeft)));
+        costs[12] += residualCost(subPixels(pixel, clampAddSubtractFull(left, top, topLeft)));
+        costs[13] += residualCost(subPixels(pixel, clampAddSubtractHalf(leftTop, topLeft)));
+    }
+
+    static int predict(int mode, int[] argb, int pos, int width) {
+        int left = argb[pos - 1];
+        int top = argb[pos - width];
+        // on the last column the top right pixel is the first one of the current row
+        int topRight = argb[pos - width + 1];
+        int topLeft = argb[pos - width - 1];
+        switch (mode) {
+        case 0:
+            return 0xFF000000;
+        case 1:
+            return left;
+        case 2:
+            return top;
+        case 3:
+            return topRight;
+        case 4:
+            return topLeft;
+        case 5:
+            return average(average(left, topRight), top);
+        case 6:
+            return average(left, topLeft);
+        case 7:
+            return average(left, top);
+        case 8:
+            return average(topLeft, top);
+        case 9:
+            return average(top, topRight);
+        case 10:
+            return average(average(left, topLeft), average(top, topRight));
+        case 11:
+            return select(left, top, topLeft);
+        case 12:
+            return clampAddSubtractFull(left, top, topLeft);
+        case 13:
+            return clampAddSubtractHalf(average(left, top), topLeft);
+        default:
+            throw new IllegalArgumentException("Unsupported predictor " + mode);
+        }
+    }
+
+    static int average(int a, int b) {
+        return (((a ^ b) & 0xFEFEFEFE) >>> 1) + (a & b);
+    }
+
+    static int select(int left, int top, int topLeft) {
+        int predictLeft = Math.abs((top >>> 24) - (topLeft >>> 24))
+                + Math.abs(((top >> 16) & 0xFF) - ((topLeft >> 16) & 0xFF))
+                + Math.abs(((top >> 8) & 0xFF) - ((topLeft >> 8) & 0xFF))
+                + Math.abs((top & 0xFF) - (topLeft & 0xFF));
+        int predictTop = Math.abs((left >>> 24) - (topLeft >>> 24))
+                + Math.abs(((left >> 16) & 0xFF) - ((topLeft >> 16) & 0xFF))
+                + Math.abs(((left >> 8) & 0xFF) - ((topLeft >> 8) & 0xFF))
+                + Math.abs((left & 0xFF) - (topLeft & 0xFF));
+        return predictLeft < predictTop ? left : top;
+    }
+
+    static int clampAddSubtractFull(int left, int top, int topLeft) {
+        return clamp((left >>> 24) + (top >>> 24) - (topLeft >>> 24)) << 24
+                | clamp(((left >> 16) & 0xFF) + ((top >> 16) & 0xFF)
+                        - ((topLeft >> 16) & 0xFF)) << 16
+                | clamp(((left >> 8) & 0xFF) + ((top >> 8) & 0xFF)
+                        - ((topLeft >> 8) & 0xFF)) << 8
+                | clamp((left & 0xFF) + (top & 0xFF) - (topLeft & 0xFF));
+    }
+
+    static int clampAddSubtractHalf(int average, int topLeft) {
+        return clampHalf(average >>> 24, topLeft >>> 24) << 24
+                | clampHalf((average >> 16) & 0xFF, (topLeft >> 16) & 0xFF) << 16
+                | clampHalf((average >> 8) & 0xFF, (topLeft >> 8) & 0xFF) << 8
+                | clampHalf(average & 0xFF, topLeft & 0xFF);
+    }
+
+    static int clampHalf(int a, int b) {
+        return clamp(a + (a - b) / 2);
+    }
+
+    static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    /**
+     * Estimates the cost of coding a residual, small positive or negative values are cheaper
+     */
+    static int residualCost(int residual) {
+        return RESIDUAL_COSTS[residual >>> 24] + RESIDUAL_COSTS[(residual >> 16) & 0xFF]
+                + RESIDUAL_COSTS[(residual >> 8) & 0xFF] + RESIDUAL_COSTS[residual & 0xFF];
+    }
+
+    /**
+     * Subtracts each channel of b from the one of a, modulo 256
+     */
+    static int subPixels(int a, int b) {
+        int alphaAndGreen = 0x00FF00FF + (a & 0xFF00FF00) - (b & 0xFF00FF00);
+        int redAndBlue = 0xFF00FF00 + (a & 0x00FF00FF) - (b & 0x00FF00FF);
+        return (alphaAndGreen & 0xFF00FF00) | (redAndBlue & 0x00FF00FF);
+    }
+
+    static int subSampleSize(int size, int bits) {
+        return (size + (1 << bits) - 1) >> bits;
+    }
+
+    /**
+     * Compresses the pixels with LZ77 and prefix codes. The main image can use a color cache and
+     * has no meta prefix codes, the transform ones use neither
+     */
+    void encodeImage(BitWriter bw, int[] argb, int width, int height, boolean main) {
+        int cacheBits = main ? CACHE_BITS : 0;
+        Tokens tokens = tokenize(argb, width, cacheBits);
+
+        int[] green = new int[NUM_LITERAL_CODES + NUM_LENGTH_CODES
+                + (cacheBits > 0 ? 1 << cacheBits : 0)];
+        int[] red = new int[NUM_LITERAL_CODES];
+        int[] blue = new int[NUM_LITERAL_CODES];
+        int[] alpha = new int[NUM_LITERAL_CODES];
+        int[] distance = new int[NUM_DISTANCE_CODES];
+        for (int i = 0; i < tokens.size; i++) {
+            int value = tokens.values[i];
+            switch (tokens.types[i]) {
+            case Tokens.LITERAL:
+                alpha[value >>> 24]++;
+                red[(value >> 16) & 0xFF]++;
+                green[(value >> 8) & 0xFF]++;
+                blue[value & 0xFF]++;
+                break;
+            case Tokens.CACHE:
+                green[NUM_LITERAL_CODES + NUM_LENGTH_CODES + value]++;
+                break;
+            default:
+                green[NUM_LITERAL_CODES + prefixCode(value)]++;
+                distance[prefixCode(tokens.distances[i])]++;
+            }
+        }
+
+        if (cacheBits > 0) {
+            bw.writeBits(1, 1);
+            bw.writeBits(cacheBits, 4);
+        } else {
+            bw.writeBits(0, 1);
+        }
+        if (main) {
+            // a single group of prefix codes for the whole image
+            bw.writeBits(0, 1);
+        }
+        PrefixCode greenCode = writePrefixCode(bw, green);
+        PrefixCode redCode = writePrefixCode(bw, red);
+        PrefixCode blueCode = writePrefixCode(bw, blue);
+        PrefixCode alphaCode = writePrefixCode(bw, alpha);
+        PrefixCode distanceCode = writePrefixCode(bw, distance);
+
+        for (int i = 0; i < tokens.size; i++) {
+            int value = tokens.values[i];
+            switch (tokens.types[i]) {
+            case Tokens.LITERAL:
+                greenCode.write(bw, (value >> 8) & 0xFF);
+                redCode.write(bw, (value >> 16) & 0xFF);
+                blueCode.write(bw, value & 0xFF);
+                alphaCode.write(bw, value >>> 24);
+                break;
+            case Tokens.CACHE:
+                greenCode.write(bw, NUM_LITERAL_CODES + NUM_LENGTH_CODES + value);
+                break;
+            default:
+                greenCode.write(bw, NUM_LITERAL_CODES + prefixCode(value));
+                writePrefixExtraBits(bw, value);
+                int distanceValue = tokens.distances[i];
+                distanceCode.write(bw, prefixCode(distanceValue));
+                writePrefixExtraBits(bw, distanceValue);
+            }
+        }
+    }
+
+    /**
+     * Turns the pixels into literals, color cache hits and backward references
+     */
+    Tokens tokenize(int[] argb, int width, int cacheBits) {
+        int n = argb.length;
+        Tokens tokens = new Tokens(n);
+        int[] head = new int[1 << HASH_BITS];
+        Arrays.fill(head, -1);
+        int[] chain = new int[n];
+        int[] cache = cacheBits > 0 ? new int[1 << cacheBits] : null;
+        boolean[] cached = cacheBits > 0 ? new boolean[1 << cacheBits] : null;
+
+        int i = 0;
+        while (i < n) {
+            int bestLength = 0;
+            int bestDistance = 0;
+            int maxLength = Math.min(MAX_MATCH, n - i);
+            if (maxLength >= MIN_MATCH) {
+                // the pixel on the left and the one above are the most likely matches
+                int length = matchLength(argb, i - 1, i, maxLength);
+                if (length > bestLength) {
+                    bestLength = length;
+                    bestDistance = 1;
+                }
+                if (i >= width) {
+                    length = matchLength(argb, i - width, i, maxLength);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = width;
+                    }
+                }
+                int candidate = head[hash(argb, i)];
+                for (int depth = 0; candidate >= 0 && depth < MAX_CHAIN
+                        && bestLength < maxLength; depth++) {
+                    if (i - candidate > MAX_DISTANCE) {
+                        break;
+                    }
+                    length = matchLength(argb, candidate, i, maxLength);
+                    if (length > bestLength) {
+                        bestLength = length;
+                        bestDistance = i - candidate;
+                    }
+                    candidate = chain[candidate];
+                }
+            }
+
+            int count;
+            if (bestLength >= MIN_MATCH) {
+                tokens.addCopy(bestLength, distanceCode(bestDistance, width));
+                count = bestLength;
+            } else {
+                int pixel = argb[i];
+                int key = cacheBits > 0 ? cacheKey(pixel, cacheBits) : 0;
+                if (cacheBits > 0 && cached[key] && cache[key] == pixel) {
+                    tokens.add(Tokens.CACHE, key);
+                } else {
+                    tokens.add(Tokens.LITERAL, pixel);
+                }
+                count = 1;
+            }
+
+            for (int end = i + count; i < end; i++) {
+                if (i + 1 < n) {
+                    int h = hash(argb, i);
+                    chain[i] = head[h];
+                    head[h] = i;
+                }
+                if (cacheBits > 0) {
+                    int key = cacheKey(argb[i], cacheBits);
+                    cache[key] = argb[i];
+                    cached[key] = true;
+                }
+            }
+        }
+        return tokens;
+    }
+
+    static int matchLength(int[] argb, int from, int to, int maxLength) {
+        if (from < 0) {
+            return 0;
+        }
+        int length = 0;
+        while (length < maxLength && argb[from + length] == argb[to + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    static int hash(int[] argb, int pos) {
+        int next = pos + 1 < argb.length ? argb[pos + 1] : 0;
+        return ((argb[pos] * 0x9E3779B1) ^ (next * 0x85EBCA6B)) >>> (32 - HASH_BITS);
+    }
+
+    static int cacheKey(int argb, int cacheBits) {
+        return (argb * 0x1E35A7BD) >>> (32 - cacheBits);
+    }
+
+    /**
+     * Maps a linear distance to its distance code, using the short codes for the pixel above and
+     * the one on the left
+     */
+    static int distanceCode(int distance, int width) {
+        if (distance == width) {
+            return 1;
+        } else if (distance == 1) {
+            return 2;
+        }
+        return distance + DISTANCE_OFFSET;
+    }
+
+    /**
+     * Returns the prefix code of a length or distance value
+     */
+    static int prefixCode(int value) {
+        int v = value - 1;
+        if (v < 4) {
+            return v;
+        }
+        int highBit = 31 - Integer.numberOfLeadingZeros(v);
+        int secondBit = (v >> (highBit - 1)) & 1;
+        return 2 * highBit + secondBit;
+    }
+
+    static void writePrefixExtraBits(BitWriter bw, int value) {
+        int v = value - 1;
+        if (v >= 4) {
+            int extraBits = 30 - Integer.numberOfLeadingZeros(v);
+            bw.writeBits(v & ((1 << extraBits) - 1), extraBits);
+        }
+    }
+
+    /**
+     * Builds the prefix code for the given symbol counts and writes it out
+     */
+    PrefixCode writePrefixCode(BitWriter bw, int[] counts) {
+        int used = 0;
+        int[] symbols = new int[2];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                if (used < 2) {
+                    symbols[used] = i;
+                }
+                used++;
+            }
+        }
+
+        int[] lengths = new int[counts.length];
+        if (used <= 2 && symbols[0] < 256 && symbols[1] < 256) {
+            // simple code, one symbol takes no bits, two symbols take one bit each
+            bw.writeBits(1, 1);
+            bw.writeBits(Math.max(used, 1) - 1, 1);
+            if (symbols[0] < 2) {
+                bw.writeBits(0, 1);
+                bw.writeBits(symbols[0], 1);
+            } else {
+                bw.writeBits(1, 1);
+                bw.writeBits(symbols[0], 8);
+            }
+            if (used == 2) {
+                bw.writeBits(symbols[1], 8);
+                lengths[symbols[0]] = 1;
+                lengths[symbols[1]] = 1;
+            }
+            return new PrefixCode(lengths);
+        }
+
+        if (used == 1) {
+            // a complete code needs two symbols
+            counts = counts.clone();
+            counts[symbols[0] == 0 ? 1 : 0] = 1;
+        }
+        lengths = codeLengths(counts, MAX_CODE_LENGTH);
+
+        // run length encode the code lengths
+        int[] tokens = new int[lengths.length];
+        int[] extras = new int[lengths.length];
+        int size = 0;
+        for (int i = 0; i < lengths.length;) {
+            int value = lengths[i];
+            int run = 1;
+            while (i + run < lengths.length && lengths[i + run] == value) {
+                run++;
+            }
+            i += run;
+            if (value == 0) {
+                while (run >= 11) {
+                    int repeat = Math.min(run, 138);
+                    tokens[size] = 18;
+                    extras[size++] = repeat - 11;
+                    run -= repeat;
+                }
+                if (run >= 3) {
+                    tokens[size] = 17;
+                    extras[size++] = run - 3;
+                    run = 0;
+                }
+            } else {
+                tokens[size++] = value;
+                run--;
+                while (run >= 3) {
+                    int repeat = Math.min(run, 6);
+                    tokens[size] = 16;
+                    extras[size++] = repeat - 3;
+                    run -= repeat;
+                }
+            }
+            while (run-- > 0) {
+                tokens[size++] = value;
+            }
+        }
+
+        int[] tokenCounts = new int[NUM_CODE_LENGTH_CODES];
+        int usedTokens = 0;
+        for (int i = 0; i < size; i++) {
+            if (tokenCounts[tokens[i]]++ == 0) {
+                usedTokens++;
+            }
+        }
+        if (usedTokens == 1) {
+            tokenCounts[tokens[0] == 0 ? 1 : 0] = 1;
+        }
+        PrefixCode lengthsCode = new PrefixCode(codeLengths(tokenCounts,
+                MAX_CODE_LENGTH_CODE_LENGTH));
+        int codes = NUM_CODE_LENGTH_CODES;
+        while (codes > 4 && lengthsCode.lengths[CODE_LENGTH_ORDER[codes - 1]] == 0) {
+            codes--;
+        }
+
+        bw.writeBits(0, 1);
+        bw.writeBits(codes - 4, 4);
+        for (int i = 0; i < codes; i++) {
+            bw.writeBits(lengthsCode.lengths[CODE_LENGTH_ORDER[i]], 3);
+        }
+        // all the code lengths are written
+        bw.writeBits(0, 1);
+        for (int i = 0; i < size; i++) {
+            lengthsCode.write(bw, tokens[i]);
+            if (tokens[i] == 16) {
+                bw.writeBits(extras[i], 2);
+            } else if (tokens[i] == 17) {
+                bw.writeBits(extras[i], 3);
+            } else if (tokens[i] == 18) {
+                bw.writeBits(extras[i], 7);
+            }
+        }
+        return new PrefixCode(lengths);
+    }
+
+    /**
+     * Computes Huffman code lengths no longer than maxLength, for at least two used symbols
+     */
+    static int[] codeLengths(int[] counts, int maxLength) {
+        int n = counts.length;
+        long[] weights = new long[2 * n];
+        int[] parents = new int[2 * n];
+        int[] lengths = new int[n];
+        long[] scaled = new long[n];
+        for (int i = 0; i < n; i++) {
+            scaled[i] = counts[i];
+        }
+        while (true) {
+            PriorityQueue<long[]> queue = new PriorityQueue<>(n, (a, b) -> a[0] != b[0]
+                    ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+            for (int i = 0; i < n; i++) {
+                if (scaled[i] > 0) {
+                    weights[i] = scaled[i];
+                    queue.add(new long[] { scaled[i], i });
+                }
+            }
+            int next = n;
+            while (queue.size() > 1) {
+                long[] a = queue.poll();
+                long[] b = queue.poll();
+                weights[next] = a[0] + b[0];
+                parents[(int) a[1]] = next;
+                parents[(int) b[1]] = next;
+                queue.add(new long[] { weights[next], next });
+                next++;
+            }
+            int root = next - 1;
+
+            int max = 0;
+            for (int i = 0; i < n; i++) {
+                lengths[i] = 0;
+                if (scaled[i] > 0) {
+                    for (int node = i; node != root; node = parents[node]) {
+                        lengths[i]++;
+                    }
+                    max = Math.max(max, lengths[i]);
+                }
+            }
+            if (max <= maxLength) {
+                return lengths;
+            }
+            // flatten the distribution until the tree is shallow enough
+            for (int i = 0; i < n; i++) {
+                if (scaled[i] > 0) {
+                    scaled[i] = (scaled[i] + 1) >> 1;
+                }
+            }
+        }
+    }
+
+    static void writeTag(byte[] buffer, int offset, String tag) {
+        for (int i = 0; i < 4; i++) {
+            buffer[offset + i] = (byte) tag.charAt(i);
+        }
+    }
+
+    static void writeInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+
+    /**
+     * A canonical prefix code, with the codes bit reversed as they are written least significant
+     * bit first
+     */
+    static class PrefixCode {
+
+        final int[] lengths;
+
+        final int[] codes;
+
+        PrefixCode(int[] lengths) {
+            this.lengths = lengths;
+            this.codes = new int[lengths.length];
+            int[] lengthCounts = new int[MAX_CODE_LENGTH + 1];
+            for (int length : lengths) {
+                lengthCounts[length]++;
+            }
+            lengthCounts[0] = 0;
+            int[] nextCode = new int[MAX_CODE_LENGTH + 1];
+            int code = 0;
+            for (int bits = 1; bits <= MAX_CODE_LENGTH; bits++) {
+                code = (code + lengthCounts[bits - 1]) << 1;
+                nextCode[bits] = code;
+            }
+            for (int i = 0; i < lengths.length; i++) {
+                int length = lengths[i];
+                if (length > 0) {
+                    codes[i] = Integer.reverse(nextCode[length]++) >>> (32 - length);
+                }
+            }
+        }
+
+        void write(BitWriter bw, int symbol) {
+            bw.writeBits(codes[symbol], lengths[symbol]);
+        }
+    }
+
+    /**
+     * The compressed pixels, as literals, color cache hits and backward references
+     */
+    static class Tokens {
+
+        static final byte LITERAL = 0;
+
+        static final byte CACHE = 1;
+
+        static final byte COPY = 2;
+
+        final byte[] types;
+
+        /**
+         * The literal color, the cache index or the copy length
+         */
+        final int[] values;
+
+        final int[] distances;
+
+        int size;
+
+        Tokens(int capacity) {
+            types = new byte[capacity];
+            values = new int[capacity];
+            distances = new int[capacity];
+        }
+
+        void add(byte type, int value) {
+            types[size] = type;
+            values[size++] = value;
+        }
+
+        void addCopy(int length, int distance) {
+            distances[size] = distance;
+            add(COPY, length);
+        }
+    }
+
+    /**
+     * Accumulates bits least significant first
+     */
+    static class BitWriter {
+
+        byte[] buffer;
+
+        int position;
+
+        long bits;
+
+        int used;
+
+        BitWriter(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeBits(int value, int count) {
+            bits |= (value & ((1L << count) - 1)) << used;
+            used += count;
+            while (used >= 8) {
+                if (position == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                buffer[position++] = (byte) bits;
+                bits >>>= 8;
+                used -= 8;
+            }
+        }
+
+        int size() {
+            return position + (used + 7) / 8;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buffer, 0, position);
+            if (used > 0) {
+                out.write((int) bits);
+            }
+        }
+    }
+}
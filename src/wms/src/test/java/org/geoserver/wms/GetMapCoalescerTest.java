@@ -0,0 +1,203 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.geoserver.ows.Dispatcher;
+import org.geoserver.ows.Request;
+import org.geoserver.ows.Response;
+import org.geoserver.platform.Operation;
+import org.geoserver.platform.Service;
+import org.geoserver.platform.ServiceException;
+import org.geoserver.wms.GetMapCoalescer.CoalescedMap;
+import org.geoserver.wms.map.RawMap;
+import org.geotools.util.Version;
+import org.junit.After;
+import org.junit.Test;
+
+public class GetMapCoalescerTest {
+
+    static final byte[] CONTENTS = "the map".getBytes();
+
+    GetMapCoalescer coalescer = new GetMapCoalescer(10000, 1024);
+
+    @After
+    public void cleanup() {
+        Dispatcher.REQUEST.remove();
+    }
+
+    @Test
+    public void testDisabled() {
+        assertFalse(new GetMapCoalescer(0, 1024).isEnabled());
+        assertTrue(coalescer.isEnabled());
+    }
+
+    @Test
+    public void testKey() {
+        Request request = request("layers", "topp:states", "bbox", "0,0,10,10");
+        GetMapRequest getMap = getMapRequest(request);
+        String key = coalescer.getKey(getMap, request);
+
+        // parameter order and case do not matter
+        Request other = request("BBOX", "0,0,10,10", "LAYERS", "topp:states");
+        assertEquals(key, coalescer.getKey(getMapRequest(other), other));
+
+        // but the virtual service does
+        other = request("layers", "topp:states", "bbox", "0,0,10,10");
+        other.setContext("topp");
+        assertNotEquals(key, coalescer.getKey(getMapRequest(other), other));
+
+        // GetMap requests not being the dispatched operation are not coalesced
+        assertNull(coalescer.getKey(new GetMapRequest(), request));
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        AtomicInteger renderings = new AtomicInteger();
+        CountDownLatch rendering = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<GetMapRequest, WebMap> producer = r -> {
+            renderings.incrementAndGet();
+            rendering.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return new RawMap(null, CONTENTS, "image/png");
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            Future<byte[]> leader = executor.submit(() -> dispatch(producer));
+            rendering.await();
+            List<Future<byte[]>> followers = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                followers.add(executor.submit(() -> dispatch(producer)));
+            }
+            // give the followers a chance to start waiting
+            while (coalescer.flights.size() == 0) {
+                Thread.sleep(10);
+            }
+            Thread.sleep(200);
+            release.countDown();
+
+            assertArrayEquals(CONTENTS, leader.get());
+            for (Future<byte[]> follower : followers) {
+                assertArrayEquals(CONTENTS, follower.get());
+            }
+            assertEquals(1, renderings.get());
+            assertEquals(3, coalescer.getCoalescedCount());
+            assertTrue(coalescer.flights.isEmpty());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testTooLarge() throws Exception {
+        GetMapCoalescer coalescer = new GetMapCoalescer(10000, 4);
+        Request request = request("layers", "topp:states");
+        GetMapRequest getMap = getMapRequest(request);
+        Dispatcher.REQUEST.set(request);
+        WebMap map = coalescer.getMap(getMap, r -> new RawMap(null, CONTENTS, "image/png"));
+        Response response = coalescer.responseDispatched(request, request.getOperation(), map,
+                new TestResponse());
+        response.write(map, new ByteArrayOutputStream(), request.getOperation());
+        GetMapCoalescer.Flight flight = GetMapCoalescer.LEADER.get();
+        coalescer.finished(request);
+
+        // the waiting requests will render on their own
+        assertNull(flight.await(0));
+        assertNull(GetMapCoalescer.LEADER.get());
+        assertTrue(coalescer.flights.isEmpty());
+    }
+
+    byte[] dispatch(Function<GetMapRequest, WebMap> producer) throws IOException {
+        Request request = request("layers", "topp:states", "format", "image/png");
+        GetMapRequest getMap = getMapRequest(request);
+        Dispatcher.REQUEST.set(request);
+        try {
+            WebMap map = coalescer.getMap(getMap, producer);
+            Response response = coalescer.responseDispatched(request, request.getOperation(), map,
+                    new TestResponse());
+            ByteArrayOutputStream bos = new ByteArrayOutputStream();
+            response.write(map, bos, request.getOperation());
+            if (map instanceof CoalescedMap) {
+                assertEquals("image/png", map.getMimeType());
+                assertEquals("test.png", map.getAttachmentFileName());
+            }
+            return bos.toByteArray();
+        } finally {
+            coalescer.finished(request);
+            Dispatcher.REQUEST.remove();
+        }
+    }
+
+    Request request(String... kvp) {
+        Map<String, String> raw = new HashMap<>();
+        for (int i = 0; i < kvp.length; i += 2) {
+            raw.put(kvp[i], kvp[i + 1]);
+        }
+        Request request = new Request();
+        request.setRawKvp(raw);
+        request.setPath("wms");
+        return request;
+    }
+
+    @SuppressWarnings("unchecked")
+    GetMapRequest getMapRequest(Request request) {
+        GetMapRequest getMap = new GetMapRequest();
+        getMap.setRawKvp(request.getRawKvp());
+        Service service = new Service("wms", new Object(), new Version("1.1.1"),
+                Arrays.asList("GetMap"));
+        request.setOperation(new Operation("GetMap", service, null, new Object[] { getMap }));
+        return getMap;
+    }
+
+    static class TestResponse extends Response {
+
+        public TestResponse() {
+            super(RawMap.class);
+        }
+
+        @Override
+        public String getMimeType(Object value, Operation operation) throws ServiceException {
+            return ((WebMap) value).getMimeType();
+        }
+
+        @Override
+        public String getAttachmentFileName(Object value, Operation operation) {
+            return "test.png";
+        }
+
+        @Override
+        public void write(Object value, OutputStream output, Operation operation)
+                throws IOException, ServiceException {
+            ((RawMap) value).writeTo(output);
+        }
+    }
+}
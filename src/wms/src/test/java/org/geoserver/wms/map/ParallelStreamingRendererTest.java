@@ -0,0 +1,208 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.geotools.data.DataUtilities;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.geometry.jts.JTSFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.map.FeatureLayer;
+import org.geotools.map.Layer;
+import org.geotools.map.MapContent;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
+import org.geotools.renderer.RenderListener;
+import org.geotools.renderer.lite.StreamingRenderer;
+import org.geotools.styling.Style;
+import org.geotools.styling.StyleBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opengis.feature.simple.SimpleFeature;
+import org.opengis.feature.simple.SimpleFeatureType;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.GeometryFactory;
+
+public class ParallelStreamingRendererTest {
+
+    static final ReferencedEnvelope BOUNDS = new ReferencedEnvelope(0, 10, 0, 10,
+            DefaultGeographicCRS.WGS84);
+
+    StyleBuilder sb = new StyleBuilder();
+
+    ExecutorService executor;
+
+    MapContent map;
+
+    @Before
+    public void setup() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        map = new MapContent();
+        map.getViewport().setBounds(BOUNDS);
+    }
+
+    @After
+    public void cleanup() {
+        executor.shutdownNow();
+        map.dispose();
+    }
+
+    @Test
+    public void testGroups() throws Exception {
+        Layer l1 = layer(1, sb.createStyle(sb.createPolygonSymbolizer(Color.RED)));
+        Layer l2 = layer(2, sb.createStyle(sb.createPolygonSymbolizer(Color.GREEN)));
+        Layer l3 = layer(3, sb.createStyle(sb.createTextSymbolizer(Color.BLACK,
+                sb.createFont("Serif", 10), "id")));
+        Layer l4 = layer(4, sb.createStyle(sb.createPolygonSymbolizer(Color.BLUE)));
+
+        ParallelStreamingRenderer renderer = new ParallelStreamingRenderer(executor, 3,
+                StreamingRenderer::new);
+        List<List<Layer>> groups = renderer.getGroups(list(l1, l2, l3, l4));
+        // labels, and whatever is painted over them, go in the last group
+        assertEquals(3, groups.size());
+        assertEquals(list(l1), groups.get(0));
+        assertEquals(list(l2), groups.get(1));
+        assertEquals(list(l3, l4), groups.get(2));
+
+        // no more groups than allowed
+        renderer = new ParallelStreamingRenderer(executor, 2, StreamingRenderer::new);
+        groups = renderer.getGroups(list(l1, l2, l4));
+        assertEquals(2, groups.size());
+        assertEquals(list(l1), groups.get(0));
+        assertEquals(list(l2, l4), groups.get(1));
+
+        // labels at the bottom, no parallelism possible
+        groups = renderer.getGroups(list(l3, l1, l2));
+        assertEquals(1, groups.size());
+    }
+
+    @Test
+    public void testSameAsSequential() throws Exception {
+        map.addLayer(layer(1, sb.createStyle(sb.createPolygonSymbolizer(Color.RED))));
+        map.addLayer(layer(2, sb.createStyle(
+                sb.createPolygonSymbolizer(new Color(0, 255, 0), Color.BLACK, 2))));
+        map.addLayer(layer(3, sb.createStyle(sb.createPolygonSymbolizer(Color.BLUE))));
+        map.addLayer(layer(4, sb.createStyle(sb.createPolygonSymbolizer(Color.YELLOW))));
+
+        BufferedImage expected = paint(new StreamingRenderer());
+        List<Integer> features = new ArrayList<>();
+        ParallelStreamingRenderer parallel = new ParallelStreamingRenderer(executor, 3,
+                StreamingRenderer::new);
+        parallel.addRenderListener(new RenderListener() {
+
+            @Override
+            public void featureRenderer(SimpleFeature feature) {
+                features.add((Integer) feature.getAttribute("id"));
+            }
+
+            @Override
+            public void errorOccurred(Exception e) {
+            }
+        });
+        BufferedImage actual = paint(parallel);
+
+        assertArrayEquals(expected.getRGB(0, 0, 100, 100, null, 0, 100),
+                actual.getRGB(0, 0, 100, 100, null, 0, 100));
+        // events from all the groups reach the listeners
+        assertEquals(4, features.size());
+        assertTrue(features.containsAll(list(1, 2, 3, 4)));
+    }
+
+    @Test
+    public void testWaitForRunningGroups() throws Exception {
+        Layer failing = layer(1, sb.createStyle(sb.createPolygonSymbolizer(Color.RED)));
+        Layer slow = layer(2, sb.createStyle(sb.createPolygonSymbolizer(Color.BLUE)));
+        map.addLayer(failing);
+        map.addLayer(slow);
+
+        CountDownLatch slowStarted = new CountDownLatch(1);
+        AtomicBoolean slowCompleted = new AtomicBoolean();
+        ParallelStreamingRenderer parallel = new ParallelStreamingRenderer(executor, 2,
+                () -> new StreamingRenderer() {
+
+                    @Override
+                    public void paint(Graphics2D graphics, Rectangle paintArea,
+                            ReferencedEnvelope mapArea, AffineTransform worldToScreen) {
+                        if (getMapContent().layers().contains(slow)) {
+                            slowStarted.countDown();
+                            try {
+                                Thread.sleep(500);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            slowCompleted.set(true);
+                        } else {
+                            // fail only once the other group is running on the executor
+                            try {
+                                slowStarted.await();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            throw new IllegalStateException("failed");
+                        }
+                    }
+                });
+        try {
+            paint(parallel);
+            fail("The rendering error should have been rethrown");
+        } catch (IllegalStateException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        // the layers are still in use until the slow group is done, so paint has to wait
+        assertTrue(slowCompleted.get());
+    }
+
+    BufferedImage paint(StreamingRenderer renderer) {
+        renderer.setMapContent(map);
+        BufferedImage image = new BufferedImage(100, 100, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            renderer.paint(graphics, new Rectangle(0, 0, 100, 100), BOUNDS);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    Layer layer(int id, Style style) throws Exception {
+        SimpleFeatureType type = DataUtilities.createType("layer" + id,
+                "geom:Polygon:srid=4326,id:Integer");
+        GeometryFactory gf = JTSFactoryFinder.getGeometryFactory();
+        // overlapping squares, so that the painting order matters
+        double x = id * 1.5;
+        SimpleFeature feature = SimpleFeatureBuilder.build(type,
+                new Object[] { gf.createPolygon(new Coordinate[] { new Coordinate(x, x),
+                        new Coordinate(x + 4, x), new Coordinate(x + 4, x + 4),
+                        new Coordinate(x, x + 4), new Coordinate(x, x) }), id },
+                "f" + id);
+        return new FeatureLayer(DataUtilities.collection(feature), style);
+    }
+
+    @SafeVarargs
+    static <T> List<T> list(T... items) {
+        List<T> result = new ArrayList<>();
+        for (T item : items) {
+            result.add(item);
+        }
+        return result;
+    }
+}
@@ -6,10 +6,28 @@
 package org.geoserver.wms.map;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.awt.Point;
 import java.awt.geom.Point2D;
-
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.geoserver.wms.map.QuickTileCache.MapKey;
+import org.geoserver.wms.map.QuickTileCache.MetaTileKey;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.referencing.crs.DefaultGeographicCRS;
 import org.junit.Test;
 
 import com.vividsolutions.jts.geom.Envelope;
@@ -67,4 +85,84 @@ public class QuickTileCacheTest {
         assertEquals(new Point(0, 2), cache.getTileOffsetsInMeta(box1, meta));
         assertEquals(new Point(1, 2), cache.getTileOffsetsInMeta(box2, meta));
     }
+
+    @Test
+    public void testConcurrentBuild() throws Exception {
+        MetaTileKey key = metaTileKey(0, 0);
+        AtomicInteger builds = new AtomicInteger();
+        CountDownLatch building = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Callable<RenderedImage[]> loader = () -> {
+            builds.incrementAndGet();
+            building.countDown();
+            release.await();
+            return tiles();
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<RenderedImage[]>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> cache.getTiles(key, loader)));
+            building.await();
+            for (int i = 0; i < 3; i++) {
+                futures.add(executor.submit(() -> cache.getTiles(key, loader)));
+            }
+            release.countDown();
+
+            // only one build, everybody gets the same tiles
+            RenderedImage[] tiles = futures.get(0).get();
+            for (Future<RenderedImage[]> future : futures) {
+                assertSame(tiles, future.get());
+            }
+            assertEquals(1, builds.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testMemoryBound() throws Exception {
+        // room for two meta tiles of 9 256x256 ARGB tiles
+        int metaTileMemory = QuickTileCache.getMemoryUse(tiles());
+        assertEquals(9 * 256 * 256 * 4, metaTileMemory);
+        QuickTileCache cache = new QuickTileCache(metaTileMemory * 2);
+        for (int i = 0; i < 5; i++) {
+            cache.storeTiles(metaTileKey(i * 3, 0), tiles());
+        }
+        assertTrue(cache.size() <= 2);
+        assertTrue(cache.getStatistics().evictionCount() >= 3);
+
+        cache.dataStoreChange(null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testFailedBuild() throws Exception {
+        MetaTileKey key = metaTileKey(0, 0);
+        try {
+            cache.getTiles(key, () -> {
+                throw new IOException("failed");
+            });
+            fail("Should have failed");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+        // failures are not cached
+        RenderedImage[] tiles = tiles();
+        assertSame(tiles, cache.getTiles(key, () -> tiles));
+    }
+
+    MetaTileKey metaTileKey(int x, int y) {
+        MapKey mapKey = new MapKey("layers=test", 1, new Point2D.Double(0, 0));
+        return new MetaTileKey(mapKey, new Point(x, y), new ReferencedEnvelope(x * 256,
+                (x + 3) * 256, y * 256, (y + 3) * 256, DefaultGeographicCRS.WGS84));
+    }
+
+    RenderedImage[] tiles() {
+        RenderedImage[] tiles = new RenderedImage[9];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = new BufferedImage(256, 256, BufferedImage.TYPE_INT_ARGB);
+        }
+        return tiles;
+    }
 }
@@ -0,0 +1,114 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.png;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.ImageIO;
+
+import org.geoserver.wms.map.png.FastPNGWriter.Filter;
+import org.junit.Test;
+
+public class FastPNGWriterTest {
+
+    FastPNGWriter writer = new FastPNGWriter();
+
+    @Test
+    public void testTrueColor() throws Exception {
+        int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_BYTE_GRAY };
+        for (int type : types) {
+            BufferedImage image = new BufferedImage(100, 80, type);
+            paint(image);
+            for (Filter filter : Filter.values()) {
+                assertRoundTrip(image, filter);
+            }
+        }
+    }
+
+    @Test
+    public void testPaletted() throws Exception {
+        byte[] r = { 0, (byte) 255, 0, 0 };
+        byte[] g = { 0, 0, (byte) 255, 0 };
+        byte[] b = { 0, 0, 0, (byte) 255 };
+        byte[] a = { 0, (byte) 128, (byte) 255, (byte) 255 };
+        IndexColorModel icm = new IndexColorModel(8, 4, r, g, b, a);
+        BufferedImage image = new BufferedImage(100, 80, BufferedImage.TYPE_BYTE_INDEXED, icm);
+        paint(image);
+        assertRoundTrip(image, Filter.NONE);
+        assertRoundTrip(image, Filter.PAETH);
+
+        // packed pixels
+        icm = new IndexColorModel(2, 4, r, g, b, a);
+        image = new BufferedImage(99, 80, BufferedImage.TYPE_BYTE_BINARY, icm);
+        paint(image);
+        assertRoundTrip(image, Filter.NONE);
+        assertRoundTrip(image, Filter.ADAPTIVE);
+
+        image = new BufferedImage(37, 20, BufferedImage.TYPE_BYTE_BINARY);
+        paint(image);
+        assertRoundTrip(image, Filter.SUB);
+    }
+
+    @Test
+    public void testSubImage() throws Exception {
+        BufferedImage image = new BufferedImage(100, 80, BufferedImage.TYPE_4BYTE_ABGR);
+        paint(image);
+        assertRoundTrip(image.getSubimage(13, 7, 50, 40), Filter.UP);
+    }
+
+    @Test
+    public void testUnsupported() throws Exception {
+        BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_USHORT_GRAY);
+        assertFalse(writer.isSupported(image));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        assertFalse(writer.writePNG(image, bos, 4, Filter.NONE));
+        assertEquals(0, bos.size());
+    }
+
+    void paint(BufferedImage image) {
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setColor(Color.RED);
+            graphics.fillRect(5, 5, 40, 30);
+            graphics.setColor(new Color(0, 0, 255, 128));
+            graphics.fillOval(20, 20, 60, 50);
+            graphics.setColor(Color.GREEN);
+            graphics.drawLine(0, image.getHeight() - 1, image.getWidth() - 1, 0);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    void assertRoundTrip(BufferedImage image, Filter filter) throws Exception {
+        assertTrue(writer.isSupported(image));
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        assertTrue(writer.writePNG(image, bos, 6, filter));
+
+        RenderedImage read = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        BufferedImage decoded = (BufferedImage) read;
+        int w = image.getWidth();
+        int h = image.getHeight();
+        assertEquals(w, decoded.getWidth());
+        assertEquals(h, decoded.getHeight());
+        assertArrayEquals("Type " + image.getType() + ", filter " + filter,
+                image.getRGB(0, 0, w, h, null, 0, w), decoded.getRGB(0, 0, w, h, null, 0, w));
+    }
+}
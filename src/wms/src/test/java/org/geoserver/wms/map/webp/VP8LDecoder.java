@@ -0,0 +1,558 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.webp;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A minimal lossless WebP (VP8L) decoder, written after the bitstream specification and
+ * independently from {@link WebPWriter}, used to check the encoded images round trip.
+ * <p>
+ * It supports the whole lossless format (all transforms, color cache, meta prefix codes) but
+ * none of the extended container features, and counts the bitstream features it meets so that
+ * tests can check they are actually exercised.
+ * </p>
+ */
+class VP8LDecoder {
+
+    static final int PREDICTOR_TRANSFORM = 0;
+
+    static final int COLOR_TRANSFORM = 1;
+
+    static final int SUBTRACT_GREEN_TRANSFORM = 2;
+
+    static final int COLOR_INDEXING_TRANSFORM = 3;
+
+    static final int[] CODE_LENGTH_ORDER = { 17, 18, 0, 1, 2, 3, 4, 5, 16, 6, 7, 8, 9, 10, 11,
+            12, 13, 14, 15 };
+
+    /**
+     * The (x, y) offsets of the 120 short distance codes
+     */
+    static final int[] DISTANCE_MAP = { 0, 1, 1, 0, 1, 1, -1, 1, 0, 2, 2, 0, 1, 2, -1, 2, 2, 1,
+            -2, 1, 2, 2, -2, 2, 0, 3, 3, 0, 1, 3, -1, 3, 3, 1, -3, 1, 2, 3, -2, 3, 3, 2, -3, 2, 0,
+            4, 4, 0, 1, 4, -1, 4, 4, 1, -4, 1, 3, 3, -3, 3, 2, 4, -2, 4, 4, 2, -4, 2, 0, 5, 3, 4,
+            -3, 4, 4, 3, -4, 3, 5, 0, 1, 5, -1, 5, 5, 1, -5, 1, 2, 5, -2, 5, 5, 2, -5, 2, 4, 4,
+            -4, 4, 3, 5, -3, 5, 5, 3, -5, 3, 0, 6, 6, 0, 1, 6, -1, 6, 6, 1, -6, 1, 2, 6, -2, 6,
+            6, 2, -6, 2, 4, 5, -4, 5, 5, 4, -5, 4, 3, 6, -3, 6, 6, 3, -6, 3, 0, 7, 7, 0, 1, 7,
+            -1, 7, 5, 5, -5, 5, 7, 1, -7, 1, 4, 6, -4, 6, 6, 4, -6, 4, 2, 7, -2, 7, 7, 2, -7, 2,
+            3, 7, -3, 7, 7, 3, -7, 3, 5, 6, -5, 6, 6, 5, -6, 5, 8, 0, 4, 7, -4, 7, 7, 4, -7, 4,
+            8, 1, 8, 2, 6, 6, -6, 6, 8, 3, 5, 7, -5, 7, 7, 5, -7, 5, 8, 4, 6, 7, -6, 7, 7, 6, -7,
+            6, 8, 5, 7, 7, -7, 7, 8, 6, 8, 7 };
+
+    int width;
+
+    int height;
+
+    boolean alpha;
+
+    /**
+     * The transforms found, in bitstream order
+     */
+    StringBuilder transforms = new StringBuilder();
+
+    int literals;
+
+    int copies;
+
+    int cacheHits;
+
+    int simpleCodes;
+
+    int normalCodes;
+
+    /**
+     * Occurrences of the code length repeat codes 16, 17 and 18
+     */
+    int[] repeatCodes = new int[19];
+
+    byte[] data;
+
+    int position;
+
+    long bits;
+
+    int available;
+
+    /**
+     * Decodes a RIFF/WEBP/VP8L file, returning the non premultiplied ARGB pixels
+     */
+    int[] decode(byte[] webp) throws IOException {
+        check("RIFF".equals(new String(webp, 0, 4, StandardCharsets.US_ASCII)), "Not RIFF");
+        check(readInt(webp, 4) == webp.length - 8, "Wrong RIFF size");
+        check("WEBPVP8L".equals(new String(webp, 8, 8, StandardCharsets.US_ASCII)),
+                "Not a VP8L file");
+        int size = readInt(webp, 16);
+        check(size <= webp.length - 20, "Truncated VP8L chunk");
+        data = webp;
+        position = 20;
+
+        check(readBits(8) == 0x2F, "Wrong VP8L signature");
+        width = readBits(14) + 1;
+        height = readBits(14) + 1;
+        alpha = readBits(1) == 1;
+        check(readBits(3) == 0, "Unknown VP8L version");
+
+        // transforms, applied in reverse order
+        int[][] transformData = new int[4][];
+        int[] transformTypes = new int[4];
+        int[] transformBits = new int[4];
+        int[] transformWidths = new int[4];
+        int count = 0;
+        int xsize = width;
+        while (readBits(1) == 1) {
+            int type = readBits(2);
+            check(transforms.indexOf(String.valueOf(type)) < 0, "Repeated transform");
+            transforms.append(type);
+            transformTypes[count] = type;
+            transformWidths[count] = xsize;
+            if (type == PREDICTOR_TRANSFORM || type == COLOR_TRANSFORM) {
+                int sizeBits = readBits(3) + 2;
+                transformBits[count] = sizeBits;
+                transformData[count] = decodeImage(subSampleSize(xsize, sizeBits),
+                        subSampleSize(height, sizeBits), false);
+            } else if (type == COLOR_INDEXING_TRANSFORM) {
+                int tableSize = readBits(8) + 1;
+                int[] table = decodeImage(tableSize, 1, false);
+                for (int i = 1; i < tableSize; i++) {
+                    table[i] = addPixels(table[i], table[i - 1]);
+                }
+                int widthBits = tableSize <= 2 ? 3 : tableSize <= 4 ? 2 : tableSize <= 16 ? 1
+                        : 0;
+                transformBits[count] = widthBits;
+                transformData[count] = table;
+                xsize = subSampleSize(xsize, widthBits);
+            }
+            count++;
+        }
+
+        int[] pixels = decodeImage(xsize, height, true);
+        check(position - 20 <= size, "Read past the end of the VP8L chunk");
+
+        for (int t = count - 1; t >= 0; t--) {
+            switch (transformTypes[t]) {
+            case PREDICTOR_TRANSFORM:
+                inversePredictor(pixels, transformWidths[t], transformData[t], transformBits[t]);
+                break;
+            case COLOR_TRANSFORM:
+                inverseColorTransform(pixels, transformWidths[t], transformData[t],
+                        transformBits[t]);
+                break;
+            case SUBTRACT_GREEN_TRANSFORM:
+                for (int i = 0; i < pixels.length; i++) {
+                    int green = (pixels[i] >> 8) & 0xFF;
+                    pixels[i] = addPixels(pixels[i], (green << 16) | green);
+                }
+                break;
+            default:
+                pixels = inverseColorIndexing(pixels, transformWidths[t], transformData[t],
+                        transformBits[t]);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Decodes an entropy coded image, the main one or one of the transform/entropy sub images
+     */
+    int[] decodeImage(int xsize, int ysize, boolean main) throws IOException {
+        int cacheBits = 0;
+        if (readBits(1) == 1) {
+            cacheBits = readBits(4);
+            check(cacheBits >= 1 && cacheBits <= 11, "Invalid color cache size");
+        }
+
+        int prefixBits = 0;
+        int[] entropyImage = null;
+        int groups = 1;
+        if (main && readBits(1) == 1) {
+            prefixBits = readBits(3) + 2;
+            int entropyWidth = subSampleSize(xsize, prefixBits);
+            entropyImage = decodeImage(entropyWidth, subSampleSize(ysize, prefixBits), false);
+            for (int i = 0; i < entropyImage.length; i++) {
+                entropyImage[i] = (entropyImage[i] >> 8) & 0xFFFF;
+                groups = Math.max(groups, entropyImage[i] + 1);
+            }
+        }
+
+        int cacheSize = cacheBits > 0 ? 1 << cacheBits : 0;
+        int[] alphabets = { 256 + 24 + cacheSize, 256, 256, 256, 40 };
+        HuffmanCode[][] codes = new HuffmanCode[groups][5];
+        for (int g = 0; g < groups; g++) {
+            for (int i = 0; i < 5; i++) {
+                codes[g][i] = readCode(alphabets[i]);
+            }
+        }
+
+        int[] pixels = new int[xsize * ysize];
+        int[] cache = cacheSize > 0 ? new int[cacheSize] : null;
+        int cached = 0;
+        int pos = 0;
+        while (pos < pixels.length) {
+            HuffmanCode[] group = codes[0];
+            if (entropyImage != null) {
+                int x = pos % xsize;
+                int y = pos / xsize;
+                group = codes[entropyImage[(y >> prefixBits) * subSampleSize(xsize, prefixBits)
+                        + (x >> prefixBits)]];
+            }
+            int green = group[0].read(this);
+            if (green < 256) {
+                int red = group[1].read(this);
+                int blue = group[2].read(this);
+                int alpha = group[3].read(this);
+                pixels[pos++] = (alpha << 24) | (red << 16) | (green << 8) | blue;
+                literals++;
+            } else if (green < 256 + 24) {
+                int length = prefixValue(green - 256);
+                int distance = planeDistance(prefixValue(group[4].read(this)), xsize);
+                check(distance <= pos, "Backward reference before the image start");
+                check(pos + length <= pixels.length, "Backward reference past the image end");
+                for (int i = 0; i < length; i++, pos++) {
+                    pixels[pos] = pixels[pos - distance];
+                }
+                copies++;
+            } else {
+                check(cache != null, "Color cache code without a color cache");
+                pixels[pos++] = cache[green - 256 - 24];
+                cacheHits++;
+            }
+            if (cache != null) {
+                for (; cached < pos; cached++) {
+                    cache[(0x1E35A7BD * pixels[cached]) >>> (32 - cacheBits)] = pixels[cached];
+                }
+            }
+        }
+        return pixels;
+    }
+
+    HuffmanCode readCode(int alphabetSize) throws IOException {
+        int[] lengths = new int[alphabetSize];
+        if (readBits(1) == 1) {
+            simpleCodes++;
+            int symbols = readBits(1) + 1;
+            int first = readBits(readBits(1) == 1 ? 8 : 1);
+            check(first < alphabetSize, "Invalid simple code symbol");
+            if (symbols == 1) {
+                return new HuffmanCode(first);
+            }
+            int second = readBits(8);
+            check(second < alphabetSize && second != first, "Invalid simple code symbol");
+            lengths[first] = 1;
+            lengths[second] = 1;
+            return new HuffmanCode(lengths);
+        }
+
+        normalCodes++;
+        int[] codeLengthLengths = new int[19];
+        int count = readBits(4) + 4;
+        for (int i = 0; i < count; i++) {
+            codeLengthLengths[CODE_LENGTH_ORDER[i]] = readBits(3);
+        }
+        HuffmanCode codeLengthCode = new HuffmanCode(codeLengthLengths);
+
+        int maxSymbol = alphabetSize;
+        if (readBits(1) == 1) {
+            int lengthBits = 2 + 2 * readBits(3);
+            maxSymbol = 2 + readBits(lengthBits);
+            check(maxSymbol <= alphabetSize, "Invalid max symbol");
+        }
+        int previous = 8;
+        int symbol = 0;
+        while (symbol < alphabetSize && maxSymbol-- > 0) {
+            int code = codeLengthCode.read(this);
+            if (code < 16) {
+                lengths[symbol++] = code;
+                if (code != 0) {
+                    previous = code;
+                }
+                continue;
+            }
+            repeatCodes[code]++;
+            int repeat;
+            int value;
+            if (code == 16) {
+                repeat = 3 + readBits(2);
+                value = previous;
+            } else if (code == 17) {
+                repeat = 3 + readBits(3);
+                value = 0;
+            } else {
+                repeat = 11 + readBits(7);
+                value = 0;
+            }
+            check(symbol + repeat <= alphabetSize, "Code length repeat past the alphabet");
+            for (int i = 0; i < repeat; i++) {
+                lengths[symbol++] = value;
+            }
+        }
+        return new HuffmanCode(lengths);
+    }
+
+    void inversePredictor(int[] pixels, int xsize, int[] modes, int sizeBits) {
+        int modesWidth = subSampleSize(xsize, sizeBits);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < xsize; x++) {
+                int pos = y * xsize + x;
+                int prediction;
+                if (y == 0) {
+                    prediction = x == 0 ? 0xFF000000 : pixels[pos - 1];
+                } else if (x == 0) {
+                    prediction = pixels[pos - xsize];
+                } else {
+                    int mode = (modes[(y >> sizeBits) * modesWidth + (x >> sizeBits)] >> 8)
+                            & 0xF;
+                    int l = pixels[pos - 1];
+                    int t = pixels[pos - xsize];
+                    int tl = pixels[pos - xsize - 1];
+                    // on the rightmost column this is the leftmost pixel of the current row
+                    int tr = pixels[pos - xsize + 1];
+                    prediction = predictor(mode, l, t, tl, tr);
+                }
+                pixels[pos] = addPixels(pixels[pos], prediction);
+            }
+        }
+    }
+
+    static int predictor(int mode, int l, int t, int tl, int tr) {
+        switch (mode) {
+        case 0:
+            return 0xFF000000;
+        case 1:
+            return l;
+        case 2:
+            return t;
+        case 3:
+            return tr;
+        case 4:
+            return tl;
+        case 5:
+            return average2(average2(l, tr), t);
+        case 6:
+            return average2(l, tl);
+        case 7:
+            return average2(l, t);
+        case 8:
+            return average2(tl, t);
+        case 9:
+            return average2(t, tr);
+        case 10:
+            return average2(average2(l, tl), average2(t, tr));
+        case 11:
+            return select(l, t, tl);
+        case 12: {
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int value = channel(l, shift) + channel(t, shift) - channel(tl, shift);
+                result |= clamp(value) << shift;
+            }
+            return result;
+        }
+        case 13: {
+            int average = average2(l, t);
+            int result = 0;
+            for (int shift = 0; shift < 32; shift += 8) {
+                int a = channel(average, shift);
+                int value = a + (a - channel(tl, shift)) / 2;
+                result |= clamp(value) << shift;
+            }
+            return result;
+        }
+        default:
+            // 14 and 15 are not valid modes, libwebp predicts black for them
+            return 0xFF000000;
+        }
+    }
+
+    static int select(int l, int t, int tl) {
+        int distanceToL = 0;
+        int distanceToT = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int estimate = channel(l, shift) + channel(t, shift) - channel(tl, shift);
+            distanceToL += Math.abs(estimate - channel(l, shift));
+            distanceToT += Math.abs(estimate - channel(t, shift));
+        }
+        return distanceToL < distanceToT ? l : t;
+    }
+
+    void inverseColorTransform(int[] pixels, int xsize, int[] elements, int sizeBits) {
+        int elementsWidth = subSampleSize(xsize, sizeBits);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < xsize; x++) {
+                int element = elements[(y >> sizeBits) * elementsWidth + (x >> sizeBits)];
+                int greenToRed = element & 0xFF;
+                int greenToBlue = (element >> 8) & 0xFF;
+                int redToBlue = (element >> 16) & 0xFF;
+                int pos = y * xsize + x;
+                int argb = pixels[pos];
+                int green = (argb >> 8) & 0xFF;
+                int red = ((argb >> 16) + colorTransformDelta(greenToRed, green)) & 0xFF;
+                int blue = (argb + colorTransformDelta(greenToBlue, green)
+                        + colorTransformDelta(redToBlue, red)) & 0xFF;
+                pixels[pos] = (argb & 0xFF00FF00) | (red << 16) | blue;
+            }
+        }
+    }
+
+    static int colorTransformDelta(int transform, int color) {
+        return ((byte) transform * (byte) color) >> 5;
+    }
+
+    int[] inverseColorIndexing(int[] packed, int xsize, int[] table, int widthBits) {
+        int[] pixels = new int[xsize * height];
+        int bitsPerPixel = 8 >> widthBits;
+        int mask = (1 << bitsPerPixel) - 1;
+        int packedWidth = subSampleSize(xsize, widthBits);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < xsize; x++) {
+                int value = packed[y * packedWidth + (x >> widthBits)];
+                int shift = (x & ((1 << widthBits) - 1)) * bitsPerPixel;
+                int index = ((value >> 8) >> shift) & mask;
+                // out of range indexes are transparent black
+                pixels[y * xsize + x] = index < table.length ? table[index] : 0;
+            }
+        }
+        return pixels;
+    }
+
+    int prefixValue(int prefix) throws IOException {
+        if (prefix < 4) {
+            return prefix + 1;
+        }
+        int extraBits = (prefix - 2) >> 1;
+        int offset = (2 + (prefix & 1)) << extraBits;
+        return offset + readBits(extraBits) + 1;
+    }
+
+    int planeDistance(int code, int xsize) {
+        if (code > 120) {
+            return code - 120;
+        }
+        int distance = DISTANCE_MAP[2 * (code - 1)] + DISTANCE_MAP[2 * (code - 1) + 1] * xsize;
+        return Math.max(1, distance);
+    }
+
+    static int subSampleSize(int size, int bits) {
+        return (size + (1 << bits) - 1) >> bits;
+    }
+
+    static int channel(int argb, int shift) {
+        return (argb >>> shift) & 0xFF;
+    }
+
+    static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    static int average2(int a, int b) {
+        return (((a ^ b) & 0xFEFEFEFE) >>> 1) + (a & b);
+    }
+
+    static int addPixels(int a, int b) {
+        int alphaAndGreen = (a & 0xFF00FF00) + (b & 0xFF00FF00);
+        int redAndBlue = (a & 0x00FF00FF) + (b & 0x00FF00FF);
+        return (alphaAndGreen & 0xFF00FF00) | (redAndBlue & 0x00FF00FF);
+    }
+
+    static int readInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xFF) | (buffer[offset + 1] & 0xFF) << 8
+                | (buffer[offset + 2] & 0xFF) << 16 | (buffer[offset + 3] & 0xFF) << 24;
+    }
+
+    int readBits(int count) throws IOException {
+        while (available < count) {
+            check(position < data.length, "Unexpected end of data");
+            bits |= (long) (data[position++] & 0xFF) << available;
+            available += 8;
+        }
+        int result = (int) (bits & ((1L << count) - 1));
+        bits >>>= count;
+        available -= count;
+        return result;
+    }
+
+    static void check(boolean condition, String message) throws IOException {
+        if (!condition) {
+            throw new IOException(message);
+        }
+    }
+
+    /**
+     * A canonical prefix code, decoded one bit at a time
+     */
+    static class HuffmanCode {
+
+        /**
+         * The only symbol of a zero length code, or -1
+         */
+        final int single;
+
+        final int[] counts = new int[16];
+
+        final int[] symbols;
+
+        HuffmanCode(int single) {
+            this.single = single;
+            this.symbols = null;
+        }
+
+        HuffmanCode(int[] lengths) throws IOException {
+            int used = 0;
+            int last = -1;
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] > 0) {
+                    counts[lengths[i]]++;
+                    used++;
+                    last = i;
+                }
+            }
+            check(used > 0, "Empty prefix code");
+            if (used == 1) {
+                // a single symbol takes no bits at all
+                single = last;
+                symbols = null;
+                return;
+            }
+            single = -1;
+            // the code has to be complete
+            long kraft = 0;
+            for (int length = 1; length < 16; length++) {
+                kraft += (long) counts[length] << (15 - length);
+            }
+            check(kraft == 1 << 15, "Incomplete or oversubscribed prefix code");
+            int[] offsets = new int[16];
+            for (int length = 1; length < 15; length++) {
+                offsets[length + 1] = offsets[length] + counts[length];
+            }
+            symbols = new int[used];
+            for (int i = 0; i < lengths.length; i++) {
+                if (lengths[i] > 0) {
+                    symbols[offsets[lengths[i]]++] = i;
+                }
+            }
+        }
+
+        int read(VP8LDecoder decoder) throws IOException {
+            if (single >= 0) {
+                return single;
+            }
+            int code = 0;
+            int first = 0;
+            int index = 0;
+            for (int length = 1; length < 16; length++) {
+                code |= decoder.readBits(1);
+                int count = counts[length];
+                if (code - first < count) {
+                    return symbols[index + code - first];
+                }
+                index += count;
+                first = (first + count) << 1;
+                code <<= 1;
+            }
+            throw new IOException("Invalid prefix code");
+        }
+    }
+}
@@ -0,0 +1,273 @@
+/* (c) 2017 Open Source Geospatial Foundation - all rights reserved
+ * This code is licensed under the GPL 2.0 license, available at the root
+ * application directory.
+ */
+package org.geoserver.wms.map.webp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class WebPWriterTest {
+
+    WebPWriter writer = new WebPWriter();
+
+    @Test
+    public void testContainer() throws Exception {
+        BufferedImage image = new BufferedImage(37, 23, BufferedImage.TYPE_INT_ARGB);
+        paint(image);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writer.writeWebP(image, bos);
+        byte[] webp = bos.toByteArray();
+
+        ByteBuffer buffer = ByteBuffer.wrap(webp).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals("RIFF", new String(webp, 0, 4, "US-ASCII"));
+        assertEquals(webp.length - 8, buffer.getInt(4));
+        assertEquals(0, webp.length % 2);
+        assertEquals("WEBPVP8L", new String(webp, 8, 8, "US-ASCII"));
+        int size = buffer.getInt(16);
+        assertTrue(size == webp.length - 20 || size == webp.length - 21);
+        assertEquals(0x2F, webp[20]);
+        int bits = buffer.getInt(21);
+        assertEquals(37, (bits & 0x3FFF) + 1);
+        assertEquals(23, ((bits >> 14) & 0x3FFF) + 1);
+        // alpha used, version 0
+        assertEquals(1, (bits >> 28) & 1);
+        assertEquals(0, bits >>> 29);
+    }
+
+    @Test
+    public void testPalette() {
+        int[] pixels = new int[1000];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = 0xFF000000 | ((i % 256) * 0x010101);
+        }
+        int[] palette = writer.getPalette(pixels);
+        assertEquals(256, palette.length);
+        for (int i = 1; i < palette.length; i++) {
+            assertTrue(palette[i - 1] < palette[i]);
+        }
+
+        pixels[999] = 0xFF123456;
+        assertNull(writer.getPalette(pixels));
+    }
+
+    @Test
+    public void testPredictor() {
+        BufferedImage image = new BufferedImage(50, 40, BufferedImage.TYPE_INT_ARGB);
+        paint(image);
+        int[] argb = image.getRGB(0, 0, 50, 40, null, 0, 50);
+        int modesWidth = WebPWriter.subSampleSize(50, WebPWriter.PREDICTOR_BITS);
+        int[] modes = new int[modesWidth * WebPWriter.subSampleSize(40,
+                WebPWriter.PREDICTOR_BITS)];
+        int[] residuals = writer.predict(argb, 50, 40, modes, modesWidth);
+
+        // undo the prediction the way a decoder does
+        int[] decoded = new int[argb.length];
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 50; x++) {
+                int pos = y * 50 + x;
+                int prediction;
+                if (y == 0) {
+                    prediction = x == 0 ? 0xFF000000 : decoded[pos - 1];
+                } else if (x == 0) {
+                    prediction = decoded[pos - 50];
+                } else {
+                    int mode = (modes[(y >> WebPWriter.PREDICTOR_BITS) * modesWidth
+                            + (x >> WebPWriter.PREDICTOR_BITS)] >> 8) & 0xF;
+                    prediction = WebPWriter.predict(mode, decoded, pos, 50);
+                }
+                decoded[pos] = addPixels(residuals[pos], prediction);
+            }
+        }
+        assertArrayEquals(argb, decoded);
+    }
+
+    @Test
+    public void testPrefixCodes() {
+        assertEquals(0, WebPWriter.prefixCode(1));
+        assertEquals(3, WebPWriter.prefixCode(4));
+        assertEquals(4, WebPWriter.prefixCode(5));
+        assertEquals(5, WebPWriter.prefixCode(7));
+        assertEquals(23, WebPWriter.prefixCode(4096));
+        assertEquals(39, WebPWriter.prefixCode(WebPWriter.MAX_DISTANCE + 120));
+
+        assertEquals(1, WebPWriter.distanceCode(256, 256));
+        assertEquals(2, WebPWriter.distanceCode(1, 256));
+        assertEquals(130, WebPWriter.distanceCode(10, 256));
+    }
+
+    @Test
+    public void testCodeLengths() {
+        Random random = new Random(0);
+        int[] counts = new int[1304];
+        for (int i = 0; i < counts.length; i++) {
+            // very skewed counts, that would make a deep tree
+            counts[i] = random.nextInt(4) == 0 ? 0 : 1 << random.nextInt(30);
+        }
+        int[] lengths = WebPWriter.codeLengths(counts, WebPWriter.MAX_CODE_LENGTH);
+        double kraft = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            assertTrue(lengths[i] <= WebPWriter.MAX_CODE_LENGTH);
+            assertEquals(counts[i] == 0, lengths[i] == 0);
+            if (lengths[i] > 0) {
+                kraft += Math.pow(2, -lengths[i]);
+            }
+        }
+        // a complete code
+        assertEquals(1, kraft, 1e-9);
+    }
+
+    @Test
+    public void testRoundTripTrueColor() throws Exception {
+        BufferedImage image = new BufferedImage(128, 96, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, new Color(0, 255, 0, 64), 128, 96,
+                    new Color(255, 0, 255, 192)));
+            graphics.fillRect(0, 0, 128, 96);
+        } finally {
+            graphics.dispose();
+        }
+        paint(image);
+        // too many colors for a palette, yet with plenty of repeated pixels and runs
+        addNoise(image, 0x070707);
+        VP8LDecoder decoder = roundTrip(image);
+        // subtract green first, then the predictor
+        assertEquals("20", decoder.transforms.toString());
+        assertTrue(decoder.alpha);
+        assertTrue(decoder.literals > 0);
+        assertTrue(decoder.copies > 0);
+        assertTrue(decoder.cacheHits > 0);
+        assertTrue(decoder.simpleCodes > 0);
+        assertTrue(decoder.normalCodes > 0);
+        assertTrue(decoder.repeatCodes[16] > 0);
+        assertTrue(decoder.repeatCodes[17] > 0);
+        assertTrue(decoder.repeatCodes[18] > 0);
+    }
+
+    @Test
+    public void testRoundTripOpaque() throws Exception {
+        BufferedImage image = new BufferedImage(61, 33, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setPaint(new GradientPaint(0, 0, Color.YELLOW, 61, 33, Color.BLUE));
+            graphics.fillRect(0, 0, 61, 33);
+        } finally {
+            graphics.dispose();
+        }
+        addNoise(image, 0x0F0F0F);
+        VP8LDecoder decoder = roundTrip(image);
+        assertEquals("20", decoder.transforms.toString());
+        assertFalse(decoder.alpha);
+    }
+
+    @Test
+    public void testRoundTripPalette() throws Exception {
+        for (int colors : new int[] { 2, 3, 4, 5, 16, 17, 256 }) {
+            BufferedImage image = new BufferedImage(37 + colors, 23,
+                    BufferedImage.TYPE_INT_ARGB);
+            Random random = new Random(colors);
+            int[] palette = new int[colors];
+            for (int i = 0; i < colors; i++) {
+                palette[i] = random.nextInt() | 0x01000000;
+            }
+            for (int y = 0; y < image.getHeight(); y++) {
+                for (int x = 0; x < image.getWidth(); x++) {
+                    image.setRGB(x, y, palette[(x / 7 + y / 5 * 3) % colors]);
+                }
+            }
+            VP8LDecoder decoder = roundTrip(image);
+            // color indexing only, pixels packed 8, 4, 2 or 1 per byte
+            assertEquals("3", decoder.transforms.toString());
+            assertTrue(decoder.copies > 0);
+        }
+    }
+
+    @Test
+    public void testRoundTripOnePixel() throws Exception {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(0, 0, 0x80FF0000);
+        VP8LDecoder decoder = roundTrip(image);
+        assertEquals(1, decoder.width);
+        assertEquals(1, decoder.height);
+    }
+
+    @Test
+    public void testRoundTripTransparent() throws Exception {
+        BufferedImage image = new BufferedImage(64, 64, BufferedImage.TYPE_INT_ARGB);
+        VP8LDecoder decoder = roundTrip(image);
+        assertEquals("3", decoder.transforms.toString());
+        assertTrue(decoder.alpha);
+    }
+
+    /**
+     * Encodes the image, decodes it back with an independent decoder and checks the pixels
+     * match, modulo the colors of the fully transparent ones
+     */
+    VP8LDecoder roundTrip(BufferedImage image) throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writer.writeWebP(image, bos);
+        VP8LDecoder decoder = new VP8LDecoder();
+        int[] decoded = decoder.decode(bos.toByteArray());
+
+        int width = image.getWidth();
+        int height = image.getHeight();
+        assertEquals(width, decoder.width);
+        assertEquals(height, decoder.height);
+        int[] expected = image.getRGB(0, 0, width, height, null, 0, width);
+        for (int i = 0; i < expected.length; i++) {
+            if ((expected[i] >>> 24) == 0) {
+                expected[i] = 0;
+                decoded[i] = (decoded[i] >>> 24) == 0 ? 0 : decoded[i];
+            }
+        }
+        assertArrayEquals(expected, decoded);
+        return decoder;
+    }
+
+    void addNoise(BufferedImage image, int mask) {
+        Random random = new Random(0);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                if (random.nextInt(4) == 0) {
+                    image.setRGB(x, y, image.getRGB(x, y) ^ (random.nextInt() & mask));
+                }
+            }
+        }
+    }
+
+    void paint(BufferedImage image) {
+        Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                    RenderingHints.VALUE_ANTIALIAS_ON);
+            graphics.setColor(Color.RED);
+            graphics.fillRect(5, 5, 20, 10);
+            graphics.setColor(new Color(0, 0, 255, 128));
+            graphics.fillOval(10, 8, 30, 20);
+        } finally {
+            graphics.dispose();
+        }
+    }
+
+    static int addPixels(int a, int b) {
+        int alphaAndGreen = (a & 0xFF00FF00) + (b & 0xFF00FF00);
+        int redAndBlue = (a & 0x00FF00FF) + (b & 0x00FF00FF);
+        return (alphaAndGreen & 0xFF00FF00) | (redAndBlue & 0x00FF00FF);
+    }
+}
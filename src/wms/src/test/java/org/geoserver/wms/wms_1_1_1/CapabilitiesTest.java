@@ -167,6 +167,21 @@ public class CapabilitiesTest extends WMSTestSupport {
                 .getLength());
     }
 
+    @Test
+    public void testLayersSortedByName() throws Exception {
+        Document dom = dom(get("wms?request=getCapabilities&version=1.1.1&namespace=cite"), true);
+        XpathEngine xpath = XMLUnit.newXpathEngine();
+        NodeList names = xpath.getMatchingNodes(
+                "/WMT_MS_Capabilities/Capability/Layer/Layer/Name", dom);
+        assertTrue(names.getLength() > 1);
+        for (int i = 1; i < names.getLength(); i++) {
+            String previous = names.item(i - 1).getTextContent();
+            String current = names.item(i).getTextContent();
+            assertTrue(previous + " should come before " + current,
+                    previous.compareTo(current) < 0);
+        }
+    }
+
     @Test
     public void testLayerCount() throws Exception {
         Document dom = dom(get("wms?request=getCapabilities&version=1.1.1"), true);
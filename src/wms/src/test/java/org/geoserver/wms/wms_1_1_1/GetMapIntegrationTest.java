@@ -468,6 +468,28 @@ public class GetMapIntegrationTest extends WMSTestSupport {
         assertEquals(Transparency.TRANSLUCENT , cm.getTransparency());
     }
 
+    @Test
+    public void testWebP() throws Exception {
+        for (String format : new String[] { "image/webp", "image/webp8" }) {
+            MockHttpServletResponse response = getAsServletResponse("wms?bbox=" + bbox
+                    + "&styles=&layers=" + layers + "&Format=" + format + "&request=GetMap"
+                    + "&width=550" + "&height=250" + "&srs=EPSG:4326&transparent=true");
+            assertEquals("image/webp", response.getContentType());
+            assertEquals("inline; filename=sf-states.webp",
+                    response.getHeader("Content-Disposition"));
+
+            byte[] webp = response.getContentAsByteArray();
+            assertEquals("RIFF", new String(webp, 0, 4, "US-ASCII"));
+            assertEquals("WEBPVP8L", new String(webp, 8, 8, "US-ASCII"));
+            // 14 bits for the width and the height, then the alpha flag
+            int bits = (webp[21] & 0xFF) | (webp[22] & 0xFF) << 8 | (webp[23] & 0xFF) << 16
+                    | (webp[24] & 0xFF) << 24;
+            assertEquals(550, (bits & 0x3FFF) + 1);
+            assertEquals(250, ((bits >> 14) & 0x3FFF) + 1);
+            assertEquals(1, (bits >> 28) & 1);
+        }
+    }
+
     
     @Test 
     public void testDefaultContentDisposition() throws Exception {